@@ -1,8 +1,14 @@
 package eu.dissco.digitisers;
 
 import com.google.common.io.Resources;
+import eu.dissco.digitisers.processors.DigitalSpecimenDeduplicator;
+import eu.dissco.digitisers.processors.DigitalSpecimenEnrichmentBackfill;
+import eu.dissco.digitisers.processors.FingerprintStore;
+import eu.dissco.digitisers.processors.InstitutionRegionResolver;
 import eu.dissco.digitisers.utils.EmailUtils;
 import eu.dissco.digitisers.utils.FileUtils;
+import eu.dissco.digitisers.utils.HostRateLimiter;
+import eu.dissco.digitisers.utils.HttpTransport;
 import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.ex.ConfigurationException;
 import org.slf4j.Logger;
@@ -10,6 +16,7 @@ import org.slf4j.LoggerFactory;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 public abstract class Digitiser {
 
@@ -48,6 +55,8 @@ public abstract class Digitiser {
      */
     public Digitiser(String configFilePath) throws ConfigurationException {
         this.config = FileUtils.loadConfigurationFromFilePath(configFilePath);
+        HostRateLimiter.getInstance().configure(this.config);
+        HttpTransport.getInstance().configure(this.config);
     }
 
 
@@ -71,15 +80,55 @@ public abstract class Digitiser {
      * Digitise digital specimens from the datasource passed as argument, sending the result of the operation by
      * email to the list of addresses defined in the configuration file.
      * Note: The process, will not stop if a digital specimen fails to be read or processed, it will noted downed in
-     * the log file, but it will try to carry on processing the next digital specimen
+     * the log file, but it will try to carry on processing the next digital specimen.
+     * Besides the arguments of the specific digitiser, it accepts --full to digitise also the digital specimens that
+     * haven't changed since they were last digitised, and --compact to compact the fingerprint store (removing the
+     * records not seen in digitiser.fingerprintsMaxAgeDays) instead of digitising.
+     * For a two-phase ingest, it accepts --deferEnrichment to save the digital specimens without enriching them
+     * (marked as pending enrichment), and --backfill to enrich the digital specimens in the repository pending
+     * enrichment or under-enriched (or the ones matching digitiser.backfillQuery) instead of digitising
      * @param args
      * @return List of digital specimen processed as result of digitisation
      */
     public void digitise(List<String> args) {
+        FingerprintStore fingerprintStore = FingerprintStore.getInstance(this.getConfig().getString("digitiser.fingerprintsFile",""));
+        if (args.remove("--compact")){
+            //Compact the fingerprint store instead of digitising
+            int maxAgeDays = this.getConfig().getInt("digitiser.fingerprintsMaxAgeDays",30);
+            fingerprintStore.compact(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(Math.max(maxAgeDays,1)));
+            fingerprintStore.close();
+            return;
+        }
+        if (args.remove("--backfill")){
+            //Enrich the digital specimens already in the repository instead of digitising
+            try{
+                DigitalSpecimenEnrichmentBackfill backfill = new DigitalSpecimenEnrichmentBackfill(this.getConfig());
+                int numUpdated = backfill.backfill(this.getConfig().getString("digitiser.backfillQuery",""));
+                this.getLogger().info("Enrichment backfill completed. " + numUpdated + " digital specimen(s) updated");
+            } catch (Exception e){
+                this.getLogger().error("Error in the enrichment backfill " + e.getMessage());
+            }
+            return;
+        }
+        if (args.remove("--deferEnrichment")){
+            //Save the digital specimens without enriching them, to be enriched later with --backfill
+            this.getConfig().setProperty("digitiser.deferEnrichment",true);
+        }
+        if (args.remove("--full")){
+            //Digitise all the digital specimens, even the ones unchanged since they were last digitised
+            this.getConfig().setProperty("digitiser.fullDigitisation",true);
+        }
+
+        //Digital specimens duplicated are detected within each digitisation
+        DigitalSpecimenDeduplicator.getInstance().clear();
+
         //Digitise digital specimens from  a data source (it could be a dwc-a file, a gbif download request, etc)
         LocalDateTime digitisationStartDateTime = LocalDateTime.now();
         this.digitiseDigitalSpecimensData(args);
         this.getLogger().info("Digitisation completed.");
+        HttpTransport.getInstance().logMetrics();
+        InstitutionRegionResolver.getInstance(this.getConfig().getString("digitiser.institutionRegionsFile","")).saveRegionsToFile();
+        fingerprintStore.close();
         LocalDateTime digitisationEndDateTime= LocalDateTime.now();
 
         List<String> emailAddresses = this.getConfig().getList(String.class,"digitiser.sendDigitisationResultsByEmailTo");
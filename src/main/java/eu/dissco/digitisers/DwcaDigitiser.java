@@ -2,16 +2,24 @@ package eu.dissco.digitisers;
 
 import eu.dissco.digitisers.clients.digitalObjectRepository.DigitalObjectRepositoryException;
 import eu.dissco.digitisers.processors.DigitalObjectProcessor;
+import eu.dissco.digitisers.processors.DigitalSpecimenReconciler;
+import eu.dissco.digitisers.processors.DigitalSpecimenProcessingException;
+import eu.dissco.digitisers.readers.DwcaCheckpoint;
 import eu.dissco.digitisers.readers.DwcaReader;
+import eu.dissco.digitisers.readers.DwcaSnapshotDiff;
+import eu.dissco.digitisers.readers.DwcaStreamReader;
 import eu.dissco.digitisers.processors.DigitalObjectVisitor;
 import eu.dissco.digitisers.utils.*;
 import org.apache.commons.cli.*;
 import org.apache.commons.configuration2.ex.ConfigurationException;
 
 import java.io.File;
+import java.io.InputStream;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public class DwcaDigitiser extends Digitiser {
 
@@ -64,6 +72,31 @@ public class DwcaDigitiser extends Digitiser {
     }
 
 
+    /**
+     * Digitise the records added or changed in the dwca file passed as parameter since a previous snapshot of the
+     * same dataset
+     * @param previousDwcaFilePath path of the dwca file of the previous snapshot
+     * @param dwcaFilePath path of the dwca file to be digitised
+     * @throws DigitalObjectRepositoryException
+     */
+    public void digitiseDigitalSpecimensFromDwcaFileSince(String previousDwcaFilePath, String dwcaFilePath) throws DigitalObjectRepositoryException {
+        List<String> commandLineArgs = new ArrayList<String>(Arrays.asList("--since", previousDwcaFilePath, dwcaFilePath));
+        this.digitise(commandLineArgs);
+    }
+
+
+    /**
+     * Reconcile the digital specimens in the repository with the dwca file passed as parameter, reporting the ones
+     * whose records are no longer in the dwca file
+     * @param dwcaFilePath path of the current dwca file of the dataset
+     * @throws DigitalObjectRepositoryException
+     */
+    public void reconcileDigitalSpecimensWithDwcaFile(String dwcaFilePath) throws DigitalObjectRepositoryException {
+        List<String> commandLineArgs = new ArrayList<String>(Arrays.asList("-r", dwcaFilePath));
+        this.digitise(commandLineArgs);
+    }
+
+
     /*********************/
     /* PROTECTED METHODS */
     /*********************/
@@ -79,6 +112,13 @@ public class DwcaDigitiser extends Digitiser {
      *  -f dwca input file path to process
      *  -d directory path of dwca files to process
      *  -u url of dwca file to process
+     *  -s previous.zip new.zip dwca file of a previous snapshot of the dataset, to process only the records added or
+     *  changed in the new dwca file (passed as argument or with -f)
+     *  -r dwca file to reconcile the digital specimens of its dataset in the repository with (instead of digitising),
+     *  reporting the ones whose records are not in the dwca file. It accepts -q with the query of the digital specimens
+     *  of the dataset (by default, the ones of the institution codes of the dwca file) and -a with the action to be
+     *  performed on them (report, delete or tombstone). Delete and tombstone require -q, as the institutions of the
+     *  dwca file may have digital specimens from other datasets
      */
     @Override
     protected void digitiseDigitalSpecimensData(List<String> args) {
@@ -95,17 +135,61 @@ public class DwcaDigitiser extends Digitiser {
         urlParameter.setRequired(false);
         options.addOption(urlParameter);
 
+        Option sinceParameter = new Option("s", "since", true, "dwca file of a previous snapshot of the dataset, to process only the records added or changed since it");
+        sinceParameter.setRequired(false);
+        options.addOption(sinceParameter);
+
+        Option reconcileParameter = new Option("r", "reconcile", true, "dwca file to reconcile the digital specimens of its dataset in the repository with");
+        reconcileParameter.setRequired(false);
+        options.addOption(reconcileParameter);
+
+        Option queryParameter = new Option("q", "query", true, "query of the digital specimens of the dataset in the repository to reconcile");
+        queryParameter.setRequired(false);
+        options.addOption(queryParameter);
+
+        Option actionParameter = new Option("a", "action", true, "action to be performed on the digital specimens not found in the dataset (report, delete, tombstone)");
+        actionParameter.setRequired(false);
+        options.addOption(actionParameter);
+
         List<File> dwcaFiles = new ArrayList<File>();
+        String dwcaStreamUrl = null;
+        File previousDwcaFile = null;
         try {
             CommandLineParser parser = new DefaultParser();
             CommandLine commandLine = parser.parse(options, args.toArray(new String[args.size()]));
-            if (!commandLine.hasOption("f") &&  !commandLine.hasOption("d") &&  !commandLine.hasOption("u")){
+            if (commandLine.hasOption("r")){
+                //Reconcile the repository with the dwca file instead of digitising
+                DigitalSpecimenReconciler.RECONCILIATION_ACTION action;
+                try{
+                    action = DigitalSpecimenReconciler.RECONCILIATION_ACTION.valueOf(commandLine.getOptionValue("action","report").toUpperCase());
+                } catch (IllegalArgumentException e){
+                    throw new ParseException("Please specified a valid action: report, delete or tombstone");
+                }
+                if (action!=DigitalSpecimenReconciler.RECONCILIATION_ACTION.REPORT && !commandLine.hasOption("q")){
+                    throw new ParseException("Please specified the query of the digital specimens of the dataset (-q) to " + action.name().toLowerCase() + " them");
+                }
+                File dwcaFile = this.getDwcaFileFromFilePath(commandLine.getOptionValue("reconcile"));
+                try{
+                    new DigitalSpecimenReconciler(this.getConfig()).reconcile(dwcaFile,commandLine.getOptionValue("query"),action);
+                } catch (Exception e){
+                    this.getLogger().error("Unexpected error reconciling the repository with " + dwcaFile.getName() + " " + e.getMessage());
+                }
+                return;
+            } else if (!commandLine.hasOption("f") &&  !commandLine.hasOption("d") &&  !commandLine.hasOption("u") &&  !commandLine.hasOption("s")){
                 throw new ParseException("Please specified the path of the dwca file (-f) or its http(s) url, or the directory with dwca files (-d) to process ");
-            } else if (commandLine.getOptions().length!=1){
+            } else if (!commandLine.hasOption("s") && commandLine.getOptions().length!=1){
                 throw new ParseException("Please specified ONLY one option at a time: file, url or directory");
             }
 
-            if (commandLine.hasOption("f")) {
+            if (commandLine.hasOption("s")){
+                String dwcaFilePath = commandLine.hasOption("f") ? commandLine.getOptionValue("file") :
+                        (commandLine.getArgs().length==1 ? commandLine.getArgs()[0] : null);
+                if (dwcaFilePath==null || commandLine.hasOption("d") || commandLine.hasOption("u")){
+                    throw new ParseException("Please specified the path of the previous dwca file and of the new one (--since previous.zip new.zip)");
+                }
+                previousDwcaFile = this.getDwcaFileFromFilePath(commandLine.getOptionValue("since"));
+                dwcaFiles.add(this.getDwcaFileFromFilePath(dwcaFilePath));
+            } else if (commandLine.hasOption("f")) {
                 File dwcaFile = this.getDwcaFileFromFilePath(commandLine.getOptionValue("file"));
                 dwcaFiles.add(dwcaFile);
             } else if (commandLine.hasOption("d")){
@@ -114,8 +198,12 @@ public class DwcaDigitiser extends Digitiser {
                     dwcaFiles.add(dwcaFile);
                 }
             } else if (commandLine.hasOption("u")){
-                File dwcaFile = this.getDwcaFileFromUrl(commandLine.getOptionValue("url"));
-                dwcaFiles.add(dwcaFile);
+                if (this.getConfig().getBoolean("digitiser.streamingIngest",false)){
+                    dwcaStreamUrl = commandLine.getOptionValue("url");
+                } else{
+                    File dwcaFile = this.getDwcaFileFromUrl(commandLine.getOptionValue("url"));
+                    dwcaFiles.add(dwcaFile);
+                }
             }
         } catch (ParseException e) {
             this.getLogger().error(e.getMessage());
@@ -123,8 +211,25 @@ public class DwcaDigitiser extends Digitiser {
             formatter.printHelp("discoDigitiser", options);
         }
 
-        //Digitise digital specimens from dwca files
-        this.digitiseDigitalSpecimensFromDwcaFiles(dwcaFiles);
+        if (previousDwcaFile!=null){
+            //Digitise only the digital specimens added or changed since the previous dwca file
+            try{
+                this.digitiseDigitalSpecimensFromDwcaFileSince(previousDwcaFile,dwcaFiles.get(0));
+            } catch (Exception e){
+                this.getLogger().error("Unexpected error digitising the changes of " + dwcaFiles.get(0).getName() + " since " + previousDwcaFile.getName() + " " + e.getMessage());
+            }
+        } else if (dwcaStreamUrl!=null){
+            //Digitise digital specimens from the dwca file while it is being downloaded
+            final String sDwcaURL = dwcaStreamUrl;
+            try{
+                this.digitiseDigitalSpecimensFromDwcaStream(sDwcaURL, streamConsumer -> NetUtils.downloadFile(sDwcaURL,null,streamConsumer));
+            } catch (Exception e){
+                this.getLogger().error("Fail to download dwca file from URL " + sDwcaURL + " " + e.getMessage());
+            }
+        } else{
+            //Digitise digital specimens from dwca files
+            this.digitiseDigitalSpecimensFromDwcaFiles(dwcaFiles);
+        }
     }
 
     /**
@@ -142,6 +247,119 @@ public class DwcaDigitiser extends Digitiser {
         }
     }
 
+    /**
+     * Function that digitises the digital specimens of a dwca file while it is being downloaded (streaming ingest).
+     * The rows of the core file are parsed as the bytes of the archive arrive, and the digital specimens are processed
+     * in parallel by digitiser.maxNumberOfThreads threads. When all the threads are busy and their queue is full, the
+     * digital specimen is processed by the thread reading the stream, which slows down the download instead of reading
+     * ahead without limit. The records that may have multimedia after the core file (as in GBIF downloads) are held
+     * back by the reader and processed once their multimedia has been read. The archive is also spooled into a file,
+     * which is used to read again the records not held back whose multimedia came after the core file, and to digitise
+     * the archive as a file when it wasn't streamed (eg. when the download was already available locally) or when its
+     * core file couldn't be read from the stream
+     * @param dwcaName name of the dwca file (used in the log)
+     * @param dwcaStreamDownload download of the dwca file
+     * @return dwca file where the archive has been spooled
+     * @throws Exception
+     */
+    protected File digitiseDigitalSpecimensFromDwcaStream(String dwcaName, DwcaStreamDownload dwcaStreamDownload) throws Exception {
+        DigitalObjectVisitor digitalObjectProcessor = new DigitalObjectProcessor(this.getConfig());
+        DwcaStreamReader dwcaStreamReader = new DwcaStreamReader();
+        AtomicBoolean streamed = new AtomicBoolean(false);
+        ThreadPoolExecutor executorService = this.createPipelineExecutor();
+        File dwcaFile;
+        try{
+            dwcaFile = dwcaStreamDownload.download(inputStream -> {
+                streamed.set(true);
+                dwcaStreamReader.readDigitalSpecimensFromDwcaStream(inputStream, dwcaName, this.getPipelineVisitor(executorService,digitalObjectProcessor));
+            });
+        } finally {
+            this.awaitPipelineExecutor(executorService,"readDigitalSpecimensFromDwcaStream");
+        }
+
+        if (!streamed.get() || !dwcaStreamReader.isCoreRead()){
+            if (streamed.get()){
+                this.getLogger().warn("The core file of " + dwcaName + " couldn't be read from the stream. Reading it from " + dwcaFile.getAbsolutePath());
+            }
+            List<File> dwcaFiles = new ArrayList<File>();
+            dwcaFiles.add(dwcaFile);
+            this.digitiseDigitalSpecimensFromDwcaFiles(dwcaFiles);
+        } else if (!dwcaStreamReader.getCoreIdsWithLateMultimedia().isEmpty()){
+            //The records with unexpected multimedia are read again from the spooled file, once all the streamed records
+            //have been processed, so the same record is never processed at the same time by two threads
+            this.getLogger().info("Reading again " + dwcaStreamReader.getCoreIdsWithLateMultimedia().size() + " record(s) with multimedia from " + dwcaFile.getAbsolutePath());
+            ThreadPoolExecutor lateExecutorService = this.createPipelineExecutor();
+            try{
+                new DwcaReader().readDigitalSpecimensFromDwcaFile(dwcaFile, this.getPipelineVisitor(lateExecutorService,digitalObjectProcessor),
+                        dwcaStreamReader.getCoreIdsWithLateMultimedia()::contains);
+            } finally {
+                this.awaitPipelineExecutor(lateExecutorService,"readDigitalSpecimensFromDwcaFile");
+            }
+        }
+        return dwcaFile;
+    }
+
+    /**
+     * Function that digitises the digital specimens added or changed in a dwca file since a previous snapshot of the
+     * same dataset. The records removed are only reported in the log. The records to be digitised are read from the
+     * new dwca file and processed in parallel by digitiser.maxNumberOfThreads threads
+     * @param previousDwcaFile dwca file of the previous snapshot
+     * @param dwcaFile dwca file of the new snapshot
+     * @throws Exception
+     */
+    protected void digitiseDigitalSpecimensFromDwcaFileSince(File previousDwcaFile, File dwcaFile) throws Exception {
+        DwcaSnapshotDiff dwcaSnapshotDiff = new DwcaSnapshotDiff();
+        dwcaSnapshotDiff.compute(previousDwcaFile,dwcaFile);
+        if (dwcaSnapshotDiff.getAddedOrChangedCoreIds().isEmpty()){
+            return;
+        }
+        DigitalObjectVisitor digitalObjectProcessor = new DigitalObjectProcessor(this.getConfig());
+        ThreadPoolExecutor executorService = this.createPipelineExecutor();
+        try{
+            new DwcaReader().readDigitalSpecimensFromDwcaFile(dwcaFile, this.getPipelineVisitor(executorService,digitalObjectProcessor),
+                    dwcaSnapshotDiff.getAddedOrChangedCoreIds()::contains);
+        } finally {
+            this.awaitPipelineExecutor(executorService,"readDigitalSpecimensFromDwcaFile");
+        }
+    }
+
+    /**
+     * Function that runs the tasks passed as parameter in parallel, using as many threads as configured in
+     * digitiser.maxNumberOfThreads, and waits until all of them finish
+     * @param taskList tasks to be run
+     * @param tasksName name of the tasks (used in the log)
+     * @throws InterruptedException
+     */
+    protected void runTasksInParallel(List<Callable<Void>> taskList, String tasksName) throws InterruptedException {
+        if (taskList.isEmpty()){
+            return;
+        }
+
+        //Create executor service
+        //ExecutorService executorService = Executors.newCachedThreadPool();
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(this.getConfig().getInt("digitiser.maxNumberOfThreads"),taskList.size()));
+
+        //Submit all tasks to executorService
+        List<Future<Void>> futures = executorService.invokeAll(taskList);
+
+        //Get the results from the tasks
+        for(Future<Void> future: futures) {
+            try{
+                future.get();
+            } catch (Exception e) {
+                // interrupts if there is any possible error
+                future.cancel(true);
+            }
+        }
+
+        //Wait until all threads finished
+        executorService.shutdown();
+        boolean finished = executorService.awaitTermination(6,TimeUnit.HOURS);
+        if (!finished){
+            this.getLogger().warn("Some of the " + tasksName + " tasks didn't finished on time");
+        }
+    }
+
 
     /*******************/
     /* PRIVATE METHODS */
@@ -171,10 +389,22 @@ public class DwcaDigitiser extends Digitiser {
      * Function that digitise the list of manageable dwca files.
      * Note: By using the visitor design pattern, as soon as a digital specimen is read from a dwca file,
      * it uses the visitor to process it.
+     * When digitiser.checkpointDirectory is set, each file keeps a checkpoint of its processed rows, so if the
+     * execution is interrupted the next execution resumes the files from their checkpoints. The checkpoints are
+     * deleted once all the files have been completely processed
      * @param manageableDwcaFiles
      * @throws InterruptedException
      */
     private void digitiseManageableFiles(List<File> manageableDwcaFiles) throws InterruptedException {
+        String checkpointDirectoryPath = this.getConfig().getString("digitiser.checkpointDirectory","");
+        File checkpointDirectory = null;
+        if (!checkpointDirectoryPath.isEmpty()){
+            checkpointDirectory = new File(checkpointDirectoryPath);
+            checkpointDirectory.mkdirs();
+        }
+        final File fCheckpointDirectory = checkpointDirectory;
+        List<DwcaCheckpoint> checkpoints = Collections.synchronizedList(new ArrayList<DwcaCheckpoint>());
+
         //We process each dwc-a as a task that can run in parallel with other
         List<Callable<Void>> taskList = new ArrayList<>();
         for (File dwcaFile:manageableDwcaFiles) {
@@ -182,35 +412,68 @@ public class DwcaDigitiser extends Digitiser {
                 // Create visitor to be used to process the digital specimens as soon as they are read
                 DigitalObjectVisitor digitalObjectVisitor = new DigitalObjectProcessor(this.getConfig());
                 DwcaReader dwcaReader = new DwcaReader();
+                dwcaReader.setCheckpointDirectory(fCheckpointDirectory);
+                dwcaReader.setCheckpointFlushSeconds(this.getConfig().getInt("digitiser.checkpointFlushSeconds",5));
                 //Read data inside the dwca file
                 dwcaReader.readDigitalSpecimensFromDwcaFile(dwcaFile,digitalObjectVisitor);
+                if (dwcaReader.getCheckpoint()!=null) checkpoints.add(dwcaReader.getCheckpoint());
                 return null;
             };
             taskList.add(task);
         }
+        this.runTasksInParallel(taskList,"readDigitalSpecimensFromDwcaFile");
 
-        //Create executor service
-        //ExecutorService executorService = Executors.newCachedThreadPool();
-        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(this.getConfig().getInt("digitiser.maxNumberOfThreads"),taskList.size()));
-
-        //Submit all tasks to executorService
-        List<Future<Void>> futures = executorService.invokeAll(taskList);
-
-        //Get the results from the tasks (number of digital specimens read in each file)
-        for(Future<Void> future: futures) {
-            try{
-                future.get();
-            } catch (Exception e) {
-                // interrupts if there is any possible error
-                future.cancel(true);
+        if (fCheckpointDirectory!=null){
+            if (checkpoints.size()==manageableDwcaFiles.size() && checkpoints.stream().allMatch(DwcaCheckpoint::isCompleted)){
+                checkpoints.forEach(DwcaCheckpoint::delete);
+            } else{
+                this.getLogger().warn("Some dwca files weren't completely processed. Their checkpoints are kept in " + fCheckpointDirectory.getAbsolutePath() + " to resume them in the next execution");
             }
         }
+    }
 
-        //Wait until all threads finished
+    /**
+     * Function that creates the executor used to process in parallel the digital specimens read from a stream, with
+     * as many threads as configured in digitiser.maxNumberOfThreads and a bounded queue
+     * @return executor of the pipeline
+     */
+    private ThreadPoolExecutor createPipelineExecutor(){
+        int numThreads = this.getConfig().getInt("digitiser.maxNumberOfThreads");
+        return new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(numThreads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Function that gets the visitor that hands the digital specimens to the executor of the pipeline, so they are
+     * processed by the digital object processor in parallel while the reader carries on reading
+     * @param executorService executor of the pipeline
+     * @param digitalObjectProcessor visitor used to process the digital specimens
+     * @return visitor of the pipeline
+     */
+    private DigitalObjectVisitor getPipelineVisitor(ThreadPoolExecutor executorService, DigitalObjectVisitor digitalObjectProcessor){
+        return ds -> {
+            executorService.execute(() -> {
+                try{
+                    digitalObjectProcessor.visitDigitalSpecimen(ds);
+                } catch (DigitalSpecimenProcessingException e){
+                    //The error has already been logged by the processor
+                }
+            });
+            return null;
+        };
+    }
+
+    /**
+     * Function that waits until all the digital specimens handed to the executor of the pipeline have been processed
+     * @param executorService executor of the pipeline
+     * @param tasksName name of the tasks (used in the log)
+     * @throws InterruptedException
+     */
+    private void awaitPipelineExecutor(ThreadPoolExecutor executorService, String tasksName) throws InterruptedException {
         executorService.shutdown();
         boolean finished = executorService.awaitTermination(6,TimeUnit.HOURS);
         if (!finished){
-            this.getLogger().warn("Some of the readDigitalSpecimensFromDwcaFile tasks didn't finished on time");
+            this.getLogger().warn("Some of the " + tasksName + " tasks didn't finished on time");
         }
     }
 
@@ -257,4 +520,18 @@ public class DwcaDigitiser extends Digitiser {
         File[] files = directory.listFiles((d, name) -> name.endsWith(".zip"));
         return new ArrayList<>(Arrays.asList(files));
     }
+
+
+    /*****************/
+    /* INNER CLASSES */
+    /*****************/
+
+    /**
+     * Download of a dwca file that passes the content of the file to the stream consumer as it arrives, and returns the
+     * file where the content has been spooled
+     */
+    @FunctionalInterface
+    protected interface DwcaStreamDownload {
+        File download(Consumer<InputStream> streamConsumer) throws Exception;
+    }
 }
@@ -1,16 +1,37 @@
 package eu.dissco.digitisers;
 
+import com.google.common.collect.Lists;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import eu.dissco.digitisers.clients.gbif.*;
+import eu.dissco.digitisers.processors.DigitalObjectProcessor;
+import eu.dissco.digitisers.processors.DigitalObjectVisitor;
+import eu.dissco.digitisers.readers.GbifOccurrenceReader;
 import org.apache.commons.cli.*;
 import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.commons.lang3.StringUtils;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class GbifDigitiser extends DwcaDigitiser{
 
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final static int occurrenceSearchPageSize = 300; //Max number of occurrences returned by GBIF occurrence search in a page
+    private final static int maxOccurrenceSearchOffset = 100000; //GBIF occurrence search can't page beyond this offset
+    private final static int gbifDownloadMaxTaxa = 1000; //Max number of taxon keys in the predicate of a download request
+
+
     /****************/
     /* CONSTRUCTORS */
     /****************/
@@ -41,6 +62,19 @@ public class GbifDigitiser extends DwcaDigitiser{
         this.digitise(commandLineArgs);
     }
 
+    /**
+     * Digitise specimens for all the taxa (canonical name and kingdom) listed in the batch file passed as parameter.
+     * This function will download Specimens (preserved, living and fossil) of all the taxa from GBIF occurrence service
+     * as dwca file, using a single download request (or one request per chunk of taxa when there are many of them),
+     * and then processes it
+     * @param batchFilePath path of the file with a taxon per line, as canonical name and kingdom separated by tab,
+     *                      semicolon or comma
+     */
+    public void digitiseDigitalSpecimensFromBatchFile(String batchFilePath) {
+        List<String> commandLineArgs = new ArrayList<String>(Arrays.asList("-b", batchFilePath));
+        this.digitise(commandLineArgs);
+    }
+
 
     /*********************/
     /* PROTECTED METHODS */
@@ -52,26 +86,42 @@ public class GbifDigitiser extends DwcaDigitiser{
      * @param args
      *  -n name canonical name of the species to obtain its specimens
      *  -k kingdom name of the kingdom to unequivocally identify the taxon concept for which to obtain its specimens
+     *  -b batchFile file with several taxa (canonical name and kingdom per line) to obtain their specimens at once
      */
     @Override
     protected void digitiseDigitalSpecimensData(List<String> args) {
         Options options = new Options();
         Option scientificNameParameter = new Option("n", "name", true, "canonical scientific name");
-        scientificNameParameter.setRequired(true);
+        scientificNameParameter.setRequired(false);
         options.addOption(scientificNameParameter);
 
         Option kingdomNameParameter = new Option("k", "kingdom", true, "kingdom");
-        kingdomNameParameter.setRequired(true);
+        kingdomNameParameter.setRequired(false);
         options.addOption(kingdomNameParameter);
 
+        Option batchFileParameter = new Option("b", "batchFile", true, "file with a canonical scientific name and kingdom per line");
+        batchFileParameter.setRequired(false);
+        options.addOption(batchFileParameter);
+
         try {
             CommandLineParser parser = new DefaultParser();
             CommandLine commandLine = parser.parse(options, args.toArray(new String[args.size()]));
 
-            String canonicalName = commandLine.getOptionValue("name");
-            String kingdom = commandLine.getOptionValue("kingdom");
+            if (commandLine.hasOption("b")){
+                if (commandLine.hasOption("n") || commandLine.hasOption("k")){
+                    throw new ParseException("Please specified either the canonical name (-n) and kingdom (-k) or the batch file (-b)");
+                }
+                List<String[]> taxa = this.getTaxaFromBatchFile(commandLine.getOptionValue("batchFile"));
+                this.readDigitalSpecimensFromGbifOccurrenceDownloadRequest(taxa);
+            } else{
+                if (!commandLine.hasOption("n") || !commandLine.hasOption("k")){
+                    throw new ParseException("Please specified the canonical name (-n) and kingdom (-k) of the taxon, or the batch file (-b)");
+                }
+                String canonicalName = commandLine.getOptionValue("name");
+                String kingdom = commandLine.getOptionValue("kingdom");
 
-            this.readDigitalSpecimensFromGbifOccurrenceDownloadRequest(canonicalName,kingdom);
+                this.readDigitalSpecimensFromGbifOccurrenceDownloadRequest(canonicalName,kingdom);
+            }
         } catch (ParseException e) {
             this.getLogger().error(e.getMessage());
             HelpFormatter formatter = new HelpFormatter();
@@ -82,8 +132,11 @@ public class GbifDigitiser extends DwcaDigitiser{
     }
 
     /**
-     * Function download from gbif all specimens (preserved, living and fossil) as dwca file for the canonical name and
-     * kingdom name passed as parameter. Once the dwca file is download it process it
+     * Function that gets from gbif all specimens (preserved, living and fossil) for the canonical name and kingdom name
+     * passed as parameter and process them.
+     * When the number of specimens is below the threshold configured in gbif.occurrenceSearchThreshold, they are read
+     * from the occurrence search in parallel pages. Otherwise they are download as dwca file and once the dwca file is
+     * download it process it
      * @param canonicalName canonical name of the species to obtain its specimens
      * @param kingdom name of the kingdom to unequivocally identify the taxon concept for which to obtain its specimens
      * @throws Exception
@@ -91,10 +144,191 @@ public class GbifDigitiser extends DwcaDigitiser{
     protected void readDigitalSpecimensFromGbifOccurrenceDownloadRequest(String canonicalName, String kingdom) throws Exception {
         GbifInfo gbifInfo = GbifInfo.getGbifInfoFromConfig(this.getConfig());
         GbifClient gbifClient = GbifClient.getInstance(gbifInfo);
-        File dwcaFile = gbifClient.downloadOccurrencesByCanonicalNameAndKingdom(canonicalName,kingdom);
+        String taxonId = gbifClient.getTaxonIdByCanonicalNameAndKingdom(canonicalName,kingdom);
+        if (taxonId==null){
+            throw new Exception("Taxon concept " + canonicalName + " (" + kingdom + ") can't be found in GBIF");
+        }
+
+        JsonObject predicate = gbifClient.getOccurrenceDownloadQueryByTaxonId(taxonId).getAsJsonObject("predicate");
+        int occurrencesCount = -1;
+        try{
+            occurrencesCount = gbifClient.getOccurrencesCount(predicate);
+        } catch (Exception e){
+            this.getLogger().warn("Number of specimens of taxon " + taxonId + " couldn't be obtained. They will be downloaded " + e.getMessage());
+        }
+
+        int occurrenceSearchThreshold = Math.min(this.getConfig().getInt("gbif.occurrenceSearchThreshold",5000),maxOccurrenceSearchOffset);
+        if (occurrencesCount>=0 && occurrencesCount<=occurrenceSearchThreshold){
+            this.getLogger().info("Reading " + occurrencesCount + " specimens of taxon " + taxonId + " from GBIF occurrence search");
+            this.digitiseDigitalSpecimensFromGbifOccurrenceSearch(gbifClient,predicate,occurrencesCount);
+        } else{
+            this.getLogger().info("Downloading specimens of taxon " + taxonId + " from GBIF");
+            if (this.getConfig().getBoolean("digitiser.streamingIngest",false)){
+                String downloadKey = gbifClient.requestOccurrencesDownload(gbifClient.getOccurrenceDownloadQueryByTaxonId(taxonId));
+                this.digitiseDigitalSpecimensFromDwcaStream(downloadKey, streamConsumer -> gbifClient.getOccurrencesDownload(downloadKey,streamConsumer));
+            } else{
+                File dwcaFile = gbifClient.downloadOccurrencesByTaxonId(taxonId);
+                List<File> dwcaFiles = new ArrayList<File>();
+                dwcaFiles.add(dwcaFile);
+                this.digitiseDigitalSpecimensFromDwcaFiles(dwcaFiles);
+            }
+        }
+    }
+
+    /**
+     * Function download from gbif all specimens (preserved, living and fossil) as dwca file for all the taxa passed as
+     * parameter. The taxon concepts are resolved concurrently (only once for each taxon) and their specimens are
+     * requested in a single download, or in one download per chunk of gbifDownloadMaxTaxa taxa.
+     * Up to gbif.maxPendingDownloads downloads are requested at the same time, so GBIF prepares them in parallel, and
+     * the next chunk is only requested once the oldest pending download has been downloaded.
+     * Once the dwca files are download it process them
+     * @param taxa list of taxa, each of them as an array with its canonical name and kingdom
+     * @throws Exception
+     */
+    protected void readDigitalSpecimensFromGbifOccurrenceDownloadRequest(List<String[]> taxa) throws Exception {
+        GbifInfo gbifInfo = GbifInfo.getGbifInfoFromConfig(this.getConfig());
+        GbifClient gbifClient = GbifClient.getInstance(gbifInfo);
+
+        //Resolve the taxon concepts concurrently, only once per canonical name and kingdom
+        Map<String,String[]> uniqueTaxa = new LinkedHashMap<String,String[]>();
+        for (String[] taxon : taxa) {
+            uniqueTaxa.putIfAbsent(taxon[0]+"#"+taxon[1],taxon);
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1,Math.min(this.getConfig().getInt("digitiser.maxNumberOfThreads"),uniqueTaxa.size())));
+        Map<String,CompletableFuture<String>> futureTaxonIds = new LinkedHashMap<String,CompletableFuture<String>>();
+        for (Map.Entry<String,String[]> taxon : uniqueTaxa.entrySet()) {
+            futureTaxonIds.put(taxon.getKey(),CompletableFuture.supplyAsync(() -> {
+                try {
+                    return gbifClient.getTaxonIdByCanonicalNameAndKingdom(taxon.getValue()[0],taxon.getValue()[1]);
+                } catch (Exception e) {
+                    this.getLogger().error("Error resolving taxon " + taxon.getValue()[0] + " (" + taxon.getValue()[1] + ") " + e.getMessage());
+                    return null;
+                }
+            },executorService));
+        }
+        Set<String> taxonIds = new LinkedHashSet<String>();
+        for (Map.Entry<String,CompletableFuture<String>> futureTaxonId : futureTaxonIds.entrySet()) {
+            String taxonId = futureTaxonId.getValue().join();
+            if (taxonId!=null){
+                taxonIds.add(taxonId);
+            } else{
+                this.getLogger().warn("Taxon concept " + futureTaxonId.getKey() + " can't be found in GBIF");
+            }
+        }
+        executorService.shutdown();
+        this.getLogger().info(taxonIds.size() + " taxon concepts resolved from " + taxa.size() + " taxa in the batch");
+
+        //Keep a bounded window of pending downloads, so GBIF prepares several of them at the same time without
+        //exceeding the number of downloads a user can have in progress
+        int maxPendingDownloads = Math.max(1,this.getConfig().getInt("gbif.maxPendingDownloads",3));
+        boolean streamingIngest = this.getConfig().getBoolean("digitiser.streamingIngest",false);
+        Deque<String> pendingDownloadKeys = new ArrayDeque<String>();
         List<File> dwcaFiles = new ArrayList<File>();
-        dwcaFiles.add(dwcaFile);
-        this.digitiseDigitalSpecimensFromDwcaFiles(dwcaFiles);
+        for (List<String> chunk : Lists.partition(new ArrayList<String>(taxonIds), gbifDownloadMaxTaxa)) {
+            if (pendingDownloadKeys.size()>=maxPendingDownloads){
+                this.completeOccurrencesDownload(gbifClient,pendingDownloadKeys.poll(),streamingIngest,dwcaFiles);
+            }
+            pendingDownloadKeys.add(gbifClient.requestOccurrencesDownload(gbifClient.getOccurrenceDownloadQueryByTaxonIds(chunk)));
+        }
+        while (!pendingDownloadKeys.isEmpty()){
+            this.completeOccurrencesDownload(gbifClient,pendingDownloadKeys.poll(),streamingIngest,dwcaFiles);
+        }
+        if (!streamingIngest){
+            this.digitiseDigitalSpecimensFromDwcaFiles(dwcaFiles);
+        }
+    }
+
+    /**
+     * Function that reads from the GBIF occurrence search the specimens that match the predicate and process them.
+     * The occurrences are split in ranges of offsets that are read in parallel, page by page, and each page is
+     * processed as soon as it is read
+     * @param gbifClient client of GBIF
+     * @param predicate predicate of the specimens to read
+     * @param occurrencesCount number of occurrences that match the predicate
+     * @throws InterruptedException
+     */
+    protected void digitiseDigitalSpecimensFromGbifOccurrenceSearch(GbifClient gbifClient, JsonObject predicate, int occurrencesCount) throws InterruptedException {
+        int numPages = (occurrencesCount + occurrenceSearchPageSize - 1) / occurrenceSearchPageSize;
+        int numRanges = Math.max(1,Math.min(this.getConfig().getInt("digitiser.maxNumberOfThreads"),numPages));
+        int pagesPerRange = (numPages + numRanges - 1) / numRanges;
+
+        //We process each range of offsets as a task that can run in parallel with other
+        List<Callable<Void>> taskList = new ArrayList<>();
+        for (int rangeStart = 0; rangeStart < occurrencesCount; rangeStart += pagesPerRange * occurrenceSearchPageSize) {
+            final int start = rangeStart;
+            final int end = Math.min(occurrencesCount, rangeStart + pagesPerRange * occurrenceSearchPageSize);
+            Callable<Void> task = () -> {
+                // Create visitor to be used to process the digital specimens as soon as they are read
+                DigitalObjectVisitor digitalObjectVisitor = new DigitalObjectProcessor(this.getConfig());
+                GbifOccurrenceReader occurrenceReader = new GbifOccurrenceReader();
+                for (int offset = start; offset < end; offset += occurrenceSearchPageSize) {
+                    JsonArray occurrences = gbifClient.searchOccurrences(predicate, offset, Math.min(occurrenceSearchPageSize, end - offset));
+                    if (occurrences==null || occurrences.size()==0){
+                        break;
+                    }
+                    occurrenceReader.readDigitalSpecimensFromOccurrences(occurrences,digitalObjectVisitor);
+                }
+                return null;
+            };
+            taskList.add(task);
+        }
+        this.runTasksInParallel(taskList,"readDigitalSpecimensFromGbifOccurrenceSearch");
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that waits until GBIF has prepared the download passed as parameter and downloads it. When the ingest is
+     * streamed, its specimens are processed as the file arrives. Otherwise, the file is added to the list of files to
+     * be processed
+     * @param gbifClient client of GBIF
+     * @param downloadKey key of the download
+     * @param streamingIngest flag to indicate if the specimens are processed as the file arrives
+     * @param dwcaFiles list of dwca files downloaded, where the file of the download is added when it is not streamed
+     * @throws Exception
+     */
+    private void completeOccurrencesDownload(GbifClient gbifClient, String downloadKey, boolean streamingIngest, List<File> dwcaFiles) throws Exception {
+        if (streamingIngest){
+            this.digitiseDigitalSpecimensFromDwcaStream(downloadKey, streamConsumer -> gbifClient.getOccurrencesDownload(downloadKey,streamConsumer));
+        } else{
+            dwcaFiles.add(gbifClient.getOccurrencesDownload(downloadKey));
+        }
+    }
+
+    /**
+     * Function that reads the taxa listed in a batch file. Each line has the canonical name and the kingdom of a taxon,
+     * separated by tab, semicolon or comma. Empty lines and lines starting with # are ignored
+     * @param batchFilePath path of the batch file
+     * @return list of taxa, each of them as an array with its canonical name and kingdom
+     * @throws ParseException
+     */
+    private List<String[]> getTaxaFromBatchFile(String batchFilePath) throws ParseException {
+        File batchFile = new File(batchFilePath);
+        if (!batchFile.exists()) {
+            throw new ParseException("File " + batchFilePath + " doesn't exits");
+        }
+        List<String[]> taxa = new ArrayList<String[]>();
+        try {
+            int lineNumber = 0;
+            for (String line : Files.readAllLines(batchFile.toPath(), StandardCharsets.UTF_8)) {
+                lineNumber++;
+                if (StringUtils.isBlank(line) || line.trim().startsWith("#")){
+                    continue;
+                }
+                String[] values = line.split("[\\t;,]");
+                if (values.length==2 && StringUtils.isNotBlank(values[0]) && StringUtils.isNotBlank(values[1])){
+                    taxa.add(new String[]{values[0].trim(),values[1].trim()});
+                } else{
+                    this.getLogger().warn("Line " + lineNumber + " of batch file " + batchFilePath + " ignored, as it doesn't have a canonical name and a kingdom");
+                }
+            }
+        } catch (IOException e) {
+            throw new ParseException("File " + batchFilePath + " can't be read " + e.getMessage());
+        }
+        return taxa;
     }
 
 }
@@ -4,9 +4,12 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import eu.dissco.digitisers.utils.*;
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.net.URLEncoder;
 import java.util.Map;
 import java.util.Optional;
@@ -22,6 +25,7 @@ public class CoLClient {
     private static CoLClient instance=null;
     private final String apiUrl ="http://webservice.catalogueoflife.org/col/webservice";
     private Map<String, Optional<JsonObject>> mapTaxonByScientificNameAndKingdom; //Map to improve efficiency of this class, so it doesn't need to call the external APIs when we already got results
+    private CoLIndex colIndex; //Local index of a CoL checklist (when configured)
 
 
     /***********************/
@@ -44,6 +48,10 @@ public class CoLClient {
         this.mapTaxonByScientificNameAndKingdom = mapTaxonByScientificNameAndKingdom;
     }
 
+    protected CoLIndex getColIndex() {
+        return colIndex;
+    }
+
 
     /****************/
     /* CONSTRUCTORS */
@@ -52,8 +60,11 @@ public class CoLClient {
     /**
      * Private constructor to avoid client applications to use constructor as we use the singleton design pattern
      */
-    private CoLClient(){
+    private CoLClient(Configuration config){
         this.mapTaxonByScientificNameAndKingdom = new ConcurrentHashMap<String,Optional<JsonObject>>();
+        if (config!=null && StringUtils.isNotBlank(config.getString("col.indexFile",null))){
+            this.colIndex = this.loadColIndex(new File(config.getString("col.indexFile")), config.getString("col.dwcaFile",null));
+        }
     }
 
 
@@ -66,8 +77,17 @@ public class CoLClient {
      * @return
      */
     public static CoLClient getInstance(){
+        return getInstance(null);
+    }
+
+    /**
+     * Method to get an instance of CoLClient as we use the singleton design pattern
+     * @param config Configuration with the (optional) local CoL index to be used before calling the CoL webservice
+     * @return
+     */
+    public static synchronized CoLClient getInstance(Configuration config){
         if (instance==null){
-            instance = new CoLClient();
+            instance = new CoLClient(config);
         }
         return instance;
     }
@@ -84,12 +104,25 @@ public class CoLClient {
     public JsonObject getTaxonInformation(String canonicalName, String rank, String kingdomName) throws Exception {
         JsonObject taxonInfoObj = null;
 
+        if (this.getColIndex()!=null){
+            //Look it up in the local CoL index first. If not found, the CoL webservice is used
+            taxonInfoObj = this.getColIndex().getTaxonInformation(canonicalName,rank,kingdomName);
+            if (taxonInfoObj!=null) return taxonInfoObj;
+        }
         if (this.getMapTaxonByScientificNameAndKingdom().containsKey(canonicalName + "#" + kingdomName)) {
             taxonInfoObj=this.getMapTaxonByScientificNameAndKingdom().get(canonicalName + "#" + kingdomName).orElse(null);
         } else {
-            String canonicalNameEncoded = URLEncoder.encode(canonicalName, "UTF-8");
-            JsonObject colResponse = (JsonObject) NetUtils.doGetRequestJson(this.getApiUrl() +
-                    "?name=" + canonicalNameEncoded + "&rank=" + rank + "&format=json&response=full");
+            JsonObject colResponse;
+            try{
+                String canonicalNameEncoded = URLEncoder.encode(canonicalName, "UTF-8");
+                colResponse = (JsonObject) NetUtils.doGetRequestJson(this.getApiUrl() +
+                        "?name=" + canonicalNameEncoded + "&rank=" + rank + "&format=json&response=full");
+            } catch (Exception e){
+                this.getLogger().error("Error getting CoL taxon info for canonicalName=" + canonicalName + " and kingdom=" + kingdomName);
+                //Don't remember the failure if it was due to the server throttling our requests
+                if (!HostRateLimiter.isThrottlingError(e)) this.getMapTaxonByScientificNameAndKingdom().put(canonicalName + "#" + kingdomName,Optional.empty());
+                return null;
+            }
 
             if (colResponse != null && colResponse.get("number_of_results_returned").getAsInt() > 0) {
                 JsonArray colResults = colResponse.getAsJsonArray("results");
@@ -111,4 +144,29 @@ public class CoLClient {
         }
         return taxonInfoObj;
     }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that opens the local CoL index stored in the file passed as parameter. If the file doesn't exist yet,
+     * the index is built from the CoL Dwc-A file (when provided)
+     * @param indexFile sqlite file of the CoL index
+     * @param colDwcaFile CoL Dwc-A file used to build the index (optional)
+     * @return local CoL index or null if it couldn't be opened
+     */
+    private CoLIndex loadColIndex(File indexFile, String colDwcaFile){
+        CoLIndex index = null;
+        try{
+            if (!indexFile.exists() && StringUtils.isNotBlank(colDwcaFile)){
+                CoLIndex.build(new File(colDwcaFile),indexFile);
+            }
+            index = new CoLIndex(indexFile);
+        } catch (Exception e){
+            this.getLogger().error("Error loading CoL index " + indexFile.getAbsolutePath() + ". CoL webservice will be used instead " + e.getMessage());
+        }
+        return index;
+    }
 }
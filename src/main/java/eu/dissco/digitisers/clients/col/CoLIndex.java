@@ -0,0 +1,404 @@
+package eu.dissco.digitisers.clients.col;
+
+import com.google.common.io.Files;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import eu.dissco.digitisers.utils.ScientificNameUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.gbif.dwc.Archive;
+import org.gbif.dwc.DwcFiles;
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.record.StarRecord;
+import org.gbif.dwc.terms.DcTerm;
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.GbifTerm;
+import org.gbif.dwc.terms.Term;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Local index of a Catalogue of Life checklist, built from a CoL Dwc-A export and stored in a sqlite file database, so
+ * the lookups done by the CatalogueOfLifeEnricher don't need to call the CoL webservice.
+ * Taxa are stored in the same format returned by the CoL webservice (response=full) and accepted taxa are indexed by
+ * (canonicalName, rank, kingdom). Synonyms are stored with the id of their accepted taxon, and they are added to the
+ * accepted taxon when it is looked up.
+ * Each lookup uses its own sqlite connection, taken from a pool of connections which grows up to the number of threads
+ * looking up taxa at the same time, so the lookups of the enrichment threads are not serialized
+ */
+public class CoLIndex implements Closeable {
+
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final static int BATCH_SIZE = 10000;
+    private final static Term[] CLASSIFICATION_TERMS = {DwcTerm.kingdom, DwcTerm.phylum, DwcTerm.class_, DwcTerm.order, DwcTerm.family, DwcTerm.genus};
+    private final static String[] CLASSIFICATION_RANKS = {"Kingdom", "Phylum", "Class", "Order", "Family", "Genus"};
+    private final File indexFile;
+    private Queue<IndexConnection> idleConnections; //Connections not being used by any lookup
+    private Queue<IndexConnection> connections; //All the connections opened, to close them when the index is closed
+
+
+    /***********************/
+    /* GETTERS AND SETTERS */
+    /***********************/
+
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    protected Queue<IndexConnection> getIdleConnections() {
+        return idleConnections;
+    }
+
+    protected Queue<IndexConnection> getConnections() {
+        return connections;
+    }
+
+
+    /****************/
+    /* CONSTRUCTORS */
+    /****************/
+
+    /**
+     * Open the CoL index stored in the sqlite file passed as parameter
+     * @param indexFile sqlite file with the CoL index
+     * @throws IOException if the index can't be opened
+     */
+    public CoLIndex(File indexFile) throws IOException {
+        this.indexFile = indexFile;
+        if (!indexFile.exists()){
+            throw new FileNotFoundException("There is no CoL index in " + indexFile.getAbsolutePath());
+        }
+        this.idleConnections = new ConcurrentLinkedQueue<IndexConnection>();
+        this.connections = new ConcurrentLinkedQueue<IndexConnection>();
+        try {
+            this.getIdleConnections().add(this.openConnection());
+        } catch (SQLException e) {
+            throw new IOException("CoL index " + indexFile.getAbsolutePath() + " can't be opened " + e.getMessage(), e);
+        }
+        this.getLogger().info("CoL index opened from " + indexFile.getAbsolutePath());
+    }
+
+
+    /******************/
+    /* PUBLIC METHODS */
+    /******************/
+
+    /**
+     * Function that builds the CoL index from a CoL Dwc-A export (core Taxon, with optional VernacularName extension)
+     * @param dwcaFile CoL Dwc-A file (compressed) or directory where it was already uncompressed
+     * @param indexFile sqlite file where to build the index
+     * @throws IOException
+     */
+    public static void build(File dwcaFile, File indexFile) throws IOException {
+        Archive dwcArchive;
+        File extractionDirectory = null;
+        if (dwcaFile.isDirectory()){
+            dwcArchive = DwcFiles.fromLocation(Paths.get(dwcaFile.toURI()));
+        } else{
+            extractionDirectory = Files.createTempDir();
+            dwcArchive = DwcFiles.fromCompressed(Paths.get(dwcaFile.toURI()), Paths.get(extractionDirectory.getPath()));
+        }
+        try{
+            if (!dwcArchive.getCore().getRowType().prefixedName().equalsIgnoreCase("dwc:Taxon")){
+                throw new IOException("The Dwc-A file " + dwcaFile.getAbsolutePath() + " is not a checklist (its core is not Taxon)");
+            }
+            Iterator<StarRecord> records = dwcArchive.iterator();
+            build(new Iterator<JsonObject>() {
+                @Override
+                public boolean hasNext() {
+                    return records.hasNext();
+                }
+
+                @Override
+                public JsonObject next() {
+                    return getTaxonInfoFromDwcaRecord(records.next());
+                }
+            }, indexFile);
+        } finally {
+            //The uncompressed checklist is only needed while the index is built
+            if (extractionDirectory!=null) org.apache.commons.io.FileUtils.deleteQuietly(extractionDirectory);
+        }
+    }
+
+    /**
+     * Function that builds the CoL index from the taxa passed as parameter
+     * @param taxa iterator of taxa, in the same format returned by the CoL webservice. Synonyms have the id of their
+     *             accepted taxon in accepted_name.id
+     * @param indexFile sqlite file where to build the index
+     * @throws IOException
+     */
+    public static void build(Iterator<JsonObject> taxa, File indexFile) throws IOException {
+        Logger logger = LoggerFactory.getLogger(CoLIndex.class);
+        logger.info("Building CoL index in " + indexFile.getAbsolutePath());
+        //The index is built in a temporary file, so an index which build was interrupted is not used
+        File tempIndexFile = new File(indexFile.getAbsolutePath() + ".tmp");
+        tempIndexFile.delete();
+        int numTaxa = 0;
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + tempIndexFile.getAbsolutePath())){
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE taxon (id text PRIMARY KEY, acceptedId text, json text NOT NULL);");
+                stmt.execute("CREATE TABLE name (lookupKey text NOT NULL, id text NOT NULL);");
+            }
+            conn.setAutoCommit(false);
+            try (PreparedStatement insertTaxon = conn.prepareStatement("INSERT OR REPLACE INTO taxon (id,acceptedId,json) VALUES (?,?,?)");
+                 PreparedStatement insertName = conn.prepareStatement("INSERT INTO name (lookupKey,id) VALUES (?,?)")){
+                while (taxa.hasNext()){
+                    JsonObject taxonInfo = taxa.next();
+                    if (taxonInfo==null || !taxonInfo.has("id")){
+                        continue;
+                    }
+                    String id = taxonInfo.get("id").getAsString();
+                    String acceptedId = taxonInfo.has("accepted_name") ? getString(taxonInfo.getAsJsonObject("accepted_name"), "id") : null;
+                    insertTaxon.setString(1, id);
+                    insertTaxon.setString(2, acceptedId);
+                    insertTaxon.setString(3, taxonInfo.toString());
+                    insertTaxon.addBatch();
+                    if (acceptedId==null){
+                        insertName.setString(1, getLookupKey(getString(taxonInfo, "name"), getString(taxonInfo, "rank"), getKingdom(taxonInfo)));
+                        insertName.setString(2, id);
+                        insertName.addBatch();
+                    }
+                    if (++numTaxa % BATCH_SIZE == 0){
+                        insertTaxon.executeBatch();
+                        insertName.executeBatch();
+                    }
+                }
+                insertTaxon.executeBatch();
+                insertName.executeBatch();
+            }
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE INDEX idx_name_lookupKey ON name (lookupKey);");
+                stmt.execute("CREATE INDEX idx_taxon_acceptedId ON taxon (acceptedId);");
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            throw new IOException("Error building CoL index " + indexFile.getAbsolutePath() + " " + e.getMessage(), e);
+        }
+        if (!tempIndexFile.renameTo(indexFile)){
+            throw new IOException("CoL index couldn't be moved to " + indexFile.getAbsolutePath());
+        }
+        logger.info("CoL index built with " + numTaxa + " taxa");
+    }
+
+    /**
+     * Function that returns the information of the accepted taxon for the taxon concept requested (canonicalName,rank,kingdom)
+     * @param canonicalName Canonical name of the taxon concept (ignoring case)
+     * @param rank name of the rank of the taxon concept (ignoring case)
+     * @param kingdomName name of the kingdom where this taxon concept belongs to (ignoring case)
+     * @return JsonObject with the same format returned by the CoL webservice, or null if the taxon concept was not found
+     * or if there are several accepted taxa for it
+     * @throws IOException
+     */
+    public JsonObject getTaxonInformation(String canonicalName, String rank, String kingdomName) throws IOException {
+        JsonObject taxonInfoObj = null;
+        IndexConnection indexConnection = null;
+        try {
+            indexConnection = this.getIdleConnections().poll();
+            if (indexConnection==null){
+                indexConnection = this.openConnection();
+            }
+            List<JsonObject> taxa = new ArrayList<JsonObject>();
+            indexConnection.selectTaxaStatement.setString(1, getLookupKey(canonicalName, rank, kingdomName));
+            try (ResultSet rs = indexConnection.selectTaxaStatement.executeQuery()) {
+                while (rs.next()) {
+                    taxa.add(new JsonParser().parse(rs.getString(1)).getAsJsonObject());
+                }
+            }
+            if (taxa.size()==1){
+                taxonInfoObj = taxa.get(0);
+                JsonArray synonyms = new JsonArray();
+                indexConnection.selectSynonymsStatement.setString(1, taxonInfoObj.get("id").getAsString());
+                try (ResultSet rs = indexConnection.selectSynonymsStatement.executeQuery()) {
+                    while (rs.next()) {
+                        JsonObject synonymInfo = new JsonParser().parse(rs.getString(1)).getAsJsonObject();
+                        synonymInfo.remove("classification");
+                        synonymInfo.remove("common_names");
+                        synonymInfo.remove("accepted_name");
+                        synonyms.add(synonymInfo);
+                    }
+                }
+                taxonInfoObj.add("synonyms", synonyms);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Error looking up " + canonicalName + " in CoL index " + e.getMessage(), e);
+        } finally {
+            if (indexConnection!=null){
+                this.getIdleConnections().add(indexConnection);
+            }
+        }
+        return taxonInfoObj;
+    }
+
+    @Override
+    public void close() throws IOException {
+        SQLException closeException = null;
+        IndexConnection indexConnection;
+        while ((indexConnection = this.getConnections().poll()) != null){
+            try {
+                indexConnection.connection.close();
+            } catch (SQLException e) {
+                closeException = e;
+            }
+        }
+        this.getIdleConnections().clear();
+        if (closeException!=null){
+            throw new IOException(closeException);
+        }
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that opens a new connection to the index file, with the statements used to look up taxa
+     * @return connection to the index file
+     * @throws SQLException
+     */
+    private IndexConnection openConnection() throws SQLException {
+        IndexConnection indexConnection = new IndexConnection();
+        indexConnection.connection = DriverManager.getConnection("jdbc:sqlite:" + this.getIndexFile().getAbsolutePath());
+        indexConnection.selectTaxaStatement = indexConnection.connection.prepareStatement("SELECT t.json FROM name n JOIN taxon t ON n.id=t.id WHERE n.lookupKey=?");
+        indexConnection.selectSynonymsStatement = indexConnection.connection.prepareStatement("SELECT json FROM taxon WHERE acceptedId=?");
+        this.getConnections().add(indexConnection);
+        return indexConnection;
+    }
+
+    /**
+     * Function that converts a record of the CoL Dwc-A into a json object with the same format returned by CoL webservice
+     * @param rec record of the CoL Dwc-A (core Taxon)
+     * @return json object with the taxon information
+     */
+    private static JsonObject getTaxonInfoFromDwcaRecord(StarRecord rec){
+        Record core = rec.core();
+        JsonObject taxonInfo = new JsonObject();
+        taxonInfo.addProperty("id", core.id());
+        taxonInfo.addProperty("name", getCanonicalName(core));
+        addStringProperty(taxonInfo, "rank", StringUtils.capitalize(StringUtils.lowerCase(core.value(DwcTerm.taxonRank))));
+        String status = StringUtils.lowerCase(core.value(DwcTerm.taxonomicStatus));
+        String acceptedId = core.value(DwcTerm.acceptedNameUsageID);
+        boolean accepted = StringUtils.isBlank(acceptedId) || acceptedId.equals(core.id());
+        taxonInfo.addProperty("name_status", StringUtils.isNotBlank(status) ? status + (status.endsWith("accepted") ? " name" : "") : (accepted ? "accepted name" : "synonym"));
+        addStringProperty(taxonInfo, "author", core.value(DwcTerm.scientificNameAuthorship));
+        String url = core.value(DcTerm.references);
+        taxonInfo.addProperty("url", StringUtils.isNotBlank(url) ? url : "https://www.catalogueoflife.org/data/taxon/" + core.id());
+        addStringProperty(taxonInfo, "source_database", core.value(DcTerm.source));
+        if (StringUtils.isNotBlank(core.value(GbifTerm.isExtinct))){
+            taxonInfo.addProperty("is_extinct", core.value(GbifTerm.isExtinct));
+        }
+
+        JsonArray classification = new JsonArray();
+        for (int i = 0; i < CLASSIFICATION_TERMS.length; i++) {
+            String name = core.value(CLASSIFICATION_TERMS[i]);
+            if (StringUtils.isNotBlank(name) && !CLASSIFICATION_RANKS[i].equalsIgnoreCase(getString(taxonInfo, "rank"))){
+                JsonObject classificationItem = new JsonObject();
+                classificationItem.addProperty("name", name);
+                classificationItem.addProperty("rank", CLASSIFICATION_RANKS[i]);
+                classification.add(classificationItem);
+            }
+        }
+        taxonInfo.add("classification", classification);
+
+        if (rec.hasExtension(GbifTerm.VernacularName)){
+            JsonArray commonNames = new JsonArray();
+            for (Record vernacularName : rec.extension(GbifTerm.VernacularName)) {
+                JsonObject commonName = new JsonObject();
+                commonName.addProperty("name", vernacularName.value(DwcTerm.vernacularName));
+                addStringProperty(commonName, "language", vernacularName.value(DcTerm.language));
+                commonNames.add(commonName);
+            }
+            taxonInfo.add("common_names", commonNames);
+        }
+
+        if (!accepted){
+            JsonObject acceptedName = new JsonObject();
+            acceptedName.addProperty("id", acceptedId);
+            taxonInfo.add("accepted_name", acceptedName);
+        }
+        return taxonInfo;
+    }
+
+    /**
+     * Function that gets the canonical name of a record of the CoL Dwc-A, from its epithets if they are available or
+     * by parsing its scientific name otherwise
+     * @param core record of the CoL Dwc-A (core Taxon)
+     * @return canonical name of the taxon
+     */
+    private static String getCanonicalName(Record core){
+        String canonicalName;
+        if (StringUtils.isNotBlank(core.value(DwcTerm.genus)) && StringUtils.isNotBlank(core.value(DwcTerm.specificEpithet))){
+            canonicalName = core.value(DwcTerm.genus) + " " + core.value(DwcTerm.specificEpithet);
+            if (StringUtils.isNotBlank(core.value(DwcTerm.infraspecificEpithet))){
+                canonicalName += " " + core.value(DwcTerm.infraspecificEpithet);
+            }
+        } else{
+            JsonObject parsedName = ScientificNameUtils.parseName(core.value(DwcTerm.scientificName));
+            canonicalName = parsedName!=null ? parsedName.get("canonicalName").getAsString() : core.value(DwcTerm.scientificName);
+        }
+        return canonicalName;
+    }
+
+    private static String getKingdom(JsonObject taxonInfo){
+        String kingdom = null;
+        if ("Kingdom".equalsIgnoreCase(getString(taxonInfo, "rank"))){
+            kingdom = getString(taxonInfo, "name");
+        } else if (taxonInfo.has("classification")){
+            for (JsonElement classificationItem : taxonInfo.getAsJsonArray("classification")) {
+                if ("Kingdom".equalsIgnoreCase(getString(classificationItem.getAsJsonObject(), "rank"))){
+                    kingdom = getString(classificationItem.getAsJsonObject(), "name");
+                }
+            }
+        }
+        return kingdom;
+    }
+
+    private static String getLookupKey(String canonicalName, String rank, String kingdomName){
+        return (StringUtils.trimToEmpty(canonicalName) + "#" + StringUtils.trimToEmpty(rank) + "#" + StringUtils.trimToEmpty(kingdomName)).toLowerCase();
+    }
+
+    private static void addStringProperty(JsonObject jsonObject, String property, String value){
+        if (StringUtils.isNotBlank(value)){
+            jsonObject.addProperty(property, value);
+        }
+    }
+
+    private static String getString(JsonObject jsonObject, String property){
+        return jsonObject.has(property) && !jsonObject.get(property).isJsonNull() ? jsonObject.get(property).getAsString() : null;
+    }
+
+
+    /*****************/
+    /* INNER CLASSES */
+    /*****************/
+
+    /**
+     * Connection to the index file with its prepared statements, which can only be used by one lookup at a time
+     */
+    protected static class IndexConnection {
+        private Connection connection;
+        private PreparedStatement selectTaxaStatement;
+        private PreparedStatement selectSynonymsStatement;
+    }
+}
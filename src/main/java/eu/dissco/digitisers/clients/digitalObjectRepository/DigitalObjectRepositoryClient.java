@@ -25,6 +25,7 @@ import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class DigitalObjectRepositoryClient implements AutoCloseable {
 
@@ -371,6 +372,33 @@ public class DigitalObjectRepositoryClient implements AutoCloseable {
         return searchAll(query,0,this.getDigitalObjectRepositoryInfo().getPageSize());
     }
 
+    /**
+     * Function that visits all the digital objects that match the query, page by page and sorted by id, without
+     * keeping them in memory, so it can be used for queries with a large number of results
+     * @param query query to be run
+     * @param digitalObjectConsumer consumer called for each digital object that match the query
+     * @return number of digital objects visited
+     * @throws DigitalObjectRepositoryException
+     */
+    public int searchAllInPages(String query, Consumer<DigitalObject> digitalObjectConsumer) throws DigitalObjectRepositoryException{
+        int pageSize = this.getDigitalObjectRepositoryInfo().getPageSize();
+        int pageNumber = 0;
+        int numResults = 0;
+        int pageResults;
+        do{
+            pageResults = 0;
+            QueryParams queryParams = new QueryParams(pageNumber++, pageSize, Collections.singletonList(new SortField("id")));
+            try (SearchResults<DigitalObject> searchResults = this.search(this.getDigitalObjectRepositoryInfo().getServiceId(),query,queryParams)){
+                for (DigitalObject digitalObject : searchResults) {
+                    digitalObjectConsumer.accept(digitalObject);
+                    pageResults++;
+                }
+            }
+            numResults += pageResults;
+        } while (pageResults==pageSize);
+        return numResults;
+    }
+
 
     /***
      * Function to call the hello operation of the repository
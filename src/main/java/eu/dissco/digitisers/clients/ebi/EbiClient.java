@@ -1,15 +1,30 @@
 package eu.dissco.digitisers.clients.ebi;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import eu.dissco.digitisers.clients.ebi.openapi.ApiClient;
 import eu.dissco.digitisers.clients.ebi.openapi.ApiException;
+import eu.dissco.digitisers.clients.ebi.openapi.Configuration;
 import eu.dissco.digitisers.clients.ebi.openapi.model.*;
 import eu.dissco.digitisers.clients.ebi.openapi.rest.SearchApi;
-import eu.dissco.digitisers.utils.JsonUtils;
+import eu.dissco.digitisers.utils.HostRateLimiter;
+import eu.dissco.digitisers.utils.HttpTransport;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 public class EbiClient {
 
@@ -20,8 +35,10 @@ public class EbiClient {
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
     private static EbiClient instance=null;
     private final String apiUrl ="https://www.ebi.ac.uk/ebisearch/ws/rest/";
-    private Map<String, Optional<List<WSEntry>>> mapSearchResultBySearchTermAndDomain; //Map to improve efficiency of this class, so it doesn't need to call the external APIs when we already got results
+    private Map<String, Optional<JsonArray>> mapSearchResultBySearchTermAndDomain; //Map to improve efficiency of this class, so it doesn't need to call the external APIs when we already got results
+    private Map<String, Optional<JsonArray>> mapRootSearchResultBySearchTerm; //Map to improve efficiency of this class
     private Map<String, Optional<List<String>>> mapRetrievablesFieldsByDomain; //Map to improve efficiency of this class
+    private List<String> projectedFields; //Fields stored from the entries found. If empty, all the retrievable fields are stored
 
 
     /***********************/
@@ -36,14 +53,22 @@ public class EbiClient {
         return apiUrl;
     }
 
-    protected Map<String, Optional<List<WSEntry>>> getMapSearchResultBySearchTermAndDomain() {
+    protected Map<String, Optional<JsonArray>> getMapSearchResultBySearchTermAndDomain() {
         return mapSearchResultBySearchTermAndDomain;
     }
 
-    protected void setMapSearchResultBySearchTermAndDomain(Map<String, Optional<List<WSEntry>>> mapSearchResultBySearchTermAndDomain) {
+    protected void setMapSearchResultBySearchTermAndDomain(Map<String, Optional<JsonArray>> mapSearchResultBySearchTermAndDomain) {
         this.mapSearchResultBySearchTermAndDomain = mapSearchResultBySearchTermAndDomain;
     }
 
+    protected Map<String, Optional<JsonArray>> getMapRootSearchResultBySearchTerm() {
+        return mapRootSearchResultBySearchTerm;
+    }
+
+    protected void setMapRootSearchResultBySearchTerm(Map<String, Optional<JsonArray>> mapRootSearchResultBySearchTerm) {
+        this.mapRootSearchResultBySearchTerm = mapRootSearchResultBySearchTerm;
+    }
+
     protected Map<String, Optional<List<String>>> getMapRetrievablesFieldsByDomain() {
         return mapRetrievablesFieldsByDomain;
     }
@@ -52,6 +77,10 @@ public class EbiClient {
         this.mapRetrievablesFieldsByDomain = mapRetrievablesFieldsByDomain;
     }
 
+    protected List<String> getProjectedFields() {
+        return projectedFields;
+    }
+
 
     /****************/
     /* CONSTRUCTORS */
@@ -60,9 +89,14 @@ public class EbiClient {
     /**
      * Private constructor to avoid client applications to use constructor as we use the singleton design pattern
      */
-    private EbiClient(){
-        this.mapSearchResultBySearchTermAndDomain = new ConcurrentHashMap<String,Optional<List<WSEntry>>>();
+    private EbiClient(org.apache.commons.configuration2.Configuration config){
+        //Send the requests of the default api client through the shared http transport (pool, timeouts and rate limiter)
+        ApiClient apiClient = Configuration.getDefaultApiClient();
+        apiClient.setHttpClient(HttpTransport.getInstance().configureOkHttpClient(apiClient.getHttpClient()));
+        this.mapSearchResultBySearchTermAndDomain = new ConcurrentHashMap<String,Optional<JsonArray>>();
+        this.mapRootSearchResultBySearchTerm = new ConcurrentHashMap<String,Optional<JsonArray>>();
         this.mapRetrievablesFieldsByDomain = new ConcurrentHashMap<String,Optional<List<String>>>();
+        this.projectedFields = config!=null ? config.getList(String.class,"ebi.fields",new ArrayList<String>()) : new ArrayList<String>();
     }
 
 
@@ -75,8 +109,17 @@ public class EbiClient {
      * @return
      */
     public static EbiClient getInstance(){
+        return getInstance(null);
+    }
+
+    /**
+     * Method to get an instance of EbiClient as we use the singleton design pattern
+     * @param config configuration of the digitiser, with the fields to store from the entries found (ebi.fields)
+     * @return
+     */
+    public static synchronized EbiClient getInstance(org.apache.commons.configuration2.Configuration config){
         if (instance==null){
-            instance = new EbiClient();
+            instance = new EbiClient(config);
         }
         return instance;
     }
@@ -88,8 +131,7 @@ public class EbiClient {
      * @throws ApiException
      */
     public JsonArray rootSearchAsJson(String searchTerm) throws ApiException {
-        List<WSEntry> ebiResults = this.rootSearch(searchTerm,false);
-        return (JsonArray)JsonUtils.convertObjectToJsonElement(ebiResults);
+        return this.rootSearch(searchTerm,false).deepCopy();
     }
 
     /**
@@ -101,8 +143,24 @@ public class EbiClient {
      * @throws ApiException
      */
     public JsonArray rootSearchAsJson(String searchTerm, boolean exactMatch) throws ApiException {
-        List<WSEntry> ebiResults = this.rootSearch(searchTerm,exactMatch);
-        return (JsonArray)JsonUtils.convertObjectToJsonElement(ebiResults);
+        return this.rootSearch(searchTerm,exactMatch).deepCopy();
+    }
+
+    /**
+     * Function that does a free text search of any of the search terms passed as parameter in all the domains of EBI,
+     * using a single query where the terms are combined with OR
+     * @param searchTerms terms to be searched. Each term has to be a string or group of strings
+     * @param exactMatch flag to indicate if we should do a exact match of each term (when a term is a group of strings,
+     *                   they have to appear in that order)
+     * @return JsonArray with the result of the search in the different database domain levels
+     * @throws ApiException
+     */
+    public JsonArray rootSearchAnyAsJson(List<String> searchTerms, boolean exactMatch) throws ApiException {
+        List<String> queryTerms = new ArrayList<String>();
+        for (String searchTerm : searchTerms) {
+            queryTerms.add(exactMatch && !searchTerm.startsWith("\"") ? "\""+searchTerm+"\"" : searchTerm);
+        }
+        return this.rootSearch(String.join(" OR ", queryTerms),exactMatch).deepCopy();
     }
 
     /**
@@ -115,8 +173,7 @@ public class EbiClient {
      * @throws ApiException
      */
     public JsonArray domainSearchAsJson(String domainId, String searchTerm) throws ApiException {
-        List<WSEntry> ebiResults = this.domainSearch(domainId,searchTerm,false);
-        return (JsonArray)JsonUtils.convertObjectToJsonElement(ebiResults);
+        return this.domainSearch(domainId,searchTerm,false).deepCopy();
     }
 
     /**
@@ -130,8 +187,7 @@ public class EbiClient {
      * @throws ApiException
      */
     public JsonArray domainSearchAsJson(String domainId, String searchTerm, boolean exactMatch) throws ApiException {
-        List<WSEntry> ebiResults = this.domainSearch(domainId,searchTerm,exactMatch);
-        return (JsonArray)JsonUtils.convertObjectToJsonElement(ebiResults);
+        return this.domainSearch(domainId,searchTerm,exactMatch).deepCopy();
     }
 
 
@@ -146,85 +202,320 @@ public class EbiClient {
      * @param searchTerm term to be searched
      * @param exactMatch flag to indicate if we should do a exact match (when we search for a group of strings, they have
      *                   to appear in that order)
-     * @return list with information of all the entries found
+     * @return JsonArray with information of all the entries found
      * @throws ApiException
      */
-    private List<WSEntry> domainSearch(String domainId, String searchTerm, boolean exactMatch) throws ApiException {
+    private JsonArray domainSearch(String domainId, String searchTerm, boolean exactMatch) throws ApiException {
+        return this.domainSearchConcurrently(Collections.singletonList(domainId),searchTerm,exactMatch).get(0);
+    }
+
+    /***
+     * Function that searches for the searchTerm as free text in all ebi domains, trying to expanding the result
+     * of the search for all the domains where it had a hit, with information of the fields in the databases it was found
+     * @param searchTerm term to be searched
+     * @param exactMatch flag to indicate if we should do a exact match (when we search for a group of strings, they have
+     *                   to appear in that order)
+     * @return JsonArray with information of all the entries found
+     * @throws ApiException
+     */
+    private JsonArray rootSearch(String searchTerm, boolean exactMatch) throws ApiException {
         if (exactMatch && !searchTerm.startsWith("\"")){
             searchTerm = "\""+searchTerm+"\"";
         }
 
-        if (!this.getMapSearchResultBySearchTermAndDomain().containsKey(searchTerm+"#"+domainId)){
+        if (!this.getMapRootSearchResultBySearchTerm().containsKey(searchTerm)){
+            //Note: if we search by specific domain, we can restrict the search by looking at searchable field but not for root search
+            //Eg: emblrelease_standard?query=%2522MNHN-IM-2013-7767%2522%2520AND%2520TAXON:1504874&fields=TAXON'
             SearchApi api = new SearchApi();
-            List<String> retrievableFields = this.getRetrievableFieldsByDomain(domainId);
-            String fields = String.join(",", retrievableFields);
+            WSSearchResult searchResult = api.rootsearch(null,searchTerm,null);
+            List<String> domainIdsToSearch = new ArrayList<String>();
+            if (searchResult.getDomains()!=null){
+                List<WSDomain> leavesDomains = new ArrayList<WSDomain>();
+                for (WSDomain domain : searchResult.getDomains()) {
+                    leavesDomains.addAll(this.getLeavesDomains(domain));
+                }
+                for (WSDomain leafDomain : leavesDomains) {
+                    if (leafDomain.getHitCount()>0){
+                        domainIdsToSearch.add(leafDomain.getId());
+                    }
+                }
+            }
+            JsonArray resultsEntries = new JsonArray();
+            for (JsonArray domainEntries : this.domainSearchConcurrently(domainIdsToSearch,searchTerm,exactMatch)) {
+                resultsEntries.addAll(domainEntries);
+            }
+            this.getMapRootSearchResultBySearchTerm().put(searchTerm,Optional.of(resultsEntries));
+        }
 
-            WSSearchResult searchResult = api.search(domainId, null, searchTerm, null, null, null, null,
-                    null, fields, null, null, null, null, null, null,
-                    null, null, null, null, null, null, null);
+        return this.getMapRootSearchResultBySearchTerm().get(searchTerm).orElse(null);
+    }
 
-            List<WSEntry> resultsEntries = this.getEntriesDetailsInSearchResult(searchResult,searchTerm,exactMatch);
-            this.getMapSearchResultBySearchTermAndDomain().put(searchTerm+"#"+domainId,Optional.ofNullable(resultsEntries));
+    /**
+     * Function that expands the entries found in a domain getting information of the fields in the databases where the
+     * search term was found
+     * @param domainId domain where the entries were found
+     * @param entries entries found in the domain
+     * @param searchTerm search term used in the search
+     * @param exactMatch flag to indicate if we should do a exact match (when we search for a group of strings, they have
+     *                   to appear in that order)
+     * @return JsonArray of the entries in EBI where the search term was found
+     * @throws ApiException
+     */
+    private JsonArray getEntriesDetails(String domainId, JsonArray entries, String searchTerm, boolean exactMatch) throws ApiException {
+        JsonArray resultsEntries = new JsonArray();
+        List<String> domainIdsToSearch = new ArrayList<String>();
+        for (JsonElement entry: entries) {
+            JsonObject entryObj = entry.getAsJsonObject();
+            if (entryObj.has("fields") && entryObj.getAsJsonArray("fields").size()>0){
+                //We have already a fully detailed entry
+                resultsEntries.add(entryObj);
+            } else if (entryObj.has("source") && !entryObj.get("source").getAsString().equals(domainId)){
+                //When we search for an intermediate domain, the results has entries but they don't have fields
+                //so we need to do another search for the specific leaf domain of that entry
+                domainIdsToSearch.add(entryObj.get("source").getAsString());
+            } else{
+                resultsEntries.add(entryObj);
+            }
         }
-
-        return this.getMapSearchResultBySearchTermAndDomain().get(searchTerm+"#"+domainId).orElse(null);
+        for (JsonArray domainEntries : this.domainSearchConcurrently(domainIdsToSearch,searchTerm,exactMatch)) {
+            resultsEntries.addAll(domainEntries);
+        }
+        return resultsEntries;
     }
 
     /***
-     * Function that searches for the searchTerm as free text in all ebi domains, trying to expanding the result
-     * of the search for all the domains where it had a hit, with information of the fields in the databases it was found
+     * Function that searches for the searchTerm in several ebi domains. The searches of the domains that aren't cached
+     * yet are sent concurrently
+     * @param domainIds domains where to do the search
      * @param searchTerm term to be searched
      * @param exactMatch flag to indicate if we should do a exact match (when we search for a group of strings, they have
      *                   to appear in that order)
-     * @return list with information of all the entries found
+     * @return list with the entries found in each domain (in the same order as the domains)
      * @throws ApiException
      */
-    private List<WSEntry> rootSearch(String searchTerm, boolean exactMatch) throws ApiException {
+    private List<JsonArray> domainSearchConcurrently(List<String> domainIds, String searchTerm, boolean exactMatch) throws ApiException {
         if (exactMatch && !searchTerm.startsWith("\"")){
             searchTerm = "\""+searchTerm+"\"";
         }
 
-        //Note: if we search by specific domain, we can restrict the search by looking at searchable field but not for root search
-        //Eg: emblrelease_standard?query=%2522MNHN-IM-2013-7767%2522%2520AND%2520TAXON:1504874&fields=TAXON'
-        SearchApi api = new SearchApi();
-        WSSearchResult searchResult = api.rootsearch(null,searchTerm,null);
-        return this.getEntriesDetailsInSearchResult(searchResult,searchTerm,exactMatch);
+        //Send the searches of the domains that aren't cached
+        Map<String,CompletableFuture<JsonArray>> futureEntriesByDomain = new LinkedHashMap<String,CompletableFuture<JsonArray>>();
+        for (String domainId : domainIds) {
+            if (!this.getMapSearchResultBySearchTermAndDomain().containsKey(searchTerm+"#"+domainId) && !futureEntriesByDomain.containsKey(domainId)){
+                futureEntriesByDomain.put(domainId,this.searchAsync(domainId,searchTerm,this.getFieldsToRetrieveByDomain(domainId)));
+            }
+        }
+
+        //Wait for their results
+        for (Map.Entry<String,CompletableFuture<JsonArray>> futureEntries : futureEntriesByDomain.entrySet()) {
+            JsonArray resultsEntries;
+            try {
+                JsonArray entries = futureEntries.getValue().get();
+                resultsEntries = this.getEntriesDetails(futureEntries.getKey(),entries,searchTerm,exactMatch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ApiException(e);
+            } catch (ExecutionException | ApiException e) {
+                ApiException apiException = e instanceof ApiException ? (ApiException) e :
+                        e.getCause() instanceof ApiException ? (ApiException) e.getCause() : new ApiException(e.getCause());
+                //Don't remember the failure if it was due to the server throttling our requests, so neither the
+                //search of this domain nor the searches that include it are cached
+                if (this.isThrottlingError(apiException)) throw apiException;
+                this.getLogger().error("Error searching " + searchTerm + " in EBI domain " + futureEntries.getKey() + " " + apiException.getMessage());
+                resultsEntries = new JsonArray();
+            }
+            this.getMapSearchResultBySearchTermAndDomain().put(searchTerm+"#"+futureEntries.getKey(),Optional.of(resultsEntries));
+        }
+
+        List<JsonArray> resultsEntriesByDomain = new ArrayList<JsonArray>();
+        for (String domainId : domainIds) {
+            resultsEntriesByDomain.add(this.getMapSearchResultBySearchTermAndDomain().get(searchTerm+"#"+domainId).orElse(new JsonArray()));
+        }
+        return resultsEntriesByDomain;
     }
 
     /**
-     * Function that expands the result of the search getting information of the fields in the databases where the search term was found
-     * @param searchResult result of the search
-     * @param searchTerm search term used in the search
-     * @param exactMatch flag to indicate if we should do a exact match (when we search for a group of strings, they have
-     *                   to appear in that order)
-     * @return List of the entries in EBI where the search term was found
+     * Function that sends a search to an EBI domain asynchronously. The body of the response is streamed straight into
+     * the json of the entries found, with the same shape as the model classes of the api (WSEntry, with the fields as a
+     * list of {id, firstvalue, values}), without deserialising it into them
+     * @param domainId domain where to do the search
+     * @param searchTerm term to be searched
+     * @param fields fields to get from the entries found
+     * @return future with the entries found
      * @throws ApiException
      */
-    private List<WSEntry> getEntriesDetailsInSearchResult(WSSearchResult searchResult, String searchTerm, boolean exactMatch) throws ApiException {
-        List<WSEntry> resultsEntries=new ArrayList<WSEntry>();
-        if (searchResult.getDomains()!=null){
-            List<WSDomain> leavesDomains = new ArrayList<WSDomain>();
-            for (WSDomain domain : searchResult.getDomains()) {
-                leavesDomains.addAll(this.getLeavesDomains(domain));
+    private CompletableFuture<JsonArray> searchAsync(String domainId, String searchTerm, List<String> fields) throws ApiException {
+        CompletableFuture<JsonArray> futureEntries = new CompletableFuture<JsonArray>();
+        ApiClient apiClient = Configuration.getDefaultApiClient();
+        okhttp3.Call call = new SearchApi(apiClient).searchCall(domainId, null, searchTerm, null, null, null, null,
+                null, String.join(",", fields), null, null, null, null, null, null,
+                null, null, null, null, null, null, null, null);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                futureEntries.completeExceptionally(new ApiException(e));
             }
-            for (WSDomain leafDomain : leavesDomains) {
-                if (leafDomain.getHitCount()>0){
-                    resultsEntries.addAll(this.domainSearch(leafDomain.getId(),searchTerm,exactMatch));
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response closeableResponse = response) {
+                    if (!response.isSuccessful()){
+                        //Let the api client build the exception with the error of the response
+                        apiClient.handleResponse(response,null);
+                    }
+                    futureEntries.complete(EbiClient.this.readEntries(response.body().charStream(),fields));
+                } catch (ApiException e) {
+                    futureEntries.completeExceptionally(e);
+                } catch (Exception e) {
+                    futureEntries.completeExceptionally(new ApiException(e));
                 }
             }
-        } else{
-            for (WSEntry entry: searchResult.getEntries()) {
-                if (entry.getFields()!=null && entry.getFields().size()>0){
-                    //We have already a fully detailed entry
-                    resultsEntries.add(entry);
+        });
+        return futureEntries;
+    }
+
+    /**
+     * Function that reads the entries of the response of a domain search, keeping only the fields requested
+     * @param reader reader of the body of the response
+     * @param fields fields to keep from the entries
+     * @return JsonArray with the entries of the response
+     * @throws IOException
+     */
+    private JsonArray readEntries(Reader reader, List<String> fields) throws IOException {
+        JsonArray entries = new JsonArray();
+        Set<String> fieldsToKeep = new HashSet<String>(fields);
+        try (JsonReader jsonReader = new JsonReader(reader)) {
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                if (jsonReader.nextName().equals("entries") && jsonReader.peek()==JsonToken.BEGIN_ARRAY){
+                    jsonReader.beginArray();
+                    while (jsonReader.hasNext()) {
+                        entries.add(this.readEntry(jsonReader,fieldsToKeep));
+                    }
+                    jsonReader.endArray();
                 } else{
-                    //When we search for an intermediate domain, the results has entries but they don't have fields
-                    //so we need to do another search for the specific leaf domain of that entry
-                    resultsEntries.addAll(this.domainSearch(entry.getSource(),searchTerm,exactMatch));
+                    jsonReader.skipValue();
                 }
             }
+            jsonReader.endObject();
         }
-        return resultsEntries;
+        return entries;
+    }
+
+    /**
+     * Function that reads an entry of the response of a domain search. The attributes of the entry (id, source, acc,
+     * score, fieldURLs, viewURLs, etc) are kept as they are, and its fields are read as a list of
+     * {id, firstvalue, values}, whether they come as a list of fields or as a map of values by field
+     * @param jsonReader reader positioned at the beginning of the entry
+     * @param fieldsToKeep fields to keep from the entry
+     * @return JsonObject with the attributes and the fields of the entry
+     * @throws IOException
+     */
+    private JsonObject readEntry(JsonReader jsonReader, Set<String> fieldsToKeep) throws IOException {
+        JsonObject entry = new JsonObject();
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            String name = jsonReader.nextName();
+            if (name.equals("fields") && jsonReader.peek()==JsonToken.BEGIN_OBJECT){
+                JsonArray fields = new JsonArray();
+                jsonReader.beginObject();
+                while (jsonReader.hasNext()) {
+                    String fieldId = jsonReader.nextName();
+                    JsonArray values = this.readValues(jsonReader);
+                    if (fieldsToKeep.contains(fieldId)){
+                        fields.add(this.getField(fieldId,null,values));
+                    }
+                }
+                jsonReader.endObject();
+                entry.add("fields",fields);
+            } else if (name.equals("fields") && jsonReader.peek()==JsonToken.BEGIN_ARRAY){
+                JsonArray fields = new JsonArray();
+                jsonReader.beginArray();
+                while (jsonReader.hasNext()) {
+                    JsonElement field = new JsonParser().parse(jsonReader);
+                    if (field.isJsonObject() && field.getAsJsonObject().has("id") && fieldsToKeep.contains(field.getAsJsonObject().get("id").getAsString())){
+                        JsonObject fieldObj = field.getAsJsonObject();
+                        fields.add(this.getField(fieldObj.get("id").getAsString(),
+                                fieldObj.has("firstvalue") && !fieldObj.get("firstvalue").isJsonNull() ? fieldObj.get("firstvalue").getAsString() : null,
+                                fieldObj.has("values") && fieldObj.get("values").isJsonArray() ? fieldObj.getAsJsonArray("values") : new JsonArray()));
+                    }
+                }
+                jsonReader.endArray();
+                entry.add("fields",fields);
+            } else if (jsonReader.peek()==JsonToken.NULL){
+                jsonReader.skipValue();
+            } else{
+                entry.add(name,new JsonParser().parse(jsonReader));
+            }
+        }
+        jsonReader.endObject();
+        return entry;
+    }
+
+    /**
+     * Function that builds a field of an entry with the same shape as the model class of the api (WSField)
+     * @param fieldId id of the field
+     * @param firstValue first value of the field as returned by the api (null to take the first of its values)
+     * @param values values of the field
+     * @return JsonObject with the id, the first value and the values of the field
+     */
+    private JsonObject getField(String fieldId, String firstValue, JsonArray values){
+        JsonObject field = new JsonObject();
+        field.addProperty("id",fieldId);
+        if (firstValue==null && values.size()>0){
+            firstValue = values.get(0).getAsString();
+        }
+        if (firstValue!=null){
+            field.addProperty("firstvalue",firstValue);
+        }
+        field.add("values",values);
+        return field;
+    }
+
+    /**
+     * Function that reads the values of a field of an entry, which can be a single value or a list of values
+     * @param jsonReader reader positioned at the value of the field
+     * @return JsonArray with the values of the field
+     * @throws IOException
+     */
+    private JsonArray readValues(JsonReader jsonReader) throws IOException {
+        JsonArray values = new JsonArray();
+        if (jsonReader.peek()==JsonToken.BEGIN_ARRAY){
+            jsonReader.beginArray();
+            while (jsonReader.hasNext()) {
+                if (jsonReader.peek()==JsonToken.STRING || jsonReader.peek()==JsonToken.NUMBER){
+                    values.add(jsonReader.nextString());
+                } else{
+                    jsonReader.skipValue();
+                }
+            }
+            jsonReader.endArray();
+        } else if (jsonReader.peek()==JsonToken.STRING || jsonReader.peek()==JsonToken.NUMBER){
+            values.add(jsonReader.nextString());
+        } else{
+            jsonReader.skipValue();
+        }
+        return values;
+    }
+
+    /**
+     * Function to get the list of fields to retrieve from the entries of a given EBI database domain: its retrievable
+     * fields, restricted to the ones configured in ebi.fields when that list is not empty
+     * @param domainId EBI database domain to obtain its list of fields to retrieve
+     * @return list of fields to retrieve from the entries of the given EBI database domain
+     * @throws ApiException
+     */
+    private List<String> getFieldsToRetrieveByDomain(String domainId) throws ApiException {
+        List<String> fieldsToRetrieve = new ArrayList<String>();
+        List<String> retrievableFields = this.getRetrievableFieldsByDomain(domainId);
+        if (retrievableFields!=null){
+            for (String retrievableField : retrievableFields) {
+                if (this.getProjectedFields().isEmpty() || this.getProjectedFields().contains(retrievableField)){
+                    fieldsToRetrieve.add(retrievableField);
+                }
+            }
+        }
+        return fieldsToRetrieve;
     }
 
     /**
@@ -280,6 +571,15 @@ public class EbiClient {
         return retrievableFields;
     }
 
+    /**
+     * Function that checks if the exception passed as parameter was caused by the server throttling our requests
+     * @param e exception thrown by the api
+     * @return true if the exception was caused by a 429 or 503 http status code
+     */
+    private boolean isThrottlingError(ApiException e){
+        return HostRateLimiter.getInstance().isThrottlingStatusCode(e.getCode());
+    }
+
     /**
      * Function that checks if a field is a retrievable field
      * @param field Field to check if it is retrievable
@@ -0,0 +1,496 @@
+package eu.dissco.digitisers.clients.gbif;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.lang3.StringUtils;
+import org.gbif.dwc.Archive;
+import org.gbif.dwc.DwcFiles;
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.GbifTerm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Local read only index of the GBIF backbone taxonomy, built from the backbone checklist Dwc-A file, so the taxonomic
+ * lookups done while digitising and enriching don't need to call GBIF API.
+ * The index is stored in a directory with the following files:
+ * - taxa.dat: taxon records (json in the same format as GBIF API /species/{key}), each preceded by its length
+ * - offsets.idx: position of every taxon record in taxa.dat
+ * - keys.idx: sorted list of (usageKey,recordNumber) packed in longs
+ * - canonicalNames.idx: sorted list of (hash(canonicalName#kingdom),recordNumber) packed in longs
+ * - scientificNames.idx: sorted list of (hash(scientificName),recordNumber) packed in longs
+ * - backbone.properties: information about the index, written once the index has been built successfully
+ * The index files are memory mapped and searched using binary search, while the taxon records are read on demand
+ * from taxa.dat (as it can be bigger than what can be mapped in a single buffer)
+ */
+public class BackboneIndex implements Closeable {
+
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private static final String TAXA_FILE = "taxa.dat";
+    private static final String OFFSETS_FILE = "offsets.idx";
+    private static final String KEYS_FILE = "keys.idx";
+    private static final String CANONICAL_NAMES_FILE = "canonicalNames.idx";
+    private static final String SCIENTIFIC_NAMES_FILE = "scientificNames.idx";
+    private static final String INFO_FILE = "backbone.properties";
+    private final File indexDirectory;
+    private FileChannel taxaChannel;
+    private LongBuffer offsets;
+    private LongBuffer keys;
+    private LongBuffer canonicalNames;
+    private LongBuffer scientificNames;
+
+
+    /***********************/
+    /* GETTERS AND SETTERS */
+    /***********************/
+
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    public File getIndexDirectory() {
+        return indexDirectory;
+    }
+
+    protected FileChannel getTaxaChannel() {
+        return taxaChannel;
+    }
+
+    protected LongBuffer getOffsets() {
+        return offsets;
+    }
+
+    protected LongBuffer getKeys() {
+        return keys;
+    }
+
+    protected LongBuffer getCanonicalNames() {
+        return canonicalNames;
+    }
+
+    protected LongBuffer getScientificNames() {
+        return scientificNames;
+    }
+
+    /**
+     * Get the number of taxa in the index
+     * @return number of taxa in the index
+     */
+    public int getSize() {
+        return this.getOffsets().limit();
+    }
+
+
+    /****************/
+    /* CONSTRUCTORS */
+    /****************/
+
+    /**
+     * Open the backbone index stored in the directory passed as parameter
+     * @param indexDirectory directory where the index was built
+     * @throws IOException if the directory doesn't contain a complete index
+     */
+    public BackboneIndex(File indexDirectory) throws IOException {
+        this.indexDirectory = indexDirectory;
+        if (!exists(indexDirectory)){
+            throw new FileNotFoundException("There is no GBIF backbone index in " + indexDirectory.getAbsolutePath());
+        }
+        this.taxaChannel = FileChannel.open(new File(indexDirectory, TAXA_FILE).toPath(), StandardOpenOption.READ);
+        this.offsets = this.mapIndexFile(OFFSETS_FILE);
+        this.keys = this.mapIndexFile(KEYS_FILE);
+        this.canonicalNames = this.mapIndexFile(CANONICAL_NAMES_FILE);
+        this.scientificNames = this.mapIndexFile(SCIENTIFIC_NAMES_FILE);
+        this.getLogger().info("GBIF backbone index opened from " + indexDirectory.getAbsolutePath() + " with " + this.getSize() + " taxa");
+    }
+
+
+    /******************/
+    /* PUBLIC METHODS */
+    /******************/
+
+    /**
+     * Function that checks if the directory passed as parameter contains a backbone index built completely
+     * @param indexDirectory directory to check
+     * @return true if the directory contains a backbone index, false otherwise
+     */
+    public static boolean exists(File indexDirectory){
+        return new File(indexDirectory, INFO_FILE).exists();
+    }
+
+    /**
+     * Function that builds the backbone index from the GBIF backbone checklist (Dwc-A file whose core is Taxon)
+     * @param dwcaFile GBIF backbone Dwc-A file (compressed) or directory where it was already uncompressed
+     * @param indexDirectory directory where to build the index
+     * @throws IOException
+     */
+    public static void build(File dwcaFile, File indexDirectory) throws IOException {
+        Archive dwcArchive;
+        File extractionDirectory = null;
+        if (dwcaFile.isDirectory()){
+            dwcArchive = DwcFiles.fromLocation(Paths.get(dwcaFile.toURI()));
+        } else{
+            extractionDirectory = Files.createTempDir();
+            Path extractToFolder = Paths.get(extractionDirectory.getPath());
+            dwcArchive = DwcFiles.fromCompressed(Paths.get(dwcaFile.toURI()), extractToFolder);
+        }
+        try{
+            if (!dwcArchive.getCore().getRowType().prefixedName().equalsIgnoreCase("dwc:Taxon")){
+                throw new IOException("The Dwc-A file " + dwcaFile.getAbsolutePath() + " is not a checklist (its core is not Taxon)");
+            }
+            Iterator<Record> records = dwcArchive.getCore().iterator();
+            build(new Iterator<JsonObject>() {
+                @Override
+                public boolean hasNext() {
+                    return records.hasNext();
+                }
+
+                @Override
+                public JsonObject next() {
+                    return getTaxonInfoFromDwcaRecord(records.next());
+                }
+            }, indexDirectory);
+        } finally {
+            //The uncompressed checklist is only needed while the index is built
+            if (extractionDirectory!=null) org.apache.commons.io.FileUtils.deleteQuietly(extractionDirectory);
+        }
+    }
+
+    /**
+     * Function that builds the backbone index from the taxa passed as parameter
+     * @param taxa iterator of taxa, in the same format as GBIF API /species/{key}. Taxa without key are ignored
+     * @param indexDirectory directory where to build the index
+     * @throws IOException
+     */
+    public static void build(Iterator<JsonObject> taxa, File indexDirectory) throws IOException {
+        Logger logger = LoggerFactory.getLogger(BackboneIndex.class);
+        logger.info("Building GBIF backbone index in " + indexDirectory.getAbsolutePath());
+        if (!indexDirectory.exists() && !indexDirectory.mkdirs()){
+            throw new IOException("The directory " + indexDirectory.getAbsolutePath() + " couldn't be created");
+        }
+        new File(indexDirectory, INFO_FILE).delete();
+
+        long[] keys = new long[1024];
+        long[] canonicalNames = new long[1024];
+        long[] scientificNames = new long[1024];
+        int numTaxa = 0;
+        int numCanonicalNames = 0;
+        int numScientificNames = 0;
+        long offset = 0;
+        try (DataOutputStream taxaOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(indexDirectory, TAXA_FILE)), 1 << 16));
+             DataOutputStream offsetsOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(indexDirectory, OFFSETS_FILE)), 1 << 16))){
+            while (taxa.hasNext()){
+                JsonObject taxonInfo = taxa.next();
+                if (taxonInfo==null || !taxonInfo.has("key")){
+                    continue;
+                }
+                byte[] taxonBytes = taxonInfo.toString().getBytes(StandardCharsets.UTF_8);
+                taxaOutput.writeInt(taxonBytes.length);
+                taxaOutput.write(taxonBytes);
+                offsetsOutput.writeLong(offset);
+                offset += 4 + taxonBytes.length;
+
+                if (numTaxa==keys.length){
+                    keys = Arrays.copyOf(keys, keys.length * 2);
+                }
+                keys[numTaxa] = pack(taxonInfo.get("key").getAsInt(), numTaxa);
+
+                String canonicalName = getString(taxonInfo, "canonicalName");
+                if (StringUtils.isNotBlank(canonicalName)){
+                    if (numCanonicalNames==canonicalNames.length){
+                        canonicalNames = Arrays.copyOf(canonicalNames, canonicalNames.length * 2);
+                    }
+                    canonicalNames[numCanonicalNames++] = pack(hash(canonicalName + "#" + StringUtils.defaultString(getString(taxonInfo, "kingdom"))), numTaxa);
+                }
+
+                String scientificName = getString(taxonInfo, "scientificName");
+                if (StringUtils.isNotBlank(scientificName)){
+                    if (numScientificNames==scientificNames.length){
+                        scientificNames = Arrays.copyOf(scientificNames, scientificNames.length * 2);
+                    }
+                    scientificNames[numScientificNames++] = pack(hash(scientificName), numTaxa);
+                }
+                numTaxa++;
+            }
+        }
+        writeSortedIndexFile(new File(indexDirectory, KEYS_FILE), keys, numTaxa);
+        writeSortedIndexFile(new File(indexDirectory, CANONICAL_NAMES_FILE), canonicalNames, numCanonicalNames);
+        writeSortedIndexFile(new File(indexDirectory, SCIENTIFIC_NAMES_FILE), scientificNames, numScientificNames);
+
+        //The info file is written at the end, so an index which build was interrupted is not used
+        try (Writer infoWriter = new OutputStreamWriter(new FileOutputStream(new File(indexDirectory, INFO_FILE)), StandardCharsets.UTF_8)){
+            infoWriter.write("taxa=" + numTaxa + System.lineSeparator());
+            infoWriter.write("created=" + System.currentTimeMillis() + System.lineSeparator());
+        }
+        logger.info("GBIF backbone index built with " + numTaxa + " taxa");
+    }
+
+    /**
+     * Function to get the taxon information by its usage key
+     * @param taxonId usage key of the taxon in the GBIF backbone
+     * @return json object with the taxon information (same format as GBIF API /species/{key}) or null if not found
+     * @throws IOException
+     */
+    public JsonObject getTaxonById(String taxonId) throws IOException {
+        JsonObject taxonInfo = null;
+        int key;
+        try{
+            key = Integer.parseInt(StringUtils.trim(taxonId));
+        } catch (NumberFormatException e){
+            return null;
+        }
+        int position = firstPosition(this.getKeys(), key);
+        if (position>=0){
+            taxonInfo = this.readTaxon(unpackRecordNumber(this.getKeys().get(position)));
+        }
+        return taxonInfo;
+    }
+
+    /**
+     * Function to get the usage key of the taxon with the canonical name and kingdom passed as parameter.
+     * When there are several taxa with the same name, accepted taxa are preferred over doubtful ones and these ones
+     * over synonyms (and then the one with lowest key), similar to what GBIF species match does
+     * @param canonicalName canonical name of the taxon (ignoring case)
+     * @param kingdom name of the kingdom the taxon belongs to (ignoring case)
+     * @return usage key of the taxon or null if not found
+     * @throws IOException
+     */
+    public String getTaxonIdByCanonicalNameAndKingdom(String canonicalName, String kingdom) throws IOException {
+        JsonObject bestTaxonInfo = null;
+        int position = firstPosition(this.getCanonicalNames(), hash(canonicalName + "#" + StringUtils.defaultString(kingdom)));
+        while (position>=0 && position<this.getCanonicalNames().limit()
+                && unpackKey(this.getCanonicalNames().get(position))==hash(canonicalName + "#" + StringUtils.defaultString(kingdom))){
+            JsonObject taxonInfo = this.readTaxon(unpackRecordNumber(this.getCanonicalNames().get(position)));
+            //Check the name as different names could have the same hash
+            if (canonicalName.equalsIgnoreCase(getString(taxonInfo, "canonicalName")) && StringUtils.equalsIgnoreCase(kingdom, getString(taxonInfo, "kingdom"))){
+                if (bestTaxonInfo==null || this.isPreferredTaxon(taxonInfo, bestTaxonInfo)){
+                    bestTaxonInfo = taxonInfo;
+                }
+            }
+            position++;
+        }
+        return bestTaxonInfo!=null ? bestTaxonInfo.get("key").getAsString() : null;
+    }
+
+    /**
+     * Function that gets the parsed name of a scientific name which is in the backbone, as the backbone already
+     * contains its canonical name and authorship
+     * @param scientificName scientific name (including authorship) as it is in the backbone
+     * @return json object with the same main attributes as GBIF API /parser/name or null if the scientific name is not
+     * in the backbone
+     * @throws IOException
+     */
+    public JsonObject getParsedName(String scientificName) throws IOException {
+        JsonObject parsedName = null;
+        int position = firstPosition(this.getScientificNames(), hash(scientificName));
+        while (parsedName==null && position>=0 && position<this.getScientificNames().limit()
+                && unpackKey(this.getScientificNames().get(position))==hash(scientificName)){
+            JsonObject taxonInfo = this.readTaxon(unpackRecordNumber(this.getScientificNames().get(position)));
+            if (scientificName.equals(getString(taxonInfo, "scientificName")) && taxonInfo.has("canonicalName")){
+                parsedName = new JsonObject();
+                parsedName.addProperty("scientificName", scientificName);
+                parsedName.addProperty("type", "SCIENTIFIC");
+                parsedName.addProperty("canonicalName", getString(taxonInfo, "canonicalName"));
+                if (taxonInfo.has("authorship")){
+                    parsedName.addProperty("authorship", getString(taxonInfo, "authorship"));
+                }
+                if (taxonInfo.has("rank")){
+                    parsedName.addProperty("rank", getString(taxonInfo, "rank"));
+                }
+                parsedName.addProperty("parsed", true);
+            }
+            position++;
+        }
+        return parsedName;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.getTaxaChannel().close();
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that converts a record of the backbone Dwc-A into a json object with the same format as GBIF API /species/{key}
+     * @param rec record of the core file (Taxon) of the backbone
+     * @return json object with the taxon information
+     */
+    private static JsonObject getTaxonInfoFromDwcaRecord(Record rec){
+        JsonObject taxonInfo = new JsonObject();
+        if (StringUtils.isNumeric(rec.id())){
+            taxonInfo.addProperty("key", Integer.parseInt(rec.id()));
+            taxonInfo.addProperty("nubKey", Integer.parseInt(rec.id()));
+        }
+        addIntegerProperty(taxonInfo, "parentKey", rec.value(DwcTerm.parentNameUsageID));
+        addIntegerProperty(taxonInfo, "acceptedKey", rec.value(DwcTerm.acceptedNameUsageID));
+        addStringProperty(taxonInfo, "scientificName", rec.value(DwcTerm.scientificName));
+        addStringProperty(taxonInfo, "canonicalName", rec.value(GbifTerm.canonicalName));
+        addStringProperty(taxonInfo, "authorship", rec.value(DwcTerm.scientificNameAuthorship));
+        addStringProperty(taxonInfo, "rank", StringUtils.upperCase(rec.value(DwcTerm.taxonRank)));
+        addStringProperty(taxonInfo, "taxonomicStatus", StringUtils.upperCase(StringUtils.replace(rec.value(DwcTerm.taxonomicStatus), " ", "_")));
+        addStringProperty(taxonInfo, "kingdom", rec.value(DwcTerm.kingdom));
+        addStringProperty(taxonInfo, "phylum", rec.value(DwcTerm.phylum));
+        addStringProperty(taxonInfo, "class", rec.value(DwcTerm.class_));
+        addStringProperty(taxonInfo, "order", rec.value(DwcTerm.order));
+        addStringProperty(taxonInfo, "family", rec.value(DwcTerm.family));
+        addStringProperty(taxonInfo, "genus", rec.value(DwcTerm.genus));
+        return taxonInfo;
+    }
+
+    private static void addStringProperty(JsonObject jsonObject, String property, String value){
+        if (StringUtils.isNotBlank(value)){
+            jsonObject.addProperty(property, value);
+        }
+    }
+
+    private static void addIntegerProperty(JsonObject jsonObject, String property, String value){
+        if (StringUtils.isNumeric(value)){
+            jsonObject.addProperty(property, Integer.parseInt(value));
+        }
+    }
+
+    private static String getString(JsonObject jsonObject, String property){
+        return jsonObject.has(property) && !jsonObject.get(property).isJsonNull() ? jsonObject.get(property).getAsString() : null;
+    }
+
+    /**
+     * Function that sorts the entries of an index and write them to a file
+     * @param indexFile file where to write the index
+     * @param entries entries of the index
+     * @param size number of entries of the index used
+     * @throws IOException
+     */
+    private static void writeSortedIndexFile(File indexFile, long[] entries, int size) throws IOException {
+        Arrays.sort(entries, 0, size);
+        try (DataOutputStream indexOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16))){
+            for (int i = 0; i < size; i++) {
+                indexOutput.writeLong(entries[i]);
+            }
+        }
+    }
+
+    /**
+     * Function that gets the hash of a name used in the name indexes (ignoring case)
+     * @param name name to get its hash
+     * @return hash of the name
+     */
+    private static int hash(String name){
+        return Hashing.murmur3_32().hashString(name.trim().toLowerCase(), StandardCharsets.UTF_8).asInt();
+    }
+
+    private static long pack(int key, int recordNumber){
+        return ((long) key << 32) | (recordNumber & 0xFFFFFFFFL);
+    }
+
+    private static int unpackKey(long entry){
+        return (int) (entry >> 32);
+    }
+
+    private static int unpackRecordNumber(long entry){
+        return (int) entry;
+    }
+
+    /**
+     * Function that gets the first position of a key in an index using binary search
+     * @param index sorted index
+     * @param key key to search
+     * @return first position of the key in the index, or -1 if the key is not in the index
+     */
+    private static int firstPosition(LongBuffer index, int key){
+        int low = 0;
+        int high = index.limit() - 1;
+        int position = -1;
+        while (low<=high){
+            int middle = (low + high) >>> 1;
+            int middleKey = unpackKey(index.get(middle));
+            if (middleKey<key){
+                low = middle + 1;
+            } else {
+                if (middleKey==key){
+                    position = middle;
+                }
+                high = middle - 1;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Function that maps in memory an index file of the backbone index
+     * @param fileName name of the index file
+     * @return buffer with the entries of the index
+     * @throws IOException
+     */
+    private LongBuffer mapIndexFile(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(this.getIndexDirectory(), fileName).toPath(), StandardOpenOption.READ)){
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asLongBuffer();
+        }
+    }
+
+    /**
+     * Function that reads a taxon record from the taxa file
+     * @param recordNumber number of the record
+     * @return json object with the taxon information
+     * @throws IOException
+     */
+    private JsonObject readTaxon(int recordNumber) throws IOException {
+        long offset = this.getOffsets().get(recordNumber);
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        this.readFully(lengthBuffer, offset);
+        ByteBuffer taxonBuffer = ByteBuffer.allocate(lengthBuffer.getInt(0));
+        this.readFully(taxonBuffer, offset + 4);
+        return new JsonParser().parse(new String(taxonBuffer.array(), StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()){
+            if (this.getTaxaChannel().read(buffer, position + buffer.position())<0){
+                throw new EOFException("Unexpected end of file in GBIF backbone index " + this.getIndexDirectory().getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Function that checks if a taxon should be preferred over other with the same name, according to its taxonomic
+     * status (accepted, doubtful, synonyms) and then its key
+     * @param taxonInfo taxon to check
+     * @param otherTaxonInfo taxon to compare with
+     * @return true if the taxon is preferred over the other one
+     */
+    private boolean isPreferredTaxon(JsonObject taxonInfo, JsonObject otherTaxonInfo){
+        int statusOrder = Integer.compare(this.getStatusOrder(taxonInfo), this.getStatusOrder(otherTaxonInfo));
+        return statusOrder<0 || (statusOrder==0 && taxonInfo.get("key").getAsInt()<otherTaxonInfo.get("key").getAsInt());
+    }
+
+    private int getStatusOrder(JsonObject taxonInfo){
+        String status = StringUtils.defaultString(getString(taxonInfo, "taxonomicStatus"));
+        if (status.equalsIgnoreCase("ACCEPTED")){
+            return 0;
+        } else if (status.equalsIgnoreCase("DOUBTFUL")){
+            return 1;
+        } else{
+            return 2;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package eu.dissco.digitisers.clients.gbif;
+
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import eu.dissco.digitisers.utils.FileUtils;
+import eu.dissco.digitisers.utils.JsonUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Index of the occurrence downloads requested to GBIF, so a download of the same predicate can be reused instead of
+ * requesting a new one. Downloads are indexed by their key and by the hash of their predicate, and for each download
+ * we keep its DOI, its creation time and the local file where it was downloaded.
+ * When an index file is provided, the index is stored as a json array in it, so it can be used in next executions
+ */
+public class DownloadIndex {
+
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final static Set<String> predicateProperties = new HashSet<String>(Arrays.asList("type","key","value","values","predicate","predicates"));
+    private File indexFile; //File where the index is stored (null to keep it only in memory)
+    private Map<String, JsonObject> mapDownloadByKey;
+
+
+    /***********************/
+    /* GETTERS AND SETTERS */
+    /***********************/
+
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    protected File getIndexFile() {
+        return indexFile;
+    }
+
+    protected Map<String, JsonObject> getMapDownloadByKey() {
+        return mapDownloadByKey;
+    }
+
+
+    /****************/
+    /* CONSTRUCTORS */
+    /****************/
+
+    /**
+     * Create the index of downloads, loading the downloads stored in the index file passed as parameter (if it exists)
+     * @param indexFile json file where the index is stored, or null to keep the index only in memory
+     */
+    public DownloadIndex(File indexFile){
+        this.indexFile = indexFile;
+        this.mapDownloadByKey = new LinkedHashMap<String, JsonObject>();
+        if (indexFile!=null && indexFile.exists()){
+            try{
+                JsonArray downloads = FileUtils.loadJsonElementFromFilePath(indexFile.getAbsolutePath()).getAsJsonArray();
+                for (JsonElement download : downloads) {
+                    this.getMapDownloadByKey().put(download.getAsJsonObject().get("downloadKey").getAsString(),download.getAsJsonObject());
+                }
+                this.getLogger().info("GBIF downloads index loaded with " + this.getMapDownloadByKey().size() + " downloads from " + indexFile.getAbsolutePath());
+            } catch (Exception e){
+                this.getLogger().error("Error loading GBIF downloads index " + indexFile.getAbsolutePath() + " " + e.getMessage());
+            }
+        }
+    }
+
+
+    /******************/
+    /* PUBLIC METHODS */
+    /******************/
+
+    /**
+     * Function that gets the hash of a download predicate. The hash is calculated over a canonical form of the
+     * predicate (only the properties that define the predicate, with its properties, values and sub-predicates
+     * sorted), so the predicates we send to GBIF and the ones GBIF returns in the list of downloads of the user get
+     * the same hash when they are equivalent
+     * @param predicate predicate of the download query
+     * @return SHA-256 hash of the predicate (in hexadecimal)
+     */
+    public static String getPredicateHash(JsonObject predicate){
+        String canonicalPredicate = getCanonicalPredicate(predicate).toString();
+        return Hashing.sha256().hashString(canonicalPredicate, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * Function that gets the most recent download of a predicate created after the time passed as parameter
+     * @param predicateHash hash of the predicate of the download
+     * @param minCreated minimum creation time of the download (milliseconds since epoch)
+     * @return Json object with the information of the download {predicateHash, downloadKey, doi, created, file} or
+     * null if there isn't any recent enough
+     */
+    public synchronized JsonObject getDownloadByPredicateHash(String predicateHash, long minCreated){
+        JsonObject download = null;
+        for (JsonObject candidate : this.getMapDownloadByKey().values()) {
+            long created = candidate.get("created").getAsLong();
+            if (candidate.get("predicateHash").getAsString().equals(predicateHash) && created>=minCreated &&
+                    (download==null || created>download.get("created").getAsLong())){
+                download = candidate;
+            }
+        }
+        return download!=null ? download.deepCopy() : null;
+    }
+
+    /**
+     * Function that gets a download by its key
+     * @param downloadKey key of the download in GBIF
+     * @return Json object with the information of the download or null if the download is not in the index
+     */
+    public synchronized JsonObject getDownloadByKey(String downloadKey){
+        JsonObject download = this.getMapDownloadByKey().get(downloadKey);
+        return download!=null ? download.deepCopy() : null;
+    }
+
+    /**
+     * Function that adds a download to the index (replacing the previous information of the download if it was already
+     * indexed) and saves the index in its file
+     * @param download Json object with the information of the download {predicateHash, downloadKey, doi, created, file}
+     */
+    public synchronized void putDownload(JsonObject download){
+        this.getMapDownloadByKey().put(download.get("downloadKey").getAsString(),download.deepCopy());
+        if (this.getIndexFile()!=null){
+            try{
+                this.saveToFile();
+            } catch (Exception e){
+                this.getLogger().error("Error saving GBIF downloads index " + this.getIndexFile().getAbsolutePath() + " " + e.getMessage());
+            }
+        }
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that saves the index in its file. The index is written first in a temporary file which then replaces
+     * the index file, so the index file is never left half written
+     * @throws IOException
+     */
+    private void saveToFile() throws IOException {
+        JsonArray downloads = new JsonArray();
+        for (JsonObject download : this.getMapDownloadByKey().values()) {
+            downloads.add(download);
+        }
+        File tempFile = new File(this.getIndexFile().getAbsolutePath() + ".tmp");
+        Files.write(tempFile.toPath(), JsonUtils.serializeObject(downloads).getBytes(StandardCharsets.UTF_8));
+        Files.move(tempFile.toPath(), this.getIndexFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Function that gets the canonical form of a predicate (or part of it)
+     * @param jsonElement predicate or value of a property of a predicate
+     * @return canonical form of the predicate
+     */
+    private static JsonElement getCanonicalPredicate(JsonElement jsonElement){
+        JsonElement canonicalElement;
+        if (jsonElement.isJsonObject()){
+            JsonObject canonicalObj = new JsonObject();
+            Map<String,JsonElement> sortedProperties = new TreeMap<String,JsonElement>();
+            for (Map.Entry<String,JsonElement> property : jsonElement.getAsJsonObject().entrySet()) {
+                if (predicateProperties.contains(property.getKey()) && !property.getValue().isJsonNull()){
+                    sortedProperties.put(property.getKey(),property.getValue());
+                }
+            }
+            for (Map.Entry<String,JsonElement> property : sortedProperties.entrySet()) {
+                JsonElement value = getCanonicalPredicate(property.getValue());
+                if (property.getKey().equals("type") || property.getKey().equals("key")){
+                    value = new JsonPrimitive(value.getAsString().toLowerCase());
+                }
+                canonicalObj.add(property.getKey(),value);
+            }
+            canonicalElement = canonicalObj;
+        } else if (jsonElement.isJsonArray()){
+            //The order of the values of an "in" predicate and of the sub-predicates of "and" and "or" doesn't matter
+            List<JsonElement> elements = new ArrayList<JsonElement>();
+            for (JsonElement element : jsonElement.getAsJsonArray()) {
+                elements.add(getCanonicalPredicate(element));
+            }
+            elements.sort(Comparator.comparing(JsonElement::toString));
+            JsonArray canonicalArr = new JsonArray();
+            for (JsonElement element : elements) {
+                canonicalArr.add(element);
+            }
+            canonicalElement = canonicalArr;
+        } else if (jsonElement.isJsonPrimitive()){
+            //GBIF may return the values as strings even if they were sent as numbers
+            canonicalElement = new JsonPrimitive(jsonElement.getAsString());
+        } else{
+            canonicalElement = jsonElement;
+        }
+        return canonicalElement;
+    }
+}
@@ -1,5 +1,6 @@
 package eu.dissco.digitisers.clients.gbif;
 
+import com.google.common.cache.CacheBuilder;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -7,18 +8,25 @@ import com.google.gson.JsonObject;
 import com.maxmind.geoip2.model.CountryResponse;
 import eu.dissco.digitisers.clients.misc.CountryClient;
 import eu.dissco.digitisers.utils.FileUtils;
+import eu.dissco.digitisers.utils.HostRateLimiter;
 import eu.dissco.digitisers.utils.JsonUtils;
 import eu.dissco.digitisers.utils.NetUtils;
+import eu.dissco.digitisers.utils.ScientificNameUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.InputStream;
 import java.net.URLEncoder;
-import java.util.Base64;
-import java.util.Map;
-import java.util.Optional;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class GbifClient {
 
@@ -31,11 +39,18 @@ public class GbifClient {
     private final String apiUrl = "http://api.gbif.org/v1";
     private final GbifInfo gbifInfo;
     private Map<String, Optional<JsonObject>> mapTaxonById; //Map to improve efficiency of this class, so it doesn't need to call the external APIs when we already got results
-    private Map<String,Optional<JsonObject>> mapParsedNameByScientificName; //Map to improve efficiency of this class
+    private final int parsedNamesCacheSize = 100000;
+    private Map<String,Optional<JsonObject>> mapParsedNameByScientificName; //Map to improve efficiency of this class (bounded, as there can be millions of names)
     private Map<String,Optional<String>> mapTaxonIdByCanonicalNameAndKingdom; //Map to improve efficiency of this class
     private Map<String,Optional<JsonArray>> mapInstitutionsInfoByCode; //Map to improve efficiency of this class
     private Map<String,Optional<JsonObject>> mapInstitutionInfoById; //Map to improve efficiency of this class
     private Map<String,Optional<JsonObject>> mapCollectionInfoByInstitutionIdAndCollectionName; //Map to improve efficiency of this class
+    private GrSciCollIndex grSciCollIndex; //Local index of GRSciColl institutions and collections (when a snapshot is configured)
+    private final long countryRetryMillis = TimeUnit.DAYS.toMillis(30); //Time before trying again to get the country of an institution of the snapshot without it
+    private BackboneIndex backboneIndex; //Local index of GBIF backbone taxonomy (when configured)
+    private DownloadIndex downloadIndex; //Index of the occurrence downloads, so downloads of the same predicate are reused
+    private final String downloadIndexFilename = "downloads.json";
+    private final int userDownloadsPageSize = 100;
 
 
     /***********************/
@@ -102,6 +117,18 @@ public class GbifClient {
         this.mapCollectionInfoByInstitutionIdAndCollectionName = mapCollectionInfoByInstitutionIdAndCollectionName;
     }
 
+    protected GrSciCollIndex getGrSciCollIndex() {
+        return grSciCollIndex;
+    }
+
+    protected BackboneIndex getBackboneIndex() {
+        return backboneIndex;
+    }
+
+    protected DownloadIndex getDownloadIndex() {
+        return downloadIndex;
+    }
+
 
     /****************/
     /* CONSTRUCTORS */
@@ -112,12 +139,25 @@ public class GbifClient {
      */
     private GbifClient(GbifInfo gbifInfo){
         this.gbifInfo=gbifInfo;
-        this.mapParsedNameByScientificName = new ConcurrentHashMap<String,Optional<JsonObject>>();
+        this.mapParsedNameByScientificName = CacheBuilder.newBuilder().maximumSize(parsedNamesCacheSize).<String,Optional<JsonObject>>build().asMap();
         this.mapTaxonById = new ConcurrentHashMap<String, Optional<JsonObject>>();
         this.mapTaxonIdByCanonicalNameAndKingdom = new ConcurrentHashMap<String, Optional<String>>();
         this.mapInstitutionsInfoByCode = new ConcurrentHashMap<String, Optional<JsonArray>>();
         this.mapInstitutionInfoById = new ConcurrentHashMap<String, Optional<JsonObject>>();
         this.mapCollectionInfoByInstitutionIdAndCollectionName = new ConcurrentHashMap<String, Optional<JsonObject>>();
+        if (StringUtils.isNotBlank(gbifInfo.getGrSciCollSnapshotFile())){
+            this.grSciCollIndex = this.loadGrSciCollIndex(new File(gbifInfo.getGrSciCollSnapshotFile()));
+        }
+        if (StringUtils.isNotBlank(gbifInfo.getBackboneIndexDirectory())){
+            this.backboneIndex = this.loadBackboneIndex(new File(gbifInfo.getBackboneIndexDirectory()), gbifInfo.getBackboneDwcaFile());
+        }
+        if (StringUtils.isNotBlank(gbifInfo.getDownloadsDirectory())){
+            File downloadsDirectory = new File(gbifInfo.getDownloadsDirectory());
+            downloadsDirectory.mkdirs();
+            this.downloadIndex = new DownloadIndex(new File(downloadsDirectory,downloadIndexFilename));
+        } else{
+            this.downloadIndex = new DownloadIndex(null);
+        }
     }
 
 
@@ -144,21 +184,31 @@ public class GbifClient {
      */
     public JsonObject getTaxonInfoById(String taxonId) throws Exception {
         JsonObject gbifTaxonInfo=null;
+        if (this.getBackboneIndex()!=null){
+            //Look it up in the local backbone index first. If not found (the index may be older), GBIF API is used
+            gbifTaxonInfo = this.getBackboneIndex().getTaxonById(taxonId);
+            if (gbifTaxonInfo!=null) return gbifTaxonInfo;
+        }
         if (this.getMapTaxonById().containsKey(taxonId)){
             gbifTaxonInfo = this.getMapTaxonById().get(taxonId).orElse(null);
         } else{
+            boolean cacheResult = true;
             try{
                 gbifTaxonInfo = (JsonObject) NetUtils.doGetRequestJson(this.getApiUrl()+"/species/"+taxonId);
             } catch (Exception e){
                 this.getLogger().error("Error getting GBIF taxon info for taxonId="+taxonId);
+                //Don't remember the failure if it was due to the server throttling our requests
+                cacheResult = !HostRateLimiter.isThrottlingError(e);
             }
-            this.getMapTaxonById().put(taxonId,Optional.ofNullable(gbifTaxonInfo));
+            if (cacheResult) this.getMapTaxonById().put(taxonId,Optional.ofNullable(gbifTaxonInfo));
         }
         return gbifTaxonInfo;
     }
 
     /**
      * Function that parsed a scientific names.
+     * Note: Names are parsed locally (local backbone index or embedded parser), and only the names that can't be parsed
+     * locally are sent to GBIF name parser
      * @param scientificName scientific name to be parsed
      * @return Json object with the information of parsing the scientific name or null if the parser fails
      * @throws Exception
@@ -168,12 +218,29 @@ public class GbifClient {
         if (this.getMapParsedNameByScientificName().containsKey(scientificName)){
             parsedName = this.getMapParsedNameByScientificName().get(scientificName).orElse(null);
         } else{
-            String scientificNameEncoded = URLEncoder.encode(scientificName, "UTF-8");
-            JsonArray parsedNames =(JsonArray) NetUtils.doGetRequestJson(this.getApiUrl()+"/parser/name?name="+scientificNameEncoded);
-            if (parsedNames.size()==1){
-                parsedName = parsedNames.get(0).getAsJsonObject();
+            if (this.getBackboneIndex()!=null){
+                //Names that are in the local backbone index already have their canonical name
+                parsedName = this.getBackboneIndex().getParsedName(scientificName);
+            }
+            if (parsedName==null){
+                parsedName = ScientificNameUtils.parseName(scientificName);
+            }
+            boolean cacheResult = true;
+            if (parsedName==null){
+                //Only names that the embedded parser can't handle are sent to GBIF name parser
+                try{
+                    String scientificNameEncoded = URLEncoder.encode(scientificName, "UTF-8");
+                    JsonArray parsedNames =(JsonArray) NetUtils.doGetRequestJson(this.getApiUrl()+"/parser/name?name="+scientificNameEncoded);
+                    if (parsedNames.size()==1){
+                        parsedName = parsedNames.get(0).getAsJsonObject();
+                    }
+                } catch (Exception e){
+                    this.getLogger().error("Error parsing scientific name " + scientificName + " with GBIF name parser");
+                    //Don't remember the failure if it was due to the server throttling our requests
+                    cacheResult = !HostRateLimiter.isThrottlingError(e);
+                }
             }
-            this.getMapParsedNameByScientificName().put(scientificName,Optional.ofNullable(parsedName));
+            if (cacheResult) this.getMapParsedNameByScientificName().put(scientificName,Optional.ofNullable(parsedName));
         }
         return parsedName;
     }
@@ -187,16 +254,28 @@ public class GbifClient {
      */
     public String getTaxonIdByCanonicalNameAndKingdom(String canonicalName, String kingdom) throws Exception {
         String taxonId = null;
+        if (this.getBackboneIndex()!=null){
+            //Look it up in the local backbone index first. If not found (the index may be older), GBIF API is used
+            taxonId = this.getBackboneIndex().getTaxonIdByCanonicalNameAndKingdom(canonicalName,kingdom);
+            if (taxonId!=null) return taxonId;
+        }
         if (this.getMapTaxonIdByCanonicalNameAndKingdom().containsKey(canonicalName+"#"+kingdom)){
             taxonId = this.getMapTaxonIdByCanonicalNameAndKingdom().get(canonicalName+"#"+kingdom).orElse(null);
         } else{
-            String scientificNameEncoded = URLEncoder.encode(canonicalName, "UTF-8");
-            String kingdomEncoded = URLEncoder.encode(kingdom, "UTF-8");
-            JsonObject searchResult = (JsonObject) NetUtils.doGetRequestJson(this.getApiUrl()+"/species/match?name="+scientificNameEncoded+"&kingdom="+kingdomEncoded);
-            if (searchResult!=null && searchResult.has("usageKey") && canonicalName.equalsIgnoreCase(searchResult.get("canonicalName").getAsString())){
-                taxonId=searchResult.get("usageKey").getAsString();
+            boolean cacheResult = true;
+            try{
+                String scientificNameEncoded = URLEncoder.encode(canonicalName, "UTF-8");
+                String kingdomEncoded = URLEncoder.encode(kingdom, "UTF-8");
+                JsonObject searchResult = (JsonObject) NetUtils.doGetRequestJson(this.getApiUrl()+"/species/match?name="+scientificNameEncoded+"&kingdom="+kingdomEncoded);
+                if (searchResult!=null && searchResult.has("usageKey") && canonicalName.equalsIgnoreCase(searchResult.get("canonicalName").getAsString())){
+                    taxonId=searchResult.get("usageKey").getAsString();
+                }
+            } catch (Exception e){
+                this.getLogger().error("Error getting GBIF taxonId for canonicalName=" + canonicalName + " and kingdom=" + kingdom);
+                //Don't remember the failure if it was due to the server throttling our requests
+                cacheResult = !HostRateLimiter.isThrottlingError(e);
             }
-            this.getMapTaxonIdByCanonicalNameAndKingdom().put(canonicalName+"#"+kingdom,Optional.ofNullable(taxonId));
+            if (cacheResult) this.getMapTaxonIdByCanonicalNameAndKingdom().put(canonicalName+"#"+kingdom,Optional.ofNullable(taxonId));
         }
         return taxonId;
     }
@@ -210,6 +289,9 @@ public class GbifClient {
      */
     public File downloadOccurrencesByCanonicalNameAndKingdom(String canonicalName, String kingdom) throws Exception {
         String taxonId = this.getTaxonIdByCanonicalNameAndKingdom(canonicalName,kingdom);
+        if (taxonId==null){
+            throw new Exception("Taxon concept " + canonicalName + " (" + kingdom + ") can't be found in GBIF");
+        }
         return downloadOccurrencesByTaxonId(taxonId);
     }
 
@@ -220,16 +302,58 @@ public class GbifClient {
      * @throws Exception
      */
     public File downloadOccurrencesByTaxonId(String taxonId) throws Exception {
-        File dwcaFile = null;
-        String auth = "Basic " + Base64.getEncoder().encodeToString((this.getGbifInfo().getUsername()+":"+this.getGbifInfo().getPassword()).getBytes());
+        JsonObject downloadQuery = this.getOccurrenceDownloadQueryByTaxonId(taxonId);
+        String downloadKey = this.requestOccurrencesDownload(downloadQuery);
+        return this.getOccurrencesDownload(downloadKey);
+    }
 
-        //Request download occurrences
-        JsonObject downloadQuery = (JsonObject) FileUtils.loadJsonElementFromResourceFile("gbifFilterSpecimenOccurrenceDownloadPredicate.json");
-        JsonObject taxonKeyPredicate = downloadQuery.getAsJsonObject("predicate").getAsJsonArray("predicates").get(0).getAsJsonObject();
-        taxonKeyPredicate.addProperty("value",taxonId);
-        JsonElement result = NetUtils.doPostRequestJson(this.getApiUrl()+"/occurrence/download/request",auth,downloadQuery);
+    /**
+     * Function that requests to GBIF the download of the occurrences that match the download query.
+     * Note: If there is a recent enough download of the same predicate (in the local index of downloads or in the list
+     * of downloads of the GBIF user), its key is returned instead of requesting a new download
+     * @param downloadQuery download query (predicate and format of the download)
+     * @return key of the download, used to get its file once it is ready
+     * @throws Exception
+     */
+    public String requestOccurrencesDownload(JsonObject downloadQuery) throws Exception {
+        String downloadKey = this.getReusableOccurrencesDownloadKey(downloadQuery);
+        if (downloadKey!=null){
+            this.getLogger().info("Reusing GBIF download " + downloadKey + " as it has the same predicate");
+        } else{
+            JsonElement result = NetUtils.doPostRequestJson(this.getApiUrl()+"/occurrence/download/request",this.getAuth(),downloadQuery);
+            downloadKey = result.getAsString();
+        }
+        return downloadKey;
+    }
 
-        String downloadKey=result.getAsString();
+    /**
+     * Function that waits until GBIF has prepared the download requested and then downloads its file
+     * @param downloadKey key of the download
+     * @return Dwca file with the specimen data obtained from GBIF
+     * @throws Exception
+     */
+    public File getOccurrencesDownload(String downloadKey) throws Exception {
+        return this.getOccurrencesDownload(downloadKey,null);
+    }
+
+    /**
+     * Function that waits until GBIF has prepared the download requested and then downloads its file, passing its
+     * content to the stream consumer as it arrives.
+     * Note: If the file of the download is already available locally, the stream consumer is not called
+     * @param downloadKey key of the download
+     * @param streamConsumer consumer of the content of the file as it arrives (null to only download the file)
+     * @return Dwca file with the specimen data obtained from GBIF
+     * @throws Exception
+     */
+    public File getOccurrencesDownload(String downloadKey, Consumer<InputStream> streamConsumer) throws Exception {
+        JsonObject indexedDownload = this.getDownloadIndex().getDownloadByKey(downloadKey);
+        if (indexedDownload!=null && indexedDownload.has("file") && new File(indexedDownload.get("file").getAsString()).exists()){
+            this.getLogger().info("Using local file of GBIF download " + downloadKey);
+            return new File(indexedDownload.get("file").getAsString());
+        }
+
+        File dwcaFile = null;
+        String auth = this.getAuth();
         boolean downloadBeingProcessed = true;
         String downloadLink=null;
         int i = 0;
@@ -240,7 +364,8 @@ public class GbifClient {
             if (i==60 || status.equalsIgnoreCase("SUCCEEDED")){
                 downloadBeingProcessed=false;
                 downloadLink=downloadInfo.get("downloadLink").getAsString();
-                dwcaFile = NetUtils.downloadFile(downloadLink);
+                dwcaFile = NetUtils.downloadFile(downloadLink,null,streamConsumer);
+                dwcaFile = this.addDownloadToIndex(downloadInfo,dwcaFile);
             } else{
                 Thread.sleep(sleepSeconds * 1000);
             }
@@ -250,6 +375,69 @@ public class GbifClient {
         return dwcaFile;
     }
 
+    /**
+     * Function that gets the query used to request the download of all the specimens (preserved, living and fossils)
+     * for a given taxon concept
+     * @param taxonId taxonID of the taxon concept we want to obtain its specimens
+     * @return Json object with the download query, whose predicate can also be used in the occurrence search
+     * @throws Exception
+     */
+    public JsonObject getOccurrenceDownloadQueryByTaxonId(String taxonId) throws Exception {
+        JsonObject downloadQuery = (JsonObject) FileUtils.loadJsonElementFromResourceFile("gbifFilterSpecimenOccurrenceDownloadPredicate.json");
+        JsonObject taxonKeyPredicate = downloadQuery.getAsJsonObject("predicate").getAsJsonArray("predicates").get(0).getAsJsonObject();
+        taxonKeyPredicate.addProperty("value",taxonId);
+        return downloadQuery;
+    }
+
+    /**
+     * Function that gets the query used to request the download of all the specimens (preserved, living and fossils)
+     * for several taxon concepts at once, by using an "in" predicate on their taxon keys
+     * @param taxonIds taxonIDs of the taxon concepts we want to obtain its specimens
+     * @return Json object with the download query
+     * @throws Exception
+     */
+    public JsonObject getOccurrenceDownloadQueryByTaxonIds(Collection<String> taxonIds) throws Exception {
+        JsonObject downloadQuery = (JsonObject) FileUtils.loadJsonElementFromResourceFile("gbifFilterSpecimenOccurrenceDownloadPredicate.json");
+        JsonObject taxonKeyPredicate = downloadQuery.getAsJsonObject("predicate").getAsJsonArray("predicates").get(0).getAsJsonObject();
+        JsonArray values = new JsonArray();
+        for (String taxonId : taxonIds) {
+            values.add(taxonId);
+        }
+        taxonKeyPredicate.addProperty("type","in");
+        taxonKeyPredicate.remove("value");
+        taxonKeyPredicate.add("values",values);
+        return downloadQuery;
+    }
+
+    /**
+     * Function that gets the number of occurrences that match the predicate of a download query, using the occurrence
+     * search (so no download is requested)
+     * @param predicate predicate of the download query
+     * @return number of occurrences that match the predicate
+     * @throws Exception
+     */
+    public int getOccurrencesCount(JsonObject predicate) throws Exception {
+        JsonObject response = (JsonObject) NetUtils.doGetRequestJson(this.getApiUrl()+"/occurrence/search?"+
+                this.getOccurrenceSearchParameters(predicate)+"&limit=0");
+        return response.get("count").getAsInt();
+    }
+
+    /**
+     * Function that gets a page of the occurrences that match the predicate of a download query, using the occurrence
+     * search. Note: The occurrence search only allows to page through the first 100.000 occurrences and returns a
+     * maximum of 300 occurrences per page
+     * @param predicate predicate of the download query
+     * @param offset position of the first occurrence of the page
+     * @param limit number of occurrences of the page
+     * @return Json array with the occurrences of the page, in the format of the occurrence search
+     * @throws Exception
+     */
+    public JsonArray searchOccurrences(JsonObject predicate, int offset, int limit) throws Exception {
+        JsonObject response = (JsonObject) NetUtils.doGetRequestJson(this.getApiUrl()+"/occurrence/search?"+
+                this.getOccurrenceSearchParameters(predicate)+"&limit="+limit+"&offset="+offset);
+        return response.getAsJsonArray("results");
+    }
+
     /**
      * Function that gets the institution information stored in GRSciColl, by searching for its institution code.
      * Note: As the institution code is not unique, this function will return an json array with the information of all
@@ -260,12 +448,26 @@ public class GbifClient {
      */
     public JsonArray getInstitutionsInfoByInstitutionCode(String institutionCode) throws Exception {
         JsonArray institutionsInfo = null;
-        if (this.getMapInstitutionsInfoByCode().containsKey(institutionCode)){
+        if (this.getGrSciCollIndex()!=null){
+            //Return a new array as callers may remove elements from it
+            institutionsInfo = new JsonArray();
+            for (JsonObject institutionInfo : this.getGrSciCollIndex().getInstitutionsByCode(institutionCode)) {
+                institutionsInfo.add(institutionInfo);
+            }
+        } else if (this.getMapInstitutionsInfoByCode().containsKey(institutionCode)){
             institutionsInfo = this.getMapInstitutionsInfoByCode().get(institutionCode).orElse(null);
         } else{
-            String institutionCodeEncoded = URLEncoder.encode("\""+institutionCode+"\"", "UTF-8");
-            JsonObject data = (JsonObject) this.getDataPaginated(this.getApiUrl()+"/grscicoll/institution?q="+institutionCodeEncoded,50,0);
-            JsonArray potentialResults = data.getAsJsonArray("results");
+            JsonArray potentialResults;
+            try{
+                String institutionCodeEncoded = URLEncoder.encode("\""+institutionCode+"\"", "UTF-8");
+                JsonObject data = (JsonObject) this.getDataPaginated(this.getApiUrl()+"/grscicoll/institution?q="+institutionCodeEncoded,50,0);
+                potentialResults = data.getAsJsonArray("results");
+            } catch (Exception e){
+                this.getLogger().error("Error getting GRSciColl institutions for institutionCode=" + institutionCode);
+                //Don't remember the failure if it was due to the server throttling our requests
+                if (!HostRateLimiter.isThrottlingError(e)) this.getMapInstitutionsInfoByCode().put(institutionCode,Optional.empty());
+                return null;
+            }
 
             String jsonPath = "$[?(@.code=~/^" + institutionCode + "$/i)]";
             net.minidev.json.JSONArray filterInsitutions = (net.minidev.json.JSONArray) JsonUtils.filterJson(potentialResults, jsonPath);
@@ -296,18 +498,29 @@ public class GbifClient {
      */
     public JsonObject getInstitutionInfoByInstitutionId(String institutionId) throws Exception {
         JsonObject institutionInfo = null;
-        if (this.getMapInstitutionInfoById().containsKey(institutionId)){
+        if (this.getGrSciCollIndex()!=null){
+            institutionInfo = this.getGrSciCollIndex().getInstitutionByKey(institutionId);
+        } else if (this.getMapInstitutionInfoById().containsKey(institutionId)){
             institutionInfo = this.getMapInstitutionInfoById().get(institutionId).orElse(null);
         } else{
-            institutionInfo = (JsonObject) NetUtils.doGetRequestJson(this.getApiUrl()+"/grscicoll/institution/"+institutionId);
+            boolean cacheResult = true;
+            try{
+                institutionInfo = (JsonObject) NetUtils.doGetRequestJson(this.getApiUrl()+"/grscicoll/institution/"+institutionId);
+            } catch (Exception e){
+                this.getLogger().error("Error getting GRSciColl institution info for institutionId=" + institutionId);
+                //Don't remember the failure if it was due to the server throttling our requests
+                cacheResult = !HostRateLimiter.isThrottlingError(e);
+            }
 
             //Get country information of institution
-            JsonObject countryInfo = this.getInstitutionCountryInfo(institutionInfo);
-            if (countryInfo!=null){
-                institutionInfo.getAsJsonObject().add("country",countryInfo);
+            if (institutionInfo!=null){
+                JsonObject countryInfo = this.getInstitutionCountryInfo(institutionInfo);
+                if (countryInfo!=null){
+                    institutionInfo.getAsJsonObject().add("country",countryInfo);
+                }
             }
 
-            this.getMapInstitutionInfoById().put(institutionId,Optional.ofNullable(institutionInfo.getAsJsonObject()));
+            if (cacheResult) this.getMapInstitutionInfoById().put(institutionId,Optional.ofNullable(institutionInfo));
         }
         return institutionInfo;
     }
@@ -321,13 +534,22 @@ public class GbifClient {
      */
     public JsonObject getCollectionInfoByInstitutionIdAndCollectionCode(String institutionId, String collectionCode) throws Exception {
         JsonObject collectionInfo = null;
-        if (this.getMapCollectionInfoByInstitutionIdAndCollectionName().containsKey(institutionId+"#"+collectionCode)){
+        if (this.getGrSciCollIndex()!=null){
+            collectionInfo = this.getGrSciCollIndex().getCollectionByInstitutionKeyAndCode(institutionId,collectionCode);
+        } else if (this.getMapCollectionInfoByInstitutionIdAndCollectionName().containsKey(institutionId+"#"+collectionCode)){
             collectionInfo = this.getMapCollectionInfoByInstitutionIdAndCollectionName().get(institutionId+"#"+collectionCode).orElse(null);
         } else{
-            String collectionCodeEncoded = URLEncoder.encode("\""+collectionCode+"\"", "UTF-8");
-            JsonObject data = (JsonObject)  NetUtils.doGetRequestJson(this.getApiUrl()+"/grscicoll/collection?institution="+institutionId+"&?q="+collectionCodeEncoded);
-
-            JsonArray potentialResults = data.getAsJsonArray("results");
+            JsonArray potentialResults;
+            try{
+                String collectionCodeEncoded = URLEncoder.encode("\""+collectionCode+"\"", "UTF-8");
+                JsonObject data = (JsonObject)  NetUtils.doGetRequestJson(this.getApiUrl()+"/grscicoll/collection?institution="+institutionId+"&?q="+collectionCodeEncoded);
+                potentialResults = data.getAsJsonArray("results");
+            } catch (Exception e){
+                this.getLogger().error("Error getting GRSciColl collection info for institutionId=" + institutionId + " and collectionCode=" + collectionCode);
+                //Don't remember the failure if it was due to the server throttling our requests
+                if (!HostRateLimiter.isThrottlingError(e)) this.getMapCollectionInfoByInstitutionIdAndCollectionName().put(institutionId+"#"+collectionCode,Optional.empty());
+                return null;
+            }
 
             String jsonPath = "$[?(@.code=~/^" + collectionCode + "$/i)]";
             net.minidev.json.JSONArray filterCollections = (net.minidev.json.JSONArray) JsonUtils.filterJson(potentialResults, jsonPath);
@@ -356,7 +578,8 @@ public class GbifClient {
      * @throws Exception
      */
     private JsonObject getDataPaginated(String endPoint, int limit, int offset) throws Exception {
-        JsonObject response =(JsonObject) NetUtils.doGetRequestJson(endPoint + "&limit=" + limit + "&offset=" + offset);
+        String separator = endPoint.contains("?") ? "&" : "?";
+        JsonObject response =(JsonObject) NetUtils.doGetRequestJson(endPoint + separator + "limit=" + limit + "&offset=" + offset);
         int responseLimit = response.get("limit").getAsInt();
         if (response.getAsJsonArray("results").size()==responseLimit){
             //There is more data to fetch
@@ -367,6 +590,238 @@ public class GbifClient {
         return response;
     }
 
+    /**
+     * Function that gets the basic authentication header with the credentials of the GBIF user
+     * @return value of the authorization header
+     */
+    private String getAuth(){
+        return "Basic " + Base64.getEncoder().encodeToString((this.getGbifInfo().getUsername()+":"+this.getGbifInfo().getPassword()).getBytes());
+    }
+
+    /**
+     * Function that gets the key of a download of the same predicate as the download query that can be reused, because
+     * it is not older than the maximum age configured and it has succeeded or is still being prepared (a suspended
+     * download doesn't resume by itself, so it is not reused). The local index of downloads is checked first (only
+     * downloads whose file is still available) and then the list of downloads of the GBIF user, which is sorted from
+     * the newest to the oldest download
+     * @param downloadQuery download query (predicate and format of the download)
+     * @return key of the download to be reused or null if there isn't any
+     */
+    private String getReusableOccurrencesDownloadKey(JsonObject downloadQuery){
+        String downloadKey = null;
+        if (this.getGbifInfo().getDownloadsMaxAgeDays()>0){
+            String predicateHash = DownloadIndex.getPredicateHash(downloadQuery.getAsJsonObject("predicate"));
+            long minCreated = System.currentTimeMillis() - this.getGbifInfo().getDownloadsMaxAgeDays() * 24L * 60 * 60 * 1000;
+            JsonObject indexedDownload = this.getDownloadIndex().getDownloadByPredicateHash(predicateHash,minCreated);
+            if (indexedDownload!=null && indexedDownload.has("file") && new File(indexedDownload.get("file").getAsString()).exists()){
+                downloadKey = indexedDownload.get("downloadKey").getAsString();
+            } else if (StringUtils.isNotBlank(this.getGbifInfo().getUsername())){
+                try{
+                    String format = downloadQuery.has("format") ? downloadQuery.get("format").getAsString() : "DWCA";
+                    List<String> reusableStatus = Arrays.asList("SUCCEEDED","PREPARING","RUNNING");
+                    String endPoint = this.getApiUrl()+"/occurrence/download/user/"+URLEncoder.encode(this.getGbifInfo().getUsername(),"UTF-8");
+                    boolean endOfRecords = false;
+                    int offset = 0;
+                    while (downloadKey==null && !endOfRecords){
+                        JsonObject response = (JsonObject) NetUtils.doGetRequestJson(endPoint+"?limit="+userDownloadsPageSize+"&offset="+offset,this.getAuth());
+                        for (JsonElement result : response.getAsJsonArray("results")) {
+                            JsonObject downloadInfo = result.getAsJsonObject();
+                            if (this.getDownloadCreatedTime(downloadInfo)<minCreated){
+                                endOfRecords = true;
+                                break;
+                            }
+                            JsonObject request = downloadInfo.getAsJsonObject("request");
+                            if (reusableStatus.contains(downloadInfo.get("status").getAsString()) && request!=null && request.has("predicate") &&
+                                    format.equalsIgnoreCase(request.get("format").getAsString()) &&
+                                    predicateHash.equals(DownloadIndex.getPredicateHash(request.getAsJsonObject("predicate")))){
+                                downloadKey = downloadInfo.get("key").getAsString();
+                                break;
+                            }
+                        }
+                        endOfRecords = endOfRecords || response.get("endOfRecords").getAsBoolean();
+                        offset += userDownloadsPageSize;
+                    }
+                } catch (Exception e){
+                    this.getLogger().warn("Error getting the downloads of GBIF user " + this.getGbifInfo().getUsername() + ". A new download will be requested " + e.getMessage());
+                }
+            }
+        }
+        return downloadKey;
+    }
+
+    /**
+     * Function that adds a download to the local index of downloads. If a downloads directory is configured, the file
+     * downloaded is moved into it, so it can be reused in next executions
+     * @param downloadInfo information of the download returned by GBIF
+     * @param dwcaFile file downloaded
+     * @return file downloaded (in its final location)
+     */
+    private File addDownloadToIndex(JsonObject downloadInfo, File dwcaFile){
+        try{
+            String downloadKey = downloadInfo.get("key").getAsString();
+            if (StringUtils.isNotBlank(this.getGbifInfo().getDownloadsDirectory())){
+                File indexedFile = new File(this.getGbifInfo().getDownloadsDirectory(), downloadKey + ".zip");
+                Files.move(dwcaFile.toPath(), indexedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                dwcaFile = indexedFile;
+            }
+            JsonObject download = new JsonObject();
+            download.addProperty("predicateHash",DownloadIndex.getPredicateHash(downloadInfo.getAsJsonObject("request").getAsJsonObject("predicate")));
+            download.addProperty("downloadKey",downloadKey);
+            if (downloadInfo.has("doi")) download.addProperty("doi",downloadInfo.get("doi").getAsString());
+            download.addProperty("created",this.getDownloadCreatedTime(downloadInfo));
+            download.addProperty("file",dwcaFile.getAbsolutePath());
+            this.getDownloadIndex().putDownload(download);
+        } catch (Exception e){
+            this.getLogger().error("Error adding GBIF download " + downloadInfo.get("key") + " to the downloads index " + e.getMessage());
+        }
+        return dwcaFile;
+    }
+
+    /**
+     * Function that gets the creation time of a download
+     * @param downloadInfo information of the download returned by GBIF
+     * @return creation time of the download (milliseconds since epoch)
+     * @throws ParseException
+     */
+    private long getDownloadCreatedTime(JsonObject downloadInfo) throws ParseException {
+        return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").parse(downloadInfo.get("created").getAsString()).getTime();
+    }
+
+    /**
+     * Function that converts the predicate of a download query into the parameters of the occurrence search.
+     * Only the predicates that the occurrence search can express are supported: "equals" and "in", combined with "and",
+     * and "or" of predicates on the same key (the search ORs the values of a parameter that is repeated)
+     * @param predicate predicate of the download query
+     * @return query string with the parameters of the occurrence search
+     * @throws Exception if the predicate can't be expressed as parameters of the occurrence search
+     */
+    private String getOccurrenceSearchParameters(JsonObject predicate) throws Exception {
+        List<String> parameters = new ArrayList<String>();
+        String type = predicate.get("type").getAsString();
+        switch (type){
+            case "and":
+                for (JsonElement subPredicate : predicate.getAsJsonArray("predicates")) {
+                    parameters.add(this.getOccurrenceSearchParameters(subPredicate.getAsJsonObject()));
+                }
+                break;
+            case "or":
+                Set<String> keys = new HashSet<String>();
+                for (JsonElement subPredicate : predicate.getAsJsonArray("predicates")) {
+                    String subPredicateType = subPredicate.getAsJsonObject().get("type").getAsString();
+                    if (!subPredicateType.equals("equals") && !subPredicateType.equals("in")){
+                        throw new Exception("Predicate " + subPredicate + " can not be used in the occurrence search");
+                    }
+                    keys.add(subPredicate.getAsJsonObject().get("key").getAsString());
+                    parameters.add(this.getOccurrenceSearchParameters(subPredicate.getAsJsonObject()));
+                }
+                if (keys.size()>1){
+                    throw new Exception("Predicate " + predicate + " can not be used in the occurrence search");
+                }
+                break;
+            case "equals":
+                parameters.add(this.getOccurrenceSearchParameterName(predicate.get("key").getAsString()) + "=" +
+                        URLEncoder.encode(predicate.get("value").getAsString(),"UTF-8"));
+                break;
+            case "in":
+                for (JsonElement value : predicate.getAsJsonArray("values")) {
+                    parameters.add(this.getOccurrenceSearchParameterName(predicate.get("key").getAsString()) + "=" +
+                            URLEncoder.encode(value.getAsString(),"UTF-8"));
+                }
+                break;
+            default:
+                throw new Exception("Predicate type " + type + " can not be used in the occurrence search");
+        }
+        return String.join("&",parameters);
+    }
+
+    /**
+     * Function that gets the name of the parameter of the occurrence search for a key of the download predicates
+     * (eg. TAXON_KEY -> taxonKey)
+     * @param predicateKey key used in the download predicates
+     * @return name of the parameter of the occurrence search
+     */
+    private String getOccurrenceSearchParameterName(String predicateKey){
+        StringBuilder parameterName = new StringBuilder();
+        for (String word : predicateKey.toLowerCase().split("_")) {
+            parameterName.append(parameterName.length()==0 ? word : StringUtils.capitalize(word));
+        }
+        return parameterName.toString();
+    }
+
+    /**
+     * Function that loads the local index of GRSciColl from the snapshot file passed as parameter. If the file doesn't
+     * exist, the snapshot is downloaded from GBIF (with the country of the institutions already joined) and saved in
+     * that file, so it can be used in next executions (also offline). The institutions whose country couldn't be
+     * obtained are saved with the time of the attempt (countryNotFoundAt), so it isn't tried again in every execution
+     * but only after countryRetryMillis
+     * @param snapshotFile json file with the snapshot of GRSciColl
+     * @return local index of GRSciColl or null if it couldn't be loaded
+     */
+    private GrSciCollIndex loadGrSciCollIndex(File snapshotFile){
+        GrSciCollIndex index = null;
+        try{
+            JsonArray institutions;
+            JsonArray collections;
+            boolean saveSnapshot;
+            if (snapshotFile.exists()){
+                this.getLogger().info("Loading GRSciColl snapshot from " + snapshotFile.getAbsolutePath());
+                JsonObject snapshot = (JsonObject) FileUtils.loadJsonElementFromFilePath(snapshotFile.getAbsolutePath());
+                institutions = snapshot.getAsJsonArray("institutions");
+                collections = snapshot.getAsJsonArray("collections");
+                saveSnapshot = false;
+            } else{
+                this.getLogger().info("Downloading GRSciColl snapshot into " + snapshotFile.getAbsolutePath());
+                institutions = this.getDataPaginated(this.getApiUrl()+"/grscicoll/institution",1000,0).getAsJsonArray("results");
+                collections = this.getDataPaginated(this.getApiUrl()+"/grscicoll/collection",1000,0).getAsJsonArray("results");
+                saveSnapshot = true;
+            }
+
+            //Pre-join the country of the institutions that don't have it yet (and it wasn't recently tried)
+            long now = System.currentTimeMillis();
+            for (JsonElement institutionInfo:institutions) {
+                JsonObject institutionObj = institutionInfo.getAsJsonObject();
+                boolean recentlyNotFound = institutionObj.has("countryNotFoundAt") && now - institutionObj.get("countryNotFoundAt").getAsLong() < this.countryRetryMillis;
+                if (!institutionObj.has("country") && !recentlyNotFound){
+                    JsonObject countryInfo = this.getInstitutionCountryInfo(institutionObj);
+                    if (countryInfo!=null){
+                        institutionObj.add("country",countryInfo);
+                        institutionObj.remove("countryNotFoundAt");
+                    } else{
+                        institutionObj.addProperty("countryNotFoundAt",now);
+                    }
+                    saveSnapshot = true;
+                }
+            }
+            if (saveSnapshot){
+                GrSciCollIndex.saveToFile(snapshotFile,institutions,collections);
+            }
+            index = new GrSciCollIndex(institutions,collections);
+        } catch (Exception e){
+            this.getLogger().error("Error loading GRSciColl snapshot " + snapshotFile.getAbsolutePath() + ". GBIF API will be used instead " + e.getMessage());
+        }
+        return index;
+    }
+
+    /**
+     * Function that opens the local index of GBIF backbone taxonomy stored in the directory passed as parameter. If the
+     * directory doesn't contain an index yet, it is built from the GBIF backbone Dwc-A file (when provided)
+     * @param indexDirectory directory of the backbone index
+     * @param backboneDwcaFile GBIF backbone Dwc-A file used to build the index (optional)
+     * @return local index of GBIF backbone or null if it couldn't be opened
+     */
+    private BackboneIndex loadBackboneIndex(File indexDirectory, String backboneDwcaFile){
+        BackboneIndex index = null;
+        try{
+            if (!BackboneIndex.exists(indexDirectory) && StringUtils.isNotBlank(backboneDwcaFile)){
+                BackboneIndex.build(new File(backboneDwcaFile),indexDirectory);
+            }
+            index = new BackboneIndex(indexDirectory);
+        } catch (Exception e){
+            this.getLogger().error("Error loading GBIF backbone index " + indexDirectory.getAbsolutePath() + ". GBIF API will be used instead " + e.getMessage());
+        }
+        return index;
+    }
+
     /**
      * Function that get the country information from an institution object.
      * Note: If the object has an "address" attribute, it tries to get it from there, if not it tries to use the "mailingAdress"
@@ -15,6 +15,11 @@ public class GbifInfo {
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
     private String username;
     private String password;
+    private String grSciCollSnapshotFile;
+    private String backboneIndexDirectory;
+    private String backboneDwcaFile;
+    private String downloadsDirectory;
+    private int downloadsMaxAgeDays = 7;
 
 
     /***********************/
@@ -41,6 +46,46 @@ public class GbifInfo {
         this.password = password;
     }
 
+    public String getGrSciCollSnapshotFile() {
+        return grSciCollSnapshotFile;
+    }
+
+    public void setGrSciCollSnapshotFile(String grSciCollSnapshotFile) {
+        this.grSciCollSnapshotFile = grSciCollSnapshotFile;
+    }
+
+    public String getBackboneIndexDirectory() {
+        return backboneIndexDirectory;
+    }
+
+    public void setBackboneIndexDirectory(String backboneIndexDirectory) {
+        this.backboneIndexDirectory = backboneIndexDirectory;
+    }
+
+    public String getBackboneDwcaFile() {
+        return backboneDwcaFile;
+    }
+
+    public void setBackboneDwcaFile(String backboneDwcaFile) {
+        this.backboneDwcaFile = backboneDwcaFile;
+    }
+
+    public String getDownloadsDirectory() {
+        return downloadsDirectory;
+    }
+
+    public void setDownloadsDirectory(String downloadsDirectory) {
+        this.downloadsDirectory = downloadsDirectory;
+    }
+
+    public int getDownloadsMaxAgeDays() {
+        return downloadsMaxAgeDays;
+    }
+
+    public void setDownloadsMaxAgeDays(int downloadsMaxAgeDays) {
+        this.downloadsMaxAgeDays = downloadsMaxAgeDays;
+    }
+
 
     /****************/
     /* CONSTRUCTORS */
@@ -58,6 +103,11 @@ public class GbifInfo {
 
     public static GbifInfo getGbifInfoFromConfig(Configuration config){
         GbifInfo gbifInfo = new GbifInfo(config.getString("gbif.username"), config.getString("gbif.password"));
+        gbifInfo.setGrSciCollSnapshotFile(config.getString("gbif.grSciCollSnapshotFile",null));
+        gbifInfo.setBackboneIndexDirectory(config.getString("gbif.backboneIndexDirectory",null));
+        gbifInfo.setBackboneDwcaFile(config.getString("gbif.backboneDwcaFile",null));
+        gbifInfo.setDownloadsDirectory(config.getString("gbif.downloadsDirectory",null));
+        gbifInfo.setDownloadsMaxAgeDays(config.getInt("gbif.downloadsMaxAgeDays",7));
         return gbifInfo;
     }
 
@@ -67,12 +117,17 @@ public class GbifInfo {
         if (o == null || getClass() != o.getClass()) return false;
         GbifInfo gbifInfo = (GbifInfo) o;
         return Objects.equals(username, gbifInfo.username) &&
-                Objects.equals(password, gbifInfo.password);
+                Objects.equals(password, gbifInfo.password) &&
+                Objects.equals(grSciCollSnapshotFile, gbifInfo.grSciCollSnapshotFile) &&
+                Objects.equals(backboneIndexDirectory, gbifInfo.backboneIndexDirectory) &&
+                Objects.equals(backboneDwcaFile, gbifInfo.backboneDwcaFile) &&
+                Objects.equals(downloadsDirectory, gbifInfo.downloadsDirectory) &&
+                downloadsMaxAgeDays == gbifInfo.downloadsMaxAgeDays;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(username, password);
+        return Objects.hash(username, password, grSciCollSnapshotFile, backboneIndexDirectory, backboneDwcaFile, downloadsDirectory, downloadsMaxAgeDays);
     }
 
     @Override
@@ -80,6 +135,11 @@ public class GbifInfo {
         return "GbifInfo{" +
                 "username='" + username + '\'' +
                 ", password='" + password + '\'' +
+                ", grSciCollSnapshotFile='" + grSciCollSnapshotFile + '\'' +
+                ", backboneIndexDirectory='" + backboneIndexDirectory + '\'' +
+                ", backboneDwcaFile='" + backboneDwcaFile + '\'' +
+                ", downloadsDirectory='" + downloadsDirectory + '\'' +
+                ", downloadsMaxAgeDays=" + downloadsMaxAgeDays +
                 '}';
     }
 }
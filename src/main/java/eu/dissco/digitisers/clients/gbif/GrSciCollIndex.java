@@ -0,0 +1,150 @@
+package eu.dissco.digitisers.clients.gbif;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import eu.dissco.digitisers.utils.JsonUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In memory index of a snapshot of the institutions and collections registered in GRSciColl, so the lookups done
+ * while digitising don't need to call GBIF API. Institutions are indexed by their key (UUID) and by their upper-cased
+ * code, and collections by the key of their institution and their upper-cased code.
+ * The snapshot is stored as a json file {"institutions":[...],"collections":[...]}
+ */
+public class GrSciCollIndex {
+
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private Map<String, JsonObject> mapInstitutionByKey;
+    private Map<String, List<JsonObject>> mapInstitutionsByCode;
+    private Map<String, List<JsonObject>> mapCollectionsByInstitutionKeyAndCode;
+
+
+    /***********************/
+    /* GETTERS AND SETTERS */
+    /***********************/
+
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    protected Map<String, JsonObject> getMapInstitutionByKey() {
+        return mapInstitutionByKey;
+    }
+
+    protected Map<String, List<JsonObject>> getMapInstitutionsByCode() {
+        return mapInstitutionsByCode;
+    }
+
+    protected Map<String, List<JsonObject>> getMapCollectionsByInstitutionKeyAndCode() {
+        return mapCollectionsByInstitutionKeyAndCode;
+    }
+
+
+    /****************/
+    /* CONSTRUCTORS */
+    /****************/
+
+    /**
+     * Create the index of the institutions and collections passed as parameter
+     * @param institutions json array with the institutions of GRSciColl
+     * @param collections json array with the collections of GRSciColl
+     */
+    public GrSciCollIndex(JsonArray institutions, JsonArray collections){
+        this.mapInstitutionByKey = new HashMap<String, JsonObject>();
+        this.mapInstitutionsByCode = new HashMap<String, List<JsonObject>>();
+        this.mapCollectionsByInstitutionKeyAndCode = new HashMap<String, List<JsonObject>>();
+        for (JsonElement institution : institutions) {
+            JsonObject institutionInfo = institution.getAsJsonObject();
+            this.getMapInstitutionByKey().put(institutionInfo.get("key").getAsString().toLowerCase(),institutionInfo);
+            if (institutionInfo.has("code")){
+                this.getMapInstitutionsByCode().computeIfAbsent(this.normaliseCode(institutionInfo.get("code").getAsString()), k -> new ArrayList<JsonObject>()).add(institutionInfo);
+            }
+        }
+        for (JsonElement collection : collections) {
+            JsonObject collectionInfo = collection.getAsJsonObject();
+            if (collectionInfo.has("institutionKey") && collectionInfo.has("code")){
+                String key = collectionInfo.get("institutionKey").getAsString().toLowerCase() + "#" + this.normaliseCode(collectionInfo.get("code").getAsString());
+                this.getMapCollectionsByInstitutionKeyAndCode().computeIfAbsent(key, k -> new ArrayList<JsonObject>()).add(collectionInfo);
+            }
+        }
+        this.getLogger().info("GRSciColl index created with " + this.getMapInstitutionByKey().size() + " institutions and " + collections.size() + " collections");
+    }
+
+
+    /******************/
+    /* PUBLIC METHODS */
+    /******************/
+
+    /**
+     * Function that saves the snapshot of GRSciColl (institutions and collections) in a file
+     * @param snapshotFile file where to save the snapshot
+     * @param institutions json array with the institutions of GRSciColl
+     * @param collections json array with the collections of GRSciColl
+     * @throws IOException
+     */
+    public static void saveToFile(File snapshotFile, JsonArray institutions, JsonArray collections) throws IOException {
+        JsonObject snapshot = new JsonObject();
+        snapshot.add("institutions",institutions);
+        snapshot.add("collections",collections);
+        Files.write(snapshotFile.toPath(), JsonUtils.serializeObject(snapshot).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Function that gets all the institutions which code is the one passed as parameter (ignoring case)
+     * @param institutionCode code of the institution
+     * @return list of institutions with that code (empty list if there isn't any)
+     */
+    public List<JsonObject> getInstitutionsByCode(String institutionCode){
+        List<JsonObject> institutions = this.getMapInstitutionsByCode().get(this.normaliseCode(institutionCode));
+        return institutions!=null ? institutions : new ArrayList<JsonObject>();
+    }
+
+    /**
+     * Function that gets the institution by its key
+     * @param institutionKey key (UUID) of the institution in GRSciColl
+     * @return institution with that key or null if not found
+     */
+    public JsonObject getInstitutionByKey(String institutionKey){
+        return this.getMapInstitutionByKey().get(StringUtils.lowerCase(StringUtils.trim(institutionKey)));
+    }
+
+    /**
+     * Function that gets the collection of an institution by its code (ignoring case)
+     * @param institutionKey key (UUID) of the institution in GRSciColl
+     * @param collectionCode code of the collection
+     * @return collection information if there is only one collection with that code in the institution, null otherwise
+     */
+    public JsonObject getCollectionByInstitutionKeyAndCode(String institutionKey, String collectionCode){
+        JsonObject collectionInfo = null;
+        List<JsonObject> collections = this.getMapCollectionsByInstitutionKeyAndCode().get(StringUtils.lowerCase(StringUtils.trim(institutionKey)) + "#" + this.normaliseCode(collectionCode));
+        if (collections!=null && collections.size()==1){
+            collectionInfo = collections.get(0);
+        }
+        return collectionInfo;
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    private String normaliseCode(String code){
+        return StringUtils.upperCase(StringUtils.trim(code));
+    }
+}
@@ -1,15 +1,23 @@
 package eu.dissco.digitisers.clients.misc;
 
+import com.google.common.io.Resources;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import eu.dissco.digitisers.utils.NetUtils;
+import com.google.gson.JsonParser;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Client to obtain the information of a country (name, ISO codes and region) by its ISO 3166-1 code.
+ * The countries are loaded only once from a dataset shipped as a resource (countries.json, with the same attributes as
+ * restcountries.eu), into an array indexed by the 2-letter code, so resolving a country doesn't require any I/O
+ */
 public class CountryClient {
 
     /**************/
@@ -18,8 +26,9 @@ public class CountryClient {
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
     private static CountryClient instance=null;
-    private final String apiUrl ="https://restcountries.eu/rest/v2"; //We could also use http://api.gbif.org/v1/enumeration/country as backup service in case restcountries.eu disappears
-    private Map<String, Optional<JsonObject>> mapCountryInfoNameByCode; //Map to improve efficiency of this class, so it doesn't need to call the external APIs when we already got results
+    private final String countriesResourcePath = "countries.json";
+    private final JsonObject[] countriesByAlpha2Code; //Countries indexed by their 2-letter code (AA=0 ... ZZ=675)
+    private final Map<String, String> mapAlpha2CodeByAlpha3Code;
 
 
     /***********************/
@@ -30,16 +39,12 @@ public class CountryClient {
         return logger;
     }
 
-    protected String getApiUrl() {
-        return apiUrl;
+    protected JsonObject[] getCountriesByAlpha2Code() {
+        return countriesByAlpha2Code;
     }
 
-    protected Map<String, Optional<JsonObject>> getMapCountryInfoNameByCode() {
-        return mapCountryInfoNameByCode;
-    }
-
-    protected void setMapCountryInfoNameByCode(Map<String, Optional<JsonObject>> mapCountryInfoNameByCode) {
-        this.mapCountryInfoNameByCode = mapCountryInfoNameByCode;
+    protected Map<String, String> getMapAlpha2CodeByAlpha3Code() {
+        return mapAlpha2CodeByAlpha3Code;
     }
 
 
@@ -51,7 +56,20 @@ public class CountryClient {
      * Private constructor to avoid client applications to use constructor as we use the singleton design pattern
      */
     private CountryClient(){
-        this.mapCountryInfoNameByCode = new ConcurrentHashMap<String,Optional<JsonObject>>();
+        this.countriesByAlpha2Code = new JsonObject[26*26];
+        this.mapAlpha2CodeByAlpha3Code = new HashMap<String,String>();
+        try {
+            String countries = Resources.toString(Resources.getResource(countriesResourcePath), StandardCharsets.UTF_8);
+            JsonArray countriesInfo = new JsonParser().parse(countries).getAsJsonArray();
+            for (JsonElement country : countriesInfo) {
+                JsonObject countryInfo = country.getAsJsonObject();
+                String alpha2Code = countryInfo.get("alpha2Code").getAsString();
+                this.getCountriesByAlpha2Code()[this.getAlpha2CodeIndex(alpha2Code)] = countryInfo;
+                this.getMapAlpha2CodeByAlpha3Code().put(countryInfo.get("alpha3Code").getAsString(),alpha2Code);
+            }
+        } catch (Exception e) {
+            this.getLogger().error("Error loading the countries from " + countriesResourcePath + " " + e.getMessage());
+        }
     }
 
 
@@ -63,7 +81,7 @@ public class CountryClient {
      *  Method to get an instance of CountryClient as we use the singleton design pattern
      * @return
      */
-    public static CountryClient getInstance(){
+    public static synchronized CountryClient getInstance(){
         if (instance==null){
             instance = new CountryClient();
         }
@@ -77,9 +95,9 @@ public class CountryClient {
      */
     public String getCountryNameByCountryCode(String countryCode) {
         String countryName = null;
-        JsonObject countryInfo = this.getCountryInfoByCountryCode(countryCode);
+        JsonObject countryInfo = this.getCountryInfo(countryCode);
         if(countryInfo!=null) {
-            countryName = countryInfo.getAsJsonObject().get("name").getAsString();
+            countryName = countryInfo.get("name").getAsString();
         }
         return countryName;
     }
@@ -87,23 +105,37 @@ public class CountryClient {
     /**
      * Function that gets the country info by its ISO 3166-1 2-letter or 3-letter country code
      * @param countryCode
-     * @return country info if code could be resolved or null otherwise
+     * @return country info (name, alpha2Code, alpha3Code and region) if code could be resolved or null otherwise
      */
     public JsonObject getCountryInfoByCountryCode(String countryCode) {
+        JsonObject countryInfo = this.getCountryInfo(countryCode);
+        //Return a copy, as the callers may add it to (and modify it in) other objects
+        return countryInfo!=null ? countryInfo.deepCopy() : null;
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that gets the country info by its ISO 3166-1 2-letter or 3-letter country code
+     * @param countryCode
+     * @return country info if code could be resolved or null otherwise
+     */
+    private JsonObject getCountryInfo(String countryCode) {
         JsonObject countryInfo = null;
-        if(StringUtils.isNotBlank(countryCode)) {
-            if (this.getMapCountryInfoNameByCode().containsKey(countryCode)) {
-                countryInfo = this.getMapCountryInfoNameByCode().get(countryCode).orElse(null);
-            }else{
-                try{
-                    countryInfo = (JsonObject) NetUtils.doGetRequestJson(this.getApiUrl()+"/alpha/" + StringUtils.trim(countryCode));
-                } catch (Exception e){
-                    //There was an error obtaining the country from its country code
-                    this.getLogger().error("Error getting the country by countryCode " + countryCode + " using restcountries.eu API");
-                }
-                this.getMapCountryInfoNameByCode().put(countryCode,Optional.ofNullable(countryInfo));
-            }
+        String code = StringUtils.upperCase(StringUtils.trim(countryCode));
+        if (code!=null && code.length()==3){
+            code = this.getMapAlpha2CodeByAlpha3Code().get(code);
+        }
+        if (code!=null && code.length()==2 && StringUtils.isAsciiPrintable(code) && StringUtils.isAllUpperCase(code)){
+            countryInfo = this.getCountriesByAlpha2Code()[this.getAlpha2CodeIndex(code)];
         }
         return countryInfo;
     }
+
+    private int getAlpha2CodeIndex(String alpha2Code){
+        return (alpha2Code.charAt(0)-'A')*26 + (alpha2Code.charAt(1)-'A');
+    }
 }
@@ -0,0 +1,189 @@
+package eu.dissco.digitisers.clients.misc;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.Resources;
+import com.maxmind.db.CHMCache;
+import com.maxmind.db.Reader;
+import com.maxmind.geoip2.DatabaseReader;
+import com.maxmind.geoip2.exception.AddressNotFoundException;
+import com.maxmind.geoip2.exception.GeoIp2Exception;
+import com.maxmind.geoip2.model.CountryResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client to obtain the country of the machines hosting an url, using the GeoLite2 country database.
+ * The database is extracted only once from the classpath and opened in memory mapped mode, and the resolution of the
+ * hosts (DNS) and their countries are cached for a limited period of time
+ */
+public class GeoIpClient {
+
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private static GeoIpClient instance=null;
+    private final String geoLite2DbResourcePath = "GeoLite2-Country_20191029/GeoLite2-Country.mmdb";
+    private final long cacheExpirationMinutes = 60;
+    private DatabaseReader databaseReader;
+    private Cache<String, Optional<InetAddress>> cacheAddressByHost; //Cache to avoid resolving the same host again and again
+    private Cache<String, Optional<CountryResponse>> cacheCountryByHost; //Cache to avoid looking up the same host again and again
+
+
+    /***********************/
+    /* GETTERS AND SETTERS */
+    /***********************/
+
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    protected DatabaseReader getDatabaseReader() {
+        return databaseReader;
+    }
+
+    protected Cache<String, Optional<InetAddress>> getCacheAddressByHost() {
+        return cacheAddressByHost;
+    }
+
+    protected Cache<String, Optional<CountryResponse>> getCacheCountryByHost() {
+        return cacheCountryByHost;
+    }
+
+
+    /****************/
+    /* CONSTRUCTORS */
+    /****************/
+
+    /**
+     * Private constructor to avoid client applications to use constructor as we use the singleton design pattern
+     */
+    private GeoIpClient() throws IOException {
+        this.databaseReader = new DatabaseReader.Builder(this.getGeoLite2DbFile())
+                .fileMode(Reader.FileMode.MEMORY_MAPPED)
+                .withCache(new CHMCache())
+                .build();
+        this.cacheAddressByHost = CacheBuilder.newBuilder().expireAfterWrite(cacheExpirationMinutes, TimeUnit.MINUTES).build();
+        this.cacheCountryByHost = CacheBuilder.newBuilder().expireAfterWrite(cacheExpirationMinutes, TimeUnit.MINUTES).build();
+    }
+
+
+    /******************/
+    /* PUBLIC METHODS */
+    /******************/
+
+    /**
+     * Method to get an instance of GeoIpClient as we use the singleton design pattern
+     * @return
+     * @throws IOException
+     */
+    public static synchronized GeoIpClient getInstance() throws IOException {
+        if (instance==null){
+            instance = new GeoIpClient();
+        }
+        return instance;
+    }
+
+    /**
+     * Function to get country information of the machine that is hosting the url passed as parameter
+     * @param sUrl url of the machine for which to get its country information
+     * @return country information of the machine that is hosting the url
+     * @throws IOException
+     * @throws GeoIp2Exception
+     */
+    public CountryResponse getCountryInfoFromUrl(String sUrl) throws IOException, GeoIp2Exception {
+        String host = new URL(sUrl).getHost();
+        return this.getCountryInfoFromHost(host);
+    }
+
+    /**
+     * Function to get country information of the host passed as parameter
+     * @param host name of the host for which to get its country information
+     * @return country information of the host
+     * @throws IOException UnknownHostException if host can't be resolved
+     * @throws GeoIp2Exception AddressNotFoundException if the address of the host is not in the database
+     */
+    public CountryResponse getCountryInfoFromHost(String host) throws IOException, GeoIp2Exception {
+        Optional<CountryResponse> countryResponse = this.getCacheCountryByHost().getIfPresent(host);
+        if (countryResponse==null){
+            InetAddress address = this.getAddressByHost(host);
+            try {
+                countryResponse = Optional.of(this.getDatabaseReader().country(address));
+            } catch (AddressNotFoundException e){
+                countryResponse = Optional.empty();
+            }
+            this.getCacheCountryByHost().put(host,countryResponse);
+        }
+        if (!countryResponse.isPresent()){
+            throw new AddressNotFoundException("The address of the host " + host + " is not in the database.");
+        }
+        return countryResponse.get();
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that resolves the address of the host passed as parameter
+     * @param host name of the host to be resolved
+     * @return address of the host
+     * @throws UnknownHostException if host can't be resolved
+     */
+    private InetAddress getAddressByHost(String host) throws UnknownHostException {
+        Optional<InetAddress> address;
+        try {
+            address = this.getCacheAddressByHost().get(host, () -> {
+                try {
+                    return Optional.of(InetAddress.getByName(host));
+                } catch (UnknownHostException e) {
+                    return Optional.empty();
+                }
+            });
+        } catch (ExecutionException e) {
+            address = Optional.empty();
+        }
+        if (!address.isPresent()){
+            throw new UnknownHostException(host);
+        }
+        return address.get();
+    }
+
+    /**
+     * Function that gets the GeoLite2 country database as a file, so it can be memory mapped. If the database is
+     * inside a jar file, it is extracted only once to a temporary file
+     * @return File of the GeoLite2 country database
+     * @throws IOException
+     */
+    private File getGeoLite2DbFile() throws IOException {
+        URL geoLite2DbUrl = Resources.getResource(geoLite2DbResourcePath);
+        if ("file".equals(geoLite2DbUrl.getProtocol())){
+            try {
+                return new File(geoLite2DbUrl.toURI());
+            } catch (Exception e) {
+                this.getLogger().debug("GeoLite2 database can't be accessed directly, it will be extracted " + e.getMessage());
+            }
+        }
+        File geoLite2DbFile = File.createTempFile("GeoLite2-Country", ".mmdb");
+        geoLite2DbFile.deleteOnExit();
+        try (InputStream geoLite2DbInputStream = geoLite2DbUrl.openStream()){
+            Files.copy(geoLite2DbInputStream, geoLite2DbFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return geoLite2DbFile;
+    }
+}
@@ -0,0 +1,262 @@
+package eu.dissco.digitisers.clients.misc;
+
+import com.google.common.io.Resources;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Offline reverse geocoder that gets the country (ISO 3166-1 2-letter code) of a coordinate.
+ * The country boundaries are loaded only once from a dataset shipped as a resource (countryBoundaries.geojson, derived
+ * from the country boundaries of OpenStreetMap, (c) OpenStreetMap contributors, ODbL), and their polygons are indexed
+ * in an R-tree packed with the Sort-Tile-Recursive (STR) algorithm, so only the polygons whose bounding box contains
+ * the coordinate are tested with a point-in-polygon test
+ */
+public class ReverseGeocoder {
+
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private static ReverseGeocoder instance=null;
+    private final String countryBoundariesResourcePath = "countryBoundaries.geojson";
+    private final static int NODE_CAPACITY = 8;
+    private Polygon[] polygons; //Polygons of the countries, sorted in the order they are packed in the leaves of the R-tree
+    private List<double[]> levelBoxes; //Bounding boxes (minX,minY,maxX,maxY) of the nodes of each level of the R-tree. Level 0 are the polygons
+
+
+    /***********************/
+    /* GETTERS AND SETTERS */
+    /***********************/
+
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    protected Polygon[] getPolygons() {
+        return polygons;
+    }
+
+    protected List<double[]> getLevelBoxes() {
+        return levelBoxes;
+    }
+
+
+    /****************/
+    /* CONSTRUCTORS */
+    /****************/
+
+    /**
+     * Private constructor to avoid client applications to use constructor as we use the singleton design pattern
+     */
+    private ReverseGeocoder(){
+        List<Polygon> polygonList = new ArrayList<Polygon>();
+        try {
+            String countryBoundaries = Resources.toString(Resources.getResource(countryBoundariesResourcePath), StandardCharsets.UTF_8);
+            JsonArray features = new JsonParser().parse(countryBoundaries).getAsJsonObject().getAsJsonArray("features");
+            for (JsonElement feature : features) {
+                String countryCode = feature.getAsJsonObject().getAsJsonObject("properties").get("countryCode").getAsString();
+                JsonObject geometry = feature.getAsJsonObject().getAsJsonObject("geometry");
+                if (geometry.get("type").getAsString().equals("Polygon")){
+                    polygonList.add(new Polygon(countryCode, geometry.getAsJsonArray("coordinates")));
+                } else if (geometry.get("type").getAsString().equals("MultiPolygon")){
+                    for (JsonElement coordinates : geometry.getAsJsonArray("coordinates")) {
+                        polygonList.add(new Polygon(countryCode, coordinates.getAsJsonArray()));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            this.getLogger().error("Error loading the country boundaries from " + countryBoundariesResourcePath + " " + e.getMessage());
+        }
+        this.buildRTree(polygonList);
+        this.getLogger().info("Reverse geocoder loaded with " + this.getPolygons().length + " country polygons");
+    }
+
+
+    /******************/
+    /* PUBLIC METHODS */
+    /******************/
+
+    /**
+     * Method to get an instance of ReverseGeocoder as we use the singleton design pattern
+     * @return
+     */
+    public static synchronized ReverseGeocoder getInstance(){
+        if (instance==null){
+            instance = new ReverseGeocoder();
+        }
+        return instance;
+    }
+
+    /**
+     * Function that gets the country of a coordinate
+     * @param latitude decimal latitude (WGS84)
+     * @param longitude decimal longitude (WGS84)
+     * @return ISO 3166-1 2-letter code of the country where the coordinate is, or null if it is not in any country
+     * (eg. in the ocean) or if the coordinate is not valid
+     */
+    public String getCountryCode(double latitude, double longitude){
+        String countryCode = null;
+        if (latitude>=-90 && latitude<=90 && longitude>=-180 && longitude<=180 && !this.getLevelBoxes().isEmpty()){
+            int rootLevel = this.getLevelBoxes().size()-1;
+            countryCode = this.search(rootLevel, 0, longitude, latitude);
+        }
+        return countryCode;
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that packs the polygons in an R-tree using the Sort-Tile-Recursive algorithm: the items of each level are
+     * sorted by the x of their center, split in vertical slices and each slice sorted by the y of their center, so
+     * consecutive groups of NODE_CAPACITY items become the children of each node of the next level
+     * @param polygonList polygons to be indexed
+     */
+    private void buildRTree(List<Polygon> polygonList){
+        this.levelBoxes = new ArrayList<double[]>();
+        this.polygons = polygonList.toArray(new Polygon[0]);
+        this.strSort(this.getPolygons(), Comparator.comparingDouble(p -> p.minX + p.maxX), Comparator.comparingDouble(p -> p.minY + p.maxY));
+        double[] boxes = new double[this.getPolygons().length * 4];
+        for (int i = 0; i < this.getPolygons().length; i++) {
+            Polygon polygon = this.getPolygons()[i];
+            boxes[i*4] = polygon.minX;
+            boxes[i*4+1] = polygon.minY;
+            boxes[i*4+2] = polygon.maxX;
+            boxes[i*4+3] = polygon.maxY;
+        }
+        if (boxes.length>0){
+            this.getLevelBoxes().add(boxes);
+        }
+        //Upper levels are built from the level below. Its items are already in STR order, as they were packed that way
+        while (boxes.length>4){
+            int numItems = boxes.length / 4;
+            int numNodes = (numItems + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            double[] nodeBoxes = new double[numNodes * 4];
+            for (int node = 0; node < numNodes; node++) {
+                nodeBoxes[node*4] = Double.MAX_VALUE;
+                nodeBoxes[node*4+1] = Double.MAX_VALUE;
+                nodeBoxes[node*4+2] = -Double.MAX_VALUE;
+                nodeBoxes[node*4+3] = -Double.MAX_VALUE;
+                for (int item = node * NODE_CAPACITY; item < Math.min(numItems, (node + 1) * NODE_CAPACITY); item++) {
+                    nodeBoxes[node*4] = Math.min(nodeBoxes[node*4], boxes[item*4]);
+                    nodeBoxes[node*4+1] = Math.min(nodeBoxes[node*4+1], boxes[item*4+1]);
+                    nodeBoxes[node*4+2] = Math.max(nodeBoxes[node*4+2], boxes[item*4+2]);
+                    nodeBoxes[node*4+3] = Math.max(nodeBoxes[node*4+3], boxes[item*4+3]);
+                }
+            }
+            this.getLevelBoxes().add(nodeBoxes);
+            boxes = nodeBoxes;
+        }
+    }
+
+    /**
+     * Function that sorts the items in Sort-Tile-Recursive order
+     * @param items items to be sorted
+     * @param byX comparator by the x of the center of the items
+     * @param byY comparator by the y of the center of the items
+     */
+    private <T> void strSort(T[] items, Comparator<T> byX, Comparator<T> byY){
+        Arrays.sort(items, byX);
+        int numLeaves = (items.length + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int numSlices = (int) Math.ceil(Math.sqrt(numLeaves));
+        int sliceSize = numSlices * NODE_CAPACITY;
+        for (int start = 0; start < items.length; start += sliceSize) {
+            Arrays.sort(items, start, Math.min(items.length, start + sliceSize), byY);
+        }
+    }
+
+    /**
+     * Function that searches recursively the polygon that contains the point in a node of the R-tree
+     * @param level level of the node
+     * @param node index of the node in its level
+     * @param x longitude of the point
+     * @param y latitude of the point
+     * @return country code of the polygon that contains the point, or null if none
+     */
+    private String search(int level, int node, double x, double y){
+        double[] boxes = this.getLevelBoxes().get(level);
+        if (x<boxes[node*4] || y<boxes[node*4+1] || x>boxes[node*4+2] || y>boxes[node*4+3]){
+            return null;
+        }
+        if (level==0){
+            return this.getPolygons()[node].contains(x,y) ? this.getPolygons()[node].countryCode : null;
+        }
+        String countryCode = null;
+        int numChildren = this.getLevelBoxes().get(level-1).length / 4;
+        for (int child = node * NODE_CAPACITY; child < Math.min(numChildren, (node + 1) * NODE_CAPACITY) && countryCode==null; child++) {
+            countryCode = this.search(level-1, child, x, y);
+        }
+        return countryCode;
+    }
+
+
+    /*****************/
+    /* INNER CLASSES */
+    /*****************/
+
+    /**
+     * Polygon of a country (outer ring and holes), with its coordinates stored as arrays of x,y (longitude,latitude) pairs
+     */
+    protected static class Polygon {
+        private final String countryCode;
+        private final double[][] rings;
+        private double minX = Double.MAX_VALUE;
+        private double minY = Double.MAX_VALUE;
+        private double maxX = -Double.MAX_VALUE;
+        private double maxY = -Double.MAX_VALUE;
+
+        protected Polygon(String countryCode, JsonArray coordinates){
+            this.countryCode = countryCode;
+            this.rings = new double[coordinates.size()][];
+            for (int i = 0; i < coordinates.size(); i++) {
+                JsonArray ring = coordinates.get(i).getAsJsonArray();
+                this.rings[i] = new double[ring.size() * 2];
+                for (int j = 0; j < ring.size(); j++) {
+                    double x = ring.get(j).getAsJsonArray().get(0).getAsDouble();
+                    double y = ring.get(j).getAsJsonArray().get(1).getAsDouble();
+                    this.rings[i][j*2] = x;
+                    this.rings[i][j*2+1] = y;
+                    this.minX = Math.min(this.minX, x);
+                    this.minY = Math.min(this.minY, y);
+                    this.maxX = Math.max(this.maxX, x);
+                    this.maxY = Math.max(this.maxY, y);
+                }
+            }
+        }
+
+        /**
+         * Function that checks if the polygon contains the point, using the even-odd rule (ray casting), so the points
+         * inside the holes of the polygon are not contained
+         * @param x longitude of the point
+         * @param y latitude of the point
+         * @return true if the point is inside the polygon
+         */
+        protected boolean contains(double x, double y){
+            boolean inside = false;
+            for (double[] ring : this.rings) {
+                int numPoints = ring.length / 2;
+                for (int i = 0, j = numPoints - 1; i < numPoints; j = i++) {
+                    double xi = ring[i*2], yi = ring[i*2+1];
+                    double xj = ring[j*2], yj = ring[j*2+1];
+                    if ((yi>y) != (yj>y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi){
+                        inside = !inside;
+                    }
+                }
+            }
+            return inside;
+        }
+    }
+}
@@ -5,6 +5,8 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
@@ -98,4 +100,19 @@ public abstract class WikiClient {
 
         return instance;
     }
+
+    /**
+     * Function to get information about several taxon concepts of the same kingdom hold in the wiki
+     * @param canonicalNames canonical names of the taxon concepts to search
+     * @param kingdom name of the kingdom the taxon concepts belong to
+     * @return Map with the json object with information of the page for each canonical name (null if not found)
+     * @throws Exception
+     */
+    public Map<String,JsonObject> getWikiInformation(List<String> canonicalNames, String kingdom) throws Exception {
+        Map<String,JsonObject> wikiInfoByCanonicalName = new HashMap<String,JsonObject>();
+        for (String canonicalName : canonicalNames) {
+            wikiInfoByCanonicalName.put(canonicalName,this.getWikiInformation(canonicalName,kingdom));
+        }
+        return wikiInfoByCanonicalName;
+    }
 }
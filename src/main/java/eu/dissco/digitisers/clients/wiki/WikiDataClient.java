@@ -1,20 +1,39 @@
 package eu.dissco.digitisers.clients.wiki;
 
+import com.google.common.collect.Lists;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import eu.dissco.digitisers.utils.HostRateLimiter;
+import eu.dissco.digitisers.utils.HttpTransport;
 import eu.dissco.digitisers.utils.NetUtils;
-import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.jena.query.*;
+import org.apache.jena.sparql.engine.http.QueryExceptionHTTP;
 
 import java.io.ByteArrayOutputStream;
-import java.util.Iterator;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class WikiDataClient extends WikiClient{
 
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final static int batchSize = 50; //Max number of canonical names searched in a single SPARQL query
+    private Map<String, Optional<String>> mapKingdomWikidataIdByName; //Map to improve efficiency of this class, so kingdoms are only searched once
+
+
+    /***********************/
+    /* GETTERS AND SETTERS */
+    /***********************/
+
+    protected Map<String, Optional<String>> getMapKingdomWikidataIdByName() {
+        return mapKingdomWikidataIdByName;
+    }
+
     /****************/
     /* CONSTRUCTORS */
     /****************/
@@ -24,6 +43,7 @@ public class WikiDataClient extends WikiClient{
      */
     protected WikiDataClient(){
         super("https://query.wikidata.org/sparql");
+        this.mapKingdomWikidataIdByName = new ConcurrentHashMap<String,Optional<String>>();
     }
 
 
@@ -49,44 +69,54 @@ public class WikiDataClient extends WikiClient{
      */
     @Override
     public JsonObject getWikiInformation(String canonicalName, String kingdom) throws Exception {
-        JsonObject wikiInfoObj = null;
-        if (this.getMapPageInfoByCanonicalNameAndKingdom().containsKey(canonicalName+"#"+kingdom)) {
-            wikiInfoObj=this.getMapPageInfoByCanonicalNameAndKingdom().get(canonicalName+"#"+kingdom).orElse(null);
-        } else {
-            JsonObject taxonInfo = this.getTaxonConceptInfo(canonicalName,kingdom);
-            JsonArray results = taxonInfo.getAsJsonObject("results").getAsJsonArray("bindings");
-
-            if (results.size()==1){
-                String wikidataPageURL = results.get(0).getAsJsonObject().getAsJsonObject("item").get("value").getAsString();
-                String wikidataId = NetUtils.getLastSegmentOfUrl(wikidataPageURL);
-                wikiInfoObj = new JsonObject();
-                wikiInfoObj.addProperty("wikidataId",wikidataId);
-                wikiInfoObj.addProperty("wikidataPageURL",wikidataPageURL);
+        return this.getWikiInformation(Collections.singletonList(canonicalName),kingdom).get(canonicalName);
+    }
 
-                //Obtain all external taxon identifiers found in the taxon concept page
-                JsonObject taxonIdentifiers = this.getTaxonIdentifiersByEntityId(wikidataId);
-                results = taxonIdentifiers.getAsJsonObject("results").getAsJsonArray("bindings");
-                JsonArray wikiDataTaxonIdentifiers = new JsonArray();
-                for (JsonElement identifier: results) {
-                    JsonObject wikiDataTaxonIdentifier = new JsonObject();
-                    wikiDataTaxonIdentifier.addProperty("name",identifier.getAsJsonObject().getAsJsonObject("name").get("value").getAsString());
-                    wikiDataTaxonIdentifier.addProperty("value",identifier.getAsJsonObject().getAsJsonObject("value").get("value").getAsString());
-                    wikiDataTaxonIdentifier.addProperty("link",identifier.getAsJsonObject().getAsJsonObject("link").get("value").getAsString());
-                    wikiDataTaxonIdentifiers.add(wikiDataTaxonIdentifier);
-                }
-                wikiInfoObj.add("identifiers",wikiDataTaxonIdentifiers);
+    /**
+     * Function to get information about several taxon concepts of the same kingdom hold in the wiki. The taxon concepts
+     * that aren't cached yet are looked up with a single SPARQL query per batch of canonical names
+     * @param canonicalNames canonical names of the taxon concepts to search
+     * @param kingdom name of the kingdom the taxon concepts belong to
+     * @return Map with the json object with information of the page for each canonical name (null if not found)
+     * @throws Exception
+     */
+    @Override
+    public Map<String,JsonObject> getWikiInformation(List<String> canonicalNames, String kingdom) throws Exception {
+        List<String> canonicalNamesToSearch = new ArrayList<String>();
+        for (String canonicalName : canonicalNames) {
+            if (!this.getMapPageInfoByCanonicalNameAndKingdom().containsKey(canonicalName+"#"+kingdom) && !canonicalNamesToSearch.contains(canonicalName)){
+                canonicalNamesToSearch.add(canonicalName);
+            }
+        }
 
-                //Obtain if article for this concept is found in wikipedia
-                JsonObject wikipediaInfo = this.getWikipediaPageURL(wikidataId);
-                JsonArray wikipediaResults = wikipediaInfo.getAsJsonObject("results").getAsJsonArray("bindings");
-                if (wikipediaResults.size()==1) {
-                    wikiInfoObj.addProperty("wikipediaURL",wikipediaResults.get(0).getAsJsonObject().getAsJsonObject("article").get("value").getAsString());
+        String kingdomWikidataId = canonicalNamesToSearch.isEmpty() ? null : this.getKingdomWikidataId(kingdom);
+        if (kingdomWikidataId==null && !this.getMapKingdomWikidataIdByName().containsKey(kingdom)){
+            //The query of the kingdom failed, so the taxa are not cached and they can be searched again later
+            canonicalNamesToSearch.clear();
+        }
+        if (!canonicalNamesToSearch.isEmpty()){
+            for (List<String> batch : Lists.partition(canonicalNamesToSearch, batchSize)) {
+                Map<String,JsonObject> wikiInfoByCanonicalName = new HashMap<String,JsonObject>();
+                if (kingdomWikidataId!=null){
+                    JsonObject taxaInfo = this.executeSparqlSelectQuery(this.getQueryTaxaConceptsInKingdom(batch,kingdomWikidataId));
+                    if (taxaInfo==null){
+                        //The query failed, so the taxa are not cached and they can be searched again later
+                        continue;
+                    }
+                    wikiInfoByCanonicalName = this.getWikiInformationFromResults(taxaInfo.getAsJsonObject("results").getAsJsonArray("bindings"));
+                }
+                for (String canonicalName : batch) {
+                    this.getMapPageInfoByCanonicalNameAndKingdom().put(canonicalName+"#"+kingdom, Optional.ofNullable(wikiInfoByCanonicalName.get(canonicalName)));
                 }
             }
-            this.getMapPageInfoByCanonicalNameAndKingdom().put(canonicalName+"#"+kingdom, Optional.ofNullable(wikiInfoObj));
         }
 
-        return wikiInfoObj;
+        Map<String,JsonObject> wikiInfoByCanonicalName = new HashMap<String,JsonObject>();
+        for (String canonicalName : canonicalNames) {
+            Optional<JsonObject> wikiInfoObj = this.getMapPageInfoByCanonicalNameAndKingdom().get(canonicalName+"#"+kingdom);
+            wikiInfoByCanonicalName.put(canonicalName, wikiInfoObj!=null ? wikiInfoObj.orElse(null) : null);
+        }
+        return wikiInfoByCanonicalName;
     }
 
     /**
@@ -109,40 +139,84 @@ public class WikiDataClient extends WikiClient{
     /*******************/
 
     /**
-     * Function to get information about the taxon concept hold in the wiki
-     * For doing that it execute some SPARQL queries
-     * @param canonicalName canonical name of the taxon concept to search
-     * @param kingdom name of the kingdom the taxon concept belongs to
-     * @return Json object with information of the page for the taxon concept, or null if not found
+     * Function that gets the wikidata entity of a kingdom. As there are only a few kingdoms, they are kept in memory
+     * during the whole execution
+     * @param kingdom name of the kingdom
+     * @return wikidata id of the kingdom, or null if it isn't found or its name is ambiguous
      * @throws Exception
      */
-    private JsonObject getTaxonConceptInfo(String canonicalName, String kingdom) throws Exception {
-        String querySelectTaxon = this.getQueryTaxonConcept(canonicalName);
-        JsonObject taxonInfo = this.executeSparqlSelectQuery(querySelectTaxon);
-        JsonArray taxonResults = taxonInfo.getAsJsonObject("results").getAsJsonArray("bindings");
-
-        String querySelectKingdom = this.getQueryTaxonConcept(kingdom);
-        JsonObject kingdomInfo = this.executeSparqlSelectQuery(querySelectKingdom);
-        JsonArray kingdomResults = kingdomInfo.getAsJsonObject("results").getAsJsonArray("bindings");
-
-        for (Iterator<JsonElement> iter = taxonResults.iterator(); iter.hasNext(); ) {
-            JsonObject taxonResult = (JsonObject) iter.next();
-            if (kingdomResults.size() != 1) {
-                iter.remove();
-            } else {
-                String taxonWikidataPageURL = taxonResult.getAsJsonObject().getAsJsonObject("item").get("value").getAsString();
-                String taxonWikidataId = NetUtils.getLastSegmentOfUrl(taxonWikidataPageURL);
+    private String getKingdomWikidataId(String kingdom) throws Exception {
+        if (!this.getMapKingdomWikidataIdByName().containsKey(kingdom)){
+            JsonObject kingdomInfo = this.executeSparqlSelectQuery(this.getQueryTaxonConcept(kingdom));
+            if (kingdomInfo==null){
+                //The query failed, so the kingdom is not cached and it can be searched again later
+                return null;
+            }
+            String kingdomWikidataId = null;
+            JsonArray kingdomResults = kingdomInfo.getAsJsonObject("results").getAsJsonArray("bindings");
+            if (kingdomResults.size()==1){
                 String kingdomWikidataPageURL = kingdomResults.get(0).getAsJsonObject().getAsJsonObject("item").get("value").getAsString();
-                String kingdomWikidataId = NetUtils.getLastSegmentOfUrl(kingdomWikidataPageURL);
+                kingdomWikidataId = NetUtils.getLastSegmentOfUrl(kingdomWikidataPageURL);
+            }
+            this.getMapKingdomWikidataIdByName().put(kingdom, Optional.ofNullable(kingdomWikidataId));
+        }
+        return this.getMapKingdomWikidataIdByName().get(kingdom).orElse(null);
+    }
 
-                String querySelectTaxonInKingdom= this.getQueryIsTaxonInKingdom(taxonWikidataId,kingdomWikidataId);
-                JsonObject taxonInKingdomInfo = this.executeSparqlSelectQuery(querySelectTaxonInKingdom);
-                if (taxonInKingdomInfo.getAsJsonObject("results").getAsJsonArray("bindings").size()!=1){
-                    iter.remove();
-                };
+    /**
+     * Function that builds the wiki information of each taxon concept from the results of the query of taxa concepts
+     * in a kingdom. Each row of the results is a combination of taxon concept, taxon identifier and wikipedia article,
+     * so the information is only built for the canonical names that match exactly one taxon concept in the kingdom
+     * @param results bindings of the results of the query
+     * @return Map with the json object with information of the page for each canonical name found
+     * @throws Exception
+     */
+    private Map<String,JsonObject> getWikiInformationFromResults(JsonArray results) throws Exception {
+        Map<String,Set<String>> itemsByCanonicalName = new HashMap<String,Set<String>>();
+        Map<String,JsonObject> wikiInfoByItem = new LinkedHashMap<String,JsonObject>();
+        Map<String,Set<String>> identifiersByItem = new HashMap<String,Set<String>>();
+        for (JsonElement result : results) {
+            JsonObject resultObj = result.getAsJsonObject();
+            String canonicalName = resultObj.getAsJsonObject("canonicalName").get("value").getAsString();
+            String wikidataPageURL = resultObj.getAsJsonObject("item").get("value").getAsString();
+            itemsByCanonicalName.computeIfAbsent(canonicalName, k -> new HashSet<String>()).add(wikidataPageURL);
+
+            JsonObject wikiInfoObj = wikiInfoByItem.get(wikidataPageURL);
+            if (wikiInfoObj==null){
+                wikiInfoObj = new JsonObject();
+                wikiInfoObj.addProperty("wikidataId",NetUtils.getLastSegmentOfUrl(wikidataPageURL));
+                wikiInfoObj.addProperty("wikidataPageURL",wikidataPageURL);
+                wikiInfoObj.add("identifiers",new JsonArray());
+                wikiInfoByItem.put(wikidataPageURL,wikiInfoObj);
+                identifiersByItem.put(wikidataPageURL,new HashSet<String>());
+            }
+
+            //External taxon identifiers found in the taxon concept page
+            if (resultObj.has("name") && resultObj.has("value") && resultObj.has("link")){
+                String name = resultObj.getAsJsonObject("name").get("value").getAsString();
+                String value = resultObj.getAsJsonObject("value").get("value").getAsString();
+                if (identifiersByItem.get(wikidataPageURL).add(name+"#"+value)){
+                    JsonObject wikiDataTaxonIdentifier = new JsonObject();
+                    wikiDataTaxonIdentifier.addProperty("name",name);
+                    wikiDataTaxonIdentifier.addProperty("value",value);
+                    wikiDataTaxonIdentifier.addProperty("link",resultObj.getAsJsonObject("link").get("value").getAsString());
+                    wikiInfoObj.getAsJsonArray("identifiers").add(wikiDataTaxonIdentifier);
+                }
+            }
+
+            //Article for this concept found in wikipedia
+            if (resultObj.has("article") && !wikiInfoObj.has("wikipediaURL")){
+                wikiInfoObj.addProperty("wikipediaURL",resultObj.getAsJsonObject("article").get("value").getAsString());
             }
         }
-        return taxonInfo;
+
+        Map<String,JsonObject> wikiInfoByCanonicalName = new HashMap<String,JsonObject>();
+        for (Map.Entry<String,Set<String>> items : itemsByCanonicalName.entrySet()) {
+            if (items.getValue().size()==1){
+                wikiInfoByCanonicalName.put(items.getKey(), wikiInfoByItem.get(items.getValue().iterator().next()));
+            }
+        }
+        return wikiInfoByCanonicalName;
     }
 
     /**
@@ -155,7 +229,7 @@ public class WikiDataClient extends WikiClient{
                 "SELECT ?item ?itemLabel\n" +
                 "WHERE \n" +
                 "{\n" +
-                "  BIND('"+canonicalName+"' AS ?canonicalName)\n" +
+                "  BIND("+this.getSparqlLiteral(canonicalName)+" AS ?canonicalName)\n" +
                 "  ?item wdt:P225 ?canonicalName\n" +
                 "  SERVICE wikibase:label { bd:serviceParam wikibase:language '[AUTO_LANGUAGE],en'. }  \n" +
                 "}";
@@ -163,66 +237,46 @@ public class WikiDataClient extends WikiClient{
     }
 
     /**
-     * Function to get the SPARQL query to check if taxon belongs to the kingdom
-     * @param taxonEntityId
-     * @param kingdomEntityId
+     * Function to get the SPARQL query to obtain, for several canonical names, the pages of the taxon concepts that
+     * belong to the kingdom, together with their taxon identifiers and their article in wikipedia
+     * @param canonicalNames canonical names of the taxon concepts to search
+     * @param kingdomEntityId entity (page) of the kingdom the taxon concepts belong to
      * @return
      */
-    private String getQueryIsTaxonInKingdom(String taxonEntityId, String kingdomEntityId){
+    private String getQueryTaxaConceptsInKingdom(List<String> canonicalNames, String kingdomEntityId){
+        StringBuilder values = new StringBuilder();
+        for (String canonicalName : canonicalNames) {
+            values.append(" ").append(this.getSparqlLiteral(canonicalName));
+        }
         String query = this.getWikiDataBuiltInPrefixes() +
-                "SELECT ?taxon ?taxonLabel\n" +
+                "SELECT ?canonicalName ?item ?name ?value ?link ?article\n" +
                 "WHERE \n" +
                 "{\n" +
-                "  BIND(wd:"+taxonEntityId+" AS ?taxon)\n" +
-                "  BIND(wd:"+kingdomEntityId+" AS ?kingdom) \n" +
-                "  ?taxon wdt:P171+ ?kingdom .\n" +
-                "  SERVICE wikibase:label { bd:serviceParam wikibase:language '[AUTO_LANGUAGE],en'. }    \n" +
+                "  VALUES ?canonicalName {"+values+" }\n" +
+                "  ?item wdt:P225 ?canonicalName .\n" +
+                "  ?item wdt:P171+ wd:"+kingdomEntityId+" .\n" +
+                "  OPTIONAL {\n" +
+                "    ?item ?propUrl ?value .\n" +
+                "    ?property ?ref ?propUrl .\n" +
+                "    ?property wdt:P31/wdt:P279* wd:Q42396390 .\n" +
+                "    ?property rdfs:label ?name .\n" +
+                "    ?property wdt:P1630 ?formatterurl .\n" +
+                "    FILTER (lang(?name) = 'en')\n" +
+                "    FILTER isliteral(?value)\n" +
+                "    BIND(IRI(REPLACE(?value, '^(.+)$', ?formatterurl)) AS ?link)\n" +
+                "  }\n" +
+                "  OPTIONAL { ?article schema:about ?item ; schema:isPartOf <https://en.wikipedia.org/> . }\n" +
                 "}";
         return query;
     }
 
     /**
-     * Function that gets the taxon identifiers hold in the entity (page) passed as parameter
-     * @param entityId entity (page) from where to the taxon identifiers defined on it
-     * @return Json object with the result of executing the SPARQL query
-     * @throws Exception
-     */
-    private JsonObject getTaxonIdentifiersByEntityId(String entityId) throws Exception {
-        String querySelect = this.getWikiDataBuiltInPrefixes() +
-                "SELECT ?property ?name ?value ?link\n" +
-                "WHERE\n" +
-                "{\n" +
-                "  BIND(wd:Q42396390 AS ?taxonIdentifier)\n" +
-                "  BIND(wd:"+entityId+" AS ?taxon)\n" +
-                "  ?taxon ?propUrl ?value .\n" +
-                "  ?property ?ref ?propUrl .\n" +
-                "  ?property wdt:P31/wdt:P279* ?taxonIdentifier .\n" +
-                "  ?property rdfs:label ?name .  \n" +
-                "  ?property wdt:P1630 ?formatterurl .\n" +
-                "  FILTER (lang(?name) = 'en')\n" +
-                "  FILTER isliteral(?value)             \n" +
-                "  BIND(IRI(REPLACE(?value, '^(.+)$', ?formatterurl)) AS ?link)\n" +
-                "}";
-        return this.executeSparqlSelectQuery(querySelect);
-    }
-
-    /**
-     * Function that gets if the entity (page) has page also in wikipedia
-     * @param entityId entity (page) to check if it is found in wikipedia
-     * @return Json object with the result of executing the SPARQL query
-     * @throws Exception
+     * Function that escapes a string to be used as a literal in a SPARQL query
+     * @param value string to be escaped
+     * @return SPARQL literal of the string
      */
-    private JsonObject getWikipediaPageURL(String entityId) throws Exception {
-        String querySelect = this.getWikiDataBuiltInPrefixes() +
-                "SELECT ?article\n" +
-                "WHERE\n" +
-                "{\n" +
-                "  BIND(wd:"+entityId+" AS ?taxon)\n" +
-                "   ?article schema:about ?taxon ; schema:isPartOf <https://en.wikipedia.org/> .\n" +
-                "   SERVICE wikibase:label { bd:serviceParam wikibase:language \"[AUTO_LANGUAGE],en\" }\n" +
-                "}";
-
-        return this.executeSparqlSelectQuery(querySelect);
+    private String getSparqlLiteral(String value){
+        return "\"" + value.replace("\\","\\\\").replace("\"","\\\"") + "\"";
     }
 
     /**
@@ -272,22 +326,38 @@ public class WikiDataClient extends WikiClient{
      */
     private JsonObject executeSparqlSelectQuery(String querySelect) throws Exception {
         String endpointUrl = this.getApiUrl();
+        String host = HostRateLimiter.getHostFromUrl(endpointUrl);
+        HostRateLimiter rateLimiter = HostRateLimiter.getInstance();
         JsonObject jsonObject = null;
-        CloseableHttpClient httpClient = NetUtils.buildUnsafeSslHttpClient();
-        QueryExecution qexec = QueryExecutionFactory.sparqlService(endpointUrl,querySelect,httpClient);
-        try {
-            ResultSet results = qexec.execSelect();
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            ResultSetFormatter.outputAsJSON(os, results);
-            String json = os.toString("UTF-8");
-            Gson gson = new Gson();
-            jsonObject = gson.fromJson(json, JsonObject.class);
-        } catch (Exception ex) {
-            this.getLogger().error(ex.getMessage());
-        } finally {
-            qexec.close();
-            httpClient.close();
-        }
+        int numRetries = 0;
+        boolean retry;
+        do {
+            retry = false;
+            rateLimiter.acquire(host);
+            QueryExecution qexec = QueryExecutionFactory.sparqlService(endpointUrl,querySelect,HttpTransport.getInstance().getHttpClient());
+            try {
+                ResultSet results = qexec.execSelect();
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                ResultSetFormatter.outputAsJSON(os, results);
+                rateLimiter.onResponse(host, 200, null);
+                String json = os.toString("UTF-8");
+                Gson gson = new Gson();
+                jsonObject = gson.fromJson(json, JsonObject.class);
+            } catch (QueryExceptionHTTP ex) {
+                //Jena doesn't give us access to the headers of the response, so the default backoff is used
+                rateLimiter.onResponse(host, ex.getResponseCode(), null);
+                if (rateLimiter.isThrottlingStatusCode(ex.getResponseCode()) && numRetries < rateLimiter.getMaxRetries()) {
+                    numRetries++;
+                    retry = true;
+                } else {
+                    this.getLogger().error(ex.getMessage());
+                }
+            } catch (Exception ex) {
+                this.getLogger().error(ex.getMessage());
+            } finally {
+                qexec.close();
+            }
+        } while (retry);
         return jsonObject;
     }
 
@@ -1,13 +1,21 @@
 package eu.dissco.digitisers.clients.wiki;
 
+import com.google.common.collect.Lists;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import eu.dissco.digitisers.utils.NetUtils;
 
 import java.net.URLEncoder;
-import java.util.Optional;
+import java.util.*;
 
 public class WikipediaClient extends WikiClient {
 
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final static int batchSize = 50; //Max number of titles accepted by the MediaWiki API in a single request
+
 
     /****************/
     /* CONSTRUCTORS */
@@ -43,26 +51,43 @@ public class WikipediaClient extends WikiClient {
      */
     @Override
     public JsonObject getWikiInformation(String canonicalName, String kingdom) throws Exception {
-        JsonObject wikiInfoObj = null;
+        return this.getWikiInformation(Collections.singletonList(canonicalName),kingdom).get(canonicalName);
+    }
 
-        if (this.getMapPageInfoByCanonicalNameAndKingdom().containsKey(canonicalName+"#"+kingdom)) {
-            wikiInfoObj=this.getMapPageInfoByCanonicalNameAndKingdom().get(canonicalName+"#"+kingdom).orElse(null);
-        } else {
-            String canonicalNameEncoded = URLEncoder.encode("\""+canonicalName+"\"", "UTF-8");
-            JsonObject wikiResponse =(JsonObject) NetUtils.doGetRequestJson(this.getApiUrl()+
-                    "?action=query&list=search&srsearch=intitle:"+canonicalNameEncoded+"&format=json");
-
-            if (wikiResponse!=null && wikiResponse.getAsJsonObject("query").getAsJsonObject("searchinfo").get("totalhits").getAsInt()==1){
-                int pageId = wikiResponse.getAsJsonObject("query").getAsJsonArray("search").get(0).getAsJsonObject().get("pageid").getAsInt();
-                wikiResponse =(JsonObject) NetUtils.doGetRequestJson(this.getApiUrl()+
-                        "?action=query&prop=info&inprop=url&pageids="+pageId+"&format=json");
-                if (wikiResponse!=null){
-                    wikiInfoObj = wikiResponse.getAsJsonObject("query").getAsJsonObject("pages").getAsJsonObject(String.valueOf(pageId));
+    /**
+     * Function to get information about several taxon concepts of the same kingdom hold in the wiki.
+     * The canonical names that aren't cached yet are resolved as page titles in batches of 50 titles per request
+     * (following redirects). The ones without a page with that title are searched afterwards in the titles of the pages
+     * @param canonicalNames canonical names of the taxon concepts to search
+     * @param kingdom name of the kingdom the taxon concepts belong to
+     * @return Map with the json object with information of the page for each canonical name (null if not found)
+     * @throws Exception
+     */
+    @Override
+    public Map<String,JsonObject> getWikiInformation(List<String> canonicalNames, String kingdom) throws Exception {
+        List<String> canonicalNamesToResolve = new ArrayList<String>();
+        for (String canonicalName : canonicalNames) {
+            if (!this.getMapPageInfoByCanonicalNameAndKingdom().containsKey(canonicalName+"#"+kingdom) && !canonicalNamesToResolve.contains(canonicalName)){
+                canonicalNamesToResolve.add(canonicalName);
+            }
+        }
+
+        for (List<String> batch : Lists.partition(canonicalNamesToResolve, batchSize)) {
+            Map<String,JsonObject> pageInfoByTitle = this.getPagesInfoByTitles(batch);
+            for (String canonicalName : batch) {
+                JsonObject wikiInfoObj = pageInfoByTitle.get(canonicalName);
+                if (wikiInfoObj==null){
+                    wikiInfoObj = this.searchPageInfoByTitle(canonicalName);
                 }
+                this.getMapPageInfoByCanonicalNameAndKingdom().put(canonicalName+"#"+kingdom, Optional.ofNullable(wikiInfoObj));
             }
-            this.getMapPageInfoByCanonicalNameAndKingdom().put(canonicalName+"#"+kingdom, Optional.ofNullable(wikiInfoObj));
         }
-        return wikiInfoObj;
+
+        Map<String,JsonObject> wikiInfoByCanonicalName = new HashMap<String,JsonObject>();
+        for (String canonicalName : canonicalNames) {
+            wikiInfoByCanonicalName.put(canonicalName, this.getMapPageInfoByCanonicalNameAndKingdom().get(canonicalName+"#"+kingdom).orElse(null));
+        }
+        return wikiInfoByCanonicalName;
     }
 
     /**
@@ -79,4 +104,101 @@ public class WikipediaClient extends WikiClient {
         return pageUrl;
     }
 
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that gets the information (including its url) of the pages whose title are the ones passed as parameter,
+     * in a single request. The titles normalised or redirected by the wiki are mapped back to the titles requested
+     * @param titles titles of the pages (maximum 50)
+     * @return Map with the information of the page for each title that has a page in the wiki
+     * @throws Exception
+     */
+    private Map<String,JsonObject> getPagesInfoByTitles(List<String> titles) throws Exception {
+        Map<String,JsonObject> pageInfoByTitle = new HashMap<String,JsonObject>();
+        List<String> titlesEncoded = new ArrayList<String>();
+        for (String title : titles) {
+            titlesEncoded.add(URLEncoder.encode(title, "UTF-8"));
+        }
+        JsonObject wikiResponse =(JsonObject) NetUtils.doGetRequestJson(this.getApiUrl()+
+                "?action=query&prop=info%7Cpageprops&inprop=url&ppprop=disambiguation&redirects=1&titles="+String.join("%7C",titlesEncoded)+"&format=json");
+
+        if (wikiResponse!=null && wikiResponse.has("query")){
+            JsonObject query = wikiResponse.getAsJsonObject("query");
+            Map<String,JsonObject> pageInfoByPageTitle = new HashMap<String,JsonObject>();
+            if (query.has("pages")){
+                for (Map.Entry<String, JsonElement> page : query.getAsJsonObject("pages").entrySet()) {
+                    JsonObject pageInfo = page.getValue().getAsJsonObject();
+                    if (!pageInfo.has("missing") && !pageInfo.has("invalid") && pageInfo.has("title") && !this.isDisambiguationPage(pageInfo)){
+                        pageInfoByPageTitle.put(pageInfo.get("title").getAsString(),pageInfo);
+                    }
+                }
+            }
+            Map<String,String> normalizedTitles = this.getTitlesMapping(query,"normalized");
+            Map<String,String> redirectedTitles = this.getTitlesMapping(query,"redirects");
+            for (String title : titles) {
+                String pageTitle = normalizedTitles.getOrDefault(title,title);
+                pageTitle = redirectedTitles.getOrDefault(pageTitle,pageTitle);
+                if (pageInfoByPageTitle.containsKey(pageTitle)){
+                    pageInfoByTitle.put(title,pageInfoByPageTitle.get(pageTitle));
+                }
+            }
+        }
+        return pageInfoByTitle;
+    }
+
+    /**
+     * Function that gets the mapping between titles (from -> to) returned by the wiki in a query
+     * @param query query object of the response of the wiki
+     * @param mappingName name of the mapping (normalized or redirects)
+     * @return Map with the title each title is mapped to
+     */
+    private Map<String,String> getTitlesMapping(JsonObject query, String mappingName){
+        Map<String,String> titlesMapping = new HashMap<String,String>();
+        if (query.has(mappingName)){
+            for (JsonElement mapping : query.getAsJsonArray(mappingName)) {
+                titlesMapping.put(mapping.getAsJsonObject().get("from").getAsString(),mapping.getAsJsonObject().get("to").getAsString());
+            }
+        }
+        return titlesMapping;
+    }
+
+    /**
+     * Function that checks if a page is a disambiguation page (a page listing the pages with the same title), which
+     * doesn't describe the taxon concept
+     * @param pageInfo information of the page, including its page properties
+     * @return true if it is a disambiguation page, false otherwise
+     */
+    private boolean isDisambiguationPage(JsonObject pageInfo){
+        return pageInfo.has("pageprops") && pageInfo.getAsJsonObject("pageprops").has("disambiguation");
+    }
+
+    /**
+     * Function that searches the page that has the canonical name in its title, when there is only one page with it
+     * @param canonicalName canonical name to search in the titles of the pages
+     * @return Json object with information of the page, or null if not found or there are several pages with it
+     * @throws Exception
+     */
+    private JsonObject searchPageInfoByTitle(String canonicalName) throws Exception {
+        JsonObject wikiInfoObj = null;
+        String canonicalNameEncoded = URLEncoder.encode("\""+canonicalName+"\"", "UTF-8");
+        JsonObject wikiResponse =(JsonObject) NetUtils.doGetRequestJson(this.getApiUrl()+
+                "?action=query&list=search&srsearch=intitle:"+canonicalNameEncoded+"&format=json");
+
+        if (wikiResponse!=null && wikiResponse.getAsJsonObject("query").getAsJsonObject("searchinfo").get("totalhits").getAsInt()==1){
+            int pageId = wikiResponse.getAsJsonObject("query").getAsJsonArray("search").get(0).getAsJsonObject().get("pageid").getAsInt();
+            wikiResponse =(JsonObject) NetUtils.doGetRequestJson(this.getApiUrl()+
+                    "?action=query&prop=info%7Cpageprops&inprop=url&ppprop=disambiguation&pageids="+pageId+"&format=json");
+            if (wikiResponse!=null){
+                wikiInfoObj = wikiResponse.getAsJsonObject("query").getAsJsonObject("pages").getAsJsonObject(String.valueOf(pageId));
+                if (wikiInfoObj!=null && this.isDisambiguationPage(wikiInfoObj)){
+                    wikiInfoObj = null;
+                }
+            }
+        }
+        return wikiInfoObj;
+    }
+
 }
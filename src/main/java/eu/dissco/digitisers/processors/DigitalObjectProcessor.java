@@ -1,5 +1,8 @@
 package eu.dissco.digitisers.processors;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import eu.dissco.digitisers.clients.digitalObjectRepository.DigitalObjectRepositoryClient;
 import eu.dissco.digitisers.clients.digitalObjectRepository.DigitalObjectRepositoryException;
 import eu.dissco.digitisers.clients.digitalObjectRepository.DigitalObjectRepositoryInfo;
@@ -8,6 +11,8 @@ import eu.dissco.digitisers.clients.gbif.GbifInfo;
 import eu.dissco.digitisers.processors.enrichers.CatalogueOfLifeEnricher;
 import eu.dissco.digitisers.processors.enrichers.CountryEnricher;
 import eu.dissco.digitisers.processors.enrichers.EbiEnricher;
+import eu.dissco.digitisers.processors.enrichers.Enricher;
+import eu.dissco.digitisers.processors.enrichers.ReverseGeocodingEnricher;
 import eu.dissco.digitisers.processors.enrichers.WikiEnricher;
 import eu.dissco.digitisers.utils.DigitalSpecimenUtils;
 import net.dona.doip.client.DigitalObject;
@@ -20,6 +25,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
 
 public class DigitalObjectProcessor implements DigitalObjectVisitor {
 
@@ -29,6 +35,7 @@ public class DigitalObjectProcessor implements DigitalObjectVisitor {
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
     private Configuration config;
+    private String processingVersion;
 
 
     /***********************/
@@ -43,6 +50,10 @@ public class DigitalObjectProcessor implements DigitalObjectVisitor {
         return config;
     }
 
+    protected String getProcessingVersion() {
+        return processingVersion;
+    }
+
     /****************/
     /* CONSTRUCTORS */
     /****************/
@@ -54,6 +65,7 @@ public class DigitalObjectProcessor implements DigitalObjectVisitor {
      */
     public DigitalObjectProcessor(Configuration config) throws DigitalObjectRepositoryException {
         this.config = config;
+        this.processingVersion = this.calculateProcessingVersion();
     }
 
 
@@ -65,23 +77,89 @@ public class DigitalObjectProcessor implements DigitalObjectVisitor {
     /**
      * Method in charge of processing a digital specimen when is visited after reading it from the source data.
      * It does the following operations:
-     * 1. Enrich the data hold in the digital specimen with information of external services (eg: CoL, EBI, etc)
-     * 2. Calculate the MIDs level according with the data it has
-     * 3. Save the object in the repository (create or update)
+     * 1. Skip the digital specimen if another one with the same identity key (scientificName, institutionCode,
+     * physicalSpecimenId) has already been saved in this execution and digitiser.duplicatesPolicy is skip
+     * 2. Skip the digital specimen if it hasn't changed since it was last processed (when the fingerprint store is
+     * configured in digitiser.fingerprintsFile and the digitisation is not a full one)
+     * 3. Enrich the data hold in the digital specimen with information of external services (eg: CoL, EBI, etc).
+     * If digitiser.deferEnrichment is set, the digital specimen is not enriched but marked as pending enrichment, to be
+     * enriched later by the enrichment backfill (see DigitalSpecimenEnrichmentBackfill)
+     * 4. Calculate the MIDs level according with the data it has. The minimum MIDS level required to save the digital
+     * specimens pending enrichment is checked with the data added by the enrichment treated as available, and the
+     * backfill checks it again once they are enriched
+     * 5. Save the object in the repository (create or update), holding the lock of its identity key so no other
+     * thread saves the same digital specimen at the same time. If digitiser.duplicatesPolicy is merge, the digital
+     * specimen is merged with the one with the same identity key saved before in this execution (as it is in the
+     * repository). Its identity key and its fingerprint are only registered when it is in the repository afterwards
      * @param ds Digital specimen to be processed
      * @return Digital object with the result of saving the digital specimen in the repository. If the digital specimen
-     * failed to be saved or it couldn't be saved it return null. If the digital specimen was saved, the Digital object
-     * returned will indicate in dsSaved.attributes.operation if the operation was "insert" or "update"
+     * failed to be saved, it couldn't be saved, it was unchanged or it was a duplicate skipped it return null. If the
+     * digital specimen was saved, the Digital object returned will indicate in dsSaved.attributes.operation if the
+     * operation was "insert" or "update"
+     * @throws DigitalSpecimenProcessingException if the digital specimen failed to be saved
      */
     public DigitalObject visitDigitalSpecimen(DigitalObject ds) {
-        //Enrich data in digital specimen
-        this.enrichDigitalSpecimenData(ds);
+        //Check if a digital specimen with the same identity key has already been saved in this execution
+        DigitalSpecimenDeduplicator deduplicator = DigitalSpecimenDeduplicator.getInstance();
+        DigitalSpecimenDeduplicator.DUPLICATES_POLICY duplicatesPolicy = DigitalSpecimenDeduplicator.DUPLICATES_POLICY.valueOf(
+                this.getConfig().getString("digitiser.duplicatesPolicy","none").toUpperCase());
+        String dsIdentityKey = DigitalSpecimenUtils.getDsIdentityKey(ds);
+        if (dsIdentityKey==null){
+            duplicatesPolicy = DigitalSpecimenDeduplicator.DUPLICATES_POLICY.NONE;
+        }
+        if (this.isDuplicateToSkip(dsIdentityKey,duplicatesPolicy)){
+            return null;
+        }
+
+        //Check if the digital specimen has changed since it was last processed
+        String identityKey = null;
+        String fingerprint = null;
+        FingerprintStore fingerprintStore = FingerprintStore.getInstance(this.getConfig().getString("digitiser.fingerprintsFile",""));
+        if (fingerprintStore.isEnabled() && (identityKey=dsIdentityKey)!=null){
+            fingerprint = FingerprintStore.getFingerprint(ds,this.getProcessingVersion());
+            int maxAgeDays = this.getConfig().getInt("digitiser.fingerprintsMaxAgeDays",30);
+            long minProcessed = maxAgeDays>0 ? System.currentTimeMillis() - TimeUnit.DAYS.toMillis(maxAgeDays) : 0L;
+            if (!this.getConfig().getBoolean("digitiser.fullDigitisation",false) && fingerprintStore.isUnchanged(identityKey,fingerprint,minProcessed)){
+                this.getLogger().debug("DS [" + identityKey + "] is unchanged since it was last digitised. It won't be processed");
+                return null;
+            }
+        }
+
+        //Enrich data in digital specimen, or mark it to be enriched later if the enrichment is deferred
+        if (this.getConfig().getBoolean("digitiser.deferEnrichment",false)){
+            DigitalSpecimenUtils.addPropertyToDS(ds,DigitalSpecimenEnrichmentBackfill.PENDING_ENRICHMENT_PROPERTY,true);
+        } else{
+            this.enrichDigitalSpecimenData(ds);
+        }
 
         //Calculate digital specimen MIDS level
         this.calculateDigitalSpecimenMidsLevel(ds);
 
         //Save (insert, update) digital specimen in repository
-        DigitalObject dsSaved = this.saveDigitalSpecimen(ds);
+        DigitalObject dsSaved;
+        Lock identityKeyLock = dsIdentityKey!=null ? deduplicator.getIdentityKeyLock(dsIdentityKey) : null;
+        if (identityKeyLock!=null) identityKeyLock.lock();
+        try{
+            //Check again, as another thread may have saved a duplicate while this one was enriched
+            if (this.isDuplicateToSkip(dsIdentityKey,duplicatesPolicy)){
+                return null;
+            }
+            if (duplicatesPolicy==DigitalSpecimenDeduplicator.DUPLICATES_POLICY.MERGE && deduplicator.isIdentityKeyRegistered(dsIdentityKey)){
+                DigitalObject dsInRepository = this.getDigitalSpecimenFromRepository(ds);
+                if (dsInRepository!=null) this.mergeDigitalSpecimenWithSavedContent(ds,dsInRepository.attributes.getAsJsonObject("content"));
+            }
+            //The identity key and the fingerprint are only registered when the digital specimen is in the repository
+            //afterwards, so the digital specimens that couldn't be saved are processed again
+            final String fingerprintIdentityKey = identityKey;
+            final String dsFingerprint = fingerprint;
+            final boolean registerIdentityKey = duplicatesPolicy!=DigitalSpecimenDeduplicator.DUPLICATES_POLICY.NONE;
+            dsSaved = this.saveDigitalSpecimen(ds, () -> {
+                if (dsFingerprint!=null) fingerprintStore.putFingerprint(fingerprintIdentityKey,dsFingerprint);
+                if (registerIdentityKey) deduplicator.registerIdentityKey(dsIdentityKey);
+            });
+        } finally {
+            if (identityKeyLock!=null) identityKeyLock.unlock();
+        }
 
         if (dsSaved!=null && dsSaved.attributes.has("operation")){
             String institutionCode= DigitalSpecimenUtils.getStringPropertyFromDS(ds,"institutionCode");
@@ -101,6 +179,15 @@ public class DigitalObjectProcessor implements DigitalObjectVisitor {
     /* PROTECTED METHODS */
     /*********************/
 
+    /**
+     * Function that looks up together the information of external services needed to enrich several digital
+     * specimens, so it is cached before they are enriched one by one (see WikiEnricher.prefetchWikiInformation)
+     * @param dsList digital specimens to be enriched
+     */
+    protected void prefetchDigitalSpecimensData(List<DigitalObject> dsList){
+        WikiEnricher.prefetchWikiInformation(dsList,this.getConfig());
+    }
+
     /**
      * Enrich the data hold in the digital specimen with information of external services (eg: CoL, EBI, etc).
      * The enrichment of the data in the digital specimen for those external services is done in parallel
@@ -109,11 +196,7 @@ public class DigitalObjectProcessor implements DigitalObjectVisitor {
     protected void enrichDigitalSpecimenData(DigitalObject ds){
         try{
             //Create list of tasks to be executed potentially concurrently
-            List<Callable<Map<String, Object>>> taskList = new ArrayList<>();
-            taskList.add(new CountryEnricher(ds,this.getConfig()));
-            taskList.add(new CatalogueOfLifeEnricher(ds,this.getConfig()));
-            taskList.add(new EbiEnricher(ds,this.getConfig()));
-            taskList.add(new WikiEnricher(ds,this.getConfig()));
+            List<Callable<Map<String, Object>>> taskList = new ArrayList<>(this.getEnrichers(ds));
 
             //Create executor service
             //ExecutorService executorService = Executors.newCachedThreadPool();
@@ -153,24 +236,35 @@ public class DigitalObjectProcessor implements DigitalObjectVisitor {
      * @param ds Digital specimen to calculate its MIDS level
      */
     protected void calculateDigitalSpecimenMidsLevel(DigitalObject ds){
-        int midsLevel=0;
-        if (StringUtils.isNotBlank(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"scientificName"))
-                && StringUtils.isNotBlank(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"catalogNumber"))) {
-            midsLevel=1;
-            if (StringUtils.isNotBlank(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"locality"))
-                    && StringUtils.isNotBlank(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"country"))
-                    && DigitalSpecimenUtils.getPropertyFromDS(ds,"decimalLatLon")!=null) {
-                midsLevel=2;
-                if (StringUtils.isNotBlank(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"commonName"))
-                        || DigitalSpecimenUtils.getPropertyFromDS(ds,"availableImages")!=null
-                        || StringUtils.isNotBlank(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"annotations"))
-                        || StringUtils.isNotBlank(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"interpretations"))
-                        || StringUtils.isNotBlank(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"literatureReference"))) {
-                    midsLevel=3;
-                }
-            }
+        DigitalSpecimenUtils.addPropertyToDS(ds,"midslevel",this.getMidsLevel(ds,false));
+    }
+
+    /**
+     * Function that checks if the digital specimen's MIDS level satisfied the requirement defined in the
+     * property file. For the digital specimens pending enrichment, the MIDS level is calculated with the country
+     * treated as available, as it is added by the enrichment (from the country code or the coordinates)
+     * @param ds Digital specimen to check if its MIDS level satisfied the requirement defined in the property file
+     * @return true if the requirement is satisfied, false otherwise
+     */
+    protected boolean isMidsLevelSatisfied(DigitalObject ds){
+        int dsMidsLevel = this.isEnrichmentPending(ds) ? this.getMidsLevel(ds,true) :
+                Integer.valueOf(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"midslevel"));
+        int minimumMidsLevel = this.getConfig().getInt("digitiser.minimumMidsLevel");
+        return dsMidsLevel>=minimumMidsLevel;
+    }
+
+    /**
+     * Function that saves a digital specimen in the repository (create or update)
+     * @param ds digital specimen to be saved in the repository
+     * @return Digital object with the result of saving the digital specimen in the repository
+     * @throws DigitalObjectRepositoryException if the digital specimen couldn't be saved (with status code "Warn" if it
+     * isn't valid or it is identical to the one in the repository)
+     */
+    protected DigitalObject saveDigitalSpecimenInRepository(DigitalObject ds) throws DigitalObjectRepositoryException {
+        DigitalObjectRepositoryInfo digitalObjectRepositoryInfo =  DigitalObjectRepositoryInfo.getDigitalObjectRepositoryInfoFromConfig(this.getConfig());
+        try(DigitalObjectRepositoryClient digitalObjectRepositoryClient = new DigitalObjectRepositoryClient(digitalObjectRepositoryInfo)){
+            return digitalObjectRepositoryClient.saveDigitalSpecimen(ds);
         }
-        DigitalSpecimenUtils.addPropertyToDS(ds,"midslevel",midsLevel);
     }
 
     /**
@@ -182,22 +276,46 @@ public class DigitalObjectProcessor implements DigitalObjectVisitor {
      * saved or it failed to be saved.
      */
     protected DigitalObject saveDigitalSpecimen(DigitalObject ds) {
+        try{
+            return this.saveDigitalSpecimen(ds,null);
+        } catch (DigitalSpecimenProcessingException e){
+            return null;
+        }
+    }
+
+    /**
+     * Function that try to save a digital specimen in the repository, notifying when it is in the repository afterwards
+     * (saved or identical to the one in the repository), so it can be recorded (eg. its fingerprint, to skip it in next
+     * executions while it doesn't change). The digital specimens not satisfying the requirements to be saved or not
+     * valid according to the schema aren't notified, so they are checked again
+     * @param ds digital specimen to be saved in the repository
+     * @param onInRepository action run when the digital specimen is in the repository afterwards (null to not run any)
+     * @return Digital object with the result of saving the digital specimen in the repository or null if it couldn't be
+     * saved.
+     * @throws DigitalSpecimenProcessingException if the digital specimen failed to be saved (an error other than a
+     * warning), so the reader can process it again
+     */
+    protected DigitalObject saveDigitalSpecimen(DigitalObject ds, Runnable onInRepository) {
         DigitalObject dsSaved = null;
+        boolean inRepository = false;
         try{
             //Check if digital object can be saved
             if (this.canDigitalSpecimenBeSaved(ds)){
-                DigitalObjectRepositoryInfo digitalObjectRepositoryInfo =  DigitalObjectRepositoryInfo.getDigitalObjectRepositoryInfoFromConfig(this.getConfig());
-                try(DigitalObjectRepositoryClient digitalObjectRepositoryClient = new DigitalObjectRepositoryClient(digitalObjectRepositoryInfo)){
-                    dsSaved = digitalObjectRepositoryClient.saveDigitalSpecimen(ds);
-                }
+                dsSaved = this.saveDigitalSpecimenInRepository(ds);
+                inRepository = dsSaved!=null;
             }
         } catch (DigitalObjectRepositoryException e){
-            if (e.getStatusCode().equals("Warn")){
+            if ("Warn".equals(e.getStatusCode())){
                 this.getLogger().warn(e.getMessage());
+                inRepository = StringUtils.contains(e.getMessage(),"is identical to the content");
             } else{
                 this.getLogger().error("Error saving ds  "  + e.getMessage(),ds);
+                throw new DigitalSpecimenProcessingException("Error saving ds " + e.getMessage(), e);
             }
         }
+        if (inRepository && onInRepository!=null){
+            onInRepository.run();
+        }
         return dsSaved;
     }
 
@@ -206,13 +324,141 @@ public class DigitalObjectProcessor implements DigitalObjectVisitor {
     /* PRIVATE METHODS */
     /*******************/
 
+    /**
+     * Function that gets the enrichers used to enrich the data of the digital specimen
+     * @param ds Digital specimen to be enriched
+     * @return list of enrichers
+     */
+    private List<Enricher> getEnrichers(DigitalObject ds){
+        List<Enricher> enrichers = new ArrayList<Enricher>();
+        enrichers.add(new CountryEnricher(ds,this.getConfig()));
+        enrichers.add(new ReverseGeocodingEnricher(ds,this.getConfig()));
+        enrichers.add(new CatalogueOfLifeEnricher(ds,this.getConfig()));
+        enrichers.add(new EbiEnricher(ds,this.getConfig()));
+        enrichers.add(new WikiEnricher(ds,this.getConfig()));
+        return enrichers;
+    }
+
+    /**
+     * Function that checks if the digital specimen is a duplicate to be skipped, because digitiser.duplicatesPolicy
+     * is skip and a digital specimen with the same identity key has already been saved in this execution
+     * @param dsIdentityKey identity key of the digital specimen
+     * @param duplicatesPolicy policy applied to the duplicates
+     * @return true if the digital specimen has to be skipped, false otherwise
+     */
+    private boolean isDuplicateToSkip(String dsIdentityKey, DigitalSpecimenDeduplicator.DUPLICATES_POLICY duplicatesPolicy){
+        boolean isDuplicateToSkip = duplicatesPolicy==DigitalSpecimenDeduplicator.DUPLICATES_POLICY.SKIP
+                && DigitalSpecimenDeduplicator.getInstance().isIdentityKeyRegistered(dsIdentityKey);
+        if (isDuplicateToSkip){
+            this.getLogger().info("DS [" + dsIdentityKey + "] has already been saved in this execution. The duplicate won't be processed");
+        }
+        return isDuplicateToSkip;
+    }
+
+    /**
+     * Function that gets from the repository the digital specimen with the same scientific name, institution code and
+     * physical specimen id as the digital specimen passed as parameter
+     * @param ds digital specimen
+     * @return digital specimen in the repository or null if it isn't found or it couldn't be retrieved
+     */
+    private DigitalObject getDigitalSpecimenFromRepository(DigitalObject ds){
+        DigitalObject dsInRepository = null;
+        DigitalObjectRepositoryInfo digitalObjectRepositoryInfo =  DigitalObjectRepositoryInfo.getDigitalObjectRepositoryInfoFromConfig(this.getConfig());
+        try(DigitalObjectRepositoryClient digitalObjectRepositoryClient = new DigitalObjectRepositoryClient(digitalObjectRepositoryInfo)){
+            dsInRepository = digitalObjectRepositoryClient.getDigitalSpecimen(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"scientificName"),
+                    DigitalSpecimenUtils.getStringPropertyFromDS(ds,"institutionCode"),DigitalSpecimenUtils.getStringPropertyFromDS(ds,"physicalSpecimenId"));
+        } catch (DigitalObjectRepositoryException e){
+            this.getLogger().error("Error getting the digital specimen to merge with from the repository " + e.getMessage(),ds);
+        }
+        return dsInRepository;
+    }
+
+    /**
+     * Function that merges a duplicate digital specimen with the content of the digital specimen with the same
+     * identity key saved before in this execution (as it is in the repository): the properties the duplicate doesn't have are taken from the saved
+     * one, and the images of both are kept
+     * @param ds duplicate digital specimen
+     * @param savedContent content of the digital specimen saved before
+     */
+    private void mergeDigitalSpecimenWithSavedContent(DigitalObject ds, JsonObject savedContent){
+        JsonObject dsContent = ds.attributes.getAsJsonObject("content");
+        for (Map.Entry<String, JsonElement> property : savedContent.entrySet()) {
+            if (property.getKey().equals("id")){
+                continue;
+            }
+            if (!dsContent.has(property.getKey())){
+                dsContent.add(property.getKey(),property.getValue().deepCopy());
+            } else if (property.getKey().equals("availableImages") && property.getValue().isJsonArray()){
+                JsonArray images = dsContent.getAsJsonArray("availableImages");
+                for (JsonElement image : property.getValue().getAsJsonArray()) {
+                    if (!images.contains(image)) images.add(image.deepCopy());
+                }
+            }
+        }
+    }
+
+    /**
+     * Function that calculates the version of the processing of the digital specimens, which is part of their fingerprints,
+     * so they are processed again when the enrichers (or their configured version in digitiser.enrichmentVersion) or
+     * the requirements to save them change
+     * @return version of the processing of the digital specimens
+     */
+    private String calculateProcessingVersion(){
+        List<String> versionParts = new ArrayList<String>();
+        versionParts.add(this.getConfig().getString("digitiser.enrichmentVersion",""));
+        for (Enricher enricher : this.getEnrichers(null)) {
+            versionParts.add(enricher.getClass().getSimpleName());
+        }
+        versionParts.add(this.getConfig().getString("digitiser.recordsFromInstitutionInRegion"));
+        versionParts.add(this.getConfig().getString("digitiser.minimumMidsLevel"));
+        versionParts.add(this.getConfig().getString("ebi.fields",""));
+        return String.join("|",versionParts);
+    }
+
     /**
      * Function that checks if the digital specimen can be saved in the repository
      * @param ds Digital specimen to check if it can be saved
      * @return True if it can be saved, false otherwise
      */
     private boolean canDigitalSpecimenBeSaved(DigitalObject ds){
-        return this.institutionRegionSatisfied(ds) && this.midLevelSatisfied(ds);
+        return this.institutionRegionSatisfied(ds) && this.isMidsLevelSatisfied(ds);
+    }
+
+    /**
+     * Function that calculates the MIDS level of the digital specimen according to the data it has
+     * @param ds Digital specimen to calculate its MIDS level
+     * @param countryAvailable flag to indicate if the country is treated as available (eg. when it will be added by
+     *                         the enrichment), even if the digital specimen doesn't have it yet
+     * @return MIDS level of the digital specimen
+     */
+    private int getMidsLevel(DigitalObject ds, boolean countryAvailable){
+        int midsLevel=0;
+        if (StringUtils.isNotBlank(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"scientificName"))
+                && StringUtils.isNotBlank(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"catalogNumber"))) {
+            midsLevel=1;
+            if (StringUtils.isNotBlank(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"locality"))
+                    && (countryAvailable || StringUtils.isNotBlank(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"country")))
+                    && DigitalSpecimenUtils.getPropertyFromDS(ds,"decimalLatLon")!=null) {
+                midsLevel=2;
+                if (StringUtils.isNotBlank(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"commonName"))
+                        || DigitalSpecimenUtils.getPropertyFromDS(ds,"availableImages")!=null
+                        || StringUtils.isNotBlank(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"annotations"))
+                        || StringUtils.isNotBlank(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"interpretations"))
+                        || StringUtils.isNotBlank(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"literatureReference"))) {
+                    midsLevel=3;
+                }
+            }
+        }
+        return midsLevel;
+    }
+
+    /**
+     * Function that checks if the digital specimen is pending enrichment (saved with digitiser.deferEnrichment)
+     * @param ds Digital specimen to check
+     * @return true if the digital specimen is marked as pending enrichment, false otherwise
+     */
+    private boolean isEnrichmentPending(DigitalObject ds){
+        return "true".equalsIgnoreCase(DigitalSpecimenUtils.getStringPropertyFromDS(ds,DigitalSpecimenEnrichmentBackfill.PENDING_ENRICHMENT_PROPERTY));
     }
 
     /**
@@ -228,7 +474,8 @@ public class DigitalObjectProcessor implements DigitalObjectVisitor {
             //Only save digital objects that belongs to institutions in the given region
             GbifInfo gbifInfo = GbifInfo.getGbifInfoFromConfig(this.getConfig());
             GbifClient gbifClient = GbifClient.getInstance(gbifInfo);
-            String institutionRegion = DigitalSpecimenUtils.getDsInstitutionRegion(ds,gbifClient);
+            InstitutionRegionResolver institutionRegionResolver = InstitutionRegionResolver.getInstance(this.getConfig().getString("digitiser.institutionRegionsFile",""));
+            String institutionRegion = institutionRegionResolver.getDsInstitutionRegion(ds,gbifClient);
             if (StringUtils.isBlank(institutionRegion) || !StringUtils.containsIgnoreCase(institutionRegion,requiredInstitutionInRegion)){
                 isInstitutionRegionSatisfied=false;
                 String institutionCode= DigitalSpecimenUtils.getStringPropertyFromDS(ds,"institutionCode");
@@ -240,16 +487,4 @@ public class DigitalObjectProcessor implements DigitalObjectVisitor {
         }
         return isInstitutionRegionSatisfied;
     }
-
-    /**
-     * Function that checks if the digital specimen's MIDS level satisfied the requirement defined in the
-     * property file
-     * @param ds Digital specimen to check if its MIDS level satisfied the requirement defined in the property file
-     * @return true if the requirement is satisfied, false otherwise
-     */
-    private boolean midLevelSatisfied(DigitalObject ds){
-        int dsMidsLevel = Integer.valueOf(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"midslevel"));
-        int minimumMidsLevel = this.getConfig().getInt("digitiser.minimumMidsLevel");
-        return dsMidsLevel>=minimumMidsLevel;
-    }
 }
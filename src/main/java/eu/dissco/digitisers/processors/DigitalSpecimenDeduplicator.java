@@ -0,0 +1,114 @@
+package eu.dissco.digitisers.processors;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Striped;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Index of the identity keys (scientificName, institutionCode, physicalSpecimenId) of the digital specimens saved
+ * in the current execution, shared by all the threads processing digital specimens, so rows of the source data that
+ * map to the same digital specimen can be skipped or merged instead of being saved again.
+ * It also provides a lock per identity key (striped, so the number of locks is bounded), so two threads never save
+ * the same digital specimen at the same time (eg. creating it twice). The identity keys must be checked and
+ * registered while holding their lock.
+ * Note: To bound the memory used, the index keeps the 64 bits hash of the identity keys instead of the keys, and not
+ * the content of the digital specimens saved (the duplicates are merged with the digital specimen in the repository)
+ */
+public class DigitalSpecimenDeduplicator {
+
+    public enum DUPLICATES_POLICY {
+        NONE, //Duplicates are processed as any other digital specimen
+        SKIP, //Duplicates are skipped, only the first digital specimen of each identity key is processed
+        MERGE //Duplicates are merged into the digital specimen saved first
+    }
+
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final static int NUM_LOCK_STRIPES = 1024;
+    private static DigitalSpecimenDeduplicator instance=null;
+    private final Set<Long> identityKeysHashes;
+    private final Striped<Lock> identityKeysLocks;
+
+
+    /****************/
+    /* CONSTRUCTORS */
+    /****************/
+
+    /**
+     * Private constructor to avoid client applications to use constructor as we use the singleton design pattern
+     */
+    private DigitalSpecimenDeduplicator(){
+        this.identityKeysHashes = ConcurrentHashMap.newKeySet();
+        this.identityKeysLocks = Striped.lock(NUM_LOCK_STRIPES);
+    }
+
+
+    /******************/
+    /* PUBLIC METHODS */
+    /******************/
+
+    /**
+     * Method to get an instance of DigitalSpecimenDeduplicator as we use the singleton design pattern
+     * @return
+     */
+    public static synchronized DigitalSpecimenDeduplicator getInstance(){
+        if (instance==null){
+            instance = new DigitalSpecimenDeduplicator();
+        }
+        return instance;
+    }
+
+    /**
+     * Function that checks if a digital specimen with the identity key has already been saved in the current execution
+     * @param identityKey identity key of the digital specimen
+     * @return true if the identity key has been registered, false otherwise
+     */
+    public boolean isIdentityKeyRegistered(String identityKey){
+        return this.identityKeysHashes.contains(this.getIdentityKeyHash(identityKey));
+    }
+
+    /**
+     * Function that registers the identity key of a digital specimen once it is in the repository in the current
+     * execution
+     * @param identityKey identity key of the digital specimen
+     */
+    public void registerIdentityKey(String identityKey){
+        this.identityKeysHashes.add(this.getIdentityKeyHash(identityKey));
+    }
+
+    /**
+     * Function that gets the lock of an identity key, to be held while the digital specimen is saved
+     * @param identityKey identity key of the digital specimen
+     * @return lock of the identity key
+     */
+    public Lock getIdentityKeyLock(String identityKey){
+        return this.identityKeysLocks.get(identityKey);
+    }
+
+    /**
+     * Function that clears the identity keys registered, at the start of a new execution
+     */
+    public void clear(){
+        this.identityKeysHashes.clear();
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that gets the 64 bits hash of an identity key
+     * @param identityKey identity key of the digital specimen
+     * @return hash of the identity key
+     */
+    private long getIdentityKeyHash(String identityKey){
+        return Hashing.murmur3_128().hashString(identityKey, StandardCharsets.UTF_8).asLong();
+    }
+}
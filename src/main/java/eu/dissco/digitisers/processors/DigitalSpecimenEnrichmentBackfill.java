@@ -0,0 +1,363 @@
+package eu.dissco.digitisers.processors;
+
+import com.google.common.io.Files;
+import eu.dissco.digitisers.clients.digitalObjectRepository.DigitalObjectRepositoryClient;
+import eu.dissco.digitisers.clients.digitalObjectRepository.DigitalObjectRepositoryException;
+import eu.dissco.digitisers.clients.digitalObjectRepository.DigitalObjectRepositoryInfo;
+import eu.dissco.digitisers.utils.DigitalSpecimenUtils;
+import eu.dissco.digitisers.utils.FileUtils;
+import net.dona.doip.client.DigitalObject;
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiFunction;
+
+/**
+ * Second phase of a two-phase ingest: enrichment of the digital specimens saved in the repository without enriching
+ * them (marked with the property pendingEnrichment when digitiser.deferEnrichment is set) or under-enriched (eg. without
+ * catOfLifeReference or wikidata). The digital specimens updated are marked with the enrichment version they were
+ * enriched with (digitiser.enrichmentVersion), so the under-enriched ones are not enriched again until it changes.
+ * The ids of the digital specimens to enrich are read from the repository page by page and sorted by scientific name
+ * with an external sort, so the digital specimens of the same taxon are enriched together by the same thread (the
+ * first one fills the caches of the clients of the external services, which are used by the rest). The digital
+ * specimens are processed in batches: the taxa of a batch are enriched in parallel, and then the digital specimens of
+ * the batch enriched are updated in the repository
+ */
+public class DigitalSpecimenEnrichmentBackfill {
+
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final static int MAX_LINES_IN_MEMORY = 500000;
+    public final static String PENDING_ENRICHMENT_PROPERTY = "pendingEnrichment";
+    public final static String ENRICHMENT_VERSION_PROPERTY = "enrichmentVersion";
+    private Configuration config;
+    private DigitalObjectProcessor digitalObjectProcessor;
+    private String enrichmentVersion;
+    private ThreadLocal<DigitalObjectRepositoryClient> workerRepositoryClient; //Client of the repository of each thread of the backfill
+    private Queue<DigitalObjectRepositoryClient> workerRepositoryClients; //All the clients of the threads, to close them at the end
+
+
+    /***********************/
+    /* GETTERS AND SETTERS */
+    /***********************/
+
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    protected Configuration getConfig() {
+        return config;
+    }
+
+    protected DigitalObjectProcessor getDigitalObjectProcessor() {
+        return digitalObjectProcessor;
+    }
+
+    protected String getEnrichmentVersion() {
+        return enrichmentVersion;
+    }
+
+
+    /****************/
+    /* CONSTRUCTORS */
+    /****************/
+
+    /**
+     * Create a DigitalSpecimenEnrichmentBackfill with properties from the config file
+     * @param config configuration of the digitiser
+     * @throws DigitalObjectRepositoryException
+     */
+    public DigitalSpecimenEnrichmentBackfill(Configuration config) throws DigitalObjectRepositoryException {
+        this.config = config;
+        this.digitalObjectProcessor = new DigitalObjectProcessor(config);
+        this.enrichmentVersion = StringUtils.defaultIfBlank(config.getString("digitiser.enrichmentVersion",""),"0");
+        this.workerRepositoryClient = new ThreadLocal<DigitalObjectRepositoryClient>();
+        this.workerRepositoryClients = new ConcurrentLinkedQueue<DigitalObjectRepositoryClient>();
+    }
+
+
+    /******************/
+    /* PUBLIC METHODS */
+    /******************/
+
+    /**
+     * Function that enriches the digital specimens in the repository that match the query and updates them
+     * @param query query of the digital specimens to enrich. If it is blank, the digital specimens pending enrichment
+     *              or without catOfLifeReference or wikidata not enriched yet with the current enrichment version are
+     *              enriched (see getDefaultQuery)
+     * @return number of digital specimens updated
+     * @throws Exception
+     */
+    public int backfill(String query) throws Exception {
+        if (StringUtils.isBlank(query)){
+            query = this.getDefaultQuery();
+        }
+        int batchSize = Math.max(this.getConfig().getInt("digitiser.backfillBatchSize",1000),1);
+        int numThreads = Math.max(this.getConfig().getInt("digitiser.backfillThreads",32),1);
+        File workDirectory = Files.createTempDir();
+        int numUpdated = 0;
+        int numFailed = 0;
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        DigitalObjectRepositoryInfo digitalObjectRepositoryInfo = DigitalObjectRepositoryInfo.getDigitalObjectRepositoryInfoFromConfig(this.getConfig());
+        try (DigitalObjectRepositoryClient digitalObjectRepositoryClient = new DigitalObjectRepositoryClient(digitalObjectRepositoryInfo)){
+            //The ids are read before updating any digital specimen, as the updates change the results of the query
+            File taxaFile = this.getDigitalSpecimensByTaxon(digitalObjectRepositoryClient, query, new File(workDirectory, "taxa.txt"));
+            try (BufferedReader reader = java.nio.file.Files.newBufferedReader(taxaFile.toPath(), StandardCharsets.UTF_8)){
+                List<List<String>> batch;
+                while (!(batch = readBatchOfTaxa(reader, batchSize)).isEmpty()){
+                    List<DigitalObject> dsEnriched = this.enrichBatch(digitalObjectRepositoryInfo, batch, executorService);
+                    for (DigitalObject ds : dsEnriched) {
+                        try{
+                            digitalObjectRepositoryClient.update(ds);
+                            numUpdated++;
+                        } catch (DigitalObjectRepositoryException e){
+                            this.getLogger().error("Error updating enriched digital specimen " + ds.id + " " + e.getMessage());
+                            numFailed++;
+                        }
+                    }
+                    this.getLogger().info("Enrichment backfill: " + numUpdated + " digital specimen(s) updated, " + numFailed + " failed");
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+            DigitalObjectRepositoryClient workerClient;
+            while ((workerClient = this.workerRepositoryClients.poll()) != null){
+                workerClient.close();
+            }
+            org.apache.commons.io.FileUtils.deleteQuietly(workDirectory);
+        }
+        return numUpdated;
+    }
+
+
+    /*********************/
+    /* PROTECTED METHODS */
+    /*********************/
+
+    /**
+     * Function that gets the query of the digital specimens enriched when no query is set: the ones pending enrichment,
+     * and the ones without catOfLifeReference or wikidata that haven't been enriched yet with the current enrichment
+     * version (the external services didn't have the information the last time, so they aren't enriched again in every
+     * backfill)
+     * @return query of the digital specimens to enrich
+     */
+    protected String getDefaultQuery(){
+        return "type:DigitalSpecimen AND (/" + PENDING_ENRICHMENT_PROPERTY + ":true" +
+                " OR (((*:* -/catOfLifeReference:[* TO *]) OR (*:* -/wikidata:[* TO *]))" +
+                " AND (*:* -/" + ENRICHMENT_VERSION_PROPERTY + ":\"" + this.getEnrichmentVersion().replace("\"","\\\"") + "\")))";
+    }
+
+    /**
+     * Function that reads the next batch of taxa from a file of digital specimens sorted by taxon. A taxon is never
+     * split between batches, so a batch may have more digital specimens than the batch size
+     * @param reader reader of the file of digital specimens sorted by taxon (lines "scientificName\tid")
+     * @param batchSize minimum number of digital specimens of the batch (unless the end of the file is reached)
+     * @return list of taxa of the batch, each of them with the ids of its digital specimens. Empty list if there
+     * aren't more digital specimens
+     * @throws IOException
+     */
+    protected static List<List<String>> readBatchOfTaxa(BufferedReader reader, int batchSize) throws IOException {
+        List<List<String>> batch = new ArrayList<List<String>>();
+        int numDigitalSpecimens = 0;
+        String currentTaxon = null;
+        List<String> currentTaxonIds = null;
+        reader.mark(8192);
+        String line;
+        while ((line = reader.readLine()) != null){
+            String[] record = line.split("\t", 2);
+            if (!record[0].equals(currentTaxon)){
+                if (numDigitalSpecimens>=batchSize){
+                    //Start of the next batch
+                    reader.reset();
+                    break;
+                }
+                currentTaxon = record[0];
+                currentTaxonIds = new ArrayList<String>();
+                batch.add(currentTaxonIds);
+            }
+            currentTaxonIds.add(record[1]);
+            numDigitalSpecimens++;
+            reader.mark(8192);
+        }
+        return batch;
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that gets the ids of the digital specimens that match the query sorted by scientific name. The
+     * digital specimens are read page by page, keeping only their scientific name and id
+     * @param digitalObjectRepositoryClient client of the repository
+     * @param query query of the digital specimens
+     * @param taxaFile file where the scientific names and ids are written
+     * @return file with the sorted scientific names and ids (lines "scientificName\tid")
+     * @throws Exception
+     */
+    private File getDigitalSpecimensByTaxon(DigitalObjectRepositoryClient digitalObjectRepositoryClient, String query, File taxaFile) throws Exception {
+        try (BufferedWriter writer = java.nio.file.Files.newBufferedWriter(taxaFile.toPath(), StandardCharsets.UTF_8)){
+            int numDigitalSpecimens = digitalObjectRepositoryClient.searchAllInPages(query, ds -> {
+                String scientificName = StringUtils.defaultString(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"scientificName"));
+                try {
+                    writer.write(scientificName.replace('\t',' ') + "\t" + ds.id);
+                    writer.newLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            this.getLogger().info(numDigitalSpecimens + " digital specimen(s) to be enriched found in the repository for " + query);
+        }
+        File sortedTaxaFile = new File(taxaFile.getAbsolutePath() + ".sorted");
+        FileUtils.sortLines(taxaFile, sortedTaxaFile, MAX_LINES_IN_MEMORY);
+        taxaFile.delete();
+        return sortedTaxaFile;
+    }
+
+    /**
+     * Function that enriches the digital specimens of a batch. The digital specimens of each taxon are retrieved and
+     * enriched by a task run in parallel. In between, the information of the taxa of the whole batch is looked up
+     * together (eg. in a single query to wikidata) using one digital specimen of each taxon
+     * @param digitalObjectRepositoryInfo information of the repository
+     * @param batch list of taxa, each of them with the ids of its digital specimens
+     * @param executorService executor where the tasks are run
+     * @return list of digital specimens enriched, ready to be updated in the repository
+     * @throws InterruptedException
+     */
+    private List<DigitalObject> enrichBatch(DigitalObjectRepositoryInfo digitalObjectRepositoryInfo, List<List<String>> batch,
+                                            ExecutorService executorService) throws InterruptedException {
+        List<List<DigitalObject>> dsByTaxon = this.runTaxonTasks(digitalObjectRepositoryInfo, batch, executorService, (digitalObjectRepositoryClient, taxonIds) -> {
+            List<DigitalObject> taxonDs = new ArrayList<DigitalObject>();
+            for (String id : taxonIds) {
+                DigitalObject ds = this.retrieveDigitalSpecimen(digitalObjectRepositoryClient, id);
+                if (ds!=null) taxonDs.add(ds);
+            }
+            return taxonDs;
+        });
+
+        List<DigitalObject> dsOfEachTaxon = new ArrayList<DigitalObject>();
+        for (List<DigitalObject> taxonDs : dsByTaxon) {
+            if (!taxonDs.isEmpty()) dsOfEachTaxon.add(taxonDs.get(0));
+        }
+        this.getDigitalObjectProcessor().prefetchDigitalSpecimensData(dsOfEachTaxon);
+
+        List<List<DigitalObject>> dsEnrichedByTaxon = this.runTaxonTasks(digitalObjectRepositoryInfo, dsByTaxon, executorService, (digitalObjectRepositoryClient, taxonDs) -> {
+            List<DigitalObject> taxonDsEnriched = new ArrayList<DigitalObject>();
+            for (DigitalObject ds : taxonDs) {
+                if (this.enrichDigitalSpecimen(digitalObjectRepositoryClient, ds)) taxonDsEnriched.add(ds);
+            }
+            return taxonDsEnriched;
+        });
+        List<DigitalObject> dsEnriched = new ArrayList<DigitalObject>();
+        for (List<DigitalObject> taxonDsEnriched : dsEnrichedByTaxon) {
+            dsEnriched.addAll(taxonDsEnriched);
+        }
+        return dsEnriched;
+    }
+
+    /**
+     * Function that runs a task for each taxon of a batch in parallel, with the client of the repository of the thread
+     * that runs it
+     * @param digitalObjectRepositoryInfo information of the repository
+     * @param taxa list of taxa, each of them with the elements (ids or digital specimens) the task is run with
+     * @param executorService executor where the tasks are run
+     * @param taxonTask task run for each taxon, which receives the client of the repository and the elements of the taxon
+     * @return list with the result of the task of each taxon (empty list for the tasks that failed)
+     * @throws InterruptedException
+     */
+    private <T> List<List<DigitalObject>> runTaxonTasks(DigitalObjectRepositoryInfo digitalObjectRepositoryInfo, List<List<T>> taxa, ExecutorService executorService,
+                                                       BiFunction<DigitalObjectRepositoryClient, List<T>, List<DigitalObject>> taxonTask) throws InterruptedException {
+        List<Callable<List<DigitalObject>>> taskList = new ArrayList<Callable<List<DigitalObject>>>();
+        for (List<T> taxon : taxa) {
+            taskList.add(() -> taxonTask.apply(this.getWorkerRepositoryClient(digitalObjectRepositoryInfo), taxon));
+        }
+
+        List<List<DigitalObject>> results = new ArrayList<List<DigitalObject>>();
+        for (Future<List<DigitalObject>> future : executorService.invokeAll(taskList)) {
+            try{
+                results.add(future.get());
+            } catch (ExecutionException e){
+                this.getLogger().error("Unexpected error processing digital specimens of a taxon " + e.getMessage());
+                results.add(new ArrayList<DigitalObject>());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Function that gets the client of the repository of the current thread, creating it the first time, so the
+     * clients are reused by all the tasks run in the same thread
+     * @param digitalObjectRepositoryInfo information of the repository
+     * @return client of the repository of the current thread
+     * @throws DigitalObjectRepositoryException
+     */
+    private DigitalObjectRepositoryClient getWorkerRepositoryClient(DigitalObjectRepositoryInfo digitalObjectRepositoryInfo) throws DigitalObjectRepositoryException {
+        DigitalObjectRepositoryClient digitalObjectRepositoryClient = this.workerRepositoryClient.get();
+        if (digitalObjectRepositoryClient==null){
+            digitalObjectRepositoryClient = new DigitalObjectRepositoryClient(digitalObjectRepositoryInfo);
+            this.workerRepositoryClient.set(digitalObjectRepositoryClient);
+            this.workerRepositoryClients.add(digitalObjectRepositoryClient);
+        }
+        return digitalObjectRepositoryClient;
+    }
+
+    /**
+     * Function that retrieves a digital specimen from the repository
+     * @param digitalObjectRepositoryClient client of the repository
+     * @param id id of the digital specimen
+     * @return digital specimen or null if it couldn't be retrieved
+     */
+    private DigitalObject retrieveDigitalSpecimen(DigitalObjectRepositoryClient digitalObjectRepositoryClient, String id){
+        DigitalObject ds = null;
+        try{
+            ds = digitalObjectRepositoryClient.retrieve(id);
+        } catch (DigitalObjectRepositoryException e){
+            this.getLogger().error("Error retrieving digital specimen " + id + " to be enriched " + e.getMessage());
+        }
+        return ds;
+    }
+
+    /**
+     * Function that enriches a digital specimen, recalculates its MIDS level, removes its pending enrichment mark and
+     * marks it with the enrichment version.
+     * The digital specimens pending enrichment were saved with the data added by the enrichment treated as available,
+     * so if they don't reach the minimum MIDS level once enriched (digitiser.minimumMidsLevel), they are deleted from the
+     * repository, as they would have never been saved if they had been enriched when they were digitised
+     * @param digitalObjectRepositoryClient client of the repository
+     * @param ds digital specimen retrieved from the repository
+     * @return true if the digital specimen is valid according to the schema once enriched, false otherwise (or if it
+     * has been deleted)
+     */
+    private boolean enrichDigitalSpecimen(DigitalObjectRepositoryClient digitalObjectRepositoryClient, DigitalObject ds){
+        boolean valid = false;
+        try{
+            boolean enrichmentPending = "true".equalsIgnoreCase(DigitalSpecimenUtils.getStringPropertyFromDS(ds,PENDING_ENRICHMENT_PROPERTY));
+            this.getDigitalObjectProcessor().enrichDigitalSpecimenData(ds);
+            this.getDigitalObjectProcessor().calculateDigitalSpecimenMidsLevel(ds);
+            ds.attributes.getAsJsonObject("content").remove(PENDING_ENRICHMENT_PROPERTY);
+            if (enrichmentPending && !this.getDigitalObjectProcessor().isMidsLevelSatisfied(ds)){
+                this.getLogger().info("Digital specimen " + ds.id + " doesn't reach the minimum MIDS level once enriched. It will be deleted");
+                digitalObjectRepositoryClient.delete(ds.id);
+                return false;
+            }
+            DigitalSpecimenUtils.addPropertyToDS(ds,ENRICHMENT_VERSION_PROPERTY,this.getEnrichmentVersion());
+            valid = digitalObjectRepositoryClient.validateDigitalSpecimenAgainstSchema(ds,true);
+            if (!valid){
+                this.getLogger().warn("Digital specimen " + ds.id + " is not valid according to the schema once enriched");
+            }
+        } catch (DigitalObjectRepositoryException e){
+            this.getLogger().error("Error enriching digital specimen " + ds.id + " " + e.getMessage());
+        }
+        return valid;
+    }
+}
@@ -0,0 +1,20 @@
+package eu.dissco.digitisers.processors;
+
+/**
+ * Exception thrown when a digital specimen fails to be processed (eg. an error saving it in the repository), so the
+ * reader of the source data knows the record has to be processed again
+ */
+public class DigitalSpecimenProcessingException extends RuntimeException {
+
+    /****************/
+    /* CONSTRUCTORS */
+    /****************/
+
+    public DigitalSpecimenProcessingException(String message) {
+        super(message);
+    }
+
+    public DigitalSpecimenProcessingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,313 @@
+package eu.dissco.digitisers.processors;
+
+import com.google.common.io.Files;
+import eu.dissco.digitisers.clients.digitalObjectRepository.DigitalObjectRepositoryClient;
+import eu.dissco.digitisers.clients.digitalObjectRepository.DigitalObjectRepositoryException;
+import eu.dissco.digitisers.clients.digitalObjectRepository.DigitalObjectRepositoryInfo;
+import eu.dissco.digitisers.readers.DwcaReader;
+import eu.dissco.digitisers.utils.DigitalSpecimenUtils;
+import eu.dissco.digitisers.utils.FileUtils;
+import net.dona.doip.client.DigitalObject;
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.queryparser.classic.QueryParserBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Reconciliation of the digital specimens stored in the repository for a dataset with the current dwca file of the
+ * dataset, to find the digital specimens whose records were removed from the dataset (orphans).
+ * The identity keys (scientificName, institutionCode, physicalSpecimenId) of the records of the dwca file and the
+ * identity keys and ids of the digital specimens of the dataset in the repository are written in files, which are
+ * sorted with an external sort and merged, so the memory used doesn't depend on the size of the dataset.
+ * The orphans found are written in a file and, optionally, deleted or marked as removed from their source. As a
+ * safeguard, the orphans are only deleted or tombstoned when the query of the dataset is given explicitly (the
+ * institutions of the dwca file may have digital specimens from other datasets), all the records of the dwca file
+ * could be read and the orphans are at most digitiser.reconcileMaxOrphansShare of the digital specimens of the dataset
+ */
+public class DigitalSpecimenReconciler {
+
+    public enum RECONCILIATION_ACTION {
+        REPORT, //Only write the orphans in a file
+        DELETE, //Delete the orphans from the repository
+        TOMBSTONE //Mark the orphans as removed from their source (in property removedFromSource)
+    }
+
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final static int MAX_LINES_IN_MEMORY = 500000;
+    private Configuration config;
+
+
+    /***********************/
+    /* GETTERS AND SETTERS */
+    /***********************/
+
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    protected Configuration getConfig() {
+        return config;
+    }
+
+
+    /****************/
+    /* CONSTRUCTORS */
+    /****************/
+
+    /**
+     * Create a DigitalSpecimenReconciler with properties from the config file
+     * @param config configuration of the digitiser
+     */
+    public DigitalSpecimenReconciler(Configuration config){
+        this.config = config;
+    }
+
+
+    /******************/
+    /* PUBLIC METHODS */
+    /******************/
+
+    /**
+     * Function that reconciles the digital specimens of a dataset in the repository with the dwca file of the dataset
+     * @param dwcaFile current dwca file of the dataset
+     * @param query query of the digital specimens of the dataset in the repository. If it is blank, the digital
+     *              specimens of the institution codes found in the dwca file are used, and the orphans are only
+     *              reported
+     * @param action action to be performed on the orphans found
+     * @return file with the orphans found (lines "id\tidentityKey") or null if the reconciliation couldn't be done
+     * @throws Exception
+     */
+    public File reconcile(File dwcaFile, String query, RECONCILIATION_ACTION action) throws Exception {
+        File workDirectory = Files.createTempDir();
+        Set<String> institutionCodes = new TreeSet<String>();
+        AtomicInteger numFailedRecords = new AtomicInteger();
+        File archiveKeysFile = this.getArchiveIdentityKeys(dwcaFile, new File(workDirectory, "archive.txt"), institutionCodes, numFailedRecords);
+        if (StringUtils.isBlank(query)){
+            if (action!=RECONCILIATION_ACTION.REPORT){
+                this.getLogger().error("The query of the digital specimens of the dataset is required to " + action + " the orphans, as the " +
+                        "institutions of " + dwcaFile.getName() + " may have digital specimens from other datasets. The orphans will only be reported");
+                action = RECONCILIATION_ACTION.REPORT;
+            }
+            if (institutionCodes.isEmpty()){
+                org.apache.commons.io.FileUtils.deleteQuietly(workDirectory);
+                this.getLogger().error("File " + dwcaFile.getName() + " doesn't have any digital specimen to reconcile with the repository");
+                return null;
+            }
+            query = "type:DigitalSpecimen AND (" + institutionCodes.stream()
+                    .map(institutionCode -> "/institutionCode:\"" + QueryParserBase.escape(institutionCode) + "\"")
+                    .collect(Collectors.joining(" OR ")) + ")";
+        }
+
+        File orphansFile = new File(workDirectory, "orphans.txt");
+        DigitalObjectRepositoryInfo digitalObjectRepositoryInfo = DigitalObjectRepositoryInfo.getDigitalObjectRepositoryInfoFromConfig(this.getConfig());
+        try (DigitalObjectRepositoryClient digitalObjectRepositoryClient = new DigitalObjectRepositoryClient(digitalObjectRepositoryInfo)){
+            AtomicInteger numRepositoryDigitalSpecimens = new AtomicInteger();
+            File repositoryKeysFile = this.getRepositoryIdentityKeys(digitalObjectRepositoryClient, query, new File(workDirectory, "repository.txt"), numRepositoryDigitalSpecimens);
+            int numOrphans = findOrphanDigitalSpecimens(repositoryKeysFile, archiveKeysFile, orphansFile);
+            //Only the orphans are kept in the work directory
+            repositoryKeysFile.delete();
+            archiveKeysFile.delete();
+            this.getLogger().info("Reconciliation of " + dwcaFile.getName() + " with the repository (" + query + "): " + numOrphans +
+                    " digital specimen(s) not found in the dwca file, listed in " + orphansFile.getAbsolutePath());
+            if (numOrphans>0 && action!=RECONCILIATION_ACTION.REPORT){
+                double maxOrphansShare = this.getConfig().getDouble("digitiser.reconcileMaxOrphansShare",0.1);
+                String reason = getReasonNotToActOnOrphans(numFailedRecords.get(), numOrphans, numRepositoryDigitalSpecimens.get(), maxOrphansShare);
+                if (reason!=null){
+                    this.getLogger().error("Action " + action + " won't be applied to the orphans of " + dwcaFile.getName() + ": " + reason);
+                } else{
+                    this.applyActionToOrphans(digitalObjectRepositoryClient, orphansFile, action);
+                }
+            }
+        }
+        return orphansFile;
+    }
+
+
+    /*********************/
+    /* PROTECTED METHODS */
+    /*********************/
+
+    /**
+     * Function that merges the sorted identity keys of the digital specimens in the repository and of the records of
+     * the dwca file, to find the digital specimens whose identity key is not in the dwca file
+     * @param sortedRepositoryKeysFile sorted identity keys and ids of the digital specimens in the repository
+     *                                 (lines "identityKey\tid")
+     * @param sortedArchiveKeysFile sorted identity keys of the records of the dwca file (one per line)
+     * @param orphansFile file where the orphans are written (lines "id\tidentityKey")
+     * @return number of orphans found
+     * @throws IOException
+     */
+    protected static int findOrphanDigitalSpecimens(File sortedRepositoryKeysFile, File sortedArchiveKeysFile, File orphansFile) throws IOException {
+        int numOrphans = 0;
+        try (BufferedReader repositoryReader = java.nio.file.Files.newBufferedReader(sortedRepositoryKeysFile.toPath(), StandardCharsets.UTF_8);
+             BufferedReader archiveReader = java.nio.file.Files.newBufferedReader(sortedArchiveKeysFile.toPath(), StandardCharsets.UTF_8);
+             BufferedWriter orphansWriter = java.nio.file.Files.newBufferedWriter(orphansFile.toPath(), StandardCharsets.UTF_8)){
+            String archiveKey = archiveReader.readLine();
+            String repositoryLine;
+            while ((repositoryLine = repositoryReader.readLine()) != null){
+                String[] repositoryRecord = repositoryLine.split("\t", 2);
+                //The tab separating the identity key and the id sorts before any character of the keys, so both files
+                //are sorted by identity key
+                while (archiveKey!=null && archiveKey.compareTo(repositoryRecord[0])<0){
+                    archiveKey = archiveReader.readLine();
+                }
+                if (archiveKey==null || !archiveKey.equals(repositoryRecord[0])){
+                    orphansWriter.write(repositoryRecord[1] + "\t" + repositoryRecord[0]);
+                    orphansWriter.newLine();
+                    numOrphans++;
+                }
+            }
+        }
+        return numOrphans;
+    }
+
+
+    /**
+     * Function that checks the safeguards before deleting or tombstoning the orphans: if some records of the dwca file
+     * couldn't be read, their digital specimens look like orphans, and too many orphans usually mean the query
+     * doesn't match the dataset
+     * @param numFailedRecords number of records of the dwca file that couldn't be read or don't have an identity key
+     * @param numOrphans number of orphans found
+     * @param numRepositoryDigitalSpecimens number of digital specimens of the dataset in the repository
+     * @param maxOrphansShare maximum share of the digital specimens of the dataset that can be orphans
+     * @return reason not to act on the orphans or null if the safeguards are satisfied
+     */
+    protected static String getReasonNotToActOnOrphans(int numFailedRecords, int numOrphans, int numRepositoryDigitalSpecimens, double maxOrphansShare){
+        if (numFailedRecords>0){
+            return numFailedRecords + " record(s) of the dwca file couldn't be read, so their digital specimens would be taken as orphans";
+        }
+        if (numOrphans > maxOrphansShare * numRepositoryDigitalSpecimens){
+            return numOrphans + " orphan(s) out of " + numRepositoryDigitalSpecimens + " digital specimen(s) exceed the maximum share of " +
+                    maxOrphansShare + " (digitiser.reconcileMaxOrphansShare)";
+        }
+        return null;
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that gets the sorted identity keys of the records of the dwca file that can be parsed into digital
+     * specimens (without enriching them)
+     * @param dwcaFile dwca file
+     * @param keysFile file where the identity keys are written
+     * @param institutionCodes set where the institution codes of the records are added
+     * @param numFailedRecords counter of the records that failed to be read or don't have an identity key
+     * @return file with the sorted identity keys
+     * @throws IOException
+     */
+    private File getArchiveIdentityKeys(File dwcaFile, File keysFile, Set<String> institutionCodes, AtomicInteger numFailedRecords) throws IOException {
+        try (BufferedWriter writer = java.nio.file.Files.newBufferedWriter(keysFile.toPath(), StandardCharsets.UTF_8)){
+            DwcaReader dwcaReader = new DwcaReader();
+            dwcaReader.readDigitalSpecimensFromDwcaFile(dwcaFile, ds -> {
+                String identityKey = DigitalSpecimenUtils.getDsIdentityKey(ds);
+                if (identityKey==null){
+                    numFailedRecords.incrementAndGet();
+                } else{
+                    try {
+                        writer.write(identityKey);
+                        writer.newLine();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    institutionCodes.add(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"institutionCode"));
+                }
+                return null;
+            });
+            numFailedRecords.addAndGet(dwcaReader.getNumFailedRows());
+        }
+        return this.sortKeysFile(keysFile);
+    }
+
+    /**
+     * Function that gets the sorted identity keys and ids of the digital specimens in the repository that match the
+     * query. The digital specimens are read page by page, keeping only their identity key and id
+     * @param digitalObjectRepositoryClient client of the repository
+     * @param query query of the digital specimens
+     * @param keysFile file where the identity keys and ids are written
+     * @param numDigitalSpecimens counter of the digital specimens that match the query
+     * @return file with the sorted identity keys and ids (lines "identityKey\tid")
+     * @throws Exception
+     */
+    private File getRepositoryIdentityKeys(DigitalObjectRepositoryClient digitalObjectRepositoryClient, String query, File keysFile, AtomicInteger numDigitalSpecimens) throws Exception {
+        try (BufferedWriter writer = java.nio.file.Files.newBufferedWriter(keysFile.toPath(), StandardCharsets.UTF_8)){
+            numDigitalSpecimens.set(digitalObjectRepositoryClient.searchAllInPages(query, ds -> {
+                String identityKey = DigitalSpecimenUtils.getDsIdentityKey(ds);
+                if (identityKey!=null){
+                    try {
+                        writer.write(identityKey + "\t" + ds.id);
+                        writer.newLine();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }));
+            this.getLogger().info(numDigitalSpecimens.get() + " digital specimen(s) found in the repository for " + query);
+        }
+        return this.sortKeysFile(keysFile);
+    }
+
+    /**
+     * Function that sorts a file of identity keys
+     * @param keysFile file of identity keys
+     * @return sorted file
+     * @throws IOException
+     */
+    private File sortKeysFile(File keysFile) throws IOException {
+        File sortedKeysFile = new File(keysFile.getAbsolutePath() + ".sorted");
+        FileUtils.sortLines(keysFile, sortedKeysFile, MAX_LINES_IN_MEMORY);
+        keysFile.delete();
+        return sortedKeysFile;
+    }
+
+    /**
+     * Function that deletes or tombstones the orphans found
+     * @param digitalObjectRepositoryClient client of the repository
+     * @param orphansFile file with the orphans (lines "id\tidentityKey")
+     * @param action action to be performed on the orphans
+     * @throws IOException
+     */
+    private void applyActionToOrphans(DigitalObjectRepositoryClient digitalObjectRepositoryClient, File orphansFile, RECONCILIATION_ACTION action) throws IOException {
+        String removedFromSource = Instant.now().toString();
+        int numDone = 0;
+        int numFailed = 0;
+        try (BufferedReader reader = java.nio.file.Files.newBufferedReader(orphansFile.toPath(), StandardCharsets.UTF_8)){
+            String line;
+            while ((line = reader.readLine()) != null){
+                String id = line.split("\t", 2)[0];
+                try{
+                    if (action==RECONCILIATION_ACTION.DELETE){
+                        digitalObjectRepositoryClient.delete(id);
+                    } else{
+                        DigitalObject ds = digitalObjectRepositoryClient.retrieve(id);
+                        DigitalSpecimenUtils.addPropertyToDS(ds,"removedFromSource",removedFromSource);
+                        if (!digitalObjectRepositoryClient.validateDigitalSpecimenAgainstSchema(ds,true)){
+                            throw new DigitalObjectRepositoryException("Warn","Digital specimen " + id + " can't be tombstoned, as the schema doesn't accept the property removedFromSource");
+                        }
+                        digitalObjectRepositoryClient.update(ds);
+                    }
+                    numDone++;
+                } catch (DigitalObjectRepositoryException e){
+                    this.getLogger().error("Error applying action " + action + " to digital specimen " + id + " " + e.getMessage());
+                    numFailed++;
+                }
+            }
+        }
+        this.getLogger().info("Action " + action + " applied to " + numDone + " orphan digital specimen(s). " + numFailed + " failed");
+    }
+}
@@ -0,0 +1,274 @@
+package eu.dissco.digitisers.processors;
+
+import com.google.common.hash.Hashing;
+import net.dona.doip.client.DigitalObject;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Local store of the fingerprints of the digital specimens digitised, so the digital specimens that haven't changed
+ * since the last time they were digitised can be skipped before being enriched and compared with the repository.
+ * The fingerprints are stored in a sqlite file database, keyed by the identity key of the digital specimen
+ * (see DigitalSpecimenUtils.getDsIdentityKey). The fingerprint is the hash of the content read from the source data (before
+ * any enrichment) together with the version of the processing (enrichers, requirements to be saved, etc).
+ * Writes are kept in memory and saved in batches, as most of the rows of a dataset digitised again are unchanged
+ */
+public class FingerprintStore {
+
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final static int BATCH_SIZE = 1000;
+    private static FingerprintStore instance=null;
+    private File storeFile; //Null when no store file is configured
+    private Connection connection;
+    private PreparedStatement selectFingerprintStatement;
+    private Map<String,Object[]> pendingWrites; //{fingerprint, processed, seen} by identity key. Fingerprint is null when the record has only been seen
+
+
+    /***********************/
+    /* GETTERS AND SETTERS */
+    /***********************/
+
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    public File getStoreFile() {
+        return storeFile;
+    }
+
+    protected Connection getConnection() {
+        return connection;
+    }
+
+    protected Map<String, Object[]> getPendingWrites() {
+        return pendingWrites;
+    }
+
+
+    /****************/
+    /* CONSTRUCTORS */
+    /****************/
+
+    /**
+     * Create the fingerprint store saved in the sqlite file passed as parameter, creating the file if it doesn't exist.
+     * Note: The constructor is public so stores other than the one used by the digitisers can be created (eg. in tests)
+     * @param storeFilePath path of the sqlite file of the store. Leave it blank to disable the store
+     */
+    public FingerprintStore(String storeFilePath){
+        this.pendingWrites = new LinkedHashMap<String,Object[]>();
+        if (StringUtils.isNotBlank(storeFilePath)){
+            try{
+                this.connection = DriverManager.getConnection("jdbc:sqlite:" + new File(storeFilePath).getAbsolutePath());
+                try (Statement stmt = this.getConnection().createStatement()) {
+                    stmt.execute("CREATE TABLE IF NOT EXISTS fingerprint (identityKey text PRIMARY KEY, fingerprint text NOT NULL, processed integer NOT NULL, seen integer NOT NULL);");
+                }
+                this.selectFingerprintStatement = this.getConnection().prepareStatement("SELECT fingerprint, processed FROM fingerprint WHERE identityKey=?");
+                this.storeFile = new File(storeFilePath);
+                this.getLogger().info("Fingerprint store opened from " + this.getStoreFile().getAbsolutePath());
+            } catch (SQLException e){
+                this.getLogger().error("Fingerprint store " + storeFilePath + " can't be opened. All the records will be digitised " + e.getMessage());
+            }
+        }
+    }
+
+
+    /******************/
+    /* PUBLIC METHODS */
+    /******************/
+
+    /**
+     * Method to get an instance of FingerprintStore as we use the singleton design pattern
+     * @param storeFilePath path of the sqlite file of the store. Leave it blank to disable the store
+     * @return
+     */
+    public static synchronized FingerprintStore getInstance(String storeFilePath){
+        if (instance==null){
+            instance = new FingerprintStore(storeFilePath);
+        }
+        return instance;
+    }
+
+    /**
+     * Function that checks if the store is enabled (its file is configured and it could be opened)
+     * @return true if the store is enabled
+     */
+    public boolean isEnabled(){
+        return this.getStoreFile()!=null;
+    }
+
+    /**
+     * Function that gets the fingerprint of a digital specimen as read from the source data
+     * @param ds digital specimen, before being enriched
+     * @param processingVersion version of the processing of the digital specimens
+     * @return SHA-256 hash of the content of the digital specimen and the version of the processing (in hexadecimal)
+     */
+    public static String getFingerprint(DigitalObject ds, String processingVersion){
+        String content = ds.attributes.getAsJsonObject("content").toString();
+        return Hashing.sha256().hashString(content + "\n" + processingVersion, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * Function that checks if a digital specimen was processed with the same fingerprint after the time passed as
+     * parameter. When it is, the record is marked as seen, so it isn't removed when the store is compacted
+     * @param identityKey identity key of the digital specimen
+     * @param fingerprint fingerprint of the digital specimen
+     * @param minProcessed minimum time of the last processing of the digital specimen (milliseconds since epoch)
+     * @return true if the digital specimen is unchanged since it was processed
+     */
+    public synchronized boolean isUnchanged(String identityKey, String fingerprint, long minProcessed){
+        if (!this.isEnabled()){
+            return false;
+        }
+        boolean unchanged = false;
+        Object[] pendingWrite = this.getPendingWrites().get(identityKey);
+        if (pendingWrite!=null && pendingWrite[0]!=null){
+            unchanged = fingerprint.equals(pendingWrite[0]) && (long)pendingWrite[1]>=minProcessed;
+        } else{
+            try{
+                this.selectFingerprintStatement.setString(1, identityKey);
+                try (ResultSet rs = this.selectFingerprintStatement.executeQuery()){
+                    if (rs.next()){
+                        unchanged = fingerprint.equals(rs.getString(1)) && rs.getLong(2)>=minProcessed;
+                    }
+                }
+            } catch (SQLException e){
+                this.getLogger().error("Error reading fingerprint of " + identityKey + " " + e.getMessage());
+            }
+        }
+        if (unchanged){
+            long now = System.currentTimeMillis();
+            this.addPendingWrite(identityKey, pendingWrite!=null ? new Object[]{pendingWrite[0], pendingWrite[1], now} : new Object[]{null, null, now});
+        }
+        return unchanged;
+    }
+
+    /**
+     * Function that records the fingerprint of a digital specimen that has just been processed
+     * @param identityKey identity key of the digital specimen
+     * @param fingerprint fingerprint of the digital specimen
+     */
+    public synchronized void putFingerprint(String identityKey, String fingerprint){
+        if (this.isEnabled()){
+            long now = System.currentTimeMillis();
+            this.addPendingWrite(identityKey, new Object[]{fingerprint, now, now});
+        }
+    }
+
+    /**
+     * Function that saves the pending writes in the store file
+     */
+    public synchronized void flush(){
+        if (!this.isEnabled() || this.getPendingWrites().isEmpty()){
+            return;
+        }
+        try{
+            this.getConnection().setAutoCommit(false);
+            try (PreparedStatement upsertFingerprint = this.getConnection().prepareStatement("INSERT OR REPLACE INTO fingerprint (identityKey,fingerprint,processed,seen) VALUES (?,?,?,?)");
+                 PreparedStatement updateSeen = this.getConnection().prepareStatement("UPDATE fingerprint SET seen=? WHERE identityKey=?")){
+                for (Map.Entry<String,Object[]> pendingWrite : this.getPendingWrites().entrySet()) {
+                    Object[] values = pendingWrite.getValue();
+                    if (values[0]!=null){
+                        upsertFingerprint.setString(1, pendingWrite.getKey());
+                        upsertFingerprint.setString(2, (String) values[0]);
+                        upsertFingerprint.setLong(3, (long) values[1]);
+                        upsertFingerprint.setLong(4, (long) values[2]);
+                        upsertFingerprint.addBatch();
+                    } else{
+                        updateSeen.setLong(1, (long) values[2]);
+                        updateSeen.setString(2, pendingWrite.getKey());
+                        updateSeen.addBatch();
+                    }
+                }
+                upsertFingerprint.executeBatch();
+                updateSeen.executeBatch();
+            }
+            this.getConnection().commit();
+            this.getPendingWrites().clear();
+        } catch (SQLException e){
+            this.getLogger().error("Error saving fingerprints in " + this.getStoreFile().getAbsolutePath() + " " + e.getMessage());
+            try {
+                this.getConnection().rollback();
+            } catch (SQLException ignored) {
+            }
+        } finally {
+            try {
+                this.getConnection().setAutoCommit(true);
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Function that saves the pending writes and closes the store file. The next call to getInstance opens the store
+     * again
+     */
+    public synchronized void close(){
+        if (!this.isEnabled()){
+            return;
+        }
+        this.flush();
+        try{
+            this.selectFingerprintStatement.close();
+            this.getConnection().close();
+        } catch (SQLException e){
+            this.getLogger().error("Error closing fingerprint store " + this.getStoreFile().getAbsolutePath() + " " + e.getMessage());
+        }
+        this.storeFile = null;
+        synchronized (FingerprintStore.class){
+            if (instance==this){
+                instance = null;
+            }
+        }
+    }
+
+    /**
+     * Function that compacts the store, removing the fingerprints of the records that haven't been seen since the time
+     * passed as parameter (eg. specimens removed from their datasets) and reclaiming the space they used
+     * @param minSeen minimum time the records must have been seen to be kept (milliseconds since epoch)
+     * @return number of fingerprints removed
+     */
+    public synchronized int compact(long minSeen){
+        int removed = 0;
+        if (this.isEnabled()){
+            this.flush();
+            try (PreparedStatement deleteFingerprints = this.getConnection().prepareStatement("DELETE FROM fingerprint WHERE seen<?");
+                 Statement stmt = this.getConnection().createStatement()){
+                deleteFingerprints.setLong(1, minSeen);
+                removed = deleteFingerprints.executeUpdate();
+                stmt.execute("VACUUM");
+                this.getLogger().info("Fingerprint store " + this.getStoreFile().getAbsolutePath() + " compacted. " + removed + " fingerprint(s) removed");
+            } catch (SQLException e){
+                this.getLogger().error("Error compacting fingerprint store " + this.getStoreFile().getAbsolutePath() + " " + e.getMessage());
+            }
+        }
+        return removed;
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that adds a write to the pending writes, saving them in the store file when there are enough of them
+     * @param identityKey identity key of the digital specimen
+     * @param values {fingerprint, processed, seen}
+     */
+    private void addPendingWrite(String identityKey, Object[] values){
+        this.getPendingWrites().put(identityKey, values);
+        if (this.getPendingWrites().size()>=BATCH_SIZE){
+            this.flush();
+        }
+    }
+}
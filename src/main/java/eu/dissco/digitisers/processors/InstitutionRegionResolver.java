@@ -0,0 +1,175 @@
+package eu.dissco.digitisers.processors;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import eu.dissco.digitisers.clients.gbif.GbifClient;
+import eu.dissco.digitisers.utils.DigitalSpecimenUtils;
+import eu.dissco.digitisers.utils.FileUtils;
+import eu.dissco.digitisers.utils.HostRateLimiter;
+import eu.dissco.digitisers.utils.JsonUtils;
+import net.dona.doip.client.DigitalObject;
+import org.apache.commons.lang3.StringUtils;
+import org.gbif.dwc.terms.DcTerm;
+import org.gbif.dwc.terms.DwcTerm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolver of the region of the institution a digital specimen belongs to, which memoizes the region obtained for
+ * every combination of (institutionID, institutionCode, collectionCode, host of the fallback url), as these values
+ * repeat heavily within a dataset. The regions resolved can be saved in a file, so they can be preloaded in next executions
+ */
+public class InstitutionRegionResolver {
+
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private static InstitutionRegionResolver instance=null;
+    private File regionsFile;
+    private Map<String, Optional<String>> mapRegionByInstitutionKey; //Map to improve efficiency of this class, so it doesn't need to resolve again the same institution
+
+
+    /***********************/
+    /* GETTERS AND SETTERS */
+    /***********************/
+
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    protected File getRegionsFile() {
+        return regionsFile;
+    }
+
+    protected Map<String, Optional<String>> getMapRegionByInstitutionKey() {
+        return mapRegionByInstitutionKey;
+    }
+
+
+    /****************/
+    /* CONSTRUCTORS */
+    /****************/
+
+    /**
+     * Private constructor to avoid client applications to use constructor as we use the singleton design pattern
+     * @param regionsFilePath path of the file where the regions resolved are persisted (optional)
+     */
+    private InstitutionRegionResolver(String regionsFilePath){
+        this.mapRegionByInstitutionKey = new ConcurrentHashMap<String,Optional<String>>();
+        if (StringUtils.isNotBlank(regionsFilePath)){
+            this.regionsFile = new File(regionsFilePath);
+            this.loadRegionsFromFile();
+        }
+    }
+
+
+    /******************/
+    /* PUBLIC METHODS */
+    /******************/
+
+    /**
+     * Method to get an instance of InstitutionRegionResolver as we use the singleton design pattern
+     * @param regionsFilePath path of the file where the regions resolved are persisted. If the file exists, its regions
+     *                        are preloaded. Leave it blank to not persist them
+     * @return
+     */
+    public static synchronized InstitutionRegionResolver getInstance(String regionsFilePath){
+        if (instance==null){
+            instance = new InstitutionRegionResolver(regionsFilePath);
+        }
+        return instance;
+    }
+
+    /**
+     * Function that gets the region of the institution the digital specimen belongs to
+     * @param ds Digital specimen to obtain its institution's region
+     * @param gbifClient Gbif client obtain data from GRSciColl
+     * @return Digital specimen's institution's region when found, or null if not found. When the region couldn't be
+     * obtained because of an error, null is returned but it isn't memoized, so it is resolved again for the next
+     * digital specimen of the institution
+     */
+    public String getDsInstitutionRegion(DigitalObject ds, GbifClient gbifClient){
+        String institutionKey = this.getInstitutionKey(ds);
+        Optional<String> institutionRegion = this.getMapRegionByInstitutionKey().get(institutionKey);
+        if (institutionRegion==null){
+            try{
+                institutionRegion = Optional.ofNullable(DigitalSpecimenUtils.resolveDsInstitutionRegion(ds,gbifClient));
+                this.getMapRegionByInstitutionKey().put(institutionKey,institutionRegion);
+            } catch (Exception e){
+                this.getLogger().error("Unexpected error trying to obtain institution's region for ds " + e.getMessage(),ds);
+                institutionRegion = Optional.empty();
+            }
+        }
+        return institutionRegion.orElse(null);
+    }
+
+    /**
+     * Function that saves the regions resolved in the file defined for that purpose (if any).
+     * Note: Institutions for which the region couldn't be resolved are not saved, so we can try again in next executions
+     */
+    public void saveRegionsToFile(){
+        if (this.getRegionsFile()!=null){
+            JsonObject regions = new JsonObject();
+            for (Map.Entry<String, Optional<String>> entry : this.getMapRegionByInstitutionKey().entrySet()) {
+                if (entry.getValue().isPresent()){
+                    regions.addProperty(entry.getKey(),entry.getValue().get());
+                }
+            }
+            try {
+                Files.write(this.getRegionsFile().toPath(), JsonUtils.serializeObject(regions).getBytes(StandardCharsets.UTF_8));
+                this.getLogger().info("Saved " + regions.size() + " institution regions in " + this.getRegionsFile().getAbsolutePath());
+            } catch (Exception e) {
+                this.getLogger().error("Error saving institution regions in file " + this.getRegionsFile().getAbsolutePath() + " " + e.getMessage());
+            }
+        }
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that loads the regions saved in previous executions
+     */
+    private void loadRegionsFromFile(){
+        if (this.getRegionsFile().exists()){
+            try {
+                JsonObject regions = (JsonObject) FileUtils.loadJsonElementFromFilePath(this.getRegionsFile().getAbsolutePath());
+                for (Map.Entry<String, JsonElement> entry : regions.entrySet()) {
+                    this.getMapRegionByInstitutionKey().put(entry.getKey(),Optional.of(entry.getValue().getAsString()));
+                }
+                this.getLogger().info("Loaded " + regions.size() + " institution regions from " + this.getRegionsFile().getAbsolutePath());
+            } catch (Exception e) {
+                this.getLogger().error("Error loading institution regions from file " + this.getRegionsFile().getAbsolutePath() + " " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Function that gets the key that identifies the institution of a digital specimen, made of all the values used
+     * to resolve its region: institutionID, institutionCode, collectionCode and host of the url used as fallback
+     * @param ds Digital specimen
+     * @return key of the institution of the digital specimen
+     */
+    private String getInstitutionKey(DigitalObject ds){
+        String institutionId = DigitalSpecimenUtils.getTermFromDsDwcaJson(ds, DwcTerm.institutionID);
+        String institutionCode = DigitalSpecimenUtils.getStringPropertyFromDS(ds,"institutionCode");
+        String collectionCode = DigitalSpecimenUtils.getStringPropertyFromDS(ds,"collectionCode");
+        String collectionId =  DigitalSpecimenUtils.getTermFromDsDwcaJson(ds, DwcTerm.collectionID);
+        String identifier =  DigitalSpecimenUtils.getTermFromDsDwcaJson(ds, DcTerm.identifier);
+        String fallbackUrl = DigitalSpecimenUtils.getInstitutionFallbackUrl(institutionId,collectionId,identifier);
+        String fallbackHost = fallbackUrl!=null ? HostRateLimiter.getHostFromUrl(fallbackUrl) : null;
+        return StringUtils.defaultString(institutionId) + "#" + StringUtils.defaultString(institutionCode) + "#"
+                + StringUtils.defaultString(collectionCode) + "#" + StringUtils.defaultString(fallbackHost);
+    }
+}
@@ -39,7 +39,7 @@ public class CatalogueOfLifeEnricher extends Enricher {
                         String canonicalName = parsedName.get("canonicalName").getAsString();
                         String kingdomName = kingdomInfo.get("scientificName").getAsString();
 
-                        CoLClient colClient = CoLClient.getInstance();
+                        CoLClient colClient = CoLClient.getInstance(this.getConfig());
                         JsonObject colTaxonInfo = colClient.getTaxonInformation(canonicalName,taxonRank,kingdomName);
                         if (colTaxonInfo!=null){
                             String colURL = colTaxonInfo.get("url").getAsString();
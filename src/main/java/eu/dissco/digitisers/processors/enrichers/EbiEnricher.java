@@ -30,11 +30,10 @@ public class EbiEnricher extends Enricher {
             JsonElement ebiSearchResults =  DigitalSpecimenUtils.getPropertyFromDS(this.getDs(),"ebiSearchResults");
             if (ebiSearchResults==null){
                 if (StringUtils.isNotBlank(institutionCode) && StringUtils.isNotBlank(collectionCode) && StringUtils.isNotBlank(catalogNumber)){
-                    EbiClient ebiClient = EbiClient.getInstance();
+                    EbiClient ebiClient = EbiClient.getInstance(this.getConfig());
                     String searchTermWithSpaces = String.join(" ", Arrays.asList(institutionCode,collectionCode,catalogNumber));
                     String searchTermWithColons = String.join(":", Arrays.asList(institutionCode,collectionCode,catalogNumber));
-                    JsonArray ebiResults = ebiClient.rootSearchAsJson(searchTermWithSpaces,true);
-                    ebiResults.addAll(ebiClient.rootSearchAsJson(searchTermWithColons,true));
+                    JsonArray ebiResults = ebiClient.rootSearchAnyAsJson(Arrays.asList(searchTermWithSpaces,searchTermWithColons),true);
                     data = new HashMap<String, Object>();
                     data.put("ebiSearchResults",ebiResults);
                 } else{
@@ -0,0 +1,53 @@
+package eu.dissco.digitisers.processors.enrichers;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import eu.dissco.digitisers.clients.misc.CountryClient;
+import eu.dissco.digitisers.clients.misc.ReverseGeocoder;
+import eu.dissco.digitisers.utils.DigitalSpecimenUtils;
+import net.dona.doip.client.DigitalObject;
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ReverseGeocodingEnricher extends Enricher {
+
+    public ReverseGeocodingEnricher(DigitalObject ds, Configuration config){
+        super(ds,config);
+    }
+
+    @Override
+    protected Map<String, Object> enrichData() {
+        Map<String,Object> data=null;
+        try{
+            String country = DigitalSpecimenUtils.getStringPropertyFromDS(this.getDs(),"country");
+            String countryCode = DigitalSpecimenUtils.getStringPropertyFromDS(this.getDs(),"countryCode");
+            //Only when the country can't be obtained from the country code (CountryEnricher)
+            if (StringUtils.isBlank(country) && StringUtils.isBlank(countryCode)){
+                JsonElement decimalLatLon = DigitalSpecimenUtils.getPropertyFromDS(this.getDs(),"decimalLatLon");
+                if (decimalLatLon!=null && decimalLatLon.isJsonArray() && decimalLatLon.getAsJsonArray().size()==2){
+                    JsonArray coordinates = decimalLatLon.getAsJsonArray();
+                    ReverseGeocoder reverseGeocoder = ReverseGeocoder.getInstance();
+                    countryCode = reverseGeocoder.getCountryCode(coordinates.get(0).getAsDouble(),coordinates.get(1).getAsDouble());
+                    if (countryCode!=null){
+                        data = new HashMap<String, Object>();
+                        data.put("countryCode",countryCode);
+                        country = CountryClient.getInstance().getCountryNameByCountryCode(countryCode);
+                        if (country!=null){
+                            data.put("country",country);
+                        }
+                    } else{
+                        this.getLogger().info("Country could't be resolved for coordinates " + coordinates);
+                    }
+                } else{
+                    this.getLogger().info("Not enough information for enriching ds with country data from coordinates " + DigitalSpecimenUtils.getStringPropertyFromDS(this.getDs(),"physicalSpecimenId"));
+                }
+            }
+        } catch (Exception e){
+            this.getLogger().error("Error enriching country data from coordinates for ds " + DigitalSpecimenUtils.getStringPropertyFromDS(this.getDs(),"physicalSpecimenId") + " . Reason: " + e.getMessage());
+        }
+        return data;
+    }
+}
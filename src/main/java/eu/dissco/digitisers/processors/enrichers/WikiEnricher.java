@@ -10,7 +10,11 @@ import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.lang3.StringUtils;
 import org.gbif.dwc.terms.GbifTerm;
 
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class WikiEnricher extends Enricher {
@@ -19,33 +23,52 @@ public class WikiEnricher extends Enricher {
         super(ds,config);
     }
 
+    /**
+     * Function that looks up together the wiki information of the taxa of several digital specimens, so it is cached
+     * in the wiki client before the digital specimens are enriched one by one. The taxa of each kingdom are looked up
+     * in batches (eg. a single SPARQL query for several canonical names) instead of one request per taxon
+     * @param dsList digital specimens to be enriched
+     * @param config configuration of the digitiser
+     */
+    public static void prefetchWikiInformation(List<DigitalObject> dsList, Configuration config){
+        Map<String, List<String>> canonicalNamesByKingdom = new HashMap<String, List<String>>();
+        for (DigitalObject ds : dsList) {
+            WikiEnricher wikiEnricher = new WikiEnricher(ds,config);
+            try{
+                if (StringUtils.isBlank(DigitalSpecimenUtils.getStringPropertyFromDS(ds,"wikipedia"))){
+                    String[] canonicalNameAndKingdom = wikiEnricher.getCanonicalNameAndKingdom();
+                    if (canonicalNameAndKingdom!=null){
+                        canonicalNamesByKingdom.computeIfAbsent(canonicalNameAndKingdom[1], k -> new ArrayList<String>()).add(canonicalNameAndKingdom[0]);
+                    }
+                }
+            } catch (Exception e){
+                wikiEnricher.getLogger().error("Error getting taxon of ds " + DigitalSpecimenUtils.getStringPropertyFromDS(ds,"physicalSpecimenId") + " to prefetch its wiki data. Reason: " + e.getMessage());
+            }
+        }
+        for (Map.Entry<String, List<String>> canonicalNames : canonicalNamesByKingdom.entrySet()) {
+            try{
+                WikiClient.getInstance("wikidata").getWikiInformation(canonicalNames.getValue(),canonicalNames.getKey());
+            } catch (Exception e){
+                LoggerFactory.getLogger(WikiEnricher.class).error("Error prefetching wiki data of kingdom " + canonicalNames.getKey() + " . Reason: " + e.getMessage());
+            }
+        }
+    }
+
     @Override
     protected Map<String, Object> enrichData() {
         Map<String, Object> data=null;
         try{
             String wikipedia = DigitalSpecimenUtils.getStringPropertyFromDS(this.getDs(),"wikipedia");
             if (StringUtils.isBlank(wikipedia)){
-                String acceptedScientificName = DigitalSpecimenUtils.getStringPropertyFromDS(this.getDs(),"scientificName");
-                String gbifKingdomTaxonId = DigitalSpecimenUtils.getTermFromDsDwcaJson(this.getDs(), GbifTerm.kingdomKey);
-                if (StringUtils.isNotBlank(acceptedScientificName) && StringUtils.isNotBlank(gbifKingdomTaxonId) ) {
-                    GbifInfo gbifInfo = GbifInfo.getGbifInfoFromConfig(this.getConfig());
-                    GbifClient gbifClient = GbifClient.getInstance(gbifInfo);
-                    JsonObject parsedName = gbifClient.parseName(acceptedScientificName);
-                    JsonObject kingdomInfo = gbifClient.getTaxonInfoById(gbifKingdomTaxonId);
-
-                    if (parsedName != null && kingdomInfo != null) {
-                        String canonicalName = parsedName.get("canonicalName").getAsString();
-                        String kingdomName = kingdomInfo.get("scientificName").getAsString();
-                        WikiClient wikiClient = WikiClient.getInstance("wikidata");
-                        JsonObject wikiInfo = wikiClient.getWikiInformation(canonicalName,kingdomName);
-                        if (wikiInfo!=null){
-                            data = new HashMap<String, Object>();
-                            data.put(wikiClient.getWikiType(),wikiClient.getPageURL(wikiInfo));
-                            data.put(wikiClient.getWikiType()+"_info",wikiInfo);
-                        }
+                String[] canonicalNameAndKingdom = this.getCanonicalNameAndKingdom();
+                if (canonicalNameAndKingdom!=null) {
+                    WikiClient wikiClient = WikiClient.getInstance("wikidata");
+                    JsonObject wikiInfo = wikiClient.getWikiInformation(canonicalNameAndKingdom[0],canonicalNameAndKingdom[1]);
+                    if (wikiInfo!=null){
+                        data = new HashMap<String, Object>();
+                        data.put(wikiClient.getWikiType(),wikiClient.getPageURL(wikiInfo));
+                        data.put(wikiClient.getWikiType()+"_info",wikiInfo);
                     }
-                } else{
-                    this.getLogger().info("Not enough information for enriching ds with wiki data " + DigitalSpecimenUtils.getStringPropertyFromDS(this.getDs(),"physicalSpecimenId"));
                 }
             }
         } catch (Exception e){
@@ -53,4 +76,28 @@ public class WikiEnricher extends Enricher {
         }
         return data;
     }
+
+    /**
+     * Function that gets the canonical name of the scientific name of the digital specimen and the name of its kingdom,
+     * which are used to look up its taxon in the wiki
+     * @return {canonicalName, kingdomName} or null if there isn't enough information
+     * @throws Exception
+     */
+    private String[] getCanonicalNameAndKingdom() throws Exception {
+        String[] canonicalNameAndKingdom = null;
+        String acceptedScientificName = DigitalSpecimenUtils.getStringPropertyFromDS(this.getDs(),"scientificName");
+        String gbifKingdomTaxonId = DigitalSpecimenUtils.getTermFromDsDwcaJson(this.getDs(), GbifTerm.kingdomKey);
+        if (StringUtils.isNotBlank(acceptedScientificName) && StringUtils.isNotBlank(gbifKingdomTaxonId) ) {
+            GbifInfo gbifInfo = GbifInfo.getGbifInfoFromConfig(this.getConfig());
+            GbifClient gbifClient = GbifClient.getInstance(gbifInfo);
+            JsonObject parsedName = gbifClient.parseName(acceptedScientificName);
+            JsonObject kingdomInfo = gbifClient.getTaxonInfoById(gbifKingdomTaxonId);
+            if (parsedName != null && kingdomInfo != null) {
+                canonicalNameAndKingdom = new String[]{parsedName.get("canonicalName").getAsString(), kingdomInfo.get("scientificName").getAsString()};
+            }
+        } else{
+            this.getLogger().info("Not enough information for enriching ds with wiki data " + DigitalSpecimenUtils.getStringPropertyFromDS(this.getDs(),"physicalSpecimenId"));
+        }
+        return canonicalNameAndKingdom;
+    }
 }
@@ -0,0 +1,282 @@
+package eu.dissco.digitisers.readers;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import eu.dissco.digitisers.utils.FileUtils;
+import eu.dissco.digitisers.utils.JsonUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checkpoint of the digitisation of a dwca file (or of a part of it), so an interrupted run can be resumed skipping the
+ * rows already processed. The checkpoint is identified by the checksum of the core file of the archive and it keeps
+ * the last row such that it and all the rows before it have been processed, the rows processed after it (rows can
+ * finish out of order when they are processed in parallel), the rows in flight (started but not finished) and the
+ * rows that failed, which are processed again when the run is resumed. The failed rows don't stop the last processed
+ * row from moving forward (they are kept apart), so the rows processed after it are only the few ones that finished
+ * before a row still in flight.
+ * The state of the checkpoint is updated in memory while the rows are processed, and it is flushed to its file
+ * periodically by a background thread, so the processing of the rows never waits for the disk
+ */
+public class DwcaCheckpoint {
+
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final static ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dwca-checkpoint-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final File checkpointFile;
+    private final String archiveChecksum;
+    private final String archiveName;
+    private long lastProcessedRow; //This row and all the rows before it have been processed (or have failed)
+    private TreeSet<Long> processedRows; //Rows processed after the last processed row
+    private TreeMap<Long,String> inFlightRows; //Rows started but not finished, with their core id
+    private TreeMap<Long,String> failedRows; //Rows that failed, with their core id
+    private boolean completed;
+    private boolean dirty;
+    private ScheduledFuture<?> scheduledFlush;
+
+
+    /***********************/
+    /* GETTERS AND SETTERS */
+    /***********************/
+
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    public File getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    public String getArchiveChecksum() {
+        return archiveChecksum;
+    }
+
+    public synchronized long getLastProcessedRow() {
+        return lastProcessedRow;
+    }
+
+    public synchronized boolean isCompleted() {
+        return completed;
+    }
+
+
+    /****************/
+    /* CONSTRUCTORS */
+    /****************/
+
+    /**
+     * Create the checkpoint of an archive, loading the state of a previous run from the checkpoint file when it exists
+     * @param checkpointDirectory directory where the checkpoints are stored
+     * @param archiveChecksum checksum of the core file of the archive
+     * @param archiveName name of the archive (used in the log)
+     * @param flushIntervalSeconds seconds between the flushes of the checkpoint to its file
+     */
+    public DwcaCheckpoint(File checkpointDirectory, String archiveChecksum, String archiveName, int flushIntervalSeconds){
+        this.checkpointFile = new File(checkpointDirectory, archiveChecksum + ".checkpoint.json");
+        this.archiveChecksum = archiveChecksum;
+        this.archiveName = archiveName;
+        this.processedRows = new TreeSet<Long>();
+        this.inFlightRows = new TreeMap<Long,String>();
+        this.failedRows = new TreeMap<Long,String>();
+        if (this.getCheckpointFile().exists()){
+            this.load();
+        }
+        this.scheduledFlush = flushExecutor.scheduleWithFixedDelay(this::flush, flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+
+    /******************/
+    /* PUBLIC METHODS */
+    /******************/
+
+    /**
+     * Function that checks if a row was already processed in a previous run (or in this one)
+     * @param row number of the row in the core file (starting at 1)
+     * @return true if the row has been processed
+     */
+    public synchronized boolean isRowProcessed(long row){
+        return this.completed || (!this.failedRows.containsKey(row) && (row<=this.lastProcessedRow || this.processedRows.contains(row)));
+    }
+
+    /**
+     * Function that records that a row has started to be processed
+     * @param row number of the row in the core file (starting at 1)
+     * @param coreId id of the row in the core file
+     */
+    public synchronized void startRow(long row, String coreId){
+        this.inFlightRows.put(row, coreId);
+        this.dirty = true;
+    }
+
+    /**
+     * Function that records that a row has been processed, moving forward the last processed row when all the rows
+     * before it have been processed too
+     * @param row number of the row in the core file (starting at 1)
+     */
+    public synchronized void finishRow(long row){
+        this.inFlightRows.remove(row);
+        this.failedRows.remove(row); //It may have failed in a previous run
+        this.moveLastProcessedRow(row);
+        this.dirty = true;
+    }
+
+    /**
+     * Function that records that a row has failed, so it isn't recorded as processed and it is processed again when
+     * the run is resumed. The last processed row moves forward past it, as it is kept in the failed rows
+     * @param row number of the row in the core file (starting at 1)
+     */
+    public synchronized void failRow(long row){
+        String coreId = this.inFlightRows.remove(row);
+        this.failedRows.put(row, coreId);
+        this.moveLastProcessedRow(row);
+        this.dirty = true;
+    }
+
+    /**
+     * Function that marks the archive as completely processed and flushes the checkpoint, so it is skipped if the run
+     * is resumed before it finishes
+     */
+    public void complete(){
+        synchronized (this){
+            this.completed = true;
+            this.dirty = true;
+        }
+        this.close();
+    }
+
+    /**
+     * Function that stops the background flushes of the checkpoint and flushes its last state
+     */
+    public void close(){
+        this.scheduledFlush.cancel(false);
+        this.flush();
+    }
+
+    /**
+     * Function that deletes the checkpoint (once the run has finished, so next runs start from the beginning)
+     */
+    public void delete(){
+        this.scheduledFlush.cancel(false);
+        synchronized (this.getCheckpointFile()){
+            try {
+                Files.deleteIfExists(this.getCheckpointFile().toPath());
+            } catch (IOException e) {
+                this.getLogger().warn("Checkpoint " + this.getCheckpointFile().getAbsolutePath() + " can't be deleted " + e.getMessage());
+            }
+        }
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that records that a row has finished (processed or failed), moving forward the last processed row when
+     * all the rows before it have finished too
+     * @param row number of the row in the core file (starting at 1)
+     */
+    private void moveLastProcessedRow(long row){
+        if (row>this.lastProcessedRow){
+            this.processedRows.add(row);
+        }
+        while (!this.processedRows.isEmpty() && this.processedRows.first()==this.lastProcessedRow+1){
+            this.lastProcessedRow = this.processedRows.pollFirst();
+        }
+    }
+
+    /**
+     * Function that writes the state of the checkpoint in its file, if it has changed since the last flush. The state
+     * is copied while holding the lock of the checkpoint, but it is written without holding it
+     */
+    private void flush(){
+        JsonObject state;
+        synchronized (this){
+            if (!this.dirty){
+                return;
+            }
+            state = this.getState();
+            this.dirty = false;
+        }
+        synchronized (this.getCheckpointFile()){
+            try{
+                File tempFile = new File(this.getCheckpointFile().getAbsolutePath() + ".tmp");
+                Files.write(tempFile.toPath(), JsonUtils.serializeObject(state).getBytes(StandardCharsets.UTF_8));
+                try{
+                    Files.move(tempFile.toPath(), this.getCheckpointFile().toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e){
+                    Files.move(tempFile.toPath(), this.getCheckpointFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (Exception e){
+                this.getLogger().error("Error saving checkpoint " + this.getCheckpointFile().getAbsolutePath() + " " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Function that gets the state of the checkpoint as json object
+     * @return json object with the state of the checkpoint
+     */
+    private JsonObject getState(){
+        JsonObject state = new JsonObject();
+        state.addProperty("archiveChecksum", this.archiveChecksum);
+        state.addProperty("archiveName", this.archiveName);
+        state.addProperty("lastProcessedRow", this.lastProcessedRow);
+        JsonArray processedRowsArr = new JsonArray();
+        this.processedRows.forEach(processedRowsArr::add);
+        state.add("processedRows", processedRowsArr);
+        JsonObject inFlightRowsObj = new JsonObject();
+        this.inFlightRows.forEach((row, coreId) -> inFlightRowsObj.addProperty(String.valueOf(row), coreId));
+        state.add("inFlightRows", inFlightRowsObj);
+        JsonObject failedRowsObj = new JsonObject();
+        this.failedRows.forEach((row, coreId) -> failedRowsObj.addProperty(String.valueOf(row), coreId));
+        state.add("failedRows", failedRowsObj);
+        state.addProperty("completed", this.completed);
+        return state;
+    }
+
+    /**
+     * Function that loads the state of the checkpoint from its file. The rows that were in flight are not loaded, as
+     * they have to be processed again, and the rows that failed are kept as failed, so they are processed again too
+     */
+    private void load(){
+        try{
+            JsonObject state = FileUtils.loadJsonElementFromFilePath(this.getCheckpointFile().getAbsolutePath()).getAsJsonObject();
+            this.lastProcessedRow = state.get("lastProcessedRow").getAsLong();
+            for (JsonElement processedRow : state.getAsJsonArray("processedRows")) {
+                this.processedRows.add(processedRow.getAsLong());
+            }
+            if (state.has("failedRows")){
+                for (Map.Entry<String,JsonElement> failedRow : state.getAsJsonObject("failedRows").entrySet()) {
+                    this.failedRows.put(Long.parseLong(failedRow.getKey()), failedRow.getValue().isJsonNull() ? null : failedRow.getValue().getAsString());
+                }
+            }
+            this.completed = state.get("completed").getAsBoolean();
+            this.getLogger().info("Resuming " + this.archiveName + " from checkpoint: " + (this.completed ? "already completed" :
+                    "last processed row " + this.lastProcessedRow + ", " + state.getAsJsonObject("inFlightRows").size() + " row(s) in flight and " +
+                    this.failedRows.size() + " row(s) failed will be processed again"));
+        } catch (Exception e){
+            this.getLogger().warn("Checkpoint " + this.getCheckpointFile().getAbsolutePath() + " can't be read. The archive will be processed from the beginning " + e.getMessage());
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package eu.dissco.digitisers.readers;
 
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 import eu.dissco.digitisers.processors.DigitalObjectVisitor;
@@ -23,6 +25,8 @@ import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class DwcaReader{
@@ -32,6 +36,10 @@ public class DwcaReader{
     /**************/
 
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private File checkpointDirectory; //Directory where the checkpoints are stored (null to not use checkpoints)
+    private int checkpointFlushSeconds = 5;
+    private DwcaCheckpoint checkpoint; //Checkpoint of the last dwca file read
+    private int numFailedRows; //Rows of the last dwca file read that failed to be parsed or processed
 
 
     /***********************/
@@ -42,6 +50,30 @@ public class DwcaReader{
         return logger;
     }
 
+    public File getCheckpointDirectory() {
+        return checkpointDirectory;
+    }
+
+    public void setCheckpointDirectory(File checkpointDirectory) {
+        this.checkpointDirectory = checkpointDirectory;
+    }
+
+    public int getCheckpointFlushSeconds() {
+        return checkpointFlushSeconds;
+    }
+
+    public void setCheckpointFlushSeconds(int checkpointFlushSeconds) {
+        this.checkpointFlushSeconds = checkpointFlushSeconds;
+    }
+
+    public DwcaCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    public int getNumFailedRows() {
+        return numFailedRows;
+    }
+
 
     /******************/
     /* PUBLIC METHODS */
@@ -53,6 +85,25 @@ public class DwcaReader{
      * file but the function will continue to process the following lines.
      */
     public void readDigitalSpecimensFromDwcaFile(File dwcaFile, DigitalObjectVisitor digitalObjectVisitor){
+        this.readDigitalSpecimensFromDwcaFile(dwcaFile,digitalObjectVisitor,null);
+    }
+
+    /***
+     * Function that parses the information found in the dwca file using the design pattern "visitor", but only for the
+     * records whose core id pass the filter
+     * Note: If there is any row that can not be parsed into a digital specimen, the system will report it in the log
+     * file but the function will continue to process the following lines.
+     * When a checkpoint directory is set, the rows processed are recorded in the checkpoint of the file, and the rows
+     * already processed in a previous run that didn't finish are skipped. The rows that failed (an error parsing them
+     * or processing their digital specimen) are not recorded as processed, so they are processed again when the file
+     * is resumed, and the file is only marked as completed when none of its rows failed.
+     * @param dwcaFile dwca file to be parsed
+     * @param digitalObjectVisitor visitor used to process the digital specimens
+     * @param coreIdFilter filter of the core ids of the records to be parsed (null to parse all the records)
+     */
+    public void readDigitalSpecimensFromDwcaFile(File dwcaFile, DigitalObjectVisitor digitalObjectVisitor, Predicate<String> coreIdFilter){
+        this.checkpoint = null;
+        this.numFailedRows = 0;
         try{
             this.getLogger().info("Parsing Dwc-A file " + dwcaFile.toURI() + " into digital specimens ");
 
@@ -64,61 +115,147 @@ public class DwcaReader{
 
             //Currently we only process dwc-a files that its core file is Occurrences
             if (dwcArchive.getCore().getRowType().prefixedName().equalsIgnoreCase("dwc:Occurrence")){
+                if (this.getCheckpointDirectory()!=null){
+                    //The checkpoint is identified by the checksum of the core file, as the rows are numbered on it
+                    String coreChecksum = Files.asByteSource(dwcArchive.getCore().getLocationFile()).hash(Hashing.sha256()).toString();
+                    this.checkpoint = new DwcaCheckpoint(this.getCheckpointDirectory(), coreChecksum, dwcaFile.getName(), this.getCheckpointFlushSeconds());
+                }
                 int rows = 1;
+                int skippedRows = 0;
                 //Iterate through the records in the dwc-a
                 for (StarRecord rec : dwcArchive) {
+                    if (coreIdFilter!=null && !coreIdFilter.test(rec.core().id())){
+                        rows++;
+                        continue;
+                    }
+                    if (this.checkpoint!=null){
+                        if (this.checkpoint.isRowProcessed(rows)){
+                            //Row already processed in a previous run
+                            skippedRows++;
+                            rows++;
+                            continue;
+                        }
+                        this.checkpoint.startRow(rows, rec.core().id());
+                    }
                     this.getLogger().info("File " + dwcaFile.getName() + " Parsing row " + rows + " (core id " + rec.core().id() + ") ...");
+                    boolean rowProcessed = false;
                     try{
                         //Only parse the information from the dwc-a, if the current record is for a specimen
                         //and at least has the minimum data required for a digital specimen
-                        if (this.checkIfDwcaRecordCanBeParsedAsDigitalSpecimen(rec)){
+                        if (this.checkIfRecordCanBeParsedAsDigitalSpecimen(term -> this.getValueFromDwcaRecord(rec,term),rec.core().id())){
                             //Read the data of the digital specimen from the dwca record
                             JsonObject dsContent = this.getDigitalSpecimenContentFromDwcaRecord(rec);
 
-                            //Create object for digital specimen
-                            DigitalObject ds = new DigitalObject();
-                            ds.type = "DigitalSpecimen";
-                            ds.setAttribute("content", dsContent);
-
                             this.getLogger().debug("File " + dwcaFile.getName() + " Row " + rows + " (core id " + rec.core().id() + ") has been serialized correctly into a Digital Specimen");
 
                             //Call the visitor to process the digital object
-                            DigitalObject dsSaved = digitalObjectVisitor.visitDigitalSpecimen(ds);
+                            DigitalObject dsSaved = this.visitDigitalSpecimen(dsContent,digitalObjectVisitor);
                             if (dsSaved!=null) this.getLogger().debug("File " + dwcaFile.getName() + " Row " + rows + " (core id " + rec.core().id() + ") has been saved correctly in the repository");
                         } else{
                             this.getLogger().warn("File " + dwcaFile.getName() + " Row " + rows + " (core id " + rec.core().id() + ") hasn't been serialized into a Digital Specimen" );
                         }
+                        rowProcessed = true;
                     } catch (Exception e){
                         this.getLogger().error("File " + dwcaFile.getName() + " Unexpected error parsing row " + rows,e);
+                        this.numFailedRows++;
+                    }
+                    if (this.checkpoint!=null){
+                        if (rowProcessed){
+                            this.checkpoint.finishRow(rows);
+                        } else{
+                            this.checkpoint.failRow(rows);
+                        }
                     }
                     rows++;
                 }
+                if (this.checkpoint!=null){
+                    if (this.numFailedRows==0){
+                        this.checkpoint.complete();
+                    } else{
+                        this.getLogger().warn("File " + dwcaFile.getName() + " " + this.numFailedRows + " row(s) failed. They will be processed again when the file is resumed from its checkpoint");
+                    }
+                    if (skippedRows>0) this.getLogger().info("File " + dwcaFile.getName() + " " + skippedRows + " row(s) were skipped because they were processed in a previous run");
+                }
                 this.getLogger().info("Dwc-A file " + dwcaFile.toURI() + " parsed. Result: " + (rows-1) + " row(s) were found in the core file.");
             } else{
                 this.getLogger().error("File " + dwcaFile.getName() + " Only dwca files that its core file is Occurrences can be processed into digital specimens");
             }
         }catch (Exception e){
             this.getLogger().error("Unexpected error parsing dwca-file to digital specimens " + dwcaFile.toURI(),e);
+        } finally {
+            //Flush the rows processed so far, so the file is resumed from them in the next run
+            if (this.checkpoint!=null) this.checkpoint.close();
         }
     }
 
 
-    /*******************/
-    /* PRIVATE METHODS */
-    /*******************/
+    /*********************/
+    /* PROTECTED METHODS */
+    /*********************/
+
+    /**
+     * Function that creates the digital specimen with the content passed as parameter and calls the visitor to process it
+     * @param dsContent content of the digital specimen
+     * @param digitalObjectVisitor visitor used to process the digital specimen
+     * @return digital specimen returned by the visitor
+     */
+    protected DigitalObject visitDigitalSpecimen(JsonObject dsContent, DigitalObjectVisitor digitalObjectVisitor){
+        //Create object for digital specimen
+        DigitalObject ds = new DigitalObject();
+        ds.type = "DigitalSpecimen";
+        ds.setAttribute("content", dsContent);
+
+        //Call the visitor to process the digital object
+        return digitalObjectVisitor.visitDigitalSpecimen(ds);
+    }
+
+    /**
+     * Function that parses a darwin core record serialized as json object (with the core content and the multimedia
+     * extension, keyed by the prefixed name of the terms) into a digital specimen and calls the visitor to process it
+     * @param darwinCoreRecordJsonObj darwin core record serialized as json object
+     * @param recordId id of the darwin core record (used in the log)
+     * @param digitalObjectVisitor visitor used to process the digital specimen
+     * @return true if the record has been parsed into a digital specimen, false otherwise
+     */
+    protected boolean readDigitalSpecimenFromDarwinCoreRecord(JsonObject darwinCoreRecordJsonObj, String recordId, DigitalObjectVisitor digitalObjectVisitor){
+        JsonObject coreContent = darwinCoreRecordJsonObj.getAsJsonObject("core").getAsJsonObject("content");
+        Function<Term,String> valueOf = term -> coreContent.has(term.prefixedName()) ? coreContent.get(term.prefixedName()).getAsString() : null;
+
+        //Only parse the information from the record, if it is for a specimen
+        //and at least has the minimum data required for a digital specimen
+        boolean canBeParsed = this.checkIfRecordCanBeParsedAsDigitalSpecimen(valueOf,recordId);
+        if (canBeParsed){
+            List<Function<Term,String>> multimediaRecords = new ArrayList<Function<Term,String>>();
+            if (darwinCoreRecordJsonObj.has("extensions")){
+                for (JsonElement extRec : darwinCoreRecordJsonObj.getAsJsonArray("extensions").get(0).getAsJsonObject().getAsJsonArray("content")) {
+                    JsonObject extContent = extRec.getAsJsonObject();
+                    multimediaRecords.add(term -> extContent.has(term.prefixedName()) ? extContent.get(term.prefixedName()).getAsString() : null);
+                }
+            }
+            JsonObject dsContent = this.getDigitalSpecimenContent(valueOf, recordId, true, multimediaRecords, darwinCoreRecordJsonObj);
+            this.getLogger().debug("Record " + recordId + " has been serialized correctly into a Digital Specimen");
+
+            DigitalObject dsSaved = this.visitDigitalSpecimen(dsContent,digitalObjectVisitor);
+            if (dsSaved!=null) this.getLogger().debug("Record " + recordId + " has been saved correctly in the repository");
+        } else{
+            this.getLogger().warn("Record " + recordId + " hasn't been serialized into a Digital Specimen" );
+        }
+        return canBeParsed;
+    }
 
     /**
-     * Function that check if the record in the darwin core file can be parsed into a Digital specimen by checking if
+     * Function that check if a darwin core record can be parsed into a Digital specimen by checking if
      * it has at least the minimum fields requiered
-     * @param rec Record in the darwin core file to check if it can be parsed into a Digital specimen
+     * @param valueOf function that gets the value of a term in the darwin core record
+     * @param recordId id of the darwin core record (used in the log)
      * @return true if darwin core record can be parsed, false otherwise
      */
-    private boolean checkIfDwcaRecordCanBeParsedAsDigitalSpecimen(StarRecord rec){
+    protected boolean checkIfRecordCanBeParsedAsDigitalSpecimen(Function<Term,String> valueOf, String recordId){
         //Check if the dwca record is for a specimen (living, preserved or fossil) and it has enough information to populate a Digital Specimen object
-        String basisOfRecord=this.getValueFromDwcaRecord(rec,DwcTerm.basisOfRecord);
-        String scientificName=this.getValueFromDwcaRecord(rec,GbifTerm.acceptedScientificName);
-        String physicalSpecimenId=this.getPhysicalSpecimenId(rec,true);
-        String institutionCode=this.getValueFromDwcaRecord(rec,DwcTerm.institutionCode);
+        String basisOfRecord=valueOf.apply(DwcTerm.basisOfRecord);
+        String scientificName=valueOf.apply(GbifTerm.acceptedScientificName);
+        String physicalSpecimenId=this.getPhysicalSpecimenId(valueOf,recordId,true);
+        String institutionCode=valueOf.apply(DwcTerm.institutionCode);
 
         boolean canDwcaRecordBeParsedAsDigitalSpecimen=StringUtils.containsIgnoreCase(basisOfRecord,"specimen") &&
                 StringUtils.isNotBlank(scientificName) && StringUtils.isNotBlank(physicalSpecimenId) &&
@@ -126,7 +263,7 @@ public class DwcaReader{
 
         if (!canDwcaRecordBeParsedAsDigitalSpecimen){
             StringBuilder sb = new StringBuilder();
-            sb.append("Darwin core record (coreID="+rec.core().id() + ") can not be parsed as DS because: ");
+            sb.append("Darwin core record (coreID="+recordId + ") can not be parsed as DS because: ");
             if (!StringUtils.containsIgnoreCase(basisOfRecord,"specimen")) sb.append(" basisOfRecord is not for a specimen");
             if (StringUtils.isBlank(scientificName)) sb.append(" scientificName is blank or can't be found");
             if (StringUtils.isBlank(institutionCode)) sb.append(" institutionCode is blank or can't be found");
@@ -138,54 +275,58 @@ public class DwcaReader{
     }
 
     /**
-     * Read data from the darwin core record and saved in a jsonObject that will be the content of the digital specimen
-     * @param rec Darwin core record
+     * Read data from a darwin core record and saved in a jsonObject that will be the content of the digital specimen
+     * @param valueOf function that gets the value of a term in the darwin core record
+     * @param recordId id of the darwin core record (used in the log)
+     * @param isOccurrence flag to indicate if the darwin core record is an occurrence
+     * @param multimediaRecords functions that get the value of a term in each multimedia record of the darwin core record
+     * @param darwinCoreRecordJsonObj darwin core record serialized as json object
      * @return jsonObject with information obtained from the darwin core record
      */
-    private JsonObject getDigitalSpecimenContentFromDwcaRecord(StarRecord rec){
+    protected JsonObject getDigitalSpecimenContent(Function<Term,String> valueOf, String recordId, boolean isOccurrence, List<Function<Term,String>> multimediaRecords, JsonObject darwinCoreRecordJsonObj){
         JsonObject dsContent = new JsonObject();
 
         //physicalSpecimenId
-        this.addPropertyToJsonObject(dsContent,"physicalSpecimenId", this.getPhysicalSpecimenId(rec,false));
+        this.addPropertyToJsonObject(dsContent,"physicalSpecimenId", this.getPhysicalSpecimenId(valueOf,recordId,false));
 
         //scientific name.
-        this.addPropertyToJsonObject(dsContent,"scientificName",this.getValueFromDwcaRecord(rec, GbifTerm.acceptedScientificName));
+        this.addPropertyToJsonObject(dsContent,"scientificName",valueOf.apply(GbifTerm.acceptedScientificName));
 
         //catalogNumber
-        this.addPropertyToJsonObject(dsContent,"catalogNumber",this.getValueFromDwcaRecord(rec,DwcTerm.catalogNumber));
+        this.addPropertyToJsonObject(dsContent,"catalogNumber",valueOf.apply(DwcTerm.catalogNumber));
 
         //otherCatalogNumbers
-        this.addPropertyToJsonObject(dsContent,"otherCatalogNumbers",this.getValueFromDwcaRecord(rec,DwcTerm.otherCatalogNumbers));
+        this.addPropertyToJsonObject(dsContent,"otherCatalogNumbers",valueOf.apply(DwcTerm.otherCatalogNumbers));
 
         //institutionCode
-        this.addPropertyToJsonObject(dsContent,"institutionCode",this.getValueFromDwcaRecord(rec,DwcTerm.institutionCode));
+        this.addPropertyToJsonObject(dsContent,"institutionCode",valueOf.apply(DwcTerm.institutionCode));
 
         //collectionCode
-        this.addPropertyToJsonObject(dsContent,"collectionCode",this.getValueFromDwcaRecord(rec,DwcTerm.collectionCode));
+        this.addPropertyToJsonObject(dsContent,"collectionCode",valueOf.apply(DwcTerm.collectionCode));
 
         //recordedBy
-        this.addPropertyToJsonObject(dsContent,"recordedBy",this.getValueFromDwcaRecord(rec,DwcTerm.recordedBy));
+        this.addPropertyToJsonObject(dsContent,"recordedBy",valueOf.apply(DwcTerm.recordedBy));
 
         //gbifId
         String gbifPrefix="";
-        if (rec.core().rowType().prefixedName().equalsIgnoreCase("dwc:Occurrence")){
+        if (isOccurrence){
             gbifPrefix="https://www.gbif.org/occurrence/";
         }
-        this.addPropertyToJsonObject(dsContent,"gbifId",gbifPrefix+this.getValueFromDwcaRecord(rec,GbifTerm.gbifID));
+        this.addPropertyToJsonObject(dsContent,"gbifId",gbifPrefix+valueOf.apply(GbifTerm.gbifID));
 
         //author reference
-        this.addPropertyToJsonObject(dsContent,"authorReference",this.getValueFromDwcaRecord(rec, DwcTerm.scientificNameAuthorship));
+        this.addPropertyToJsonObject(dsContent,"authorReference",valueOf.apply(DwcTerm.scientificNameAuthorship));
 
         //country code
-        String countryCode = this.getValueFromDwcaRecord(rec,DwcTerm.countryCode);
+        String countryCode = valueOf.apply(DwcTerm.countryCode);
         this.addPropertyToJsonObject(dsContent,"countryCode",countryCode);
 
         //locality
-        this.addPropertyToJsonObject(dsContent,"locality",this.getValueFromDwcaRecord(rec,DwcTerm.locality));
+        this.addPropertyToJsonObject(dsContent,"locality",valueOf.apply(DwcTerm.locality));
 
         //latitude and longitude
-        String latitude = this.getValueFromDwcaRecord(rec,DwcTerm.decimalLatitude);
-        String longitude = this.getValueFromDwcaRecord(rec,DwcTerm.decimalLongitude);
+        String latitude = valueOf.apply(DwcTerm.decimalLatitude);
+        String longitude = valueOf.apply(DwcTerm.decimalLongitude);
         if (NumberUtils.isCreatable(latitude) && NumberUtils.isCreatable(longitude)){
             JsonArray coordinates = new JsonArray();
             coordinates.add(Double.parseDouble(latitude));
@@ -193,39 +334,39 @@ public class DwcaReader{
             dsContent.add("decimalLatLon",coordinates);
         }
 
-        this.addPropertyToJsonObject(dsContent,"collectionDate",this.getValueFromDwcaRecord(rec, DwcTerm.eventDate));
+        this.addPropertyToJsonObject(dsContent,"collectionDate",valueOf.apply(DwcTerm.eventDate));
 
         //commonName
-        this.addPropertyToJsonObject(dsContent,"commonName",this.getValueFromDwcaRecord(rec,DwcTerm.vernacularName));
+        this.addPropertyToJsonObject(dsContent,"commonName",valueOf.apply(DwcTerm.vernacularName));
 
         //literatureReference
-        this.addPropertyToJsonObject(dsContent,"literatureReference",this.getValueFromDwcaRecord(rec,DwcTerm.identificationReferences));
+        this.addPropertyToJsonObject(dsContent,"literatureReference",valueOf.apply(DwcTerm.identificationReferences));
 
         //comment
-        this.addPropertyToJsonObject(dsContent,"comment",this.getValueFromDwcaRecord(rec,DwcTerm.fieldNotes));
+        this.addPropertyToJsonObject(dsContent,"comment",valueOf.apply(DwcTerm.fieldNotes));
 
         //availableImages from multimedia extension?
-        if(rec.hasExtension(GbifTerm.Multimedia)){
+        if(!multimediaRecords.isEmpty()){
             JsonArray images = new JsonArray();
-            for (Record extRec : rec.extension(GbifTerm.Multimedia)) {
+            for (Function<Term,String> extRec : multimediaRecords) {
                 JsonArray image = new JsonArray();
                 //Creator
-                image.add(extRec.value(DcTerm.creator));
+                image.add(extRec.apply(DcTerm.creator));
 
                 //Format
-                image.add(extRec.value(DcTerm.format));
+                image.add(extRec.apply(DcTerm.format));
 
                 //Resolution. There isn't a field in the multimedia
                 image.add(JsonNull.INSTANCE);
 
                 //rightsHolder
-                image.add(extRec.value(DcTerm.rightsHolder));
+                image.add(extRec.apply(DcTerm.rightsHolder));
 
                 //rights
-                image.add(extRec.value(DcTerm.rights));
+                image.add(extRec.apply(DcTerm.rights));
 
                 //Image
-                image.add(extRec.value(DcTerm.identifier));
+                image.add(extRec.apply(DcTerm.identifier));
 
                 images.add(image);
             }
@@ -243,27 +384,82 @@ public class DwcaReader{
         //bhlPages
         //imageID. Why do we have imageID and availableImages
 
-        JsonObject darwinCoreRecordJsonObj = this.getDarwinCoreRecordAsJsonObject(rec);
         dsContent.add("dwcaContent", darwinCoreRecordJsonObj);
         
         return dsContent;
     }
 
+    /**
+     * Function to ad a property to a json object.
+     * It will be added if the value is not empty or null
+     * @param dsContent Json object on which to add the property
+     * @param property name of the property to be added
+     * @param value value of the property to be added
+     */
+    protected void addPropertyToJsonObject(JsonObject dsContent,String property, String value){
+        if(StringUtils.isNotBlank(value)){
+            //Only add to the json object properties that their values are not empty
+            dsContent.addProperty(property,value);
+        }
+    }
+
+
+    /**
+     * Function that gets the darwin core, dublin core and gbif terms by their simple name, which is the name used for
+     * the fields of the occurrences returned by the GBIF occurrence search and in the header of the files of the GBIF
+     * downloads
+     * @return map with the terms by their simple name
+     */
+    protected static Map<String,Term> getTermsBySimpleName(){
+        Map<String,Term> terms = new HashMap<String,Term>();
+        List<Term> allTerms = new ArrayList<Term>();
+        allTerms.addAll(Arrays.asList(DwcTerm.values()));
+        allTerms.addAll(Arrays.asList(DcTerm.values()));
+        allTerms.addAll(Arrays.asList(GbifTerm.values()));
+        for (Term term : allTerms) {
+            terms.putIfAbsent(term.simpleName(),term);
+        }
+        return terms;
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Read data from the darwin core record and saved in a jsonObject that will be the content of the digital specimen
+     * @param rec Darwin core record
+     * @return jsonObject with information obtained from the darwin core record
+     */
+    private JsonObject getDigitalSpecimenContentFromDwcaRecord(StarRecord rec){
+        List<Function<Term,String>> multimediaRecords = new ArrayList<Function<Term,String>>();
+        if(rec.hasExtension(GbifTerm.Multimedia)){
+            for (Record extRec : rec.extension(GbifTerm.Multimedia)) {
+                multimediaRecords.add(extRec::value);
+            }
+        }
+        boolean isOccurrence = rec.core().rowType().prefixedName().equalsIgnoreCase("dwc:Occurrence");
+        return this.getDigitalSpecimenContent(term -> this.getValueFromDwcaRecord(rec,term), rec.core().id(), isOccurrence,
+                multimediaRecords, this.getDarwinCoreRecordAsJsonObject(rec));
+    }
+
     /**
      * Function that gets the PhysicalSpecimenId to be used for the darwin core record.
      * It tries to read it firstly from identifier, if empty, then look occurrenceID, then catalogNumber,
      * after that otherCatalogNumbers and finally if all the previous ones are empty it tries gbifID
-     * @param rec
+     * @param valueOf
+     * @param recordId
      * @param logResults
      * @return
      */
-    private String getPhysicalSpecimenId(StarRecord rec, boolean logResults){
+    private String getPhysicalSpecimenId(Function<Term,String> valueOf, String recordId, boolean logResults){
         String physicalSpecimenId=null;
-        String identifier = this.getValueFromDwcaRecord(rec,DcTerm.identifier);
-        String occurrenceID = this.getValueFromDwcaRecord(rec,DwcTerm.occurrenceID);
-        String catalogNumber = this.getValueFromDwcaRecord(rec,DwcTerm.catalogNumber);
-        String otherCatalogNumbers = this.getValueFromDwcaRecord(rec,DwcTerm.otherCatalogNumbers);
-        String gbifID = this.getValueFromDwcaRecord(rec,GbifTerm.gbifID);
+        String identifier = valueOf.apply(DcTerm.identifier);
+        String occurrenceID = valueOf.apply(DwcTerm.occurrenceID);
+        String catalogNumber = valueOf.apply(DwcTerm.catalogNumber);
+        String otherCatalogNumbers = valueOf.apply(DwcTerm.otherCatalogNumbers);
+        String gbifID = valueOf.apply(GbifTerm.gbifID);
 
         String source=null;
         if (StringUtils.isNotBlank(identifier)){
@@ -282,9 +478,9 @@ public class DwcaReader{
             physicalSpecimenId=gbifID;
             source="gbifID";
         } else{
-            this.getLogger().warn("PhysicalSpecimenId can not be obtained for this record (coreID="+rec.core().id() + ")");
+            this.getLogger().warn("PhysicalSpecimenId can not be obtained for this record (coreID="+recordId + ")");
         }
-        if (source!=null && logResults) this.getLogger().info("PhysicalSpecimenId obtained from '"+ source + "' for record (coreID="+rec.core().id() + ")");
+        if (source!=null && logResults) this.getLogger().info("PhysicalSpecimenId obtained from '"+ source + "' for record (coreID="+recordId + ")");
         return physicalSpecimenId;
     }
 
@@ -366,18 +562,4 @@ public class DwcaReader{
         return valueInDwca;
     }
 
-    /**
-     * Function to ad a property to a json object.
-     * It will be added if the value is not empty or null
-     * @param dsContent Json object on which to add the property
-     * @param property name of the property to be added
-     * @param value value of the property to be added
-     */
-    private void addPropertyToJsonObject(JsonObject dsContent,String property, String value){
-        if(StringUtils.isNotBlank(value)){
-            //Only add to the json object properties that their values are not empty
-            dsContent.addProperty(property,value);
-        }
-    }
-
 }
@@ -0,0 +1,255 @@
+package eu.dissco.digitisers.readers;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import eu.dissco.digitisers.utils.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.gbif.dwc.Archive;
+import org.gbif.dwc.DwcFiles;
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.record.StarRecord;
+import org.gbif.dwc.terms.Term;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Difference between two snapshots (dwca files) of the same dataset, so only the records added or changed in the new
+ * snapshot need to be digitised. Each record (core row together with its extension rows) of both snapshots is reduced
+ * to a line with its core id and the hash of its content, the lines of each snapshot are sorted with an external
+ * sort, and both sorted files are merged to find the records added, changed and removed. This way the memory used
+ * doesn't depend on the size of the snapshots, but only on the number of records added or changed
+ */
+public class DwcaSnapshotDiff {
+
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final static int MAX_LINES_IN_MEMORY = 500000;
+    private Set<String> addedOrChangedCoreIds;
+    private File removedCoreIdsFile; //File with the core ids of the records removed in the new snapshot (one per line). Null if none was removed
+    private int numAdded;
+    private int numChanged;
+    private int numRemoved;
+    private int numUnchanged;
+
+
+    /***********************/
+    /* GETTERS AND SETTERS */
+    /***********************/
+
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    public Set<String> getAddedOrChangedCoreIds() {
+        return addedOrChangedCoreIds;
+    }
+
+    public File getRemovedCoreIdsFile() {
+        return removedCoreIdsFile;
+    }
+
+    public int getNumAdded() {
+        return numAdded;
+    }
+
+    public int getNumChanged() {
+        return numChanged;
+    }
+
+    public int getNumRemoved() {
+        return numRemoved;
+    }
+
+    public int getNumUnchanged() {
+        return numUnchanged;
+    }
+
+
+    /******************/
+    /* PUBLIC METHODS */
+    /******************/
+
+    /**
+     * Function that computes the difference between two snapshots of the same dataset. The files used to compute it
+     * are deleted once it is computed, except the one with the core ids of the records removed (if any)
+     * @param previousDwcaFile dwca file of the previous snapshot
+     * @param newDwcaFile dwca file of the new snapshot
+     * @throws IOException
+     */
+    public void compute(File previousDwcaFile, File newDwcaFile) throws IOException {
+        this.getLogger().info("Computing the difference between Dwc-A files " + previousDwcaFile.getName() + " and " + newDwcaFile.getName());
+        File workDirectory = Files.createTempDir();
+        File removedCoreIdsFile = File.createTempFile("removed-", ".txt");
+        try{
+            File previousFingerprintsFile = this.getSortedRecordFingerprints(previousDwcaFile, new File(workDirectory, "previous"));
+            File newFingerprintsFile = this.getSortedRecordFingerprints(newDwcaFile, new File(workDirectory, "new"));
+            this.diffSortedRecordFingerprints(previousFingerprintsFile, newFingerprintsFile, removedCoreIdsFile);
+        } finally {
+            org.apache.commons.io.FileUtils.deleteQuietly(workDirectory);
+            if (this.getNumRemoved()==0){
+                removedCoreIdsFile.delete();
+                this.removedCoreIdsFile = null;
+            }
+        }
+        this.getLogger().info("Difference between Dwc-A files " + previousDwcaFile.getName() + " and " + newDwcaFile.getName() +
+                ": " + this.getNumAdded() + " record(s) added, " + this.getNumChanged() + " changed, " + this.getNumUnchanged() +
+                " unchanged and " + this.getNumRemoved() + " removed" + (this.getNumRemoved()>0 ? " (listed in " + this.getRemovedCoreIdsFile().getAbsolutePath() + ")" : ""));
+    }
+
+
+    /*********************/
+    /* PROTECTED METHODS */
+    /*********************/
+
+    /**
+     * Function that merges the sorted record fingerprints (lines "coreId\thash") of two snapshots, to find the records
+     * added, changed and removed in the new snapshot
+     * @param previousFingerprintsFile sorted fingerprints of the records of the previous snapshot
+     * @param newFingerprintsFile sorted fingerprints of the records of the new snapshot
+     * @param removedCoreIdsFile file where the core ids of the records removed are written
+     * @throws IOException
+     */
+    protected void diffSortedRecordFingerprints(File previousFingerprintsFile, File newFingerprintsFile, File removedCoreIdsFile) throws IOException {
+        this.addedOrChangedCoreIds = new HashSet<String>();
+        this.removedCoreIdsFile = removedCoreIdsFile;
+        this.numAdded = this.numChanged = this.numRemoved = this.numUnchanged = 0;
+        try (BufferedReader previousReader = java.nio.file.Files.newBufferedReader(previousFingerprintsFile.toPath(), StandardCharsets.UTF_8);
+             BufferedReader newReader = java.nio.file.Files.newBufferedReader(newFingerprintsFile.toPath(), StandardCharsets.UTF_8);
+             BufferedWriter removedWriter = java.nio.file.Files.newBufferedWriter(removedCoreIdsFile.toPath(), StandardCharsets.UTF_8)){
+            String[] previousRecord = this.readRecordFingerprint(previousReader);
+            String[] newRecord = this.readRecordFingerprint(newReader);
+            while (previousRecord!=null || newRecord!=null){
+                //The tab separating the core id and the hash sorts before any character of the ids, so the lines are
+                //sorted by core id
+                int comparison = previousRecord==null ? 1 : newRecord==null ? -1 : previousRecord[0].compareTo(newRecord[0]);
+                if (comparison<0){
+                    removedWriter.write(previousRecord[0]);
+                    removedWriter.newLine();
+                    this.numRemoved++;
+                    previousRecord = this.readRecordFingerprint(previousReader);
+                } else if (comparison>0){
+                    this.addedOrChangedCoreIds.add(newRecord[0]);
+                    this.numAdded++;
+                    newRecord = this.readRecordFingerprint(newReader);
+                } else{
+                    if (previousRecord[1].equals(newRecord[1])){
+                        this.numUnchanged++;
+                    } else{
+                        this.addedOrChangedCoreIds.add(newRecord[0]);
+                        this.numChanged++;
+                    }
+                    previousRecord = this.readRecordFingerprint(previousReader);
+                    newRecord = this.readRecordFingerprint(newReader);
+                }
+            }
+        }
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that gets the fingerprints of the records of a dwca file, sorted by their core id
+     * @param dwcaFile dwca file
+     * @param workDirectory directory where the dwca file is extracted and its fingerprints are written
+     * @return file with the sorted fingerprints of the records (lines "coreId\thash")
+     * @throws IOException
+     */
+    private File getSortedRecordFingerprints(File dwcaFile, File workDirectory) throws IOException {
+        Archive dwcArchive = DwcFiles.fromCompressed(Paths.get(dwcaFile.toURI()), Paths.get(new File(workDirectory, "dwca").toURI()));
+        File fingerprintsFile = new File(workDirectory, "fingerprints.txt");
+        int recordsWithoutId = 0;
+        try (BufferedWriter writer = java.nio.file.Files.newBufferedWriter(fingerprintsFile.toPath(), StandardCharsets.UTF_8)){
+            for (StarRecord rec : dwcArchive) {
+                String coreId = rec.core().id();
+                if (StringUtils.isBlank(coreId)){
+                    recordsWithoutId++;
+                    continue;
+                }
+                writer.write(coreId);
+                writer.write('\t');
+                writer.write(this.getRecordHash(rec));
+                writer.newLine();
+            }
+        }
+        if (recordsWithoutId>0){
+            this.getLogger().warn("File " + dwcaFile.getName() + " " + recordsWithoutId + " record(s) without core id can't be compared");
+        }
+        File sortedFingerprintsFile = new File(workDirectory, "fingerprints.sorted.txt");
+        FileUtils.sortLines(fingerprintsFile, sortedFingerprintsFile, MAX_LINES_IN_MEMORY);
+        fingerprintsFile.delete();
+        org.apache.commons.io.FileUtils.deleteQuietly(new File(workDirectory, "dwca"));
+        return sortedFingerprintsFile;
+    }
+
+    /**
+     * Function that gets the hash of the content of a record (core row and its extension rows). The terms, the
+     * extensions and the rows of each extension are sorted, so the hash doesn't depend on the order of the columns
+     * and the rows in the files of the dwca
+     * @param rec Darwin core record
+     * @return SHA-256 hash of the content of the record (in hexadecimal)
+     */
+    private String getRecordHash(StarRecord rec){
+        StringBuilder sb = new StringBuilder(this.getRowContent(rec.core()));
+        Map<String,List<Record>> extensions = new TreeMap<String,List<Record>>();
+        for (Map.Entry<Term,List<Record>> extension : rec.extensions().entrySet()) {
+            extensions.put(extension.getKey().prefixedName(), extension.getValue());
+        }
+        for (Map.Entry<String,List<Record>> extension : extensions.entrySet()) {
+            List<String> rows = new ArrayList<String>();
+            for (Record extensionRecord : extension.getValue()) {
+                rows.add(this.getRowContent(extensionRecord));
+            }
+            Collections.sort(rows);
+            sb.append('\u001e').append(extension.getKey());
+            for (String row : rows) {
+                sb.append('\u001d').append(row);
+            }
+        }
+        return Hashing.sha256().hashString(sb.toString(), StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * Function that gets the content of a row as a string with its non empty values sorted by term
+     * @param rec row of a file of the dwca
+     * @return content of the row
+     */
+    private String getRowContent(Record rec){
+        Map<String,String> values = new TreeMap<String,String>();
+        for (Term term : rec.terms()) {
+            String value = rec.value(term);
+            if (StringUtils.isNotBlank(value)){
+                values.put(term.prefixedName(), value);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String,String> value : values.entrySet()) {
+            sb.append(value.getKey()).append('=').append(value.getValue()).append('\u001f');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Function that reads the next record fingerprint of a sorted fingerprints file
+     * @param reader reader of the sorted fingerprints file
+     * @return {coreId, hash} or null if there are no more records
+     * @throws IOException
+     */
+    private String[] readRecordFingerprint(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        return line!=null ? line.split("\t", 2) : null;
+    }
+}
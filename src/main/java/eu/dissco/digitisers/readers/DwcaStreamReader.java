@@ -0,0 +1,525 @@
+package eu.dissco.digitisers.readers;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import eu.dissco.digitisers.processors.DigitalObjectVisitor;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.GbifTerm;
+import org.gbif.dwc.terms.Term;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reader of dwca files that parses the rows of the core file while the archive is being read from a stream (eg. while
+ * it is being downloaded), so there is no need to wait until the whole archive is available.
+ * The entries of the zip file are read in the order they come in the stream: the descriptor (meta.xml) is used to
+ * interpret the data files that come after it, and the data files that come before it are interpreted by their header
+ * row (as the files of GBIF downloads, whose headers are the names of the terms and whose first column is the id).
+ * The multimedia extension is joined to the core records when it comes before the core file. When it is expected after
+ * it (as in GBIF downloads), the core records that may have multimedia (the ones with gbif:mediaType, or all of them if
+ * the core file doesn't have this term) are held back in a temporary file, and they are processed once, joined with
+ * their multimedia, after the multimedia file has been read. The ids of the core records that weren't held back but
+ * have multimedia after the core file are kept, so they can be read again from the complete archive.
+ * Note: Only the core file and the multimedia extension are read, so the values of the core records are not completed
+ * with the values of the verbatim extension as it is done by DwcaReader
+ */
+public class DwcaStreamReader extends DwcaReader {
+
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final static Map<String,Term> termsBySimpleName = getTermsBySimpleName(); //Terms of the fields of the data files
+    private final static String metaFileName = "meta.xml";
+    private final static String defaultCoreFileName = "occurrence.txt"; //Name of the core file in GBIF downloads
+    private final static String defaultMultimediaFileName = "multimedia.txt"; //Name of the multimedia file in GBIF downloads
+    private DataFile coreFile;
+    private DataFile multimediaFile;
+    private Map<String,List<JsonObject>> mapMultimediaByCoreId; //Multimedia read before the core file
+    private Set<String> coreIdsWithLateMultimedia; //Ids of the core records not held back whose multimedia was read after the core file
+    private Set<String> heldCoreIds; //Ids of the core records held back until the multimedia file is read
+    private File heldRecordsFile; //Core records held back (one per line, with their id)
+    private BufferedWriter heldRecordsWriter;
+    private boolean multimediaRead;
+    private boolean coreRead; //Flag to indicate if the core file has been read completely from the stream
+
+
+    /***********************/
+    /* GETTERS AND SETTERS */
+    /***********************/
+
+    protected Map<String, List<JsonObject>> getMapMultimediaByCoreId() {
+        return mapMultimediaByCoreId;
+    }
+
+    public Set<String> getCoreIdsWithLateMultimedia() {
+        return coreIdsWithLateMultimedia;
+    }
+
+    public Set<String> getHeldCoreIds() {
+        return heldCoreIds;
+    }
+
+    public boolean isCoreRead() {
+        return coreRead;
+    }
+
+
+    /****************/
+    /* CONSTRUCTORS */
+    /****************/
+
+    public DwcaStreamReader(){
+        this.mapMultimediaByCoreId = new HashMap<String, List<JsonObject>>();
+        this.coreIdsWithLateMultimedia = new HashSet<String>();
+        this.heldCoreIds = new HashSet<String>();
+    }
+
+
+    /******************/
+    /* PUBLIC METHODS */
+    /******************/
+
+    /***
+     * Function that parses the information of the dwca file read from the stream using the design pattern "visitor".
+     * Note: If there is any row that can not be parsed into a digital specimen, the system will report it in the log
+     * file but the function will continue to process the following lines.
+     * If the core file isn't found in the stream (eg. its name is only known from meta.xml and it comes after it), or
+     * the stream can't be read until its end, isCoreRead() returns false, so the archive can be read from its file
+     * @param inputStream stream with the content of the dwca file
+     * @param dwcaName name of the dwca file (used in the log)
+     * @param digitalObjectVisitor visitor used to process the digital specimens
+     * @return number of rows found in the core file
+     */
+    public int readDigitalSpecimensFromDwcaStream(InputStream inputStream, String dwcaName, DigitalObjectVisitor digitalObjectVisitor){
+        int rows = 0;
+        try{
+            this.getLogger().info("Parsing Dwc-A stream " + dwcaName + " into digital specimens ");
+            ZipInputStream zipStream = new ZipInputStream(inputStream, StandardCharsets.UTF_8);
+            boolean coreRead = false;
+            ZipEntry entry;
+            while ((entry = zipStream.getNextEntry())!=null){
+                String entryName = entry.getName();
+                if (entry.isDirectory()){
+                    continue;
+                }
+                if (entryName.equalsIgnoreCase(metaFileName)){
+                    this.loadDataFilesFromDescriptor(IOUtils.toByteArray(zipStream));
+                } else if (this.isCoreFile(entryName)){
+                    if (this.coreFile!=null && !this.coreFile.rowType.equalsIgnoreCase(DwcTerm.Occurrence.prefixedName())){
+                        this.getLogger().error("Stream " + dwcaName + " Only dwca files that its core file is Occurrences can be processed into digital specimens");
+                        break;
+                    }
+                    rows = this.readCoreFile(zipStream, entryName, digitalObjectVisitor);
+                    coreRead = true;
+                } else if (this.isMultimediaFile(entryName)){
+                    this.readMultimediaFile(zipStream, entryName, coreRead);
+                }
+            }
+            this.processHeldRecords(dwcaName, digitalObjectVisitor);
+            this.coreRead = coreRead;
+            this.getLogger().info("Dwc-A stream " + dwcaName + " parsed. Result: " + rows + " row(s) were found in the core file.");
+            if (!this.getCoreIdsWithLateMultimedia().isEmpty()){
+                this.getLogger().info("Dwc-A stream " + dwcaName + " has multimedia after the core file for " + this.getCoreIdsWithLateMultimedia().size() + " record(s)");
+            }
+        } catch (Exception e){
+            this.getLogger().error("Unexpected error parsing dwca stream to digital specimens " + dwcaName,e);
+        } finally {
+            this.deleteHeldRecords();
+        }
+        return rows;
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that reads the rows of the core file and parses them into digital specimens
+     * @param zipStream stream positioned at the beginning of the core file
+     * @param entryName name of the core file
+     * @param digitalObjectVisitor visitor used to process the digital specimens
+     * @return number of rows found in the core file
+     * @throws Exception
+     */
+    private int readCoreFile(ZipInputStream zipStream, String entryName, DigitalObjectVisitor digitalObjectVisitor) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(zipStream, StandardCharsets.UTF_8));
+        DataFile dataFile = this.getDataFile(this.coreFile, reader);
+        //The multimedia is expected after the core file when the descriptor declares it or, without descriptor, when the
+        //core file has gbif:mediaType (as in GBIF downloads)
+        boolean hasMediaType = dataFile.termsByIndex.containsValue(GbifTerm.mediaType);
+        boolean multimediaExpected = !this.multimediaRead && (this.multimediaFile!=null || (this.coreFile==null && hasMediaType));
+        int rows = 0;
+        String line;
+        while ((line = reader.readLine())!=null){
+            if (StringUtils.isBlank(line)){
+                continue;
+            }
+            rows++;
+            try{
+                List<String> values = dataFile.split(line);
+                JsonObject coreContentJsonObj = this.getTermsAsJsonObject(dataFile, values);
+                String recordId = dataFile.getId(values);
+                if (recordId==null){
+                    recordId = coreContentJsonObj.has(GbifTerm.gbifID.prefixedName()) ? coreContentJsonObj.get(GbifTerm.gbifID.prefixedName()).getAsString() : String.valueOf(rows);
+                }
+                this.getLogger().info("File " + entryName + " Parsing row " + rows + " (core id " + recordId + ") ...");
+
+                JsonObject darwinCoreRecordJsonObj = new JsonObject();
+                JsonObject coreJsonObj = new JsonObject();
+                coreJsonObj.addProperty("type", DwcTerm.Occurrence.prefixedName());
+                coreJsonObj.add("content", coreContentJsonObj);
+                darwinCoreRecordJsonObj.add("core", coreJsonObj);
+                List<JsonObject> multimediaRecords = this.getMapMultimediaByCoreId().remove(recordId);
+                if (multimediaRecords!=null){
+                    darwinCoreRecordJsonObj.add("extensions", this.getMultimediaExtensionAsJsonArray(multimediaRecords));
+                } else if (multimediaExpected && (!hasMediaType || coreContentJsonObj.has(GbifTerm.mediaType.prefixedName()))){
+                    //Hold back the record until its multimedia has been read, so it is processed only once
+                    this.holdRecord(recordId, darwinCoreRecordJsonObj);
+                    continue;
+                }
+                this.readDigitalSpecimenFromDarwinCoreRecord(darwinCoreRecordJsonObj, recordId, digitalObjectVisitor);
+            } catch (Exception e){
+                this.getLogger().error("File " + entryName + " Unexpected error parsing row " + rows,e);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Function that reads the rows of the multimedia file. If the core file hasn't been read yet or its record has
+     * been held back, the multimedia is kept to be joined with the core records, otherwise only the ids of their core
+     * records are kept
+     * @param zipStream stream positioned at the beginning of the multimedia file
+     * @param entryName name of the multimedia file
+     * @param coreRead flag to indicate if the core file has already been read
+     * @throws Exception
+     */
+    private void readMultimediaFile(ZipInputStream zipStream, String entryName, boolean coreRead) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(zipStream, StandardCharsets.UTF_8));
+        DataFile dataFile = this.getDataFile(this.multimediaFile, reader);
+        String line;
+        while ((line = reader.readLine())!=null){
+            if (StringUtils.isBlank(line)){
+                continue;
+            }
+            List<String> values = dataFile.split(line);
+            String coreId = dataFile.getId(values);
+            if (StringUtils.isBlank(coreId)){
+                continue;
+            }
+            if (coreRead && !this.getHeldCoreIds().contains(coreId)){
+                this.getCoreIdsWithLateMultimedia().add(coreId);
+            } else{
+                JsonObject extensionContentJsonObj = this.getTermsAsJsonObject(dataFile, values);
+                if (extensionContentJsonObj.size()>0){
+                    this.getMapMultimediaByCoreId().computeIfAbsent(coreId, k -> new ArrayList<JsonObject>()).add(extensionContentJsonObj);
+                }
+            }
+        }
+        this.multimediaRead = true;
+        this.getLogger().debug("Multimedia file " + entryName + " read " + (coreRead ? "after" : "before") + " the core file");
+    }
+
+    /**
+     * Function that holds back a core record until the multimedia file has been read, writing it in a temporary file
+     * @param recordId id of the core record
+     * @param darwinCoreRecordJsonObj core record serialized as json object
+     * @throws Exception
+     */
+    private void holdRecord(String recordId, JsonObject darwinCoreRecordJsonObj) throws Exception {
+        if (this.heldRecordsWriter==null){
+            this.heldRecordsFile = File.createTempFile("dwcaStreamHeldRecords", ".txt");
+            this.heldRecordsWriter = Files.newBufferedWriter(this.heldRecordsFile.toPath(), StandardCharsets.UTF_8);
+        }
+        this.heldRecordsWriter.write(recordId.replace('\t',' ') + "\t" + darwinCoreRecordJsonObj.toString());
+        this.heldRecordsWriter.newLine();
+        this.getHeldCoreIds().add(recordId);
+    }
+
+    /**
+     * Function that processes the core records held back, joined with the multimedia read after the core file
+     * @param dwcaName name of the dwca file (used in the log)
+     * @param digitalObjectVisitor visitor used to process the digital specimens
+     * @throws Exception
+     */
+    private void processHeldRecords(String dwcaName, DigitalObjectVisitor digitalObjectVisitor) throws Exception {
+        if (this.heldRecordsWriter==null){
+            return;
+        }
+        this.heldRecordsWriter.close();
+        this.heldRecordsWriter = null;
+        this.getLogger().info("Dwc-A stream " + dwcaName + " processing " + this.getHeldCoreIds().size() + " record(s) held back until their multimedia was read");
+        try (BufferedReader reader = Files.newBufferedReader(this.heldRecordsFile.toPath(), StandardCharsets.UTF_8)){
+            String line;
+            while ((line = reader.readLine())!=null){
+                String[] heldRecord = line.split("\t", 2);
+                try{
+                    JsonObject darwinCoreRecordJsonObj = new JsonParser().parse(heldRecord[1]).getAsJsonObject();
+                    List<JsonObject> multimediaRecords = this.getMapMultimediaByCoreId().remove(heldRecord[0]);
+                    if (multimediaRecords!=null){
+                        darwinCoreRecordJsonObj.add("extensions", this.getMultimediaExtensionAsJsonArray(multimediaRecords));
+                    }
+                    this.readDigitalSpecimenFromDarwinCoreRecord(darwinCoreRecordJsonObj, heldRecord[0], digitalObjectVisitor);
+                } catch (Exception e){
+                    this.getLogger().error("Stream " + dwcaName + " Unexpected error parsing held record " + heldRecord[0],e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Function that deletes the temporary file of the core records held back
+     */
+    private void deleteHeldRecords(){
+        if (this.heldRecordsWriter!=null){
+            IOUtils.closeQuietly(this.heldRecordsWriter);
+            this.heldRecordsWriter = null;
+        }
+        if (this.heldRecordsFile!=null){
+            this.heldRecordsFile.delete();
+            this.heldRecordsFile = null;
+        }
+    }
+
+    /**
+     * Function that serializes the multimedia records of a core record as the extensions of a darwin core record
+     * @param multimediaRecords multimedia records of the core record
+     * @return json array with the multimedia extension
+     */
+    private JsonArray getMultimediaExtensionAsJsonArray(List<JsonObject> multimediaRecords){
+        JsonArray extensionContentJsonArr = new JsonArray();
+        multimediaRecords.forEach(extensionContentJsonArr::add);
+        JsonObject extensionJsonObj = new JsonObject();
+        extensionJsonObj.addProperty("type", GbifTerm.Multimedia.prefixedName());
+        extensionJsonObj.add("content", extensionContentJsonArr);
+        JsonArray extensionsJsonArray = new JsonArray();
+        extensionsJsonArray.add(extensionJsonObj);
+        return extensionsJsonArray;
+    }
+
+    /**
+     * Function that gets the description of a data file. If the data file was described in the descriptor, it skips its
+     * header lines, otherwise the data file is described by its header row
+     * @param describedDataFile description of the data file in the descriptor (null if it wasn't described)
+     * @param reader reader positioned at the beginning of the data file
+     * @return description of the data file
+     * @throws Exception
+     */
+    private DataFile getDataFile(DataFile describedDataFile, BufferedReader reader) throws Exception {
+        DataFile dataFile = describedDataFile;
+        if (dataFile!=null){
+            for (int i = 0; i < dataFile.ignoreHeaderLines; i++) {
+                reader.readLine();
+            }
+        } else{
+            dataFile = new DataFile();
+            dataFile.idIndex = 0;
+            String header = reader.readLine();
+            if (header!=null){
+                List<String> columns = dataFile.split(header);
+                for (int i = 0; i < columns.size(); i++) {
+                    Term term = this.getTerm(columns.get(i));
+                    if (term!=null) dataFile.termsByIndex.put(i, term);
+                }
+            }
+        }
+        return dataFile;
+    }
+
+    /**
+     * Function that serializes the values of a row of a data file into a json object, using the prefixed name of the
+     * terms as property names
+     * @param dataFile description of the data file
+     * @param values values of the row
+     * @return json object with the values of the terms
+     */
+    private JsonObject getTermsAsJsonObject(DataFile dataFile, List<String> values){
+        JsonObject termsJsonObj = new JsonObject();
+        for (Map.Entry<Integer,Term> field : dataFile.termsByIndex.entrySet()) {
+            if (field.getKey()<values.size()){
+                this.addPropertyToJsonObject(termsJsonObj, field.getValue().prefixedName(), values.get(field.getKey()));
+            }
+        }
+        for (Map.Entry<Term,String> defaultValue : dataFile.defaultValues.entrySet()) {
+            if (!termsJsonObj.has(defaultValue.getKey().prefixedName())){
+                this.addPropertyToJsonObject(termsJsonObj, defaultValue.getKey().prefixedName(), defaultValue.getValue());
+            }
+        }
+        return termsJsonObj;
+    }
+
+    /**
+     * Function that loads the description of the core file and of the multimedia extension from the descriptor of the
+     * dwca file (meta.xml)
+     * @param descriptor content of the descriptor
+     * @throws Exception
+     */
+    private void loadDataFilesFromDescriptor(byte[] descriptor) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(false);
+        Document document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(descriptor));
+        NodeList cores = document.getElementsByTagName("core");
+        if (cores.getLength()>0){
+            this.coreFile = this.getDataFileFromDescriptor((Element) cores.item(0), "id");
+        }
+        NodeList extensions = document.getElementsByTagName("extension");
+        for (int i = 0; i < extensions.getLength(); i++) {
+            DataFile extensionFile = this.getDataFileFromDescriptor((Element) extensions.item(i), "coreid");
+            if (extensionFile.rowType.equalsIgnoreCase(GbifTerm.Multimedia.prefixedName())){
+                this.multimediaFile = extensionFile;
+            }
+        }
+    }
+
+    /**
+     * Function that gets the description of a data file from its element in the descriptor
+     * @param element element of the core or the extension in the descriptor
+     * @param idTagName name of the tag with the index of the id of the rows (id for the core, coreid for extensions)
+     * @return description of the data file
+     */
+    private DataFile getDataFileFromDescriptor(Element element, String idTagName){
+        DataFile dataFile = new DataFile();
+        Term rowType = this.getTerm(element.getAttribute("rowType"));
+        dataFile.rowType = rowType!=null ? rowType.prefixedName() : element.getAttribute("rowType");
+        NodeList locations = element.getElementsByTagName("location");
+        if (locations.getLength()>0){
+            dataFile.location = locations.item(0).getTextContent().trim();
+        }
+        if (element.hasAttribute("fieldsTerminatedBy")){
+            dataFile.fieldsTerminatedBy = this.unescape(element.getAttribute("fieldsTerminatedBy"));
+        }
+        if (StringUtils.isNotEmpty(element.getAttribute("fieldsEnclosedBy"))){
+            dataFile.fieldsEnclosedBy = this.unescape(element.getAttribute("fieldsEnclosedBy")).charAt(0);
+        }
+        dataFile.ignoreHeaderLines = NumberUtils.toInt(element.getAttribute("ignoreHeaderLines"), 0);
+        NodeList ids = element.getElementsByTagName(idTagName);
+        if (ids.getLength()>0){
+            dataFile.idIndex = NumberUtils.toInt(((Element) ids.item(0)).getAttribute("index"), -1);
+        }
+        NodeList fields = element.getElementsByTagName("field");
+        for (int i = 0; i < fields.getLength(); i++) {
+            Element field = (Element) fields.item(i);
+            Term term = this.getTerm(field.getAttribute("term"));
+            if (term!=null){
+                if (StringUtils.isNotBlank(field.getAttribute("index"))){
+                    dataFile.termsByIndex.put(NumberUtils.toInt(field.getAttribute("index")), term);
+                } else if (StringUtils.isNotBlank(field.getAttribute("default"))){
+                    dataFile.defaultValues.put(term, field.getAttribute("default"));
+                }
+            }
+        }
+        return dataFile;
+    }
+
+    /**
+     * Function that gets the term by its name, which can be its simple name or its qualified name (URI)
+     * @param name name of the term
+     * @return term or null if it isn't a darwin core, dublin core or gbif term
+     */
+    private Term getTerm(String name){
+        String simpleName = StringUtils.substringAfterLast(StringUtils.trim(name), "/");
+        if (StringUtils.isEmpty(simpleName)){
+            simpleName = StringUtils.trim(name);
+        }
+        if (simpleName.contains(":")){
+            simpleName = StringUtils.substringAfterLast(simpleName, ":");
+        }
+        return termsBySimpleName.get(simpleName);
+    }
+
+    private boolean isCoreFile(String entryName){
+        return this.coreFile!=null ? entryName.equals(this.coreFile.location) : entryName.equalsIgnoreCase(defaultCoreFileName);
+    }
+
+    private boolean isMultimediaFile(String entryName){
+        return this.multimediaFile!=null ? entryName.equals(this.multimediaFile.location) :
+                (this.coreFile==null && entryName.equalsIgnoreCase(defaultMultimediaFileName));
+    }
+
+    private String unescape(String value){
+        return value.replace("\\t", "\t").replace("\\n", "\n").replace("\\r", "\r");
+    }
+
+
+    /*****************/
+    /* INNER CLASSES */
+    /*****************/
+
+    /**
+     * Description of a data file of the dwca file (core or extension): its location, the format of its rows and the
+     * terms of its columns
+     */
+    protected static class DataFile {
+        private String location;
+        private String rowType = DwcTerm.Occurrence.prefixedName();
+        private String fieldsTerminatedBy = "\t";
+        private Character fieldsEnclosedBy = null;
+        private int ignoreHeaderLines = 1;
+        private int idIndex = -1;
+        private Map<Integer,Term> termsByIndex = new HashMap<Integer,Term>();
+        private Map<Term,String> defaultValues = new HashMap<Term,String>();
+
+        /**
+         * Function that splits a row of the data file into its values
+         * @param line row of the data file
+         * @return values of the row
+         */
+        protected List<String> split(String line){
+            List<String> values = new ArrayList<String>();
+            if (this.fieldsEnclosedBy==null){
+                values.addAll(Arrays.asList(StringUtils.splitByWholeSeparatorPreserveAllTokens(line, this.fieldsTerminatedBy)));
+            } else{
+                StringBuilder value = new StringBuilder();
+                boolean enclosed = false;
+                for (int i = 0; i < line.length(); i++) {
+                    char c = line.charAt(i);
+                    if (c==this.fieldsEnclosedBy){
+                        if (enclosed && i+1<line.length() && line.charAt(i+1)==this.fieldsEnclosedBy){
+                            value.append(c);
+                            i++;
+                        } else{
+                            enclosed = !enclosed;
+                        }
+                    } else if (!enclosed && line.startsWith(this.fieldsTerminatedBy, i)){
+                        values.add(value.toString());
+                        value.setLength(0);
+                        i += this.fieldsTerminatedBy.length() - 1;
+                    } else{
+                        value.append(c);
+                    }
+                }
+                values.add(value.toString());
+            }
+            return values;
+        }
+
+        /**
+         * Function that gets the id of a row of the data file
+         * @param values values of the row
+         * @return id of the row or null if the data file doesn't have id
+         */
+        protected String getId(List<String> values){
+            return this.idIndex>=0 && this.idIndex<values.size() ? StringUtils.trimToNull(values.get(this.idIndex)) : null;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package eu.dissco.digitisers.readers;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import eu.dissco.digitisers.processors.DigitalObjectVisitor;
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.GbifTerm;
+import org.gbif.dwc.terms.Term;
+
+import java.util.Map;
+
+/**
+ * Reader of the occurrences returned by the GBIF occurrence search, that parses them into digital specimens in the same
+ * way as the records of the dwca files downloaded from GBIF
+ */
+public class GbifOccurrenceReader extends DwcaReader {
+
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final static Map<String,Term> termsBySimpleName = getTermsBySimpleName(); //Darwin core terms of the fields of the occurrences
+
+
+    /******************/
+    /* PUBLIC METHODS */
+    /******************/
+
+    /***
+     * Function that parses the occurrences returned by the GBIF occurrence search using the design pattern "visitor"
+     * Note: If there is any occurrence that can not be parsed into a digital specimen, the system will report it in the
+     * log file but the function will continue to process the following occurrences.
+     * @param occurrences occurrences returned by the GBIF occurrence search
+     * @param digitalObjectVisitor visitor used to process the digital specimens
+     * @return number of occurrences parsed into digital specimens
+     */
+    public int readDigitalSpecimensFromOccurrences(JsonArray occurrences, DigitalObjectVisitor digitalObjectVisitor){
+        int numDigitalSpecimens = 0;
+        for (JsonElement occurrence : occurrences) {
+            String gbifId = occurrence.getAsJsonObject().has("key") ? occurrence.getAsJsonObject().get("key").getAsString() : null;
+            this.getLogger().info("Parsing GBIF occurrence " + gbifId + " ...");
+            try{
+                JsonObject darwinCoreRecordJsonObj = this.getDarwinCoreRecordAsJsonObject(occurrence.getAsJsonObject());
+                if (this.readDigitalSpecimenFromDarwinCoreRecord(darwinCoreRecordJsonObj,gbifId,digitalObjectVisitor)){
+                    numDigitalSpecimens++;
+                }
+            } catch (Exception e){
+                this.getLogger().error("Unexpected error parsing GBIF occurrence " + gbifId,e);
+            }
+        }
+        return numDigitalSpecimens;
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that serialize the occurrence into a Json Object with the same structure as the darwin core records of the
+     * dwca files (core with the darwin core terms and the media of the occurrence as multimedia extension)
+     * @param occurrence occurrence returned by the GBIF occurrence search
+     * @return Json object resulting of the serialization of the occurrence
+     */
+    private JsonObject getDarwinCoreRecordAsJsonObject(JsonObject occurrence){
+        JsonObject recContentJsonObj = new JsonObject();
+
+        //Load information from the fields of the occurrence that are darwin core terms
+        JsonObject coreJsonObj = new JsonObject();
+        coreJsonObj.addProperty("type",DwcTerm.Occurrence.prefixedName());
+        JsonObject coreContentJsonObj = this.getTermsAsJsonObject(occurrence);
+        if (!coreContentJsonObj.has(GbifTerm.gbifID.prefixedName()) && occurrence.has("key")){
+            this.addPropertyToJsonObject(coreContentJsonObj,GbifTerm.gbifID.prefixedName(),occurrence.get("key").getAsString());
+        }
+        coreJsonObj.add("content",coreContentJsonObj);
+        recContentJsonObj.add("core",coreJsonObj);
+
+        //Load information from media
+        if (occurrence.has("media") && occurrence.get("media").isJsonArray()){
+            JsonArray extensionContentJsonArr = new JsonArray();
+            for (JsonElement media : occurrence.getAsJsonArray("media")) {
+                JsonObject extensionContentJsonObj = this.getTermsAsJsonObject(media.getAsJsonObject());
+                if (extensionContentJsonObj.size()>0){
+                    extensionContentJsonArr.add(extensionContentJsonObj);
+                }
+            }
+            if (extensionContentJsonArr.size()>0){
+                JsonObject extensionJsonObj = new JsonObject();
+                extensionJsonObj.addProperty("type",GbifTerm.Multimedia.prefixedName());
+                extensionJsonObj.add("content",extensionContentJsonArr);
+                JsonArray extensionsJsonArray = new JsonArray();
+                extensionsJsonArray.add(extensionJsonObj);
+                recContentJsonObj.add("extensions",extensionsJsonArray);
+            }
+        }
+
+        return recContentJsonObj;
+    }
+
+    /**
+     * Function that gets the fields with a single value of a json object that are darwin core terms, using the prefixed
+     * name of the terms as property names
+     * @param jsonObject json object from which to obtain its fields
+     * @return json object with the values of the terms
+     */
+    private JsonObject getTermsAsJsonObject(JsonObject jsonObject){
+        JsonObject termsJsonObj = new JsonObject();
+        for (Map.Entry<String,JsonElement> field : jsonObject.entrySet()) {
+            Term term = termsBySimpleName.get(field.getKey());
+            if (term!=null && field.getValue().isJsonPrimitive()){
+                this.addPropertyToJsonObject(termsJsonObj,term.prefixedName(),field.getValue().getAsString());
+            }
+        }
+        return termsJsonObj;
+    }
+}
@@ -75,83 +75,118 @@ public class DigitalSpecimenUtils {
      * @return Digital specimen's institution's region when found, or null if not found
      */
     public static String getDsInstitutionRegion(DigitalObject ds, GbifClient gbifClient){
+        String institutionRegion = null;
+        try{
+            institutionRegion = DigitalSpecimenUtils.resolveDsInstitutionRegion(ds,gbifClient);
+        } catch (Exception e){
+            logger.error("Unexpected error trying to obtain institution's region for ds "  + e.getMessage(),ds);
+        }
+        return institutionRegion;
+    }
+
+    /**
+     * Function that tries to obtain the digital specimen's institution's region in the same way than
+     * getDsInstitutionRegion, but throwing the errors found, so callers can tell an institution whose region can't be
+     * obtained from a lookup that failed
+     * @param ds Digital specimen obtain its instituion's region
+     * @param gbifClient Gbif client obtain data from GRSciColl
+     * @return Digital specimen's institution's region when found, or null if not found
+     * @throws Exception if there was an error obtaining the region (eg. GRSciColl couldn't be reached)
+     */
+    public static String resolveDsInstitutionRegion(DigitalObject ds, GbifClient gbifClient) throws Exception {
         String institutionRegion = null;
         String institutionId = DigitalSpecimenUtils.getTermFromDsDwcaJson(ds, DwcTerm.institutionID);
         String institutionCode = DigitalSpecimenUtils.getStringPropertyFromDS(ds,"institutionCode");
         String collectionCode = DigitalSpecimenUtils.getStringPropertyFromDS(ds,"collectionCode");
         String collectionId =  DigitalSpecimenUtils.getTermFromDsDwcaJson(ds, DwcTerm.collectionID);
         String identifier =  DigitalSpecimenUtils.getTermFromDsDwcaJson(ds, DcTerm.identifier);
-        try{
-            JsonObject institutionInfo = null;
-            if (StringUtils.isNotBlank(institutionId) && DigitalSpecimenUtils.isStringAValidUuid(institutionId)){
-                institutionInfo = gbifClient.getInstitutionInfoByInstitutionId(institutionId);
-            } else if (StringUtils.isNotBlank(institutionCode)){
-                JsonArray posibleInstitutions = gbifClient.getInstitutionsInfoByInstitutionCode(institutionCode);
-                if (posibleInstitutions.size()==1){
-                    institutionInfo = posibleInstitutions.get(0).getAsJsonObject();
-                } else if (posibleInstitutions.size()>1){
-                    //There are several institution with that institution code
-                    //Check if all of them are from the same region
-                    String possibleRegion = "UNKNOWN";
-                    if (posibleInstitutions.get(0).getAsJsonObject().has("country")){
-                        possibleRegion = posibleInstitutions.get(0).getAsJsonObject().getAsJsonObject("country").get("region").getAsString();
+        JsonObject institutionInfo = null;
+        if (StringUtils.isNotBlank(institutionId) && DigitalSpecimenUtils.isStringAValidUuid(institutionId)){
+            institutionInfo = gbifClient.getInstitutionInfoByInstitutionId(institutionId);
+        } else if (StringUtils.isNotBlank(institutionCode)){
+            JsonArray posibleInstitutions = gbifClient.getInstitutionsInfoByInstitutionCode(institutionCode);
+            if (posibleInstitutions==null){
+                //The institutions couldn't be obtained from GRSciColl
+                posibleInstitutions = new JsonArray();
+            }
+            if (posibleInstitutions.size()==1){
+                institutionInfo = posibleInstitutions.get(0).getAsJsonObject();
+            } else if (posibleInstitutions.size()>1){
+                //There are several institution with that institution code
+                //Check if all of them are from the same region
+                String possibleRegion = "UNKNOWN";
+                if (posibleInstitutions.get(0).getAsJsonObject().has("country")){
+                    possibleRegion = posibleInstitutions.get(0).getAsJsonObject().getAsJsonObject("country").get("region").getAsString();
+                }
+                boolean sameRegion=true;
+                for (JsonElement posibleInstitution:posibleInstitutions) {
+                    if (!posibleInstitution.getAsJsonObject().has("country") || !possibleRegion.equalsIgnoreCase(posibleInstitution.getAsJsonObject().getAsJsonObject("country").get("region").getAsString())){
+                        sameRegion=false;
+                        break;
                     }
-                    boolean sameRegion=true;
-                    for (JsonElement posibleInstitution:posibleInstitutions) {
-                        if (!posibleInstitution.getAsJsonObject().has("country") || !possibleRegion.equalsIgnoreCase(posibleInstitution.getAsJsonObject().getAsJsonObject("country").get("region").getAsString())){
-                            sameRegion=false;
-                            break;
+                }
+                if (sameRegion){
+                    institutionInfo=posibleInstitutions.get(0).getAsJsonObject();
+                } else if (StringUtils.isNotBlank(collectionCode)){
+                    //Try to see if we can find what institution this digital specimen belongs to by looking at the collection code
+                    for (Iterator<JsonElement> iter = posibleInstitutions.iterator(); iter.hasNext(); ) {
+                        JsonObject posibleInstitution = (JsonObject) iter.next();
+                        JsonObject collectionInfo = gbifClient.getCollectionInfoByInstitutionIdAndCollectionCode(posibleInstitution.get("key").getAsString(),collectionCode);
+                        if (collectionInfo==null){
+                            iter.remove();
                         }
                     }
-                    if (sameRegion){
+                    if (posibleInstitutions.size()==1){
                         institutionInfo=posibleInstitutions.get(0).getAsJsonObject();
-                    } else if (StringUtils.isNotBlank(collectionCode)){
-                        //Try to see if we can find what institution this digital specimen belongs to by looking at the collection code
-                        for (Iterator<JsonElement> iter = posibleInstitutions.iterator(); iter.hasNext(); ) {
-                            JsonObject posibleInstitution = (JsonObject) iter.next();
-                            JsonObject collectionInfo = gbifClient.getCollectionInfoByInstitutionIdAndCollectionCode(posibleInstitution.get("key").getAsString(),collectionCode);
-                            if (collectionInfo==null){
-                                iter.remove();
-                            }
-                        }
-                        if (posibleInstitutions.size()==1){
-                            institutionInfo=posibleInstitutions.get(0).getAsJsonObject();
-                        }
                     }
                 }
             }
+        }
 
-            if (institutionInfo!=null && institutionInfo.has("country")){
-                institutionRegion = institutionInfo.getAsJsonObject("country").get("region").getAsString();
-            } else{
-                //As last attempt, try to get the country from the record institutionId, collectionsId or identifier if they are valid url
-                UrlValidator urlValidator = new UrlValidator();
-                CountryResponse countryResponse = null;
-                if (StringUtils.isNotBlank(institutionId) && urlValidator.isValid(institutionId)){
-                    logger.debug("Obtaining institution code from ");
-                    countryResponse = NetUtils.getCountryInfoFromUrl(institutionId);
-                } else if (StringUtils.isNotBlank(collectionId) && urlValidator.isValid(collectionId)){
-                    countryResponse = NetUtils.getCountryInfoFromUrl(collectionId);
-                } else if (StringUtils.isNotBlank(identifier) && urlValidator.isValid(identifier)){
-                    countryResponse = NetUtils.getCountryInfoFromUrl(identifier);
-                }
-                if (countryResponse!=null){
-                    institutionRegion = countryResponse.getContinent().getName();
-                }
+        if (institutionInfo!=null && institutionInfo.has("country")){
+            institutionRegion = institutionInfo.getAsJsonObject("country").get("region").getAsString();
+        } else{
+            //As last attempt, try to get the country from the record institutionId, collectionsId or identifier if they are valid url
+            CountryResponse countryResponse = null;
+            String fallbackUrl = DigitalSpecimenUtils.getInstitutionFallbackUrl(institutionId,collectionId,identifier);
+            if (fallbackUrl!=null){
+                countryResponse = NetUtils.getCountryInfoFromUrl(fallbackUrl);
             }
-
-            if (StringUtils.isBlank(institutionRegion)){
-                String physicalSpecimenId=DigitalSpecimenUtils.getStringPropertyFromDS(ds,"physicalSpecimenId");
-                String scientificName=DigitalSpecimenUtils.getStringPropertyFromDS(ds,"scientificName");
-                logger.warn("It was not possible to obtain institution's regions for ds [" + scientificName
-                        + " || " + institutionCode + " || "+ physicalSpecimenId + "]");
+            if (countryResponse!=null){
+                institutionRegion = countryResponse.getContinent().getName();
             }
-        } catch (Exception e){
-            logger.error("Unexpected error trying to obtain institution's region for ds "  + e.getMessage(),ds);
+        }
+
+        if (StringUtils.isBlank(institutionRegion)){
+            String physicalSpecimenId=DigitalSpecimenUtils.getStringPropertyFromDS(ds,"physicalSpecimenId");
+            String scientificName=DigitalSpecimenUtils.getStringPropertyFromDS(ds,"scientificName");
+            logger.warn("It was not possible to obtain institution's regions for ds [" + scientificName
+                    + " || " + institutionCode + " || "+ physicalSpecimenId + "]");
         }
         return institutionRegion;
     }
 
+    /**
+     * Function that gets the url used as last attempt to obtain the digital specimen's institution's region, which is
+     * the first valid url of the institutionId, collectionId and identifier (in that order)
+     * @param institutionId institutionID of the digital specimen
+     * @param collectionId collectionID of the digital specimen
+     * @param identifier identifier of the digital specimen
+     * @return first of the parameters that is a valid url, or null if none of them is a valid url
+     */
+    public static String getInstitutionFallbackUrl(String institutionId, String collectionId, String identifier){
+        String fallbackUrl = null;
+        UrlValidator urlValidator = new UrlValidator();
+        if (StringUtils.isNotBlank(institutionId) && urlValidator.isValid(institutionId)){
+            fallbackUrl = institutionId;
+        } else if (StringUtils.isNotBlank(collectionId) && urlValidator.isValid(collectionId)){
+            fallbackUrl = collectionId;
+        } else if (StringUtils.isNotBlank(identifier) && urlValidator.isValid(identifier)){
+            fallbackUrl = identifier;
+        }
+        return fallbackUrl;
+    }
+
     /**
      * Method that adds a property to the content of the Digital specimen
      * @param ds Digital specimen on which we want to add the property in its content
@@ -194,6 +229,23 @@ public class DigitalSpecimenUtils {
         return value;
     }
 
+    /**
+     * Function that gets the identity key of a digital specimen, made of the properties used to find it in the
+     * repository (scientificName, institutionCode and physicalSpecimenId)
+     * @param ds Digital specimen
+     * @return identity key of the digital specimen (scientificName|institutionCode|physicalSpecimenId) or null if
+     * any of them is missing
+     */
+    public static String getDsIdentityKey(DigitalObject ds){
+        String scientificName = DigitalSpecimenUtils.getStringPropertyFromDS(ds,"scientificName");
+        String institutionCode = DigitalSpecimenUtils.getStringPropertyFromDS(ds,"institutionCode");
+        String physicalSpecimenId = DigitalSpecimenUtils.getStringPropertyFromDS(ds,"physicalSpecimenId");
+        if (StringUtils.isAnyBlank(scientificName,institutionCode,physicalSpecimenId)){
+            return null;
+        }
+        return scientificName + "|" + institutionCode + "|" + physicalSpecimenId;
+    }
+
     /**
      * Function that check if a string is a valid UUID
      * @param value String to check if it is a valid UUID
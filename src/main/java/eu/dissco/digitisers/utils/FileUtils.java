@@ -17,11 +17,13 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -116,6 +118,63 @@ public class FileUtils {
     }
 
 
+    /**
+     * Function that sorts the lines of a text file (in the natural order of strings) using an external merge sort, so
+     * files bigger than the memory available can be sorted: the file is split in chunks of sorted lines saved in
+     * temporary files, which are then merged into the output file
+     * @param inputFile text file to be sorted
+     * @param outputFile file where the sorted lines are written
+     * @param maxLinesInMemory maximum number of lines held in memory at the same time
+     * @throws IOException
+     */
+    public static void sortLines(File inputFile, File outputFile, int maxLinesInMemory) throws IOException {
+        List<File> chunkFiles = new ArrayList<File>();
+        try {
+            //Split the file in sorted chunks
+            try (BufferedReader reader = java.nio.file.Files.newBufferedReader(inputFile.toPath(), StandardCharsets.UTF_8)){
+                List<String> lines = new ArrayList<String>();
+                String line;
+                while ((line = reader.readLine()) != null){
+                    lines.add(line);
+                    if (lines.size()>=maxLinesInMemory){
+                        chunkFiles.add(writeSortedChunk(lines, outputFile.getAbsoluteFile().getParentFile()));
+                        lines.clear();
+                    }
+                }
+                if (!lines.isEmpty() || chunkFiles.isEmpty()){
+                    chunkFiles.add(writeSortedChunk(lines, outputFile.getAbsoluteFile().getParentFile()));
+                }
+            }
+
+            //Merge the sorted chunks, taking each time the smallest of the next lines of the chunks
+            List<BufferedReader> readers = new ArrayList<BufferedReader>();
+            try (BufferedWriter writer = java.nio.file.Files.newBufferedWriter(outputFile.toPath(), StandardCharsets.UTF_8)){
+                PriorityQueue<Map.Entry<String,BufferedReader>> nextLines = new PriorityQueue<Map.Entry<String,BufferedReader>>(Map.Entry.comparingByKey());
+                for (File chunkFile : chunkFiles) {
+                    BufferedReader reader = java.nio.file.Files.newBufferedReader(chunkFile.toPath(), StandardCharsets.UTF_8);
+                    readers.add(reader);
+                    String line = reader.readLine();
+                    if (line!=null) nextLines.add(new AbstractMap.SimpleEntry<String,BufferedReader>(line, reader));
+                }
+                while (!nextLines.isEmpty()){
+                    Map.Entry<String,BufferedReader> nextLine = nextLines.poll();
+                    writer.write(nextLine.getKey());
+                    writer.newLine();
+                    String line = nextLine.getValue().readLine();
+                    if (line!=null) nextLines.add(new AbstractMap.SimpleEntry<String,BufferedReader>(line, nextLine.getValue()));
+                }
+            } finally {
+                for (BufferedReader reader : readers) {
+                    reader.close();
+                }
+            }
+        } finally {
+            for (File chunkFile : chunkFiles) {
+                chunkFile.delete();
+            }
+        }
+    }
+
     /**
      * Zip a file
      * @param fileToZip
@@ -135,4 +194,23 @@ public class FileUtils {
             }
         }
     }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that sorts the lines passed as parameter and writes them in a temporary file
+     * @param lines lines to be sorted
+     * @param directory directory where the temporary file is created
+     * @return temporary file with the sorted lines
+     * @throws IOException
+     */
+    private static File writeSortedChunk(List<String> lines, File directory) throws IOException {
+        Collections.sort(lines);
+        File chunkFile = File.createTempFile("sort-", ".chunk", directory);
+        java.nio.file.Files.write(chunkFile.toPath(), lines, StandardCharsets.UTF_8);
+        return chunkFile;
+    }
 }
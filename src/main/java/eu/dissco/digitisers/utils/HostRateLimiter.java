@@ -0,0 +1,325 @@
+package eu.dissco.digitisers.utils;
+
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.utils.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limiter shared by all the http clients of the application, keyed by host.
+ * Every host has its own token bucket, which rate is adjusted following an AIMD strategy (additive increase on
+ * successful responses, multiplicative decrease when the server answers 429 or 503), honouring the Retry-After header
+ * sent by the server. This way we keep the throughput at the maximum each external service tolerates.
+ */
+public class HostRateLimiter {
+
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private static HostRateLimiter instance=null;
+    private Map<String, TokenBucket> mapTokenBucketByHost;
+    private double initialRequestsPerSecond = 10;
+    private double minRequestsPerSecond = 0.5;
+    private double maxRequestsPerSecond = 50;
+    private double additiveIncrease = 0.1;
+    private double multiplicativeDecrease = 0.5;
+    private long defaultBackoffMillis = 1000;
+    private long maxBackoffMillis = 300000;
+    private int maxRetries = 5;
+
+
+    /***********************/
+    /* GETTERS AND SETTERS */
+    /***********************/
+
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    protected Map<String, TokenBucket> getMapTokenBucketByHost() {
+        return mapTokenBucketByHost;
+    }
+
+    public double getInitialRequestsPerSecond() {
+        return initialRequestsPerSecond;
+    }
+
+    public void setInitialRequestsPerSecond(double initialRequestsPerSecond) {
+        this.initialRequestsPerSecond = initialRequestsPerSecond;
+    }
+
+    public double getMinRequestsPerSecond() {
+        return minRequestsPerSecond;
+    }
+
+    public void setMinRequestsPerSecond(double minRequestsPerSecond) {
+        this.minRequestsPerSecond = minRequestsPerSecond;
+    }
+
+    public double getMaxRequestsPerSecond() {
+        return maxRequestsPerSecond;
+    }
+
+    public void setMaxRequestsPerSecond(double maxRequestsPerSecond) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+    }
+
+    public double getAdditiveIncrease() {
+        return additiveIncrease;
+    }
+
+    public void setAdditiveIncrease(double additiveIncrease) {
+        this.additiveIncrease = additiveIncrease;
+    }
+
+    public double getMultiplicativeDecrease() {
+        return multiplicativeDecrease;
+    }
+
+    public void setMultiplicativeDecrease(double multiplicativeDecrease) {
+        this.multiplicativeDecrease = multiplicativeDecrease;
+    }
+
+    public long getDefaultBackoffMillis() {
+        return defaultBackoffMillis;
+    }
+
+    public void setDefaultBackoffMillis(long defaultBackoffMillis) {
+        this.defaultBackoffMillis = defaultBackoffMillis;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+
+    /****************/
+    /* CONSTRUCTORS */
+    /****************/
+
+    /**
+     * Private constructor to avoid client applications to use constructor as we use the singleton design pattern
+     */
+    private HostRateLimiter(){
+        this.mapTokenBucketByHost = new ConcurrentHashMap<String,TokenBucket>();
+    }
+
+
+    /******************/
+    /* PUBLIC METHODS */
+    /******************/
+
+    /**
+     * Method to get an instance of HostRateLimiter as we use the singleton design pattern
+     * @return
+     */
+    public static synchronized HostRateLimiter getInstance(){
+        if (instance==null){
+            instance = new HostRateLimiter();
+        }
+        return instance;
+    }
+
+    /**
+     * Function that overrides the default values of the rate limiter with the ones defined in the configuration file
+     * (if they are defined)
+     * @param config configuration of the digitiser
+     */
+    public void configure(Configuration config){
+        this.setInitialRequestsPerSecond(config.getDouble("http.initialRequestsPerSecond",this.getInitialRequestsPerSecond()));
+        this.setMinRequestsPerSecond(config.getDouble("http.minRequestsPerSecond",this.getMinRequestsPerSecond()));
+        this.setMaxRequestsPerSecond(config.getDouble("http.maxRequestsPerSecond",this.getMaxRequestsPerSecond()));
+        this.setMaxRetries(config.getInt("http.maxRetries",this.getMaxRetries()));
+    }
+
+    /**
+     * Function that blocks the calling thread until the host passed as parameter can receive a new request
+     * @param host name of the host the request is going to be sent to
+     * @throws InterruptedException
+     */
+    public void acquire(String host) throws InterruptedException {
+        if (StringUtils.isBlank(host)) return;
+        long waitNanos = this.getTokenBucket(host).reserve(System.nanoTime());
+        if (waitNanos>0){
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Function that feeds the rate limiter with the response obtained from the host, so it can adjust the rate of
+     * requests that can be sent to it
+     * @param host name of the host that sent the response
+     * @param statusCode http status code of the response
+     * @param retryAfter value of the Retry-After header of the response (if any)
+     */
+    public void onResponse(String host, int statusCode, String retryAfter){
+        if (StringUtils.isBlank(host)) return;
+        TokenBucket tokenBucket = this.getTokenBucket(host);
+        if (this.isThrottlingStatusCode(statusCode)){
+            long backoffMillis = this.getBackoffMillis(retryAfter);
+            double newRate = tokenBucket.throttle(System.nanoTime(), backoffMillis, this.getMultiplicativeDecrease(), this.getMinRequestsPerSecond());
+            this.getLogger().warn("Host " + host + " answered " + statusCode + ". Backing off " + backoffMillis + " ms and reducing rate to " + String.format("%.2f",newRate) + " requests per second");
+        } else {
+            tokenBucket.increase(this.getAdditiveIncrease(), this.getMaxRequestsPerSecond());
+        }
+    }
+
+    /**
+     * Function that checks if the status code is one used by servers to tell clients to slow down
+     * @param statusCode http status code
+     * @return true if the status code is 429 (too many requests) or 503 (service unavailable)
+     */
+    public boolean isThrottlingStatusCode(int statusCode){
+        return statusCode==429 || statusCode==503;
+    }
+
+    /**
+     * Function that checks if the exception passed as parameter was caused by the server throttling our requests, so
+     * the clients can avoid caching it as a negative result
+     * @param e exception thrown while doing the request
+     * @return true if the exception was caused by a 429 or 503 http status code
+     */
+    public static boolean isThrottlingError(Exception e){
+        return e instanceof HttpResponseException && HostRateLimiter.getInstance().isThrottlingStatusCode(((HttpResponseException) e).getStatusCode());
+    }
+
+    /**
+     * Function that gets the current rate (requests per second) allowed for the host passed as parameter
+     * @param host name of the host
+     * @return current rate allowed for the host
+     */
+    public double getRequestsPerSecond(String host){
+        return this.getTokenBucket(host).getRate();
+    }
+
+    /**
+     * Function that gets the host of the url passed as parameter
+     * @param sUrl url from which to obtain the host
+     * @return host of the url or null if the url is not valid
+     */
+    public static String getHostFromUrl(String sUrl){
+        try {
+            return new URI(sUrl).getHost();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that gets (or creates) the token bucket for the host passed as parameter
+     * @param host name of the host
+     * @return token bucket used for the host
+     */
+    private TokenBucket getTokenBucket(String host){
+        return this.getMapTokenBucketByHost().computeIfAbsent(host.toLowerCase(), h -> new TokenBucket(this.getInitialRequestsPerSecond()));
+    }
+
+    /**
+     * Function that calculates how long we need to wait before sending a new request to a host, according to the
+     * value of the Retry-After header (either in seconds or as http date)
+     * @param retryAfter value of the Retry-After header
+     * @return number of milliseconds to wait
+     */
+    private long getBackoffMillis(String retryAfter){
+        long backoffMillis = this.getDefaultBackoffMillis();
+        if (StringUtils.isNotBlank(retryAfter)){
+            if (StringUtils.isNumeric(retryAfter.trim())){
+                backoffMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+            } else {
+                Date retryDate = DateUtils.parseDate(retryAfter.trim());
+                if (retryDate!=null) backoffMillis = Math.max(0, retryDate.getTime() - System.currentTimeMillis());
+            }
+        }
+        return Math.min(backoffMillis, maxBackoffMillis);
+    }
+
+
+    /*****************/
+    /* INNER CLASSES */
+    /*****************/
+
+    /**
+     * Token bucket with an adjustable rate. Tokens are reserved in advance, so the calling thread knows how long it
+     * needs to wait without holding the lock of the bucket while waiting
+     */
+    protected static class TokenBucket {
+
+        private double rate;
+        private double tokens;
+        private long lastRefillNanos;
+        private long blockedUntilNanos;
+        private long lastDecreaseNanos;
+
+        protected TokenBucket(double rate){
+            this.rate = rate;
+            this.tokens = 1;
+            this.lastRefillNanos = System.nanoTime();
+            this.blockedUntilNanos = this.lastRefillNanos;
+            this.lastDecreaseNanos = this.lastRefillNanos - TimeUnit.SECONDS.toNanos(1);
+        }
+
+        protected synchronized double getRate() {
+            return rate;
+        }
+
+        /**
+         * Reserve a token, returning the number of nanoseconds the caller needs to wait before using it
+         * @param nowNanos current time in nanoseconds
+         * @return nanoseconds to wait
+         */
+        protected synchronized long reserve(long nowNanos){
+            this.refill(nowNanos);
+            this.tokens -= 1;
+            long waitNanos = Math.max(0, this.blockedUntilNanos - nowNanos);
+            if (this.tokens<0){
+                waitNanos = Math.max(waitNanos, (long) (-this.tokens / this.rate * TimeUnit.SECONDS.toNanos(1)));
+            }
+            return waitNanos;
+        }
+
+        protected synchronized void increase(double additiveIncrease, double maxRate){
+            this.rate = Math.min(maxRate, this.rate + additiveIncrease);
+        }
+
+        /**
+         * Reduce the rate of the bucket and block it during the backoff period. Several throttled responses received at
+         * the same time (from requests sent concurrently) only reduce the rate once
+         */
+        protected synchronized double throttle(long nowNanos, long backoffMillis, double multiplicativeDecrease, double minRate){
+            this.refill(nowNanos);
+            if (nowNanos - this.lastDecreaseNanos >= TimeUnit.SECONDS.toNanos(1)){
+                this.rate = Math.max(minRate, this.rate * multiplicativeDecrease);
+                this.lastDecreaseNanos = nowNanos;
+            }
+            this.tokens = Math.min(this.tokens, 0);
+            this.blockedUntilNanos = Math.max(this.blockedUntilNanos, nowNanos + TimeUnit.MILLISECONDS.toNanos(backoffMillis));
+            return this.rate;
+        }
+
+        private void refill(long nowNanos){
+            double capacity = Math.max(1, this.rate);
+            double elapsedSeconds = (nowNanos - this.lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+            this.tokens = Math.min(capacity, this.tokens + elapsedSeconds * this.rate);
+            this.lastRefillNanos = nowNanos;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package eu.dissco.digitisers.utils;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import org.apache.commons.configuration2.Configuration;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.config.CookieSpecs;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Http transport shared by all the http clients of the application (NetUtils, Jena SPARQL queries and EBI OkHttp
+ * client), so connections are pooled and kept alive between requests instead of doing a new TLS handshake for every
+ * request. It also keeps per host metrics of the requests sent through it
+ */
+public class HttpTransport {
+
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private static HttpTransport instance=null;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+    private ConnectionPool okHttpConnectionPool;
+    private Map<String, HostMetrics> mapMetricsByHost;
+    private int maxConnections = 200;
+    private int maxConnectionsPerHost = 20;
+    private int connectTimeoutMillis = 10000;
+    private int socketTimeoutMillis = 60000;
+    private long keepAliveMillis = 30000;
+    private int downloadConnections = 4;
+    private int downloadChunkSizeMB = 16;
+
+
+    /***********************/
+    /* GETTERS AND SETTERS */
+    /***********************/
+
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    protected PoolingHttpClientConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    protected Map<String, HostMetrics> getMapMetricsByHost() {
+        return mapMetricsByHost;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public int getSocketTimeoutMillis() {
+        return socketTimeoutMillis;
+    }
+
+    public long getKeepAliveMillis() {
+        return keepAliveMillis;
+    }
+
+    public int getDownloadConnections() {
+        return downloadConnections;
+    }
+
+    public int getDownloadChunkSizeMB() {
+        return downloadChunkSizeMB;
+    }
+
+
+    /****************/
+    /* CONSTRUCTORS */
+    /****************/
+
+    /**
+     * Private constructor to avoid client applications to use constructor as we use the singleton design pattern
+     */
+    private HttpTransport(){
+        this.mapMetricsByHost = new ConcurrentHashMap<String,HostMetrics>();
+    }
+
+
+    /******************/
+    /* PUBLIC METHODS */
+    /******************/
+
+    /**
+     * Method to get an instance of HttpTransport as we use the singleton design pattern
+     * @return
+     */
+    public static synchronized HttpTransport getInstance(){
+        if (instance==null){
+            instance = new HttpTransport();
+        }
+        return instance;
+    }
+
+    /**
+     * Function that overrides the default values of the transport with the ones defined in the configuration file.
+     * Note: It needs to be called before the first request is sent, as the pools are created on first use
+     * @param config configuration of the digitiser
+     */
+    public synchronized void configure(Configuration config){
+        if (this.httpClient!=null){
+            this.getLogger().warn("Http transport already in use, new configuration will be ignored");
+            return;
+        }
+        this.maxConnections = config.getInt("http.maxConnections",this.getMaxConnections());
+        this.maxConnectionsPerHost = config.getInt("http.maxConnectionsPerHost",this.getMaxConnectionsPerHost());
+        this.connectTimeoutMillis = config.getInt("http.connectTimeoutMillis",this.getConnectTimeoutMillis());
+        this.socketTimeoutMillis = config.getInt("http.socketTimeoutMillis",this.getSocketTimeoutMillis());
+        this.keepAliveMillis = config.getLong("http.keepAliveMillis",this.getKeepAliveMillis());
+        this.downloadConnections = config.getInt("http.downloadConnections",this.getDownloadConnections());
+        this.downloadChunkSizeMB = config.getInt("http.downloadChunkSizeMB",this.getDownloadChunkSizeMB());
+    }
+
+    /**
+     * Function to obtain the shared http client (trust any machine). The client must not be closed by the callers
+     * @return CloseableHttpClient backed by a pool of connections per host
+     * @throws Exception
+     */
+    public synchronized CloseableHttpClient getHttpClient() throws Exception {
+        if (this.httpClient==null){
+            this.connectionManager = this.buildConnectionManager();
+            this.httpClient = this.getHttpClientBuilder()
+                    .setConnectionManager(this.connectionManager)
+                    .evictExpiredConnections()
+                    .evictIdleConnections(this.getKeepAliveMillis(), TimeUnit.MILLISECONDS)
+                    .build();
+        }
+        return this.httpClient;
+    }
+
+    /**
+     * Function to obtain a http client builder using the shared pool of connections. The clients built with it can be
+     * closed without closing the shared pool
+     * @return HttpClientBuilder configured to use the shared pool of connections
+     * @throws Exception
+     */
+    public HttpClientBuilder getSharedHttpClientBuilder() throws Exception {
+        this.getHttpClient();
+        return this.getHttpClientBuilder()
+                .setConnectionManager(this.getConnectionManager())
+                .setConnectionManagerShared(true);
+    }
+
+    /**
+     * Function that returns a copy of the OkHttp client passed as parameter using the shared configuration of the
+     * transport (pool of connections, timeouts, rate limiting and metrics)
+     * @param okHttpClient OkHttp client to be configured
+     * @return OkHttp client using the shared configuration
+     */
+    public synchronized OkHttpClient configureOkHttpClient(OkHttpClient okHttpClient){
+        if (this.okHttpConnectionPool==null){
+            this.okHttpConnectionPool = new ConnectionPool(this.getMaxConnectionsPerHost(), this.getKeepAliveMillis(), TimeUnit.MILLISECONDS);
+        }
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(this.getMaxConnections());
+        dispatcher.setMaxRequestsPerHost(this.getMaxConnectionsPerHost());
+        //Note: OkHttp asks for gzip content and decompresses it transparently
+        return okHttpClient.newBuilder()
+                .connectionPool(this.okHttpConnectionPool)
+                .dispatcher(dispatcher)
+                .connectTimeout(this.getConnectTimeoutMillis(), TimeUnit.MILLISECONDS)
+                .readTimeout(this.getSocketTimeoutMillis(), TimeUnit.MILLISECONDS)
+                .writeTimeout(this.getSocketTimeoutMillis(), TimeUnit.MILLISECONDS)
+                .addInterceptor(new RateLimitInterceptor())
+                .addNetworkInterceptor(new OkHttpMetricsInterceptor())
+                .build();
+    }
+
+    /**
+     * Function that gets the metrics of the requests sent to every host through the transport
+     * @return map with the metrics of every host (sorted by host name)
+     */
+    public Map<String, String> getMetricsByHost(){
+        Map<String, String> metricsByHost = new TreeMap<String, String>();
+        for (Map.Entry<String, HostMetrics> entry : this.getMapMetricsByHost().entrySet()) {
+            metricsByHost.put(entry.getKey(), entry.getValue().toString());
+        }
+        if (this.getConnectionManager()!=null){
+            for (HttpRoute route : this.getConnectionManager().getRoutes()) {
+                PoolStats stats = this.getConnectionManager().getStats(route);
+                String host = route.getTargetHost().getHostName();
+                metricsByHost.put(host, metricsByHost.getOrDefault(host,"") + " connections[leased=" + stats.getLeased() +
+                        ", available=" + stats.getAvailable() + ", pending=" + stats.getPending() + "]");
+            }
+        }
+        return metricsByHost;
+    }
+
+    /**
+     * Function that writes in the log the metrics of the requests sent to every host through the transport
+     */
+    public void logMetrics(){
+        for (Map.Entry<String, String> entry : this.getMetricsByHost().entrySet()) {
+            this.getLogger().info("Http metrics for " + entry.getKey() + ": " + entry.getValue());
+        }
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that builds a pool of connections which trust any machine (unsafe SSL)
+     * @return pool of connections
+     * @throws Exception
+     */
+    private PoolingHttpClientConnectionManager buildConnectionManager() throws Exception {
+        // Create empty HostnameVerifier
+        HostnameVerifier allHostsValid = (hostname, session) -> true;
+
+        // Create a trust manager that does not validate certificate chains
+        TrustManager[] trustAllCerts = new TrustManager[]{
+                new X509TrustManager() {
+                    public java.security.cert.X509Certificate[] getAcceptedIssuers() {
+                        return null;
+                    }
+                    public void checkClientTrusted(
+                            java.security.cert.X509Certificate[] certs, String authType) {
+                    }
+                    public void checkServerTrusted(
+                            java.security.cert.X509Certificate[] certs, String authType) {
+                    }
+                }
+        };
+
+        // Install the all-trusting trust manager and empty HostnameVerifier
+        SSLContext sc = SSLContext.getInstance("SSL");
+        sc.init(null, trustAllCerts, new java.security.SecureRandom());
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(sc, allHostsValid))
+                .build();
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        connectionManager.setMaxTotal(this.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(this.getMaxConnectionsPerHost());
+        connectionManager.setValidateAfterInactivity(2000);
+        return connectionManager;
+    }
+
+    /**
+     * Function that gets a http client builder with the common configuration of the transport (timeouts, keep alive
+     * and metrics).
+     * Note: HttpClientBuilder asks for gzip/deflate content and decompresses it transparently
+     * @return HttpClientBuilder with the common configuration of the transport
+     */
+    private HttpClientBuilder getHttpClientBuilder(){
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setCookieSpec(CookieSpecs.STANDARD)
+                .setConnectTimeout(this.getConnectTimeoutMillis())
+                .setConnectionRequestTimeout(this.getSocketTimeoutMillis())
+                .setSocketTimeout(this.getSocketTimeoutMillis())
+                .build();
+        return HttpClientBuilder.create()
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .addInterceptorFirst(new RequestMetricsInterceptor())
+                .addInterceptorLast(new ResponseMetricsInterceptor());
+    }
+
+    /**
+     * Function that gets (or creates) the metrics of the host passed as parameter
+     * @param host name of the host
+     * @return metrics of the host
+     */
+    private HostMetrics getHostMetrics(String host){
+        return this.getMapMetricsByHost().computeIfAbsent(host, h -> new HostMetrics());
+    }
+
+
+    /*****************/
+    /* INNER CLASSES */
+    /*****************/
+
+    /**
+     * Counters of the requests sent to a host
+     */
+    protected static class HostMetrics {
+
+        private final LongAdder numRequests = new LongAdder();
+        private final LongAdder numErrorResponses = new LongAdder();
+        private final LongAdder totalResponseTimeMillis = new LongAdder();
+
+        protected void record(int statusCode, long responseTimeMillis){
+            this.numRequests.increment();
+            if (statusCode/100!=2) this.numErrorResponses.increment();
+            this.totalResponseTimeMillis.add(responseTimeMillis);
+        }
+
+        @Override
+        public String toString() {
+            long requests = this.numRequests.sum();
+            return "requests=" + requests +
+                    ", errorResponses=" + this.numErrorResponses.sum() +
+                    ", avgResponseTimeMillis=" + (requests>0 ? this.totalResponseTimeMillis.sum()/requests : 0);
+        }
+    }
+
+    /**
+     * Interceptor that notes down the time the request is sent
+     */
+    private class RequestMetricsInterceptor implements HttpRequestInterceptor {
+        @Override
+        public void process(HttpRequest request, HttpContext context) {
+            context.setAttribute("dissco.requestStartTime", System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Interceptor that records the metrics of the response received in the host it was sent to
+     */
+    private class ResponseMetricsInterceptor implements HttpResponseInterceptor {
+        @Override
+        public void process(HttpResponse response, HttpContext context) {
+            HttpHost targetHost = (HttpHost) context.getAttribute(HttpCoreContext.HTTP_TARGET_HOST);
+            Long startTime = (Long) context.getAttribute("dissco.requestStartTime");
+            if (targetHost!=null){
+                long responseTime = startTime!=null ? System.currentTimeMillis()-startTime : 0;
+                getHostMetrics(targetHost.getHostName()).record(response.getStatusLine().getStatusCode(), responseTime);
+            }
+        }
+    }
+
+    /**
+     * OkHttp interceptor that records the metrics of the response received in the host it was sent to
+     */
+    private class OkHttpMetricsInterceptor implements Interceptor {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            long startTime = System.currentTimeMillis();
+            Response response = chain.proceed(chain.request());
+            getHostMetrics(chain.request().url().host()).record(response.code(), System.currentTimeMillis()-startTime);
+            return response;
+        }
+    }
+}
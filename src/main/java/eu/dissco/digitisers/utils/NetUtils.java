@@ -1,30 +1,47 @@
 package eu.dissco.digitisers.utils;
 
-import com.google.common.io.Resources;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
-import com.maxmind.geoip2.DatabaseReader;
+import com.google.gson.JsonObject;
 import com.maxmind.geoip2.exception.GeoIp2Exception;
 import com.maxmind.geoip2.model.CountryResponse;
+import eu.dissco.digitisers.clients.misc.GeoIpClient;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
-import org.apache.http.client.config.CookieSpecs;
-import org.apache.http.client.config.RequestConfig;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.net.ssl.*;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 
 public class NetUtils {
 
@@ -33,6 +50,8 @@ public class NetUtils {
     /**************/
 
     private final static Logger logger = LoggerFactory.getLogger(NetUtils.class);
+    private final static int maxRangeRetries = 3; //Max number of times a byte range is retried when its download fails
+    private final static Map<String,Object> mapDownloadLockByFile = new ConcurrentHashMap<String,Object>(); //Locks to avoid downloading the same file at the same time
 
 
     /******************/
@@ -58,17 +77,12 @@ public class NetUtils {
      * @throws Exception
      */
     public static String doGetRequest(String sUrl, String auth) throws Exception{
-        String result=null;
-        try (CloseableHttpClient httpClient = NetUtils.buildUnsafeSslHttpClient()){
-            HttpGet request = new HttpGet(sUrl);
-            if (StringUtils.isNotBlank(auth)) request.setHeader(HttpHeaders.AUTHORIZATION, auth);
-            try (CloseableHttpResponse response = httpClient.execute(request)) {
-                if (response.getStatusLine().getStatusCode()/ 100 != 2) throw new RuntimeException("Failed : HTTP error code : "+ response.getStatusLine().getStatusCode());
-                HttpEntity entity = response.getEntity();
-                if (entity != null) result = EntityUtils.toString(entity);
-            }
-        }
-        return result;
+        HttpGet request = new HttpGet(sUrl);
+        if (StringUtils.isNotBlank(auth)) request.setHeader(HttpHeaders.AUTHORIZATION, auth);
+        return NetUtils.executeRateLimitedRequest(request, response -> {
+            HttpEntity entity = response.getEntity();
+            return entity != null ? EntityUtils.toString(entity) : null;
+        });
     }
 
     /**
@@ -90,22 +104,49 @@ public class NetUtils {
      * @throws Exception
      */
     public static File downloadFile(String sFileURL, String auth) throws Exception {
+        return downloadFile(sFileURL,auth,null);
+    }
+
+    /**
+     * Function that download the file indicated as parameter, passing its content to the stream consumer as it arrives,
+     * so the file can be processed while it is being downloaded. The content is also spooled into the file returned
+     * (including the content that the consumer doesn't read, eg. the central directory of a zip file).
+     * Note: When there isn't stream consumer and the server supports byte ranges, files bigger than a chunk are
+     * downloaded in ranges fetched in parallel and the download can be resumed (see downloadFileInRanges)
+     * @param sFileURL string of the url of the file to be downloaded
+     * @param auth authentication info to be used in the request
+     * @param streamConsumer consumer of the content of the file as it arrives (null to only download the file)
+     * @return File downloaded
+     * @throws Exception
+     */
+    public static File downloadFile(String sFileURL, String auth, Consumer<InputStream> streamConsumer) throws Exception {
         logger.debug("Downloading file " + sFileURL);
+        if (streamConsumer==null){
+            File rangedFile = downloadFileInRanges(sFileURL, auth);
+            if (rangedFile!=null){
+                logger.debug("File downloaded correctly " + sFileURL);
+                return rangedFile;
+            }
+        }
         URL url = new URL(sFileURL);
         File tempFile = File.createTempFile(FilenameUtils.getBaseName(url.getPath()), FilenameUtils.getExtension(url.getPath()));
 
-        try (CloseableHttpClient httpClient = NetUtils.buildUnsafeSslHttpClient()){
-            HttpGet request = new HttpGet(sFileURL);
-            if (StringUtils.isNotBlank(auth)) request.setHeader(HttpHeaders.AUTHORIZATION, auth);
-            try (CloseableHttpResponse response = httpClient.execute(request)) {
-
-                if (response.getStatusLine().getStatusCode()/ 100 != 2) throw new RuntimeException("Failed : HTTP error code : "+ response.getStatusLine().getStatusCode());
-                HttpEntity entity = response.getEntity();
-                try (FileOutputStream outstream = new FileOutputStream(tempFile)) {
+        HttpGet request = new HttpGet(sFileURL);
+        if (StringUtils.isNotBlank(auth)) request.setHeader(HttpHeaders.AUTHORIZATION, auth);
+        NetUtils.executeRateLimitedRequest(request, response -> {
+            HttpEntity entity = response.getEntity();
+            try (OutputStream outstream = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+                if (streamConsumer!=null){
+                    try (InputStream teeStream = new TeeInputStream(entity.getContent(), outstream)) {
+                        streamConsumer.accept(new CloseShieldInputStream(teeStream));
+                        IOUtils.copy(teeStream, NullOutputStream.NULL_OUTPUT_STREAM);
+                    }
+                } else{
                     entity.writeTo(outstream);
                 }
             }
-        }
+            return tempFile;
+        });
 
         logger.debug("File downloaded correctly " + sFileURL);
         return tempFile;
@@ -157,65 +198,31 @@ public class NetUtils {
      * @throws Exception
      */
     public static JsonElement doPostRequestJson(String sUrl, String auth, JsonElement jsonElement) throws Exception{
-        JsonElement result = null;
-
         Gson gson = new Gson();
         StringEntity jsonDataEntity = new StringEntity(JsonUtils.serializeObject(jsonElement));
-        try (CloseableHttpClient httpClient = NetUtils.buildUnsafeSslHttpClient()){
-            HttpPost request = new HttpPost(sUrl);
-            request.setHeader(HttpHeaders.ACCEPT, "application/json");
-            request.setHeader(HttpHeaders.CONTENT_TYPE, "application/json");
-            request.setEntity(jsonDataEntity);
+        HttpPost request = new HttpPost(sUrl);
+        request.setHeader(HttpHeaders.ACCEPT, "application/json");
+        request.setHeader(HttpHeaders.CONTENT_TYPE, "application/json");
+        request.setEntity(jsonDataEntity);
 
-            if (StringUtils.isNotBlank(auth)) request.setHeader(HttpHeaders.AUTHORIZATION, auth);
-            try (CloseableHttpResponse response = httpClient.execute(request)) {
-                if (response.getStatusLine().getStatusCode()/ 100 != 2) throw new RuntimeException("Failed : HTTP error code : "+ response.getStatusLine().getStatusCode());
-                HttpEntity entity = response.getEntity();
-                String retSrc = EntityUtils.toString(entity);
-                result = gson.fromJson(retSrc,JsonElement.class);
-            }
-        }
-        return result;
+        if (StringUtils.isNotBlank(auth)) request.setHeader(HttpHeaders.AUTHORIZATION, auth);
+        return NetUtils.executeRateLimitedRequest(request, response -> {
+            HttpEntity entity = response.getEntity();
+            String retSrc = EntityUtils.toString(entity);
+            return gson.fromJson(retSrc,JsonElement.class);
+        });
     }
 
 
     /**
      * Function to obtain a closeable unsafe http client (trust any machine)
+     * Note: The client uses the pool of connections of the shared http transport, so closing it doesn't close the
+     * connections of the pool
      * @return CloseableHttpClient that will allow to send request to any machine without problems of trusting SSL
      * @throws Exception
      */
     public static CloseableHttpClient buildUnsafeSslHttpClient() throws Exception {
-        // Create empty HostnameVerifier
-        HostnameVerifier allHostsValid = new HostnameVerifier() {
-            public boolean verify(String hostname, SSLSession session) {
-                return true;
-            }
-        };
-
-        // Create a trust manager that does not validate certificate chains
-        TrustManager[] trustAllCerts = new TrustManager[]{
-                new X509TrustManager() {
-                    public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-                        return null;
-                    }
-                    public void checkClientTrusted(
-                            java.security.cert.X509Certificate[] certs, String authType) {
-                    }
-                    public void checkServerTrusted(
-                            java.security.cert.X509Certificate[] certs, String authType) {
-                    }
-                }
-        };
-
-        // Install the all-trusting trust manager and empty HostnameVerifier
-        SSLContext sc = SSLContext.getInstance("SSL");
-        sc.init(null, trustAllCerts, new java.security.SecureRandom());
-        CloseableHttpClient client = HttpClientBuilder.create()
-                .setDefaultRequestConfig(RequestConfig.custom().setCookieSpec(CookieSpecs.STANDARD).build())
-                .setSSLContext(sc)
-                .setSSLHostnameVerifier(allHostsValid)
-                .build();
-        return client;
+        return HttpTransport.getInstance().getSharedHttpClientBuilder().build();
     }
 
     /**
@@ -239,15 +246,291 @@ public class NetUtils {
      * @throws GeoIp2Exception
      */
     public static CountryResponse getCountryInfoFromUrl(String sUrl) throws IOException, GeoIp2Exception {
-        InputStream geoLite2DbInputStream = null;
-        try {
-            geoLite2DbInputStream = Resources.getResource("GeoLite2-Country_20191029/GeoLite2-Country.mmdb").openStream();
-            DatabaseReader dbReader = new DatabaseReader.Builder(geoLite2DbInputStream).build();
-            InetAddress address = InetAddress.getByName(new URL(sUrl).getHost());
-            return dbReader.country(address);
-        } finally {
-            if (geoLite2DbInputStream != null) {
-                geoLite2DbInputStream.close();
+        return GeoIpClient.getInstance().getCountryInfoFromUrl(sUrl);
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that downloads a file in byte ranges (chunks of http.downloadChunkSizeMB) fetched in parallel through
+     * http.downloadConnections connections, writing each range in its position of a preallocated file.
+     * When the server identifies the version of the file (ETag or Last-Modified), the ranges already downloaded are
+     * recorded in a sidecar state file, so if the download fails, the next download of the same url resumes from them
+     * (when the file in the server hasn't changed). Otherwise, the file partially downloaded is deleted when the
+     * download fails, as it can't be told if it can be resumed. Once all the ranges have been
+     * downloaded, the length of the file is verified, and also its MD5 checksum when the server provides it
+     * (Content-MD5 header or an ETag that is a MD5 hash)
+     * @param sFileURL string of the url of the file to be downloaded
+     * @param auth authentication info to be used in the requests
+     * @return File downloaded or null if the server doesn't support byte ranges or the file is not bigger than a chunk,
+     * so it has to be downloaded in a single stream
+     * @throws Exception
+     */
+    private static File downloadFileInRanges(String sFileURL, String auth) throws Exception {
+        //Probe if the server supports byte ranges
+        HttpHead headRequest = new HttpHead(sFileURL);
+        if (StringUtils.isNotBlank(auth)) headRequest.setHeader(HttpHeaders.AUTHORIZATION, auth);
+        headRequest.setHeader(HttpHeaders.ACCEPT_ENCODING, "identity"); //Ranges and length of the file as it is stored
+        JsonObject fileInfo;
+        try{
+            fileInfo = NetUtils.executeRateLimitedRequest(headRequest, response -> {
+                JsonObject info = new JsonObject();
+                info.addProperty("url", sFileURL);
+                for (String headerName : Arrays.asList(HttpHeaders.ACCEPT_RANGES, HttpHeaders.CONTENT_LENGTH, HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED, HttpHeaders.CONTENT_MD5)) {
+                    Header header = response.getFirstHeader(headerName);
+                    if (header!=null) info.addProperty(headerName, header.getValue());
+                }
+                return info;
+            });
+        } catch (Exception e){
+            logger.debug("Byte ranges couldn't be probed for " + sFileURL + ". It will be downloaded in a single stream " + e.getMessage());
+            return null;
+        }
+        long length = fileInfo.has(HttpHeaders.CONTENT_LENGTH) ? NumberUtils.toLong(fileInfo.get(HttpHeaders.CONTENT_LENGTH).getAsString(), -1) : -1;
+        long chunkSize = HttpTransport.getInstance().getDownloadChunkSizeMB() * 1024L * 1024L;
+        if (!fileInfo.has(HttpHeaders.ACCEPT_RANGES) || !fileInfo.get(HttpHeaders.ACCEPT_RANGES).getAsString().equalsIgnoreCase("bytes") || length<=chunkSize){
+            return null;
+        }
+
+        //The file is named after the url, so a failed download can be resumed
+        URL url = new URL(sFileURL);
+        String fileId = Hashing.sha256().hashString(sFileURL, StandardCharsets.UTF_8).toString().substring(0,16);
+        File file = new File(System.getProperty("java.io.tmpdir"), "download-" + fileId + "-" + FilenameUtils.getName(url.getPath()));
+        File stateFile = new File(file.getAbsolutePath() + ".state.json");
+        boolean resumable = fileInfo.has(HttpHeaders.ETAG) || fileInfo.has(HttpHeaders.LAST_MODIFIED);
+        String ifRange = getIfRangeValidator(fileInfo);
+        synchronized (mapDownloadLockByFile.computeIfAbsent(file.getAbsolutePath(), k -> new Object())){
+            fileInfo.addProperty("chunkSize", chunkSize);
+            JsonObject state = getRangedDownloadState(stateFile, file, fileInfo);
+            Set<Integer> completedChunks = new HashSet<Integer>();
+            state.getAsJsonArray("completedChunks").forEach(chunk -> completedChunks.add(chunk.getAsInt()));
+            int numChunks = (int) ((length + chunkSize - 1) / chunkSize);
+            logger.info("Downloading file " + sFileURL + " (" + length + " bytes) in " + numChunks + " ranges" +
+                    (completedChunks.isEmpty() ? "" : ", resuming from " + completedChunks.size() + " ranges already downloaded"));
+
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                randomAccessFile.setLength(length);
+                FileChannel channel = randomAccessFile.getChannel();
+                ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, Math.min(HttpTransport.getInstance().getDownloadConnections(), numChunks)));
+                try{
+                    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+                    for (int chunk = 0; chunk < numChunks; chunk++) {
+                        if (completedChunks.contains(chunk)) continue;
+                        final int chunkIndex = chunk;
+                        futures.add(executorService.submit(() -> {
+                            long start = chunkIndex * chunkSize;
+                            long end = Math.min(length, start + chunkSize) - 1;
+                            downloadRange(sFileURL, auth, ifRange, channel, start, end);
+                            if (resumable){
+                                synchronized (state){
+                                    state.getAsJsonArray("completedChunks").add(chunkIndex);
+                                    Files.write(stateFile.toPath(), JsonUtils.serializeObject(state).getBytes(StandardCharsets.UTF_8));
+                                }
+                            }
+                            return null;
+                        }));
+                    }
+                    for (Future<Void> future : futures) {
+                        try{
+                            future.get();
+                        } catch (ExecutionException e){
+                            throw new IOException("Download of file " + sFileURL + " failed" + (resumable ? ". It will be resumed in the next download " : " ") + e.getCause().getMessage(), e.getCause());
+                        }
+                    }
+                } finally {
+                    executorService.shutdownNow();
+                }
+                channel.force(false);
+            } catch (Exception e){
+                if (!resumable){
+                    Files.deleteIfExists(file.toPath());
+                    Files.deleteIfExists(stateFile.toPath());
+                }
+                throw e;
+            }
+
+            verifyDownloadedFile(file, stateFile, fileInfo, length);
+            Files.deleteIfExists(stateFile.toPath());
+        }
+        return file;
+    }
+
+    /**
+     * Function that downloads a byte range of a file and writes it in its position in the file channel. If the
+     * download of the range fails, it is retried up to maxRangeRetries times
+     * @param sFileURL string of the url of the file to be downloaded
+     * @param auth authentication info to be used in the request
+     * @param ifRange validator of the version of the file (ETag or Last-Modified) sent in If-Range, so the server
+     *                doesn't return the range if the file has changed (null to not send it)
+     * @param channel channel of the file where to write the range
+     * @param start position of the first byte of the range
+     * @param end position of the last byte of the range (inclusive)
+     * @throws Exception if the range couldn't be downloaded
+     */
+    private static void downloadRange(String sFileURL, String auth, String ifRange, FileChannel channel, long start, long end) throws Exception {
+        int numRetries = 0;
+        while (true){
+            HttpGet request = new HttpGet(sFileURL);
+            if (StringUtils.isNotBlank(auth)) request.setHeader(HttpHeaders.AUTHORIZATION, auth);
+            request.setHeader(HttpHeaders.RANGE, "bytes=" + start + "-" + end);
+            if (ifRange!=null) request.setHeader(HttpHeaders.IF_RANGE, ifRange);
+            request.setHeader(HttpHeaders.ACCEPT_ENCODING, "identity");
+            try{
+                long bytesWritten = NetUtils.executeRateLimitedRequest(request, response -> {
+                    if (response.getStatusLine().getStatusCode()!=HttpStatus.SC_PARTIAL_CONTENT){
+                        throw new IOException("Server didn't return the range requested. Status code " + response.getStatusLine().getStatusCode());
+                    }
+                    long position = start;
+                    byte[] buffer = new byte[64 * 1024];
+                    try (InputStream instream = response.getEntity().getContent()) {
+                        int bytesRead;
+                        while ((bytesRead = instream.read(buffer))!=-1 && position<=end){
+                            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, (int) Math.min(bytesRead, end - position + 1));
+                            while (byteBuffer.hasRemaining()){
+                                position += channel.write(byteBuffer, position);
+                            }
+                        }
+                    }
+                    return position - start;
+                });
+                if (bytesWritten!=end-start+1){
+                    throw new IOException("Range " + start + "-" + end + " incomplete: " + bytesWritten + " bytes received");
+                }
+                return;
+            } catch (Exception e){
+                if (numRetries>=maxRangeRetries){
+                    throw e;
+                }
+                numRetries++;
+                logger.debug("Retrying range " + start + "-" + end + " of " + sFileURL + " (retry " + numRetries + ") " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Function that gets the state of the ranged download of a file. If there is a state of a previous download of the
+     * same file (same url, length, ETag, Last-Modified and chunk size, with an ETag or a Last-Modified that identifies
+     * the version of the file) and the file still exists, that state is used to resume the download. Otherwise a new
+     * state is created
+     * @param stateFile sidecar file with the state of the download
+     * @param file file being downloaded
+     * @param fileInfo information of the file to be downloaded (url, length, ETag, Last-Modified and chunk size)
+     * @return state of the download, with the chunks already downloaded in completedChunks
+     */
+    private static JsonObject getRangedDownloadState(File stateFile, File file, JsonObject fileInfo){
+        JsonObject state = null;
+        if (stateFile.exists() && file.exists()){
+            try{
+                JsonObject previousState = FileUtils.loadJsonElementFromFilePath(stateFile.getAbsolutePath()).getAsJsonObject();
+                boolean sameFile = previousState.has(HttpHeaders.ETAG) || previousState.has(HttpHeaders.LAST_MODIFIED);
+                for (String property : Arrays.asList("url", HttpHeaders.CONTENT_LENGTH, HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED, "chunkSize")) {
+                    sameFile = sameFile && Objects.equals(previousState.get(property), fileInfo.get(property));
+                }
+                if (sameFile){
+                    state = previousState;
+                }
+            } catch (Exception e){
+                logger.warn("State of the download " + stateFile.getAbsolutePath() + " can't be read. The download will start from the beginning " + e.getMessage());
+            }
+        }
+        if (state==null){
+            state = fileInfo.deepCopy();
+            state.add("completedChunks", new JsonArray());
+        }
+        return state;
+    }
+
+    /**
+     * Function that gets the validator of the version of a file to be sent in the If-Range header of the requests of
+     * its ranges: its ETag if it is a strong one (weak ETags can't be used in If-Range), or its Last-Modified date
+     * @param fileInfo information of the file returned by the server
+     * @return validator of the version of the file or null if the server didn't provide any
+     */
+    private static String getIfRangeValidator(JsonObject fileInfo){
+        String ifRange = null;
+        if (fileInfo.has(HttpHeaders.ETAG) && !fileInfo.get(HttpHeaders.ETAG).getAsString().startsWith("W/")){
+            ifRange = fileInfo.get(HttpHeaders.ETAG).getAsString();
+        } else if (fileInfo.has(HttpHeaders.LAST_MODIFIED)){
+            ifRange = fileInfo.get(HttpHeaders.LAST_MODIFIED).getAsString();
+        }
+        return ifRange;
+    }
+
+    /**
+     * Function that verifies that the file downloaded has the expected length and, when the server provides it, the
+     * expected MD5 checksum (a malformed Content-MD5 header is ignored). If the verification fails, the file and the
+     * state of its download are deleted
+     * @param file file downloaded
+     * @param stateFile sidecar file with the state of the download
+     * @param fileInfo information of the file returned by the server
+     * @param length expected length of the file
+     * @throws IOException if the file is not the expected one
+     */
+    private static void verifyDownloadedFile(File file, File stateFile, JsonObject fileInfo, long length) throws IOException {
+        String expectedMd5 = null;
+        if (fileInfo.has(HttpHeaders.CONTENT_MD5)){
+            try{
+                byte[] md5 = Base64.getDecoder().decode(fileInfo.get(HttpHeaders.CONTENT_MD5).getAsString().trim());
+                if (md5.length==16){
+                    expectedMd5 = BaseEncoding.base16().lowerCase().encode(md5);
+                }
+            } catch (IllegalArgumentException e){
+                logger.debug("Content-MD5 of " + fileInfo.get("url").getAsString() + " is malformed. It won't be verified " + e.getMessage());
+            }
+            if (expectedMd5==null){
+                logger.debug("Content-MD5 of " + fileInfo.get("url").getAsString() + " is not a MD5 checksum. It won't be verified");
+            }
+        } else if (fileInfo.has(HttpHeaders.ETAG)){
+            String etag = StringUtils.strip(StringUtils.removeStart(fileInfo.get(HttpHeaders.ETAG).getAsString(), "W/"), "\"");
+            if (etag.matches("[0-9a-fA-F]{32}")){
+                expectedMd5 = etag.toLowerCase();
+            }
+        }
+        String error = null;
+        if (file.length()!=length){
+            error = "length " + file.length() + " instead of " + length;
+        } else if (expectedMd5!=null){
+            String md5 = com.google.common.io.Files.asByteSource(file).hash(Hashing.md5()).toString();
+            if (!md5.equals(expectedMd5)){
+                error = "MD5 " + md5 + " instead of " + expectedMd5;
+            }
+        }
+        if (error!=null){
+            Files.deleteIfExists(file.toPath());
+            Files.deleteIfExists(stateFile.toPath());
+            throw new IOException("File downloaded " + fileInfo.get("url").getAsString() + " is not valid: " + error);
+        }
+    }
+
+    /**
+     * Function that executes the request passed as parameter, going through the rate limiter of the host the request
+     * is sent to. If the server answers that we are sending too many requests (429 or 503), the request is retried
+     * after the backoff time indicated by the rate limiter
+     * @param request request to be executed
+     * @param responseHandler handler to process the successful response
+     * @return result of the response handler
+     * @throws Exception HttpResponseException if the server doesn't answer with a successful status code
+     */
+    private static <T> T executeRateLimitedRequest(HttpUriRequest request, ResponseHandler<T> responseHandler) throws Exception {
+        HostRateLimiter rateLimiter = HostRateLimiter.getInstance();
+        String host = request.getURI().getHost();
+        int numRetries = 0;
+        while (true) {
+            rateLimiter.acquire(host);
+            try (CloseableHttpResponse response = HttpTransport.getInstance().getHttpClient().execute(request)) {
+                int statusCode = response.getStatusLine().getStatusCode();
+                Header retryAfterHeader = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+                rateLimiter.onResponse(host, statusCode, retryAfterHeader != null ? retryAfterHeader.getValue() : null);
+                if (rateLimiter.isThrottlingStatusCode(statusCode) && numRetries < rateLimiter.getMaxRetries()) {
+                    numRetries++;
+                    logger.debug("Retrying request " + request.getURI() + " (retry " + numRetries + ")");
+                    continue;
+                }
+                if (statusCode / 100 != 2) throw new HttpResponseException(statusCode, "Failed : HTTP error code : " + statusCode);
+                return responseHandler.handleResponse(response);
             }
         }
     }
@@ -0,0 +1,63 @@
+package eu.dissco.digitisers.utils;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * OkHttp interceptor that sends the requests through the shared HostRateLimiter, so the OkHttp based clients
+ * (eg: EBI search client) share the same per host limits as the rest of http clients of the application
+ */
+public class RateLimitInterceptor implements Interceptor {
+
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+
+    /***********************/
+    /* GETTERS AND SETTERS */
+    /***********************/
+
+    protected Logger getLogger() {
+        return logger;
+    }
+
+
+    /******************/
+    /* PUBLIC METHODS */
+    /******************/
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        HostRateLimiter rateLimiter = HostRateLimiter.getInstance();
+        Request request = chain.request();
+        String host = request.url().host();
+        int numRetries = 0;
+        while (true) {
+            try {
+                rateLimiter.acquire(host);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the rate limiter of host " + host);
+            }
+            Response response = chain.proceed(request);
+            rateLimiter.onResponse(host, response.code(), response.header("Retry-After"));
+            if (rateLimiter.isThrottlingStatusCode(response.code()) && numRetries < rateLimiter.getMaxRetries()) {
+                numRetries++;
+                this.getLogger().debug("Retrying request " + request.url() + " (retry " + numRetries + ")");
+                response.close();
+                continue;
+            }
+            return response;
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+package eu.dissco.digitisers.utils;
+
+import com.google.gson.JsonObject;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In process parser of scientific names (botanical and zoological), which returns the same main attributes as GBIF
+ * API /parser/name, so names can be canonicalised without calling GBIF.
+ * It handles uninomials, binomials and trinomials, subgenera, rank markers, named hybrids, informal qualifiers (cf., aff.)
+ * and authorships (including bracket authorships and years). Names that can't be parsed (hybrid formulas, virus names,
+ * OTUs, ...) are not parsed at all, so the caller can decide what to do with them
+ */
+public class ScientificNameUtils {
+
+    /**************/
+    /* ATTRIBUTES */
+    /**************/
+
+    private final static Logger logger = LoggerFactory.getLogger(ScientificNameUtils.class);
+    private final static Pattern MONOMIAL = Pattern.compile("^\\p{Lu}\\p{Ll}+(-\\p{Ll}+)?$");
+    private final static Pattern SUBGENUS = Pattern.compile("^\\((\\p{Lu}\\p{Ll}+)\\)$");
+    private final static Pattern EPITHET = Pattern.compile("^\\p{Ll}[\\p{Ll}'-]*\\p{Ll}$");
+    private final static Pattern YEAR = Pattern.compile("^(.*?)[,\\s]*\\b(1[7-9]\\d\\d|20\\d\\d)\\??$");
+    private final static String HYBRID_SIGN = "\u00D7"; //Multiplication sign used as hybrid marker
+    private final static Set<String> HYBRID_MARKERS = new HashSet<String>(Arrays.asList(HYBRID_SIGN, "x", "X"));
+    private final static Set<String> INFORMAL_QUALIFIERS = new HashSet<String>(Arrays.asList("cf.", "cf", "aff.", "aff", "nr.", "?"));
+    private final static Set<String> INDETERMINED_MARKERS = new HashSet<String>(Arrays.asList("sp.", "sp", "spp.", "spp", "indet.", "indet"));
+    private final static Set<String> AUTHOR_PARTICLES = new HashSet<String>(Arrays.asList("de", "der", "den", "des", "del", "della",
+            "di", "da", "do", "dos", "du", "la", "le", "van", "von", "zu", "ter", "ex", "in", "et", "al", "bis", "non", "sensu", "auct"));
+    private final static Map<String,String> RANK_MARKERS = new HashMap<String,String>();
+    static {
+        RANK_MARKERS.put("subsp.", "subsp.");
+        RANK_MARKERS.put("subsp", "subsp.");
+        RANK_MARKERS.put("ssp.", "subsp.");
+        RANK_MARKERS.put("ssp", "subsp.");
+        RANK_MARKERS.put("var.", "var.");
+        RANK_MARKERS.put("var", "var.");
+        RANK_MARKERS.put("subvar.", "subvar.");
+        RANK_MARKERS.put("f.", "f.");
+        RANK_MARKERS.put("fo.", "f.");
+        RANK_MARKERS.put("forma", "f.");
+        RANK_MARKERS.put("subf.", "subf.");
+        RANK_MARKERS.put("nothosubsp.", "nothosubsp.");
+        RANK_MARKERS.put("nothovar.", "nothovar.");
+        RANK_MARKERS.put("morph", "morph");
+        RANK_MARKERS.put("ab.", "ab.");
+    }
+
+
+    /******************/
+    /* PUBLIC METHODS */
+    /******************/
+
+    /**
+     * Function that parses a scientific name
+     * @param scientificName scientific name to be parsed
+     * @return Json object with the information of parsing the scientific name (same main attributes as GBIF API
+     * /parser/name) or null if the name can't be parsed
+     */
+    public static JsonObject parseName(String scientificName){
+        if (StringUtils.isBlank(scientificName)){
+            return null;
+        }
+        String name = StringUtils.normalizeSpace(scientificName.replace(HYBRID_SIGN, " " + HYBRID_SIGN + " "));
+        String[] tokens = name.split(" ");
+        int i = 0;
+        String type = "SCIENTIFIC";
+
+        //Named hybrid of genus (eg. xAgropogon, written with the hybrid sign)
+        if (HYBRID_MARKERS.contains(tokens[i]) && tokens.length>1 && MONOMIAL.matcher(tokens[i+1]).matches()){
+            type = "HYBRID";
+            i++;
+        }
+        if (!MONOMIAL.matcher(tokens[i]).matches()){
+            logger.debug("Scientific name can't be parsed " + scientificName);
+            return null;
+        }
+        String genusOrAbove = tokens[i++];
+        String infraGeneric = null;
+        String specificEpithet = null;
+        String infraSpecificEpithet = null;
+        String rankMarker = null;
+
+        //Subgenus, only when it is followed by the specific epithet, as otherwise it is the bracket authorship
+        if (i+1<tokens.length && SUBGENUS.matcher(tokens[i]).matches() && isEpithet(tokens[i+1])){
+            Matcher subgenusMatcher = SUBGENUS.matcher(tokens[i]);
+            subgenusMatcher.matches();
+            infraGeneric = subgenusMatcher.group(1);
+            i++;
+        }
+        if (i<tokens.length && INFORMAL_QUALIFIERS.contains(tokens[i])){
+            type = "INFORMAL";
+            i++;
+        }
+        if (i<tokens.length && INDETERMINED_MARKERS.contains(tokens[i])){
+            type = "INFORMAL";
+            i=tokens.length;
+        }
+        if (i+1<tokens.length && HYBRID_MARKERS.contains(tokens[i]) && isEpithet(tokens[i+1])){
+            type = "HYBRID";
+            i++;
+        }
+        if (i<tokens.length && isEpithet(tokens[i])){
+            specificEpithet = tokens[i++];
+
+            //Infraspecific epithet, either directly after the specific epithet (zoological names) or after a rank marker
+            if (i<tokens.length && isEpithet(tokens[i])){
+                infraSpecificEpithet = tokens[i++];
+            } else{
+                for (int j = i; j+1 < tokens.length && infraSpecificEpithet==null; j++) {
+                    if (RANK_MARKERS.containsKey(tokens[j]) && isEpithet(tokens[j+1])){
+                        rankMarker = RANK_MARKERS.get(tokens[j]);
+                        infraSpecificEpithet = tokens[j+1];
+                        i = j+2;
+                    }
+                }
+            }
+        }
+
+        //The rest of the name is the authorship of the terminal epithet
+        String[] authorshipTokens = Arrays.copyOfRange(tokens, i, tokens.length);
+        for (int j = 0; j < authorshipTokens.length; j++) {
+            //Hybrid formulas (eg. Quercus robur x Quercus petraea) are not supported
+            if (HYBRID_MARKERS.contains(authorshipTokens[j]) && j+1<authorshipTokens.length && MONOMIAL.matcher(authorshipTokens[j+1]).matches()){
+                logger.debug("Hybrid formula can't be parsed " + scientificName);
+                return null;
+            }
+        }
+        String fullAuthorship = StringUtils.trimToNull(String.join(" ", authorshipTokens));
+
+        JsonObject parsedName = new JsonObject();
+        parsedName.addProperty("scientificName", scientificName);
+        parsedName.addProperty("type", type);
+        parsedName.addProperty("genusOrAbove", genusOrAbove);
+        if (infraGeneric!=null) parsedName.addProperty("infraGeneric", infraGeneric);
+        if (specificEpithet!=null) parsedName.addProperty("specificEpithet", specificEpithet);
+        if (infraSpecificEpithet!=null) parsedName.addProperty("infraSpecificEpithet", infraSpecificEpithet);
+        if (fullAuthorship!=null) addAuthorship(parsedName, fullAuthorship);
+        if (rankMarker!=null) parsedName.addProperty("rankMarker", rankMarker);
+        parsedName.addProperty("parsed", true);
+        parsedName.addProperty("parsedPartially", false);
+
+        StringBuilder canonicalName = new StringBuilder(genusOrAbove);
+        StringBuilder canonicalNameWithMarker = new StringBuilder(genusOrAbove);
+        if (specificEpithet!=null){
+            canonicalName.append(" ").append(specificEpithet);
+            canonicalNameWithMarker.append(" ").append(specificEpithet);
+        }
+        if (infraSpecificEpithet!=null){
+            canonicalName.append(" ").append(infraSpecificEpithet);
+            canonicalNameWithMarker.append(" ").append(rankMarker!=null ? rankMarker + " " : "").append(infraSpecificEpithet);
+        }
+        parsedName.addProperty("canonicalName", canonicalName.toString());
+        parsedName.addProperty("canonicalNameWithMarker", canonicalNameWithMarker.toString());
+        parsedName.addProperty("canonicalNameComplete", canonicalNameWithMarker.toString() + (fullAuthorship!=null ? " " + fullAuthorship : ""));
+        return parsedName;
+    }
+
+
+    /*******************/
+    /* PRIVATE METHODS */
+    /*******************/
+
+    /**
+     * Function that checks if a token of a name is an epithet (and not an author particle or a rank marker)
+     * @param token token of the name
+     * @return true if the token is an epithet, false otherwise
+     */
+    private static boolean isEpithet(String token){
+        return EPITHET.matcher(token).matches() && !AUTHOR_PARTICLES.contains(token) && !RANK_MARKERS.containsKey(token);
+    }
+
+    /**
+     * Function that adds to the parsed name the authorship, split into bracket authorship, authorship and their years
+     * @param parsedName json object with the parsed name
+     * @param fullAuthorship full authorship of the name, eg. (Linnaeus, 1758) Smith, 1900
+     */
+    private static void addAuthorship(JsonObject parsedName, String fullAuthorship){
+        String authorship = fullAuthorship;
+        if (fullAuthorship.startsWith("(") && fullAuthorship.indexOf(')')>0){
+            String bracketAuthorship = fullAuthorship.substring(1, fullAuthorship.indexOf(')')).trim();
+            authorship = fullAuthorship.substring(fullAuthorship.indexOf(')') + 1).trim();
+            Matcher bracketYearMatcher = YEAR.matcher(bracketAuthorship);
+            if (bracketYearMatcher.matches()){
+                bracketAuthorship = bracketYearMatcher.group(1).trim();
+                parsedName.addProperty("bracketYear", bracketYearMatcher.group(2));
+            }
+            if (StringUtils.isNotBlank(bracketAuthorship)) parsedName.addProperty("bracketAuthorship", bracketAuthorship);
+        }
+        Matcher yearMatcher = YEAR.matcher(authorship);
+        if (yearMatcher.matches()){
+            authorship = yearMatcher.group(1).trim();
+            parsedName.addProperty("year", yearMatcher.group(2));
+        }
+        if (StringUtils.isNotBlank(authorship)) parsedName.addProperty("authorship", authorship);
+        parsedName.addProperty("authorsParsed", true);
+    }
+}
@@ -0,0 +1,84 @@
+package eu.dissco.digitisers.clients.col;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class CoLIndexTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoLIndexTest.class);
+
+    private static File indexDirectory;
+    private static CoLIndex colIndex;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        JsonArray taxa = new Gson().fromJson("[" +
+                "{\"id\":\"1\",\"name\":\"Agathis montana\",\"rank\":\"Species\",\"name_status\":\"accepted name\",\"author\":\"de Laub.\",\"url\":\"https://www.catalogueoflife.org/data/taxon/1\"," +
+                "\"classification\":[{\"name\":\"Plantae\",\"rank\":\"Kingdom\"},{\"name\":\"Agathis\",\"rank\":\"Genus\"}]}," +
+                "{\"id\":\"2\",\"name\":\"Agathis montana\",\"rank\":\"Species\",\"name_status\":\"accepted name\",\"author\":\"Konow, 1903\",\"url\":\"https://www.catalogueoflife.org/data/taxon/2\"," +
+                "\"classification\":[{\"name\":\"Animalia\",\"rank\":\"Kingdom\"},{\"name\":\"Agathis\",\"rank\":\"Genus\"}]}," +
+                "{\"id\":\"3\",\"name\":\"Dammara montana\",\"rank\":\"Species\",\"name_status\":\"synonym\",\"author\":\"Brongn. & Gris\",\"url\":\"https://www.catalogueoflife.org/data/taxon/3\"," +
+                "\"classification\":[{\"name\":\"Plantae\",\"rank\":\"Kingdom\"}],\"accepted_name\":{\"id\":\"1\"}}]", JsonArray.class);
+        List<JsonObject> taxaList = new ArrayList<JsonObject>();
+        for (JsonElement taxon : taxa) {
+            taxaList.add(taxon.getAsJsonObject());
+        }
+        indexDirectory = com.google.common.io.Files.createTempDir();
+        File indexFile = new File(indexDirectory, "col.db");
+        CoLIndex.build(taxaList.iterator(), indexFile);
+        colIndex = new CoLIndex(indexFile);
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        colIndex.close();
+        org.apache.commons.io.FileUtils.deleteQuietly(indexDirectory);
+    }
+
+    @Test
+    public void getTaxonInformation_hemihomonym() throws Exception {
+        JsonObject taxonInfoObj = colIndex.getTaxonInformation("Agathis montana","SPECIES","Plantae");
+        assertEquals("The author should be ","de Laub.",taxonInfoObj.get("author").getAsString());
+        assertEquals("The number of synonyms should be ",1,taxonInfoObj.getAsJsonArray("synonyms").size());
+    }
+
+    @Test
+    public void getTaxonInformation_synonymNotIndexed() throws Exception {
+        assertNull("The synonym shouldn't be returned ", colIndex.getTaxonInformation("Dammara montana","Species","Plantae"));
+    }
+
+    @Test
+    public void getTaxonInformation_nonExist() throws Exception {
+        assertNull("The species shouldn't be found in CoL ", colIndex.getTaxonInformation("Agathis montana","Species","Fungi"));
+    }
+
+    @Test
+    public void getTaxonInformation_concurrentLookups() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Future<JsonObject>> futures = new ArrayList<Future<JsonObject>>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(executorService.submit(() -> colIndex.getTaxonInformation("Agathis montana","Species","Animalia")));
+        }
+        for (Future<JsonObject> future : futures) {
+            assertEquals("The author should be ","Konow, 1903",future.get().get("author").getAsString());
+        }
+        executorService.shutdown();
+    }
+
+}
@@ -0,0 +1,79 @@
+package eu.dissco.digitisers.clients.gbif;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BackboneIndexTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackboneIndexTest.class);
+
+    private static File indexDirectory;
+    private static BackboneIndex backboneIndex;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        JsonArray taxa = new Gson().fromJson("[" +
+                "{\"key\":1,\"scientificName\":\"Animalia\",\"canonicalName\":\"Animalia\",\"rank\":\"KINGDOM\",\"taxonomicStatus\":\"ACCEPTED\",\"kingdom\":\"Animalia\"}," +
+                "{\"key\":6,\"scientificName\":\"Plantae\",\"canonicalName\":\"Plantae\",\"rank\":\"KINGDOM\",\"taxonomicStatus\":\"ACCEPTED\",\"kingdom\":\"Plantae\"}," +
+                "{\"key\":9000001,\"scientificName\":\"Bombus terrestris Linnaeus, 1758\",\"canonicalName\":\"Bombus terrestris\",\"authorship\":\"Linnaeus, 1758\",\"rank\":\"SPECIES\",\"taxonomicStatus\":\"SYNONYM\",\"kingdom\":\"Animalia\"}," +
+                "{\"key\":1340278,\"scientificName\":\"Bombus terrestris (Linnaeus, 1758)\",\"canonicalName\":\"Bombus terrestris\",\"authorship\":\"(Linnaeus, 1758)\",\"rank\":\"SPECIES\",\"taxonomicStatus\":\"ACCEPTED\",\"kingdom\":\"Animalia\"}," +
+                "{\"key\":3001,\"scientificName\":\"Bombus terrestris Bosc\",\"canonicalName\":\"Bombus terrestris\",\"rank\":\"SPECIES\",\"taxonomicStatus\":\"ACCEPTED\",\"kingdom\":\"Plantae\"}]", JsonArray.class);
+        List<JsonObject> taxaList = new ArrayList<JsonObject>();
+        for (JsonElement taxon : taxa) {
+            taxaList.add(taxon.getAsJsonObject());
+        }
+        indexDirectory = com.google.common.io.Files.createTempDir();
+        BackboneIndex.build(taxaList.iterator(), indexDirectory);
+        backboneIndex = new BackboneIndex(indexDirectory);
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        backboneIndex.close();
+        org.apache.commons.io.FileUtils.deleteQuietly(indexDirectory);
+    }
+
+    @Test
+    public void getTaxonById_valid() throws Exception {
+        JsonObject taxonInfo = backboneIndex.getTaxonById("6");
+        assertEquals("The scientific name should be ", "Plantae", taxonInfo.get("scientificName").getAsString());
+    }
+
+    @Test
+    public void getTaxonById_invalid() throws Exception {
+        assertNull("The taxon shouldn't be found", backboneIndex.getTaxonById("12345"));
+        assertNull("The taxon shouldn't be found", backboneIndex.getTaxonById("abc"));
+    }
+
+    @Test
+    public void getTaxonIdByCanonicalNameAndKingdom_preferAccepted() throws Exception {
+        assertEquals("The taxon id should be ", "1340278", backboneIndex.getTaxonIdByCanonicalNameAndKingdom("bombus Terrestris","Animalia"));
+        assertEquals("The taxon id should be ", "3001", backboneIndex.getTaxonIdByCanonicalNameAndKingdom("Bombus terrestris","Plantae"));
+    }
+
+    @Test
+    public void getTaxonIdByCanonicalNameAndKingdom_invalid() throws Exception {
+        assertNull("The taxon shouldn't be found", backboneIndex.getTaxonIdByCanonicalNameAndKingdom("Bombus terrestris","Fungi"));
+    }
+
+    @Test
+    public void getParsedName() throws Exception {
+        JsonObject parsedName = backboneIndex.getParsedName("Bombus terrestris (Linnaeus, 1758)");
+        assertEquals("The canonical name should be ", "Bombus terrestris", parsedName.get("canonicalName").getAsString());
+        assertNull("The name shouldn't be found", backboneIndex.getParsedName("Bombus terrestris Smith"));
+    }
+
+}
@@ -0,0 +1,73 @@
+package eu.dissco.digitisers.clients.gbif;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class DownloadIndexTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(DownloadIndexTest.class);
+
+    private static File indexDirectory;
+
+    @BeforeClass
+    public static void setup() {
+        indexDirectory = com.google.common.io.Files.createTempDir();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        org.apache.commons.io.FileUtils.deleteQuietly(indexDirectory);
+    }
+
+    @Test
+    public void getPredicateHash_equivalentPredicates() {
+        Gson gson = new Gson();
+        JsonObject predicate = gson.fromJson("{\"type\":\"and\",\"predicates\":[" +
+                "{\"type\":\"in\",\"key\":\"TAXON_KEY\",\"values\":[\"2684876\",\"5284517\"]}," +
+                "{\"type\":\"equals\",\"key\":\"BASIS_OF_RECORD\",\"value\":\"PRESERVED_SPECIMEN\"}]}", JsonObject.class);
+        JsonObject gbifPredicate = gson.fromJson("{\"type\":\"and\",\"predicates\":[" +
+                "{\"type\":\"equals\",\"key\":\"BASIS_OF_RECORD\",\"value\":\"PRESERVED_SPECIMEN\",\"matchCase\":false}," +
+                "{\"type\":\"in\",\"key\":\"TAXON_KEY\",\"values\":[5284517,2684876],\"matchCase\":false}]}", JsonObject.class);
+        JsonObject otherPredicate = gson.fromJson("{\"type\":\"and\",\"predicates\":[" +
+                "{\"type\":\"in\",\"key\":\"TAXON_KEY\",\"values\":[\"2684876\"]}," +
+                "{\"type\":\"equals\",\"key\":\"BASIS_OF_RECORD\",\"value\":\"PRESERVED_SPECIMEN\"}]}", JsonObject.class);
+        assertEquals("The hash of equivalent predicates should be ", DownloadIndex.getPredicateHash(predicate), DownloadIndex.getPredicateHash(gbifPredicate));
+        assertNotEquals("The hash of different predicates shouldn't be equal ", DownloadIndex.getPredicateHash(predicate), DownloadIndex.getPredicateHash(otherPredicate));
+    }
+
+    @Test
+    public void getDownloadByPredicateHash_savedInFile() {
+        File indexFile = new File(indexDirectory, "downloads.json");
+        long now = System.currentTimeMillis();
+        DownloadIndex downloadIndex = new DownloadIndex(indexFile);
+        downloadIndex.putDownload(this.getDownload("0001", "hash1", now - 10 * 24 * 60 * 60 * 1000L));
+        downloadIndex.putDownload(this.getDownload("0002", "hash1", now - 60 * 1000L));
+        downloadIndex.putDownload(this.getDownload("0003", "hash2", now));
+
+        DownloadIndex loadedIndex = new DownloadIndex(indexFile);
+        long minCreated = now - 7 * 24 * 60 * 60 * 1000L;
+        assertEquals("The download key should be ", "0002", loadedIndex.getDownloadByPredicateHash("hash1", minCreated).get("downloadKey").getAsString());
+        assertEquals("The doi should be ", "10.15468/dl.0003", loadedIndex.getDownloadByKey("0003").get("doi").getAsString());
+        assertNull("The download shouldn't be found ", loadedIndex.getDownloadByPredicateHash("hash3", minCreated));
+    }
+
+    private JsonObject getDownload(String downloadKey, String predicateHash, long created){
+        JsonObject download = new JsonObject();
+        download.addProperty("predicateHash", predicateHash);
+        download.addProperty("downloadKey", downloadKey);
+        download.addProperty("doi", "10.15468/dl." + downloadKey);
+        download.addProperty("created", created);
+        download.addProperty("file", new File(indexDirectory, downloadKey + ".zip").getAbsolutePath());
+        return download;
+    }
+
+}
@@ -0,0 +1,52 @@
+package eu.dissco.digitisers.clients.gbif;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.*;
+
+public class GrSciCollIndexTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(GrSciCollIndexTest.class);
+
+    private static GrSciCollIndex grSciCollIndex;
+
+    @BeforeClass
+    public static void setup() {
+        Gson gson = new Gson();
+        JsonArray institutions = gson.fromJson("[" +
+                "{\"key\":\"1a4ae93e-9ce9-4f2a-bd64-2a3c5e6b3a1a\",\"code\":\"NHM\",\"name\":\"Natural History Museum, London\"}," +
+                "{\"key\":\"2b5bf04f-0df0-4a3b-ae75-3b4d6f7c4b2b\",\"code\":\"nhm\",\"name\":\"Natural History Museum, Oslo\"}," +
+                "{\"key\":\"3c6c015a-1e01-4b4c-bf86-4c5e708d5c3c\",\"code\":\"MNHN\",\"name\":\"Museum national d'Histoire naturelle\"}]", JsonArray.class);
+        JsonArray collections = gson.fromJson("[" +
+                "{\"key\":\"4d7d126b-2f12-4c5d-8097-5d6f819e6d4d\",\"code\":\"IM\",\"institutionKey\":\"3c6c015a-1e01-4b4c-bf86-4c5e708d5c3c\"}," +
+                "{\"key\":\"5e8e237c-3023-4d6e-91a8-6e7092af7e5e\",\"code\":\"P\",\"institutionKey\":\"3c6c015a-1e01-4b4c-bf86-4c5e708d5c3c\"}]", JsonArray.class);
+        grSciCollIndex = new GrSciCollIndex(institutions,collections);
+    }
+
+    @Test
+    public void getInstitutionsByCode_severalInstitutions() {
+        assertEquals("The number of institutions should be ", 2, grSciCollIndex.getInstitutionsByCode("Nhm").size());
+    }
+
+    @Test
+    public void getInstitutionsByCode_notFound() {
+        assertEquals("The number of institutions should be ", 0, grSciCollIndex.getInstitutionsByCode("XXX").size());
+    }
+
+    @Test
+    public void getInstitutionByKey() {
+        assertEquals("The institution code should be ", "MNHN", grSciCollIndex.getInstitutionByKey("3C6C015A-1E01-4B4C-BF86-4C5E708D5C3C").get("code").getAsString());
+    }
+
+    @Test
+    public void getCollectionByInstitutionKeyAndCode() {
+        assertEquals("The collection key should be ", "4d7d126b-2f12-4c5d-8097-5d6f819e6d4d",
+                grSciCollIndex.getCollectionByInstitutionKeyAndCode("3c6c015a-1e01-4b4c-bf86-4c5e708d5c3c","im").get("key").getAsString());
+    }
+
+}
@@ -1,5 +1,6 @@
 package eu.dissco.digitisers.clients.misc;
 
+import com.google.gson.JsonObject;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -38,4 +39,18 @@ public class CountryClientTest {
         assertNull("The country shouldn't exist", country);
     }
 
+    @Test
+    public void getCountryByCountryCode_alpha3(){
+        String countryCode = "ESP";
+        String country = countryClient.getCountryNameByCountryCode(countryCode);
+        assertEquals("The country should be ", "Spain",country);
+    }
+
+    @Test
+    public void getCountryInfoByCountryCode_region(){
+        String countryCode = "NL";
+        JsonObject countryInfo = countryClient.getCountryInfoByCountryCode(countryCode);
+        assertEquals("The region should be ", "Europe",countryInfo.get("region").getAsString());
+    }
+
 }
\ No newline at end of file
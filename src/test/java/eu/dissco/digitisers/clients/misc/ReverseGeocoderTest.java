@@ -0,0 +1,45 @@
+package eu.dissco.digitisers.clients.misc;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.*;
+
+public class ReverseGeocoderTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReverseGeocoderTest.class);
+
+    private static ReverseGeocoder reverseGeocoder;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        reverseGeocoder = ReverseGeocoder.getInstance();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+
+    }
+
+    @Test
+    public void getCountryCode_valid() {
+        assertEquals("The country code should be ", "ES", reverseGeocoder.getCountryCode(40.4168,-3.7038));
+        assertEquals("The country code should be ", "NL", reverseGeocoder.getCountryCode(52.1601,4.4970));
+        assertEquals("The country code should be ", "US", reverseGeocoder.getCountryCode(21.3069,-157.8583));
+        assertEquals("The country code should be ", "AU", reverseGeocoder.getCountryCode(-33.8688,151.2093));
+    }
+
+    @Test
+    public void getCountryCode_ocean() {
+        assertNull("The coordinate shouldn't be in any country", reverseGeocoder.getCountryCode(30,-40));
+    }
+
+    @Test
+    public void getCountryCode_invalid() {
+        assertNull("The coordinate shouldn't be valid", reverseGeocoder.getCountryCode(95,10));
+    }
+
+}
@@ -7,6 +7,9 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.Map;
+
 import static org.junit.Assert.*;
 
 public class WikiDataClientTest {
@@ -52,4 +55,13 @@ public class WikiDataClientTest {
         JsonObject wikiInfo = wikiClient.getWikiInformation(canonicalName,kingdom);
         assertNull("The wiki page shouldn't exist", wikiInfo);
     }
+
+    @Test
+    public void getWikiInformation_severalSpecies() throws Exception {
+        String kingdom="Animalia";
+        Map<String,JsonObject> wikiInfoByCanonicalName = wikiClient.getWikiInformation(Arrays.asList("Profundiconus profundorum","Agathis montana","Fran test"),kingdom);
+        assertEquals("The wiki page ulr should be ", "http://www.wikidata.org/entity/Q60452413",wikiClient.getPageURL(wikiInfoByCanonicalName.get("Profundiconus profundorum")));
+        assertEquals("The wiki page ulr should be ", "http://www.wikidata.org/entity/Q17405678",wikiClient.getPageURL(wikiInfoByCanonicalName.get("Agathis montana")));
+        assertNull("The wiki page shouldn't exist", wikiInfoByCanonicalName.get("Fran test"));
+    }
 }
\ No newline at end of file
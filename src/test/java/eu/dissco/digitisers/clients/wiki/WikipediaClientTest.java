@@ -7,6 +7,9 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.Map;
+
 import static org.junit.Assert.*;
 
 public class WikipediaClientTest {
@@ -41,4 +44,12 @@ public class WikipediaClientTest {
         JsonObject wikiInfo = wikiClient.getWikiInformation(canonicalName,kingdom);
         assertNull("The wiki page shouldn't exist", wikiInfo);
     }
+
+    @Test
+    public void getWikiInformation_severalSpecies_redirect() throws Exception {
+        String kingdom="Animalia";
+        Map<String,JsonObject> wikiInfoByCanonicalName = wikiClient.getWikiInformation(Arrays.asList("Felis catus","Profundiconus profundorum","Fran test"),kingdom);
+        assertEquals("The wiki page url should be ", "https://en.wikipedia.org/wiki/Cat",wikiClient.getPageURL(wikiInfoByCanonicalName.get("Felis catus")));
+        assertNull("The wiki page shouldn't exist", wikiInfoByCanonicalName.get("Fran test"));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+package eu.dissco.digitisers.processors;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import eu.dissco.digitisers.utils.FileUtils;
+import net.dona.doip.client.DigitalObject;
+import org.apache.commons.configuration2.Configuration;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DigitalObjectProcessorTest {
+
+    @Test
+    public void visitDigitalSpecimen_deferredEnrichment() throws Exception {
+        Configuration config = FileUtils.loadConfigurationFromResourceFile("config_template.properties");
+        config.setProperty("digitiser.deferEnrichment", true);
+        List<DigitalObject> dsSaved = new ArrayList<DigitalObject>();
+        DigitalObjectProcessor digitalObjectProcessor = new DigitalObjectProcessor(config) {
+            @Override
+            protected DigitalObject saveDigitalSpecimenInRepository(DigitalObject ds) {
+                dsSaved.add(ds);
+                return ds;
+            }
+        };
+
+        //The country is only added by the enrichment, so it is treated as available for the minimum MIDS level
+        DigitalObject ds = this.getDigitalSpecimen("NY-00012345", true);
+        assertNotNull("The digital specimen should be saved ", digitalObjectProcessor.visitDigitalSpecimen(ds));
+        assertTrue("The digital specimen should be pending enrichment ", ds.attributes.getAsJsonObject("content").get("pendingEnrichment").getAsBoolean());
+        assertEquals("The MIDS level should be ", 1, ds.attributes.getAsJsonObject("content").get("midslevel").getAsInt());
+        assertFalse("The digital specimen shouldn't satisfy the minimum MIDS level once its enrichment isn't pending ", this.isMidsLevelSatisfiedWithoutPendingEnrichment(digitalObjectProcessor, ds));
+
+        //Without coordinates, the digital specimen doesn't reach the minimum MIDS level even if it were enriched
+        assertNull("The digital specimen shouldn't be saved ", digitalObjectProcessor.visitDigitalSpecimen(this.getDigitalSpecimen("NY-00012346", false)));
+        assertEquals("The number of digital specimens saved should be ", 1, dsSaved.size());
+    }
+
+    private boolean isMidsLevelSatisfiedWithoutPendingEnrichment(DigitalObjectProcessor digitalObjectProcessor, DigitalObject ds){
+        DigitalObject enrichedDs = new DigitalObject();
+        enrichedDs.type = ds.type;
+        enrichedDs.setAttribute("content", ds.attributes.getAsJsonObject("content").deepCopy());
+        enrichedDs.attributes.getAsJsonObject("content").remove("pendingEnrichment");
+        return digitalObjectProcessor.isMidsLevelSatisfied(enrichedDs);
+    }
+
+    private DigitalObject getDigitalSpecimen(String physicalSpecimenId, boolean withCoordinates){
+        JsonObject dsContent = new JsonObject();
+        dsContent.addProperty("physicalSpecimenId", physicalSpecimenId);
+        dsContent.addProperty("catalogNumber", physicalSpecimenId);
+        dsContent.addProperty("institutionCode", "NY");
+        dsContent.addProperty("scientificName", "Agathis montana");
+        dsContent.addProperty("locality", "Mont Panie");
+        dsContent.addProperty("countryCode", "NC");
+        if (withCoordinates){
+            JsonArray coordinates = new JsonArray();
+            coordinates.add(-20.58);
+            coordinates.add(164.77);
+            dsContent.add("decimalLatLon", coordinates);
+        }
+        DigitalObject ds = new DigitalObject();
+        ds.type = "DigitalSpecimen";
+        ds.setAttribute("content", dsContent);
+        return ds;
+    }
+
+}
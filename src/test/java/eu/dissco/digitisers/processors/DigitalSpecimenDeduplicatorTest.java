@@ -0,0 +1,28 @@
+package eu.dissco.digitisers.processors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DigitalSpecimenDeduplicatorTest {
+
+    @Test
+    public void registerIdentityKey() {
+        DigitalSpecimenDeduplicator deduplicator = DigitalSpecimenDeduplicator.getInstance();
+        deduplicator.clear();
+        assertFalse("The identity key shouldn't be registered before saving its digital specimen", deduplicator.isIdentityKeyRegistered("Agathis montana|NY|1"));
+        deduplicator.registerIdentityKey("Agathis montana|NY|1");
+        assertTrue("The identity key should be registered once its digital specimen is saved", deduplicator.isIdentityKeyRegistered("Agathis montana|NY|1"));
+        assertFalse("Another identity key shouldn't be registered", deduplicator.isIdentityKeyRegistered("Agathis montana|NY|2"));
+        deduplicator.clear();
+        assertFalse("After clearing, the identity key shouldn't be registered", deduplicator.isIdentityKeyRegistered("Agathis montana|NY|1"));
+    }
+
+    @Test
+    public void getIdentityKeyLock() {
+        DigitalSpecimenDeduplicator deduplicator = DigitalSpecimenDeduplicator.getInstance();
+        assertSame("The lock of an identity key should be always the same", deduplicator.getIdentityKeyLock("Agathis montana|NY|1"),
+                deduplicator.getIdentityKeyLock("Agathis montana|NY|1"));
+    }
+
+}
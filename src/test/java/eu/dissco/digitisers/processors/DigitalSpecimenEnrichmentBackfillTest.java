@@ -0,0 +1,46 @@
+package eu.dissco.digitisers.processors;
+
+import org.apache.commons.configuration2.BaseConfiguration;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DigitalSpecimenEnrichmentBackfillTest {
+
+    @Test
+    public void readBatchOfTaxa() throws Exception {
+        BufferedReader reader = new BufferedReader(new StringReader(String.join("\n",
+                "Agathis montana\t20.5000.1025/aaa",
+                "Agathis montana\t20.5000.1025/bbb",
+                "Agathis moorei\t20.5000.1025/ccc",
+                "Agathis moorei\t20.5000.1025/ddd",
+                "Agathis moorei\t20.5000.1025/eee",
+                "Agathis ovata\t20.5000.1025/fff")));
+
+        List<List<String>> batch = DigitalSpecimenEnrichmentBackfill.readBatchOfTaxa(reader, 3);
+        assertEquals("The first batch should be ", Arrays.asList(
+                Arrays.asList("20.5000.1025/aaa", "20.5000.1025/bbb"),
+                Arrays.asList("20.5000.1025/ccc", "20.5000.1025/ddd", "20.5000.1025/eee")), batch);
+        batch = DigitalSpecimenEnrichmentBackfill.readBatchOfTaxa(reader, 3);
+        assertEquals("The second batch should be ", Collections.singletonList(Collections.singletonList("20.5000.1025/fff")), batch);
+        batch = DigitalSpecimenEnrichmentBackfill.readBatchOfTaxa(reader, 3);
+        assertTrue("There shouldn't be more batches", batch.isEmpty());
+    }
+
+    @Test
+    public void getDefaultQuery() throws Exception {
+        BaseConfiguration config = new BaseConfiguration();
+        config.setProperty("digitiser.enrichmentVersion","2");
+        DigitalSpecimenEnrichmentBackfill backfill = new DigitalSpecimenEnrichmentBackfill(config);
+        assertEquals("The default query should be ", "type:DigitalSpecimen AND (/pendingEnrichment:true" +
+                " OR (((*:* -/catOfLifeReference:[* TO *]) OR (*:* -/wikidata:[* TO *])) AND (*:* -/enrichmentVersion:\"2\")))",
+                backfill.getDefaultQuery());
+    }
+
+}
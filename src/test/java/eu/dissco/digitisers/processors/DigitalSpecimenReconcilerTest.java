@@ -0,0 +1,58 @@
+package eu.dissco.digitisers.processors;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class DigitalSpecimenReconcilerTest {
+
+    private static File workDirectory;
+
+    @BeforeClass
+    public static void setup() {
+        workDirectory = com.google.common.io.Files.createTempDir();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        org.apache.commons.io.FileUtils.deleteQuietly(workDirectory);
+    }
+
+    @Test
+    public void findOrphanDigitalSpecimens() throws Exception {
+        File repositoryKeysFile = new File(workDirectory, "repository.txt");
+        Files.write(repositoryKeysFile.toPath(), Arrays.asList(
+                "Agathis montana|NY|1\t20.5000.1025/aaa",
+                "Agathis montana|NY|2\t20.5000.1025/bbb",
+                "Agathis montana|NY|2\t20.5000.1025/ccc",
+                "Agathis montana|NY|3\t20.5000.1025/ddd",
+                "Agathis moorei|NY|4\t20.5000.1025/eee"), StandardCharsets.UTF_8);
+        File archiveKeysFile = new File(workDirectory, "archive.txt");
+        Files.write(archiveKeysFile.toPath(), Arrays.asList(
+                "Agathis montana|NY|0",
+                "Agathis montana|NY|2",
+                "Agathis montana|NY|2",
+                "Agathis moorei|NY|4"), StandardCharsets.UTF_8);
+
+        File orphansFile = new File(workDirectory, "orphans.txt");
+        int numOrphans = DigitalSpecimenReconciler.findOrphanDigitalSpecimens(repositoryKeysFile, archiveKeysFile, orphansFile);
+        assertEquals("The number of orphans should be ", 2, numOrphans);
+        assertEquals("The orphans should be ", Arrays.asList("20.5000.1025/aaa\tAgathis montana|NY|1", "20.5000.1025/ddd\tAgathis montana|NY|3"),
+                Files.readAllLines(orphansFile.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void getReasonNotToActOnOrphans() {
+        assertNull("The action should be applied to the orphans", DigitalSpecimenReconciler.getReasonNotToActOnOrphans(0, 10, 100, 0.1));
+        assertNotNull("The action shouldn't be applied if some records failed", DigitalSpecimenReconciler.getReasonNotToActOnOrphans(1, 10, 100, 0.1));
+        assertNotNull("The action shouldn't be applied if there are too many orphans", DigitalSpecimenReconciler.getReasonNotToActOnOrphans(0, 11, 100, 0.1));
+    }
+
+}
@@ -0,0 +1,78 @@
+package eu.dissco.digitisers.processors;
+
+import com.google.gson.JsonObject;
+import eu.dissco.digitisers.utils.DigitalSpecimenUtils;
+import net.dona.doip.client.DigitalObject;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class FingerprintStoreTest {
+
+    private static File storeDirectory;
+
+    @BeforeClass
+    public static void setup() {
+        storeDirectory = com.google.common.io.Files.createTempDir();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        org.apache.commons.io.FileUtils.deleteQuietly(storeDirectory);
+    }
+
+    @Test
+    public void isUnchanged_savedInFile() {
+        String storeFilePath = new File(storeDirectory, "fingerprints.sqlite").getAbsolutePath();
+        DigitalObject ds = this.getDigitalSpecimen("Agathis montana");
+        String identityKey = DigitalSpecimenUtils.getDsIdentityKey(ds);
+        String fingerprint = FingerprintStore.getFingerprint(ds, "1");
+        assertEquals("The identity key should be ", "Agathis montana|NY|NY-00012345", identityKey);
+        assertNotEquals("The fingerprint of another processing version shouldn't be equal ", fingerprint, FingerprintStore.getFingerprint(ds, "2"));
+        assertNotEquals("The fingerprint of a changed record shouldn't be equal ", fingerprint, FingerprintStore.getFingerprint(this.getDigitalSpecimen("Agathis moorei"), "1"));
+
+        FingerprintStore fingerprintStore = new FingerprintStore(storeFilePath);
+        assertTrue("The store should be enabled ", fingerprintStore.isEnabled());
+        assertFalse("The record shouldn't be unchanged before being processed ", fingerprintStore.isUnchanged(identityKey, fingerprint, 0L));
+        fingerprintStore.putFingerprint(identityKey, fingerprint);
+        assertTrue("The record should be unchanged before the store is flushed ", fingerprintStore.isUnchanged(identityKey, fingerprint, 0L));
+        fingerprintStore.flush();
+
+        FingerprintStore reopenedStore = new FingerprintStore(storeFilePath);
+        assertTrue("The record should be unchanged ", reopenedStore.isUnchanged(identityKey, fingerprint, 0L));
+        assertFalse("The record processed too long ago shouldn't be unchanged ", reopenedStore.isUnchanged(identityKey, fingerprint, System.currentTimeMillis() + 1000L));
+        assertFalse("The record with another fingerprint shouldn't be unchanged ", reopenedStore.isUnchanged(identityKey, FingerprintStore.getFingerprint(ds, "2"), 0L));
+
+        assertEquals("The number of fingerprints removed should be ", 0, reopenedStore.compact(0L));
+        assertEquals("The number of fingerprints removed should be ", 1, reopenedStore.compact(System.currentTimeMillis() + 1000L));
+        assertFalse("The record shouldn't be unchanged after compacting the store ", reopenedStore.isUnchanged(identityKey, fingerprint, 0L));
+
+        reopenedStore.putFingerprint(identityKey, fingerprint);
+        reopenedStore.close();
+        assertFalse("The store shouldn't be enabled once closed ", reopenedStore.isEnabled());
+        assertTrue("The record should be unchanged after closing the store ", new FingerprintStore(storeFilePath).isUnchanged(identityKey, fingerprint, 0L));
+    }
+
+    @Test
+    public void isEnabled_withoutFile() {
+        FingerprintStore fingerprintStore = new FingerprintStore("");
+        assertFalse("The store shouldn't be enabled ", fingerprintStore.isEnabled());
+        assertFalse("The record shouldn't be unchanged ", fingerprintStore.isUnchanged("NY|NY-00012345", "fingerprint", 0L));
+    }
+
+    private DigitalObject getDigitalSpecimen(String scientificName){
+        JsonObject dsContent = new JsonObject();
+        dsContent.addProperty("physicalSpecimenId", "NY-00012345");
+        dsContent.addProperty("institutionCode", "NY");
+        dsContent.addProperty("scientificName", scientificName);
+        DigitalObject ds = new DigitalObject();
+        ds.type = "DigitalSpecimen";
+        ds.setAttribute("content", dsContent);
+        return ds;
+    }
+
+}
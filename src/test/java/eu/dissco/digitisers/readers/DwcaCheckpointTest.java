@@ -0,0 +1,79 @@
+package eu.dissco.digitisers.readers;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class DwcaCheckpointTest {
+
+    private static File checkpointDirectory;
+
+    @BeforeClass
+    public static void setup() {
+        checkpointDirectory = com.google.common.io.Files.createTempDir();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        org.apache.commons.io.FileUtils.deleteQuietly(checkpointDirectory);
+    }
+
+    @Test
+    public void resumeFromCheckpoint() {
+        DwcaCheckpoint checkpoint = new DwcaCheckpoint(checkpointDirectory, "checksum1", "archive.zip", 60);
+        for (long row = 1; row <= 5; row++) {
+            checkpoint.startRow(row, "id" + row);
+        }
+        //Rows finished out of order
+        checkpoint.finishRow(1);
+        checkpoint.finishRow(2);
+        checkpoint.finishRow(4);
+        assertEquals("The last processed row should be ", 2, checkpoint.getLastProcessedRow());
+        checkpoint.close();
+
+        DwcaCheckpoint resumedCheckpoint = new DwcaCheckpoint(checkpointDirectory, "checksum1", "archive.zip", 60);
+        assertEquals("The last processed row should be ", 2, resumedCheckpoint.getLastProcessedRow());
+        assertTrue("The row 2 should be processed ", resumedCheckpoint.isRowProcessed(2));
+        assertFalse("The row 3 (in flight) shouldn't be processed ", resumedCheckpoint.isRowProcessed(3));
+        assertTrue("The row 4 should be processed ", resumedCheckpoint.isRowProcessed(4));
+        assertFalse("The row 5 (in flight) shouldn't be processed ", resumedCheckpoint.isRowProcessed(5));
+
+        resumedCheckpoint.startRow(3, "id3");
+        resumedCheckpoint.finishRow(3);
+        assertEquals("The last processed row should be ", 4, resumedCheckpoint.getLastProcessedRow());
+        resumedCheckpoint.complete();
+        assertTrue("The archive should be completed ", new DwcaCheckpoint(checkpointDirectory, "checksum1", "archive.zip", 60).isCompleted());
+
+        resumedCheckpoint.delete();
+        assertFalse("The checkpoint file shouldn't exist ", resumedCheckpoint.getCheckpointFile().exists());
+        assertEquals("The last processed row should be ", 0, new DwcaCheckpoint(checkpointDirectory, "checksum1", "archive.zip", 60).getLastProcessedRow());
+    }
+
+    @Test
+    public void failedRowsAreProcessedAgain() {
+        DwcaCheckpoint checkpoint = new DwcaCheckpoint(checkpointDirectory, "checksum2", "archive.zip", 60);
+        for (long row = 1; row <= 3; row++) {
+            checkpoint.startRow(row, "id" + row);
+        }
+        checkpoint.finishRow(1);
+        checkpoint.failRow(2);
+        checkpoint.finishRow(3);
+        assertEquals("The last processed row should move past a failed row ", 3, checkpoint.getLastProcessedRow());
+        assertFalse("The row 2 (failed) shouldn't be processed ", checkpoint.isRowProcessed(2));
+        checkpoint.close();
+
+        DwcaCheckpoint resumedCheckpoint = new DwcaCheckpoint(checkpointDirectory, "checksum2", "archive.zip", 60);
+        assertFalse("The row 2 (failed) shouldn't be processed ", resumedCheckpoint.isRowProcessed(2));
+        assertTrue("The row 3 should be processed ", resumedCheckpoint.isRowProcessed(3));
+        resumedCheckpoint.startRow(2, "id2");
+        resumedCheckpoint.finishRow(2);
+        resumedCheckpoint.close();
+        assertTrue("The row 2 should be processed ", new DwcaCheckpoint(checkpointDirectory, "checksum2", "archive.zip", 60).isRowProcessed(2));
+        resumedCheckpoint.delete();
+    }
+
+}
@@ -0,0 +1,55 @@
+package eu.dissco.digitisers.readers;
+
+import eu.dissco.digitisers.utils.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DwcaSnapshotDiffTest {
+
+    private static File workDirectory;
+
+    @BeforeClass
+    public static void setup() {
+        workDirectory = com.google.common.io.Files.createTempDir();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        org.apache.commons.io.FileUtils.deleteQuietly(workDirectory);
+    }
+
+    @Test
+    public void diffSortedRecordFingerprints() throws Exception {
+        File previousFingerprintsFile = this.getSortedFingerprints("previous", Arrays.asList("3\tc", "1\ta", "10\tj", "2\tb", "5\te"));
+        File newFingerprintsFile = this.getSortedFingerprints("new", Arrays.asList("4\td", "1\ta", "2\tB", "10\tj", "11\tk"));
+
+        DwcaSnapshotDiff dwcaSnapshotDiff = new DwcaSnapshotDiff();
+        dwcaSnapshotDiff.diffSortedRecordFingerprints(previousFingerprintsFile, newFingerprintsFile, new File(workDirectory, "removed.txt"));
+        assertEquals("The number of records added should be ", 2, dwcaSnapshotDiff.getNumAdded());
+        assertEquals("The number of records changed should be ", 1, dwcaSnapshotDiff.getNumChanged());
+        assertEquals("The number of records unchanged should be ", 2, dwcaSnapshotDiff.getNumUnchanged());
+        assertEquals("The number of records removed should be ", 2, dwcaSnapshotDiff.getNumRemoved());
+        assertEquals("The records to digitise should be ", new HashSet<String>(Arrays.asList("2", "4", "11")), dwcaSnapshotDiff.getAddedOrChangedCoreIds());
+        assertEquals("The records removed should be ", Arrays.asList("3", "5"), Files.readAllLines(dwcaSnapshotDiff.getRemovedCoreIdsFile().toPath(), StandardCharsets.UTF_8));
+    }
+
+    private File getSortedFingerprints(String name, List<String> lines) throws Exception {
+        File fingerprintsFile = new File(workDirectory, name + ".txt");
+        File sortedFingerprintsFile = new File(workDirectory, name + ".sorted.txt");
+        Files.write(fingerprintsFile.toPath(), lines, StandardCharsets.UTF_8);
+        //Sort in chunks of 2 lines, so the chunks have to be merged
+        FileUtils.sortLines(fingerprintsFile, sortedFingerprintsFile, 2);
+        return sortedFingerprintsFile;
+    }
+
+}
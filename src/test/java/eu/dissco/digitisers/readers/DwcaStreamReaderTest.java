@@ -0,0 +1,77 @@
+package eu.dissco.digitisers.readers;
+
+import com.google.common.io.Resources;
+import eu.dissco.digitisers.processors.DigitalObjectVisitor;
+import net.dona.doip.client.DigitalObject;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class DwcaStreamReaderTest {
+
+    private final static Logger logger = LoggerFactory.getLogger(DwcaStreamReaderTest.class);
+
+    @Test
+    public void testParseDwcaStreamToDigitalSpecimens_small() throws Exception {
+        String dwcaFilePath = "GBIF_DwC-a/small/0031773-190918142434337_Agathis_montana.zip";
+        List<DigitalObject> digitalSpecimens = new ArrayList<DigitalObject>();
+        DigitalObjectVisitor digitalObjectVisitor = ds -> {
+            digitalSpecimens.add(ds);
+            return null;
+        };
+
+        DwcaStreamReader dwcaStreamReader = new DwcaStreamReader();
+        int rows;
+        try (InputStream inputStream = Resources.getResource(dwcaFilePath).openStream()) {
+            rows = dwcaStreamReader.readDigitalSpecimensFromDwcaStream(inputStream, dwcaFilePath, digitalObjectVisitor);
+        }
+        logger.debug(digitalSpecimens.get(0).attributes.getAsJsonObject("content").toString());
+        assertEquals("The number of rows should be ", 48, rows);
+        assertTrue("The core file should be read ", dwcaStreamReader.isCoreRead());
+        assertEquals("The number of digital specimens should be ", 44, digitalSpecimens.size());
+        //GBIF downloads have the multimedia file after the core file, so the records with media are held back until it
+        //is read, and they are processed only once with their images
+        assertEquals("The number of records with late multimedia should be ", 0, dwcaStreamReader.getCoreIdsWithLateMultimedia().size());
+        assertEquals("The number of records held back should be ", 24, dwcaStreamReader.getHeldCoreIds().size());
+        assertEquals("The number of digital specimens with images should be ", 20, digitalSpecimens.stream()
+                .filter(ds -> ds.attributes.getAsJsonObject("content").has("availableImages")).count());
+        assertTrue("The gbifId should be an occurrence url ", digitalSpecimens.get(0).attributes.getAsJsonObject("content").get("gbifId").getAsString().startsWith("https://www.gbif.org/occurrence/"));
+    }
+
+    @Test
+    public void testParseDwcaStreamToDigitalSpecimens_coreBeforeDescriptor() throws Exception {
+        //The core file is only known from meta.xml, which comes after it, so it can't be read from the stream
+        ByteArrayOutputStream zipBytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zipStream = new ZipOutputStream(zipBytes)) {
+            zipStream.putNextEntry(new ZipEntry("data.txt"));
+            zipStream.write("id\tscientificName\n1\tAgathis montana\n".getBytes(StandardCharsets.UTF_8));
+            zipStream.closeEntry();
+            zipStream.putNextEntry(new ZipEntry("meta.xml"));
+            zipStream.write(("<archive xmlns=\"http://rs.tdwg.org/dwc/text/\"><core rowType=\"http://rs.tdwg.org/dwc/terms/Occurrence\" " +
+                    "fieldsTerminatedBy=\"\\t\" linesTerminatedBy=\"\\n\" ignoreHeaderLines=\"1\"><files><location>data.txt</location></files>" +
+                    "<id index=\"0\"/><field index=\"1\" term=\"http://rs.tdwg.org/dwc/terms/scientificName\"/></core></archive>").getBytes(StandardCharsets.UTF_8));
+            zipStream.closeEntry();
+        }
+        List<DigitalObject> digitalSpecimens = new ArrayList<DigitalObject>();
+        DwcaStreamReader dwcaStreamReader = new DwcaStreamReader();
+        int rows = dwcaStreamReader.readDigitalSpecimensFromDwcaStream(new ByteArrayInputStream(zipBytes.toByteArray()), "coreBeforeDescriptor.zip", ds -> {
+            digitalSpecimens.add(ds);
+            return null;
+        });
+        assertEquals("The number of rows should be ", 0, rows);
+        assertEquals("The number of digital specimens should be ", 0, digitalSpecimens.size());
+        assertFalse("The core file shouldn't be read ", dwcaStreamReader.isCoreRead());
+    }
+
+}
@@ -0,0 +1,46 @@
+package eu.dissco.digitisers.readers;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import eu.dissco.digitisers.processors.DigitalObjectVisitor;
+import net.dona.doip.client.DigitalObject;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GbifOccurrenceReaderTest {
+
+    private final static Logger logger = LoggerFactory.getLogger(GbifOccurrenceReaderTest.class);
+
+    @Test
+    public void testParseOccurrencesToDigitalSpecimens() throws Exception {
+        JsonArray occurrences = new Gson().fromJson("[" +
+                "{\"key\":1928374650,\"basisOfRecord\":\"PRESERVED_SPECIMEN\",\"acceptedScientificName\":\"Agathis montana de Laub.\"," +
+                "\"institutionCode\":\"P\",\"collectionCode\":\"P\",\"catalogNumber\":\"P00734391\",\"decimalLatitude\":-20.9,\"decimalLongitude\":165.1," +
+                "\"kingdomKey\":6,\"issues\":[\"COORDINATE_ROUNDED\"],\"media\":[{\"type\":\"StillImage\",\"format\":\"image/jpeg\",\"identifier\":\"http://mediaphoto.mnhn.fr/media/1.jpg\",\"rightsHolder\":\"MNHN\"}]}," +
+                "{\"key\":1928374651,\"basisOfRecord\":\"HUMAN_OBSERVATION\",\"acceptedScientificName\":\"Agathis montana de Laub.\",\"institutionCode\":\"P\"}]", JsonArray.class);
+        List<DigitalObject> digitalSpecimens = new ArrayList<DigitalObject>();
+        DigitalObjectVisitor digitalObjectVisitor = ds -> {
+            digitalSpecimens.add(ds);
+            return null;
+        };
+
+        GbifOccurrenceReader occurrenceReader = new GbifOccurrenceReader();
+        int numDsParsed = occurrenceReader.readDigitalSpecimensFromOccurrences(occurrences,digitalObjectVisitor);
+        assertEquals("The number of digital specimens should be ", 1, numDsParsed);
+
+        JsonObject dsContent = digitalSpecimens.get(0).attributes.getAsJsonObject("content");
+        logger.debug(dsContent.toString());
+        assertEquals("The physicalSpecimenId should be ", "P00734391", dsContent.get("physicalSpecimenId").getAsString());
+        assertEquals("The gbifId should be ", "https://www.gbif.org/occurrence/1928374650", dsContent.get("gbifId").getAsString());
+        assertEquals("The latitude should be ", -20.9, dsContent.getAsJsonArray("decimalLatLon").get(0).getAsDouble(), 0);
+        assertEquals("The number of images should be ", 1, dsContent.getAsJsonArray("availableImages").size());
+        assertEquals("The kingdom key should be ", "6", dsContent.getAsJsonObject("dwcaContent").getAsJsonObject("core").getAsJsonObject("content").get("gbif:kingdomKey").getAsString());
+    }
+}
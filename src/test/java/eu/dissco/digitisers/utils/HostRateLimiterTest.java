@@ -0,0 +1,46 @@
+package eu.dissco.digitisers.utils;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.*;
+
+public class HostRateLimiterTest {
+
+    private final static Logger logger = LoggerFactory.getLogger(HostRateLimiterTest.class);
+
+    @Test
+    public void onResponse_tooManyRequests() {
+        HostRateLimiter rateLimiter = HostRateLimiter.getInstance();
+        String host = "throttled.example.org";
+        double initialRate = rateLimiter.getRequestsPerSecond(host);
+        rateLimiter.onResponse(host,429,"0");
+        assertEquals("The rate should be ", initialRate*rateLimiter.getMultiplicativeDecrease(), rateLimiter.getRequestsPerSecond(host), 0.0001);
+    }
+
+    @Test
+    public void onResponse_success() {
+        HostRateLimiter rateLimiter = HostRateLimiter.getInstance();
+        String host = "ok.example.org";
+        double initialRate = rateLimiter.getRequestsPerSecond(host);
+        rateLimiter.onResponse(host,200,null);
+        assertEquals("The rate should be ", initialRate+rateLimiter.getAdditiveIncrease(), rateLimiter.getRequestsPerSecond(host), 0.0001);
+    }
+
+    @Test
+    public void acquire_retryAfter() throws InterruptedException {
+        HostRateLimiter rateLimiter = HostRateLimiter.getInstance();
+        String host = "retryafter.example.org";
+        rateLimiter.onResponse(host,503,"1");
+        long start = System.currentTimeMillis();
+        rateLimiter.acquire(host);
+        assertTrue("The request should wait the time indicated in the Retry-After header", System.currentTimeMillis()-start >= 900);
+    }
+
+    @Test
+    public void getHostFromUrl() {
+        assertEquals("The host should be ", "api.gbif.org", HostRateLimiter.getHostFromUrl("http://api.gbif.org/v1/species/1"));
+    }
+
+}
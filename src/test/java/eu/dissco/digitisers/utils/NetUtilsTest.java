@@ -1,12 +1,21 @@
 package eu.dissco.digitisers.utils;
 
+import com.google.common.hash.Hashing;
 import com.maxmind.geoip2.exception.GeoIp2Exception;
 import com.maxmind.geoip2.model.CountryResponse;
+import com.sun.net.httpserver.HttpServer;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -37,4 +46,136 @@ public class NetUtilsTest {
         CountryResponse countryResponse = NetUtils.getCountryInfoFromUrl(url);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void downloadFile_inRanges() throws Exception {
+        //File a bit bigger than a chunk, served by a local server that supports byte ranges
+        byte[] content = new byte[(HttpTransport.getInstance().getDownloadChunkSizeMB() + 1) * 1024 * 1024];
+        new Random(1).nextBytes(content);
+        String md5 = Hashing.md5().hashBytes(content).toString();
+        AtomicInteger numRangeRequests = new AtomicInteger(0);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/file.zip", exchange -> {
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+            exchange.getResponseHeaders().add("ETag", "\"" + md5 + "\"");
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            int start = 0, end = content.length - 1, status = 200;
+            if (range!=null){
+                numRangeRequests.incrementAndGet();
+                String[] limits = range.substring("bytes=".length()).split("-");
+                start = Integer.parseInt(limits[0]);
+                end = Integer.parseInt(limits[1]);
+                status = 206;
+            }
+            if (exchange.getRequestMethod().equals("HEAD")){
+                exchange.getResponseHeaders().add("Content-Length", String.valueOf(content.length));
+                exchange.sendResponseHeaders(status, -1);
+            } else{
+                exchange.sendResponseHeaders(status, end - start + 1);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(content, start, end - start + 1);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        try{
+            File file = NetUtils.downloadFile("http://127.0.0.1:" + server.getAddress().getPort() + "/file.zip");
+            assertEquals("The md5 of the file should be ", md5, com.google.common.io.Files.asByteSource(file).hash(Hashing.md5()).toString());
+            assertEquals("The number of range requests should be ", 2, numRangeRequests.get());
+            file.delete();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void downloadFile_resumeRanges() throws Exception {
+        //The second range fails until the server is fixed, so the first download fails and the second one resumes it
+        byte[] content = new byte[(HttpTransport.getInstance().getDownloadChunkSizeMB() + 1) * 1024 * 1024];
+        new Random(2).nextBytes(content);
+        String md5 = Hashing.md5().hashBytes(content).toString();
+        AtomicInteger numRangeRequests = new AtomicInteger(0);
+        AtomicBoolean failSecondRange = new AtomicBoolean(true);
+        HttpServer server = this.createRangesServer(content, "\"" + md5 + "\"", numRangeRequests, failSecondRange);
+        server.start();
+        try{
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/file.zip";
+            File partialFile = this.getRangedDownloadFile(url);
+            try{
+                NetUtils.downloadFile(url);
+                fail("The download should fail");
+            } catch (IOException e){
+                assertTrue("The partial file should be kept ", partialFile.exists());
+                assertTrue("The state of the download should be kept ", new File(partialFile.getAbsolutePath() + ".state.json").exists());
+            }
+
+            failSecondRange.set(false);
+            numRangeRequests.set(0);
+            File file = NetUtils.downloadFile(url);
+            assertEquals("The md5 of the file should be ", md5, com.google.common.io.Files.asByteSource(file).hash(Hashing.md5()).toString());
+            assertEquals("The number of range requests should be ", 1, numRangeRequests.get());
+            assertFalse("The state of the download should be deleted ", new File(file.getAbsolutePath() + ".state.json").exists());
+            file.delete();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void downloadFile_notResumableRanges() throws Exception {
+        //Without ETag or Last-Modified the download can't be resumed, so the partial file is deleted when it fails
+        byte[] content = new byte[(HttpTransport.getInstance().getDownloadChunkSizeMB() + 1) * 1024 * 1024];
+        new Random(3).nextBytes(content);
+        HttpServer server = this.createRangesServer(content, null, new AtomicInteger(0), new AtomicBoolean(true));
+        server.start();
+        try{
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/file.zip";
+            File partialFile = this.getRangedDownloadFile(url);
+            try{
+                NetUtils.downloadFile(url);
+                fail("The download should fail");
+            } catch (IOException e){
+                assertFalse("The partial file should be deleted ", partialFile.exists());
+                assertFalse("The state of the download shouldn't exist ", new File(partialFile.getAbsolutePath() + ".state.json").exists());
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private HttpServer createRangesServer(byte[] content, String etag, AtomicInteger numRangeRequests, AtomicBoolean failSecondRange) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/file.zip", exchange -> {
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+            if (etag!=null) exchange.getResponseHeaders().add("ETag", etag);
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            int start = 0, end = content.length - 1, status = 200;
+            if (range!=null){
+                numRangeRequests.incrementAndGet();
+                String[] limits = range.substring("bytes=".length()).split("-");
+                start = Integer.parseInt(limits[0]);
+                end = Integer.parseInt(limits[1]);
+                status = 206;
+            }
+            if (exchange.getRequestMethod().equals("HEAD")){
+                exchange.getResponseHeaders().add("Content-Length", String.valueOf(content.length));
+                exchange.sendResponseHeaders(status, -1);
+            } else if (start>0 && failSecondRange.get()){
+                exchange.sendResponseHeaders(500, -1);
+            } else{
+                exchange.sendResponseHeaders(status, end - start + 1);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(content, start, end - start + 1);
+                }
+            }
+            exchange.close();
+        });
+        return server;
+    }
+
+    private File getRangedDownloadFile(String url){
+        String fileId = Hashing.sha256().hashString(url, StandardCharsets.UTF_8).toString().substring(0,16);
+        return new File(System.getProperty("java.io.tmpdir"), "download-" + fileId + "-file.zip");
+    }
+
+}
@@ -0,0 +1,52 @@
+package eu.dissco.digitisers.utils;
+
+import com.google.gson.JsonObject;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.*;
+
+public class ScientificNameUtilsTest {
+
+    private final static Logger logger = LoggerFactory.getLogger(ScientificNameUtilsTest.class);
+
+    @Test
+    public void parseName_binomialWithAuthorParticle() {
+        JsonObject parsedName = ScientificNameUtils.parseName("Agathis montana de Laub.");
+        assertEquals("The canonical name should be ", "Agathis montana", parsedName.get("canonicalName").getAsString());
+        assertEquals("The authorship should be ", "de Laub.", parsedName.get("authorship").getAsString());
+    }
+
+    @Test
+    public void parseName_bracketAuthorship() {
+        JsonObject parsedName = ScientificNameUtils.parseName("Bombus (Bombus) terrestris (Linnaeus, 1758)");
+        assertEquals("The canonical name should be ", "Bombus terrestris", parsedName.get("canonicalName").getAsString());
+        assertEquals("The subgenus should be ", "Bombus", parsedName.get("infraGeneric").getAsString());
+        assertEquals("The bracket authorship should be ", "Linnaeus", parsedName.get("bracketAuthorship").getAsString());
+        assertEquals("The bracket year should be ", "1758", parsedName.get("bracketYear").getAsString());
+    }
+
+    @Test
+    public void parseName_infraspecific() {
+        JsonObject parsedName = ScientificNameUtils.parseName("Poa annua L. var. aquatica Asch.");
+        assertEquals("The canonical name should be ", "Poa annua aquatica", parsedName.get("canonicalName").getAsString());
+        assertEquals("The canonical name with marker should be ", "Poa annua var. aquatica", parsedName.get("canonicalNameWithMarker").getAsString());
+        assertEquals("The canonical name should be ", "Parus major major", ScientificNameUtils.parseName("Parus major major Linnaeus, 1758").get("canonicalName").getAsString());
+    }
+
+    @Test
+    public void parseName_uninomialAndHybrid() {
+        assertEquals("The canonical name should be ", "Animalia", ScientificNameUtils.parseName("Animalia").get("canonicalName").getAsString());
+        JsonObject parsedName = ScientificNameUtils.parseName("Mentha \u00D7piperita L.");
+        assertEquals("The canonical name should be ", "Mentha piperita", parsedName.get("canonicalName").getAsString());
+        assertEquals("The type should be ", "HYBRID", parsedName.get("type").getAsString());
+    }
+
+    @Test
+    public void parseName_unparsable() {
+        assertNull("The name shouldn't be parsed", ScientificNameUtils.parseName("Quercus robur \u00D7 Quercus petraea"));
+        assertNull("The name shouldn't be parsed", ScientificNameUtils.parseName("BOLD:AAA1234"));
+        assertNull("The name shouldn't be parsed", ScientificNameUtils.parseName(" "));
+    }
+}